@@ -29,6 +29,7 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
@@ -581,6 +582,19 @@ public abstract class FileSystem extends Configured implements Closeable {
         return true;
     }
 
+    /**
+     * Hint that files are about to be read by many readers, so that a file
+     * system that adapts the replication of files to their popularity can
+     * raise it before the reads start. The default does nothing.
+     *
+     * @param files the files about to be read
+     * @param readers the number of readers expected for each file
+     * @throws IOException
+     */
+    public void prefetchReplication(Path[] files, int[] readers)
+            throws IOException {
+    }
+
     /**
      * Renames Path src to Path dst.  Can take place on local fs
      * or remote DFS.
@@ -718,6 +732,44 @@ public abstract class FileSystem extends Configured implements Closeable {
      */
     public abstract FileStatus[] listStatus(Path f) throws IOException;
 
+    /**
+     * List the statuses of the files/directories in the given path if the path is
+     * a directory, fetching them as they are iterated over. File systems that
+     * can list a directory in parts, like HDFS, hold only a part of a large
+     * directory in memory at a time; the default implementation lists the
+     * whole directory with {@link #listStatus(Path)}.
+     *
+     * @param f
+     *          given path
+     * @return an iterator over the statuses of the files/directories in the
+     *         given path, or null if the path does not exist
+     * @throws IOException
+     */
+    public ListingIterator listStatusIterator(final Path f) throws IOException {
+        final FileStatus[] listing = listStatus(f);
+        if (listing == null) {
+            return null;
+        }
+        return new ListingIterator() {
+            private int i = 0;
+
+            public int size() {
+                return listing.length;
+            }
+
+            public boolean hasNext() {
+                return i < listing.length;
+            }
+
+            public FileStatus next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more entry in " + f);
+                }
+                return listing[i++];
+            }
+        };
+    }
+
     /*
      * Filter files/directories in the given path using the user-supplied path
      * filter. Results are added to the given array <code>results</code>.
@@ -130,6 +130,11 @@ public class FilterFileSystem extends FileSystem {
         return fs.setReplication(src, replication);
     }
 
+    /** {@inheritDoc} */
+    public void prefetchReplication(Path[] files, int[] readers) throws IOException {
+        fs.prefetchReplication(files, readers);
+    }
+
     /**
      * Renames Path src to Path dst.  Can take place on local fs
      * or remote DFS.
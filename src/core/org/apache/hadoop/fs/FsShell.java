@@ -55,6 +55,8 @@ public class FsShell extends Configured implements Tool {
     protected static final SimpleDateFormat modifFmt =
             new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     static final int BORDER = 2;
+    /** Entries printed with the same column widths by ls. */
+    static final int LS_CHUNK_SIZE = 1000;
 
     static {
         modifFmt.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -591,25 +593,42 @@ public class FsShell extends Configured implements Tool {
 
     /* list all files under the directory <i>src</i>
      * ideally we should provide "-l" option, that lists like "ls -l".
+     * A directory is read through listStatusIterator and printed in chunks
+     * of LS_CHUNK_SIZE entries, so a huge directory is never held whole;
+     * the columns are aligned within a chunk. The "Found N items" header
+     * takes its count from the start of the listing.
      */
     private int ls(FileStatus src, FileSystem srcFs, boolean recursive,
                    boolean printHeader) throws IOException {
         final String cmd = recursive ? "lsr" : "ls";
-        final FileStatus[] items = shellListStatus(cmd, srcFs, src);
+        ListingIterator items = shellListStatusIterator(cmd, srcFs, src);
         if (items == null) {
             return 1;
-        } else {
-            int numOfErrors = 0;
-            if (!recursive && printHeader) {
-                if (items.length != 0) {
-                    System.out.println("Found " + items.length + " items");
+        }
+        if (!recursive && printHeader) {
+            if (items.size() != 0) {
+                System.out.println("Found " + items.size() + " items");
+            }
+        }
+        int numOfErrors = 0;
+        List<FileStatus> chunk = new ArrayList<FileStatus>();
+        boolean more;
+        do {
+            chunk.clear();
+            try {
+                while (chunk.size() < LS_CHUNK_SIZE && items.hasNext()) {
+                    chunk.add(items.next());
                 }
+                more = items.hasNext();
+            } catch (IOException e) {
+                System.err.println(cmd +
+                        ": could not get get listing for '" + src.getPath() + "' : " +
+                        e.getMessage().split("\n")[0]);
+                return numOfErrors + 1;
             }
-
             int maxReplication = 3, maxLen = 10, maxOwner = 0, maxGroup = 0;
 
-            for (int i = 0; i < items.length; i++) {
-                FileStatus stat = items[i];
+            for (FileStatus stat : chunk) {
                 int replication = String.valueOf(stat.getReplication()).length();
                 int len = String.valueOf(stat.getLen()).length();
                 int owner = String.valueOf(stat.getOwner()).length();
@@ -621,8 +640,7 @@ public class FsShell extends Configured implements Tool {
                 if (group > maxGroup) maxGroup = group;
             }
 
-            for (int i = 0; i < items.length; i++) {
-                FileStatus stat = items[i];
+            for (FileStatus stat : chunk) {
                 Path cur = stat.getPath();
                 String mdate = dateForm.format(new Date(stat.getModificationTime()));
 
@@ -641,8 +659,8 @@ public class FsShell extends Configured implements Tool {
                     numOfErrors += ls(stat, srcFs, recursive, printHeader);
                 }
             }
-            return numOfErrors;
-        }
+        } while (more);
+        return numOfErrors;
     }
 
     /**
@@ -1188,6 +1206,47 @@ public class FsShell extends Configured implements Tool {
     }
 
 
+    /** helper returns listStatusIterator(), or the file itself */
+    private static ListingIterator shellListStatusIterator(String cmd,
+                                                           FileSystem srcFs,
+                                                           final FileStatus src) {
+        if (!src.isDir()) {
+            return new ListingIterator() {
+                private boolean done = false;
+
+                public int size() {
+                    return 1;
+                }
+
+                public boolean hasNext() {
+                    return !done;
+                }
+
+                public FileStatus next() {
+                    if (done) {
+                        throw new NoSuchElementException();
+                    }
+                    done = true;
+                    return src;
+                }
+            };
+        }
+        Path path = src.getPath();
+        try {
+            ListingIterator files = srcFs.listStatusIterator(path);
+            if (files == null) {
+                System.err.println(cmd +
+                        ": could not get listing for '" + path + "'");
+            }
+            return files;
+        } catch (IOException e) {
+            System.err.println(cmd +
+                    ": could not get get listing for '" + path + "' : " +
+                    e.getMessage().split("\n")[0]);
+        }
+        return null;
+    }
+
     /**
      * Runs the command on a given file with the command handler.
      * If recursive is set, command is run recursively.
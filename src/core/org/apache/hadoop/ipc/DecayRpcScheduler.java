@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Assigns calls to the priority levels of a {@link FairCallQueue} by the
+ * share of the recent calls that their user issued. Level 0 is served
+ * first. A user with at least 1/2 of the recent calls goes to the last
+ * level, with at least 1/4 to the one before, and so on; the counts decay
+ * by ipc.server.callqueue.decay.factor every
+ * ipc.server.callqueue.decay.period.ms, so a user that stops hammering the
+ * server climbs back up.
+ */
+class DecayRpcScheduler {
+    private final int numLevels;
+    // thresholds[i - 1]: the smallest share of the calls that puts a user at level i
+    private final double[] thresholds;
+    private final long decayPeriod;
+    private final double decayFactor;
+
+    private final ConcurrentHashMap<String, AtomicLong> callCounts =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong totalCalls = new AtomicLong();
+    private volatile long nextDecay;
+
+    DecayRpcScheduler(int numLevels, Configuration conf) {
+        this.numLevels = numLevels;
+        this.decayPeriod = conf.getLong("ipc.server.callqueue.decay.period.ms", 5000);
+        this.decayFactor = conf.getFloat("ipc.server.callqueue.decay.factor", 0.5f);
+        if (decayFactor < 0 || decayFactor >= 1) {
+            throw new IllegalArgumentException(
+                    "ipc.server.callqueue.decay.factor must be in [0, 1): " + decayFactor);
+        }
+        thresholds = new double[numLevels - 1];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = 1.0 / (1L << (numLevels - 1 - i));
+        }
+        nextDecay = System.currentTimeMillis() + decayPeriod;
+    }
+
+    /**
+     * Count a call and get its priority level.
+     * @return a level in [0, numLevels)
+     */
+    int getPriorityLevel(Schedulable call) {
+        long now = System.currentTimeMillis();
+        if (now >= nextDecay) {
+            decay(now);
+        }
+        String user = call.getUserName();
+        AtomicLong count = callCounts.get(user);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = callCounts.putIfAbsent(user, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        long calls = count.incrementAndGet();
+        long total = totalCalls.incrementAndGet();
+        return levelOf((double) calls / total);
+    }
+
+    private int levelOf(double share) {
+        for (int level = numLevels - 1; level > 0; level--) {
+            if (share >= thresholds[level - 1]) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Scale the counts down, and forget the users whose count drops to 0.
+     * The calls counted while it runs may be scaled or not.
+     */
+    private synchronized void decay(long now) {
+        if (now < nextDecay) {
+            return;     // another thread did it
+        }
+        long total = 0;
+        for (Iterator<Map.Entry<String, AtomicLong>> it = callCounts.entrySet().iterator();
+             it.hasNext(); ) {
+            AtomicLong count = it.next().getValue();
+            long decayed = (long) (count.get() * decayFactor);
+            if (decayed == 0) {
+                it.remove();
+            } else {
+                count.set(decayed);
+                total += decayed;
+            }
+        }
+        totalCalls.set(total);
+        nextDecay = now + decayPeriod;
+    }
+
+    /** The number of users that issued calls recently. */
+    int getNumUsers() {
+        return callCounts.size();
+    }
+}
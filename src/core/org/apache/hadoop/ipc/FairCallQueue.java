@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
+
+/**
+ * A call queue that keeps one user from starving the others.
+ * <p>
+ * It holds ipc.server.callqueue.levels queues, each of the capacity of the
+ * plain call queue. A {@link DecayRpcScheduler} puts a call on the level
+ * of the share of the recent calls its user issued, so a user hammering
+ * the server only fills the last level. The handlers take calls from the
+ * levels in weighted round robin, 2^(levels - 1 - i) calls from level i
+ * in turn, so every level is served and level 0 most often.
+ * <p>
+ * Set ipc.server.callqueue.impl to this class to use it in a
+ * {@link Server}. It publishes the length of each level and the calls put
+ * on it in the record "callqueue" of the context "rpc".
+ */
+public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
+        implements BlockingQueue<E> {
+    public static final Log LOG = LogFactory.getLog(FairCallQueue.class);
+
+    private final List<BlockingQueue<E>> queues;
+    private final DecayRpcScheduler scheduler;
+    // one permit per queued call, so that take() can wait on all the levels
+    private final Semaphore queued = new Semaphore(0);
+
+    // weighted round robin: the level served next and the calls taken from it
+    private final int[] weights;
+    private int currentLevel = 0;
+    private int takenFromLevel = 0;
+
+    private final CallQueueMetrics metrics;
+
+    /**
+     * @param capacity the capacity of each level
+     * @param port the port of the server, to tag the metrics
+     */
+    public FairCallQueue(int capacity, String port, Configuration conf) {
+        int numLevels = conf.getInt("ipc.server.callqueue.levels", 4);
+        if (numLevels < 1) {
+            throw new IllegalArgumentException(
+                    "ipc.server.callqueue.levels must be positive: " + numLevels);
+        }
+        queues = new ArrayList<BlockingQueue<E>>(numLevels);
+        weights = new int[numLevels];
+        for (int i = 0; i < numLevels; i++) {
+            queues.add(new LinkedBlockingQueue<E>(capacity));
+            weights[i] = 1 << Math.min(numLevels - 1 - i, 30);
+        }
+        scheduler = new DecayRpcScheduler(numLevels, conf);
+        metrics = port == null ? null : new CallQueueMetrics(port);
+        LOG.info("Fair call queue of " + numLevels + " levels of " + capacity + " calls");
+    }
+
+    /** The number of priority levels. */
+    public int getNumLevels() {
+        return queues.size();
+    }
+
+    /** The number of calls queued on each level. */
+    public int[] getQueueSizes() {
+        int[] sizes = new int[queues.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = queues.get(i).size();
+        }
+        return sizes;
+    }
+
+    private void queued(int level) {
+        queued.release();
+        if (metrics != null) {
+            metrics.callsQueued[level].inc();
+        }
+    }
+
+    /** The level to look at first for the next call. */
+    private synchronized int nextLevel() {
+        int level = currentLevel;
+        if (++takenFromLevel >= weights[level]) {
+            currentLevel = (level + 1) % weights.length;
+            takenFromLevel = 0;
+        }
+        return level;
+    }
+
+    /**
+     * Remove the next call; the caller holds a permit, so there is one.
+     */
+    private E removeNext() {
+        int start = nextLevel();
+        while (true) {
+            for (int i = 0; i < queues.size(); i++) {
+                E e = queues.get((start + i) % queues.size()).poll();
+                if (e != null) {
+                    return e;
+                }
+            }
+        }
+    }
+
+    public void put(E e) throws InterruptedException {
+        int level = scheduler.getPriorityLevel(e);
+        queues.get(level).put(e);
+        queued(level);
+    }
+
+    public boolean offer(E e) {
+        int level = scheduler.getPriorityLevel(e);
+        if (!queues.get(level).offer(e)) {
+            return false;
+        }
+        queued(level);
+        return true;
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        int level = scheduler.getPriorityLevel(e);
+        if (!queues.get(level).offer(e, timeout, unit)) {
+            return false;
+        }
+        queued(level);
+        return true;
+    }
+
+    public E take() throws InterruptedException {
+        queued.acquire();
+        return removeNext();
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queued.tryAcquire(timeout, unit) ? removeNext() : null;
+    }
+
+    public E poll() {
+        return queued.tryAcquire() ? removeNext() : null;
+    }
+
+    public E peek() {
+        for (BlockingQueue<E> q : queues) {
+            E e = q.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<E> q : queues) {
+            size += q.size();
+        }
+        return size;
+    }
+
+    public int remainingCapacity() {
+        int remaining = 0;
+        for (BlockingQueue<E> q : queues) {
+            remaining += q.remainingCapacity();
+        }
+        return remaining;
+    }
+
+    /** A snapshot of the queued calls, level by level; it does not remove. */
+    public Iterator<E> iterator() {
+        List<E> calls = new ArrayList<E>();
+        for (BlockingQueue<E> q : queues) {
+            calls.addAll(q);
+        }
+        return Collections.unmodifiableList(calls).iterator();
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /** The metrics of the levels. */
+    private class CallQueueMetrics implements Updater {
+        private final MetricsRegistry registry = new MetricsRegistry();
+        private final MetricsRecord metricsRecord;
+        private final MetricsIntValue[] queueLen;
+        final MetricsTimeVaryingInt[] callsQueued;
+        private final MetricsIntValue numUsers =
+                new MetricsIntValue("NumUsers", registry);
+
+        CallQueueMetrics(String port) {
+            queueLen = new MetricsIntValue[queues.size()];
+            callsQueued = new MetricsTimeVaryingInt[queues.size()];
+            for (int i = 0; i < queueLen.length; i++) {
+                queueLen[i] = new MetricsIntValue("CallQueueLenLevel" + i, registry);
+                callsQueued[i] = new MetricsTimeVaryingInt("CallsQueuedLevel" + i, registry);
+            }
+            MetricsContext context = MetricsUtil.getContext("rpc");
+            metricsRecord = MetricsUtil.createRecord(context, "callqueue");
+            metricsRecord.setTag("port", port);
+            context.registerUpdater(this);
+        }
+
+        public void doUpdates(MetricsContext context) {
+            synchronized (this) {
+                int[] sizes = getQueueSizes();
+                for (int i = 0; i < sizes.length; i++) {
+                    queueLen[i].set(sizes[i]);
+                }
+                numUsers.set(scheduler.getNumUsers());
+                for (MetricsBase m : registry.getMetricsList()) {
+                    m.pushMetric(metricsRecord);
+                }
+            }
+            metricsRecord.update();
+        }
+    }
+}
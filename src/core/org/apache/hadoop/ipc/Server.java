@@ -66,6 +66,7 @@ import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.apache.hadoop.security.authorize.AuthorizationException;
 
 /** An abstract IPC service.  IPC calls take a single {@link Writable} as a
@@ -142,6 +143,7 @@ public abstract class Server {
     private String bindAddress;
     private int port;                               // port we listen on
     private int handlerCount;                       // number of handler threads
+    private int readThreads;                        // number of reader threads
     private Class<? extends Writable> paramClass;   // class of call parameters
     private int maxIdleTime;                        // the maximum idle time after
     // which a client may be disconnected
@@ -205,7 +207,7 @@ public abstract class Server {
     }
 
     /** A call queued for handling. */
-    private static class Call {
+    private static class Call implements Schedulable {
         private int id;                               // the client's call id
         private Writable param;                       // the parameter passed
         private Connection connection;                // connection to client
@@ -229,13 +231,19 @@ public abstract class Server {
         public void setResponse(ByteBuffer response) {
             this.response = response;
         }
+
+        public String getUserName() {
+            return connection.userName;
+        }
     }
 
-    /** Listens on the socket. Creates jobs for the handler threads*/
+    /** Listens on the socket. Accepts connections and assigns each to a reader */
     private class Listener extends Thread {
 
         private ServerSocketChannel acceptChannel = null; //the accept channel
         private Selector selector = null; //the selector that we use for the server
+        private Reader[] readers = null;
+        private int currentReader = 0;
         private InetSocketAddress address; //the address we bind at
         private Random rand = new Random();
         private long lastCleanupRunTime = 0; //the last time when a cleanup connec-
@@ -256,12 +264,25 @@ public abstract class Server {
             // create a selector;
             selector = Selector.open();
 
+            readers = new Reader[readThreads];
+            for (int i = 0; i < readThreads; i++) {
+                readers[i] = new Reader(i);
+            }
+
             // Register accepts on the server socket with the selector.
             acceptChannel.register(selector, SelectionKey.OP_ACCEPT);
             this.setName("IPC Server listener on " + port);
             this.setDaemon(true);
         }
 
+        @Override
+        public synchronized void start() {
+            for (Reader reader : readers) {
+                reader.start();
+            }
+            super.start();
+        }
+
         /** cleanup connections from connectionList. Choose a random range
          * to scan and also have a limit on the number of the connections
          * that will be cleanedup per run. The criteria for cleanup is the time
@@ -318,7 +339,9 @@ public abstract class Server {
             while (running) {
                 SelectionKey key = null;
                 try {
-                    selector.select();
+                    // the readers never wake this thread up, so it wakes up
+                    // on its own to clean the idle connections up
+                    selector.select(cleanupInterval);
                     Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
                     while (iter.hasNext()) {
                         key = iter.next();
@@ -327,8 +350,6 @@ public abstract class Server {
                             if (key.isValid()) {
                                 if (key.isAcceptable())
                                     doAccept(key);
-                                else if (key.isReadable())
-                                    doRead(key);
                             }
                         } catch (IOException e) {
                         }
@@ -339,19 +360,14 @@ public abstract class Server {
                     // log the event and sleep for a minute and give
                     // some thread(s) a chance to finish
                     LOG.warn("Out of Memory in server select", e);
-                    closeCurrentConnection(key, e);
                     cleanupConnections(true);
                     try {
                         Thread.sleep(60000);
                     } catch (Exception ie) {
                     }
-                } catch (InterruptedException e) {
-                    if (running) {                          // unexpected -- log it
-                        LOG.info(getName() + " caught: " +
-                                StringUtils.stringifyException(e));
-                    }
                 } catch (Exception e) {
-                    closeCurrentConnection(key, e);
+                    LOG.info(getName() + " caught: " +
+                            StringUtils.stringifyException(e));
                 }
                 cleanupConnections(false);
             }
@@ -374,18 +390,6 @@ public abstract class Server {
             }
         }
 
-        private void closeCurrentConnection(SelectionKey key, Throwable e) {
-            if (key != null) {
-                Connection c = (Connection) key.attachment();
-                if (c != null) {
-                    if (LOG.isDebugEnabled())
-                        LOG.debug(getName() + ": disconnecting client " + c.getHostAddress());
-                    closeConnection(c);
-                    c = null;
-                }
-            }
-        }
-
         InetSocketAddress getAddress() {
             return (InetSocketAddress) acceptChannel.socket().getLocalSocketAddress();
         }
@@ -400,13 +404,14 @@ public abstract class Server {
 
                 channel.configureBlocking(false);
                 channel.socket().setTcpNoDelay(tcpNoDelay);
-                SelectionKey readKey = channel.register(selector, SelectionKey.OP_READ);
-                c = new Connection(readKey, channel, System.currentTimeMillis());
-                readKey.attach(c);
+                c = new Connection(channel, System.currentTimeMillis());
                 synchronized (connectionList) {
                     connectionList.add(numConnections, c);
                     numConnections++;
                 }
+                // round robin, only this thread assigns connections
+                readers[currentReader].addConnection(c);
+                currentReader = (currentReader + 1) % readers.length;
                 if (LOG.isDebugEnabled())
                     LOG.debug("Server connection from " + c.toString() +
                             "; # active connections: " + numConnections +
@@ -414,6 +419,120 @@ public abstract class Server {
             }
         }
 
+        synchronized void doStop() {
+            if (selector != null) {
+                selector.wakeup();
+                Thread.yield();
+            }
+            for (Reader reader : readers) {
+                reader.doStop();
+            }
+            if (acceptChannel != null) {
+                try {
+                    acceptChannel.socket().close();
+                } catch (IOException e) {
+                    LOG.info(getName() + ":Exception in closing listener socket. " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads calls from the connections the listener assigned to it, with
+     * a selector of its own, and queues them for handling.
+     */
+    private class Reader extends Thread {
+        private final int instanceNumber;
+        private final Selector readSelector;
+        // accepted connections, registered with the selector by this thread
+        private final BlockingQueue<Connection> pendingConnections =
+                new LinkedBlockingQueue<Connection>();
+
+        Reader(int instanceNumber) throws IOException {
+            this.instanceNumber = instanceNumber;
+            this.readSelector = Selector.open();
+            this.setName("IPC Server reader " + instanceNumber + " on " + port);
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            LOG.info(getName() + ": starting");
+            SERVER.set(Server.this);
+            MetricsTimeVaryingRate queueTime = rpcMetrics.rpcReaderQueueTime[instanceNumber];
+            while (running) {
+                SelectionKey key = null;
+                try {
+                    registerPendingConnections();
+                    readSelector.select();
+                    long selected = System.currentTimeMillis();
+                    Iterator<SelectionKey> iter = readSelector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        key = iter.next();
+                        iter.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            // the time the connection waited behind the others
+                            // of this reader
+                            queueTime.inc(System.currentTimeMillis() - selected);
+                            doRead(key);
+                        }
+                        key = null;
+                    }
+                } catch (OutOfMemoryError e) {
+                    // we can run out of memory if we have too many threads
+                    // log the event and sleep for a minute and give
+                    // some thread(s) a chance to finish
+                    LOG.warn("Out of Memory in server select", e);
+                    closeCurrentConnection(key);
+                    try {
+                        Thread.sleep(60000);
+                    } catch (Exception ie) {
+                    }
+                } catch (InterruptedException e) {
+                    if (running) {                          // unexpected -- log it
+                        LOG.info(getName() + " caught: " +
+                                StringUtils.stringifyException(e));
+                    }
+                } catch (Exception e) {
+                    closeCurrentConnection(key);
+                }
+            }
+            LOG.info("Stopping " + this.getName());
+            try {
+                readSelector.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /** Called by the listener; the reader registers c before its next select. */
+        void addConnection(Connection c) {
+            pendingConnections.add(c);
+            readSelector.wakeup();
+        }
+
+        private void registerPendingConnections() {
+            Connection c;
+            while ((c = pendingConnections.poll()) != null) {
+                try {
+                    c.channel.register(readSelector, SelectionKey.OP_READ, c);
+                } catch (ClosedChannelException e) {
+                    // closed as idle or by stop() before it was registered
+                }
+            }
+        }
+
+        private void closeCurrentConnection(SelectionKey key) {
+            if (key != null) {
+                Connection c = (Connection) key.attachment();
+                if (c != null) {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug(getName() + ": disconnecting client " + c.getHostAddress());
+                    closeConnection(c);
+                    c = null;
+                }
+            }
+        }
+
         void doRead(SelectionKey key) throws InterruptedException {
             int count = 0;
             Connection c = (Connection) key.attachment();
@@ -443,18 +562,8 @@ public abstract class Server {
             }
         }
 
-        synchronized void doStop() {
-            if (selector != null) {
-                selector.wakeup();
-                Thread.yield();
-            }
-            if (acceptChannel != null) {
-                try {
-                    acceptChannel.socket().close();
-                } catch (IOException e) {
-                    LOG.info(getName() + ":Exception in closing listener socket. " + e);
-                }
-            }
+        void doStop() {
+            readSelector.wakeup();
         }
     }
 
@@ -728,6 +837,7 @@ public abstract class Server {
         Class<?> protocol;
 
         Subject user = null;
+        String userName = "";
 
         // Fake 'call' for failed authorization response
         private final int AUTHROIZATION_FAILED_CALLID = -1;
@@ -735,8 +845,7 @@ public abstract class Server {
                 new Call(AUTHROIZATION_FAILED_CALLID, null, null);
         private ByteArrayOutputStream authFailedResponse = new ByteArrayOutputStream();
 
-        public Connection(SelectionKey key, SocketChannel channel,
-                          long lastContact) {
+        public Connection(SocketChannel channel, long lastContact) {
             this.channel = channel;
             this.lastContact = lastContact;
             this.data = null;
@@ -901,6 +1010,9 @@ public abstract class Server {
             // TODO: Get the user name from the GSS API for Kerberbos-based security
             // Create the user subject
             user = SecurityUtil.getSubject(header.getUgi());
+            if (header.getUgi() != null) {
+                userName = header.getUgi().getUserName();
+            }
         }
 
         private void processData() throws IOException, InterruptedException {
@@ -1035,14 +1147,15 @@ public abstract class Server {
         this.handlerCount = handlerCount;
         this.socketSendBufferSize = 0;
         this.maxQueueSize = handlerCount * MAX_QUEUE_SIZE_PER_HANDLER;
-        this.callQueue = new LinkedBlockingQueue<Call>(maxQueueSize);
         this.maxIdleTime = 2 * conf.getInt("ipc.client.connection.maxidletime", 1000);
         this.maxConnectionsToNuke = conf.getInt("ipc.client.kill.max", 10);
         this.thresholdIdleConnections = conf.getInt("ipc.client.idlethreshold", 4000);
+        this.readThreads = Math.max(1, conf.getInt("ipc.server.read.threadpool.size", 1));
 
         // Start the listener here and let it bind to the port
         listener = new Listener();
         this.port = listener.getAddress().getPort();
+        this.callQueue = createCallQueue(maxQueueSize);
         this.rpcMetrics = new RpcMetrics(serverName,
                 Integer.toString(this.port), this);
         this.tcpNoDelay = conf.getBoolean("ipc.server.tcpnodelay", false);
@@ -1052,6 +1165,33 @@ public abstract class Server {
         responder = new Responder();
     }
 
+    /**
+     * Create the call queue, of the {@link BlockingQueue} class set by
+     * ipc.server.callqueue.impl, {@link LinkedBlockingQueue} by default.
+     * The class needs a constructor (int capacity, String port,
+     * Configuration conf) or (int capacity).
+     */
+    @SuppressWarnings("unchecked")
+    private BlockingQueue<Call> createCallQueue(int capacity) throws IOException {
+        Class<?> queueClass = conf.getClass("ipc.server.callqueue.impl",
+                LinkedBlockingQueue.class, BlockingQueue.class);
+        try {
+            try {
+                return (BlockingQueue<Call>) queueClass.getConstructor(
+                        int.class, String.class, Configuration.class).newInstance(
+                        capacity, Integer.toString(port), conf);
+            } catch (NoSuchMethodException e) {
+                return (BlockingQueue<Call>) queueClass.getConstructor(
+                        int.class).newInstance(capacity);
+            }
+        } catch (Exception e) {
+            IOException ioe = new IOException("Cannot create the call queue "
+                    + queueClass.getName() + ": " + e);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
     private void closeConnection(Connection connection) {
         synchronized (connectionList) {
             if (connectionList.remove(connection))
@@ -1192,6 +1332,14 @@ public abstract class Server {
         return callQueue.size();
     }
 
+    /**
+     * The number of threads that read calls from the connections.
+     * @return the value of ipc.server.read.threadpool.size
+     */
+    public int getNumReaders() {
+        return readThreads;
+    }
+
 
     /**
      * When the read or write buffer size is larger than this limit, i/o will be
@@ -58,6 +58,12 @@ public class RpcMetrics implements Updater {
         LOG.info("Initializing RPC Metrics with hostName="
                 + hostName + ", port=" + port);
 
+        rpcReaderQueueTime = new MetricsTimeVaryingRate[server.getNumReaders()];
+        for (int i = 0; i < rpcReaderQueueTime.length; i++) {
+            rpcReaderQueueTime[i] = new MetricsTimeVaryingRate(
+                    "RpcReaderQueueTime" + i, registry);
+        }
+
         context.registerUpdater(this);
 
         // Need to clean up the interface to RpcMgt - don't need both metrics and server params
@@ -79,6 +85,12 @@ public class RpcMetrics implements Updater {
             new MetricsIntValue("NumOpenConnections", registry);
     public MetricsIntValue callQueueLen =
             new MetricsIntValue("callQueueLen", registry);
+    /**
+     * Per reader thread of the server, the time a connection with data to
+     * read waited while the reader read the other connections ready at the
+     * same time; a high value asks for more readers.
+     */
+    public final MetricsTimeVaryingRate[] rpcReaderQueueTime;
 
     /**
      * Push the metrics to the monitoring subsystem on doUpdate() call.
@@ -95,6 +95,9 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     final int writePacketSize;
     private final FileSystem.Statistics stats;
     private int maxBlockAcquireFailures;
+    // entries asked for per page of a directory listing
+    private final int listingLimit;
+    private final XorParity parity;
 
 
     public static ClientProtocol createNamenode(Configuration conf) throws IOException {
@@ -198,6 +201,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
         // dfs.write.packet.size is an internal config variable
         this.writePacketSize = conf.getInt("dfs.write.packet.size", 64 * 1024);
         this.maxBlockAcquireFailures = getMaxBlockAcquireFailures(conf);
+        this.listingLimit = conf.getInt("dfs.ls.limit", 1000);
+        this.parity = new XorParity(conf);
 
         try {
             this.ugi = UnixUserGroupInformation.login(conf, true);
@@ -319,8 +324,15 @@ public class DFSClient implements FSConstants, java.io.Closeable {
 
     private static LocatedBlocks callGetBlockLocations(ClientProtocol namenode,
                                                        String src, long start, long length) throws IOException {
+        return callGetBlockLocations(namenode, src, start, length, true);
+    }
+
+    private static LocatedBlocks callGetBlockLocations(ClientProtocol namenode,
+                                                       String src, long start, long length,
+                                                       boolean recordAccess) throws IOException {
         try {
-            return namenode.getBlockLocations(src, start, length);
+            return recordAccess ? namenode.getBlockLocations(src, start, length)
+                    : namenode.getBlockLocations(src, start, length, false);
         } catch (RemoteException re) {
             throw re.unwrapRemoteException(AccessControlException.class,
                     FileNotFoundException.class);
@@ -381,10 +393,22 @@ public class DFSClient implements FSConstants, java.io.Closeable {
      */
     DFSInputStream open(String src, int buffersize, boolean verifyChecksum,
                         FileSystem.Statistics stats
+    ) throws IOException {
+        return open(src, buffersize, verifyChecksum, stats, true);
+    }
+
+    /**
+     * Create an input stream for the file. If recordAccess is false, reading
+     * the stream does not update the access time of the file and is not
+     * counted by dynamic replication, see
+     * {@link ClientProtocol#getBlockLocations(String, long, long, boolean)}.
+     */
+    DFSInputStream open(String src, int buffersize, boolean verifyChecksum,
+                        FileSystem.Statistics stats, boolean recordAccess
     ) throws IOException {
         checkOpen();
         //    Get block info from namenode
-        return new DFSInputStream(src, buffersize, verifyChecksum);
+        return new DFSInputStream(src, buffersize, verifyChecksum, recordAccess);
     }
 
     /**
@@ -618,9 +642,36 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     /**
      */
     public FileStatus[] listPaths(String src) throws IOException {
+        DirectoryListing page = listPaths(src, DirectoryListing.EMPTY_NAME);
+        if (page == null) {
+            return null;
+        }
+        if (!page.hasMore()) {
+            return page.getPartialListing();
+        }
+        // a large directory is fetched a page at a time
+        List<FileStatus> listing = new ArrayList<FileStatus>(
+                page.getPartialListing().length + page.getRemainingEntries());
+        Collections.addAll(listing, page.getPartialListing());
+        while (page.hasMore()) {
+            page = listPaths(src, page.getLastName());
+            if (page == null) {
+                throw new FileNotFoundException("Directory " + src
+                        + " was removed while it was listed");
+            }
+            Collections.addAll(listing, page.getPartialListing());
+        }
+        return listing.toArray(new FileStatus[listing.size()]);
+    }
+
+    /**
+     * Get a page of the listing of src, the entries after startAfter.
+     * @return the page, or null if src does not exist
+     */
+    public DirectoryListing listPaths(String src, byte[] startAfter) throws IOException {
         checkOpen();
         try {
-            return namenode.getListing(src);
+            return namenode.getListing(src, startAfter, listingLimit);
         } catch (RemoteException re) {
             throw re.unwrapRemoteException(AccessControlException.class);
         }
@@ -966,6 +1017,51 @@ public class DFSClient implements FSConstants, java.io.Closeable {
         }
     }
 
+    /**
+     * Sets the dynamic replication policy of a directory.
+     * @see org.apache.hadoop.hdfs.protocol.ClientProtocol#setDynamicReplicationPolicy(String, boolean, short, float)
+     */
+    void setDynamicReplicationPolicy(String src, boolean eligible, short maxReplication,
+                                     float capacityShare) throws IOException {
+        // sanity check
+        if (maxReplication < 0 || capacityShare < 0 || capacityShare > 1) {
+            throw new IllegalArgumentException("Invalid values for dynamic replication policy : "
+                    + maxReplication + " and " + capacityShare);
+        }
+        try {
+            namenode.setDynamicReplicationPolicy(src, eligible, maxReplication, capacityShare);
+        } catch (RemoteException re) {
+            throw re.unwrapRemoteException(AccessControlException.class,
+                    FileNotFoundException.class);
+        }
+    }
+
+    /**
+     * Removes the dynamic replication policy of a directory.
+     * @see org.apache.hadoop.hdfs.protocol.ClientProtocol#clearDynamicReplicationPolicy(String)
+     */
+    void clearDynamicReplicationPolicy(String src) throws IOException {
+        try {
+            namenode.clearDynamicReplicationPolicy(src);
+        } catch (RemoteException re) {
+            throw re.unwrapRemoteException(AccessControlException.class,
+                    FileNotFoundException.class);
+        }
+    }
+
+    /**
+     * Hints that files are about to be read by many readers.
+     * @see org.apache.hadoop.hdfs.protocol.ClientProtocol#prefetchReplication(String[], int[])
+     */
+    public void prefetchReplication(String[] srcs, int[] readers) throws IOException {
+        checkOpen();
+        try {
+            namenode.prefetchReplication(srcs, readers);
+        } catch (RemoteException re) {
+            throw re.unwrapRemoteException(AccessControlException.class);
+        }
+    }
+
     /**
      * set the modification and access time of a file
      * @throws FileNotFoundException if the path is not a file
@@ -1390,13 +1486,29 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                                                  int bufferSize, boolean verifyChecksum,
                                                  String clientName)
                 throws IOException {
+            return newBlockReader(sock, file, blockId, genStamp, startOffset,
+                    len, bufferSize, verifyChecksum, clientName, true);
+        }
+
+        /**
+         * @param recordAccess whether the datanode reports the read to the
+         *                     namenode as an access of the block
+         */
+        public static BlockReader newBlockReader(Socket sock, String file,
+                                                 long blockId,
+                                                 long genStamp,
+                                                 long startOffset, long len,
+                                                 int bufferSize, boolean verifyChecksum,
+                                                 String clientName, boolean recordAccess)
+                throws IOException {
             // in and out will be closed when sock is closed (by the caller)
             DataOutputStream out = new DataOutputStream(
                     new BufferedOutputStream(NetUtils.getOutputStream(sock, HdfsConstants.WRITE_TIMEOUT)));
 
             //write the header.
             out.writeShort(DataTransferProtocol.DATA_TRANSFER_VERSION);
-            out.write(DataTransferProtocol.OP_READ_BLOCK);
+            out.write(recordAccess ? DataTransferProtocol.OP_READ_BLOCK
+                    : DataTransferProtocol.OP_READ_BLOCK_NO_ACCESS);
             out.writeLong(blockId);
             out.writeLong(genStamp);
             out.writeLong(startOffset);
@@ -1479,6 +1591,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
         private long prefetchSize = 10 * defaultBlockSize;
         private BlockReader blockReader = null;
         private boolean verifyChecksum;
+        // whether reads are recorded as accesses of the file
+        private final boolean recordAccess;
         private LocatedBlocks locatedBlocks = null;
         private DatanodeInfo currentNode = null;
         private Block currentBlock = null;
@@ -1506,15 +1620,32 @@ public class DFSClient implements FSConstants, java.io.Closeable {
 
         private byte[] oneByteBuf = new byte[1]; // used for 'int read()'
 
+        /**
+         * Whether blocks that no datanode can serve may be rebuilt from the
+         * parity of the file. It is cleared once the parity is found to be
+         * missing or stale, and is never set for the streams used to rebuild.
+         */
+        private boolean recoverFromParity;
+        private DFSInputStream recoverySource = null;
+        private DFSInputStream recoveryParity = null;
+        private long recoveryBlockSize;
+
         void addToDeadNodes(DatanodeInfo dnInfo) {
             deadNodes.put(dnInfo, dnInfo);
         }
 
         DFSInputStream(String src, int buffersize, boolean verifyChecksum
         ) throws IOException {
+            this(src, buffersize, verifyChecksum, true);
+        }
+
+        DFSInputStream(String src, int buffersize, boolean verifyChecksum,
+                       boolean recordAccess) throws IOException {
             this.verifyChecksum = verifyChecksum;
+            this.recordAccess = recordAccess;
             this.buffersize = buffersize;
             this.src = src;
+            this.recoverFromParity = !parity.isParityPath(src);
             prefetchSize = conf.getLong("dfs.read.prefetch.size", prefetchSize);
             openInfo();
         }
@@ -1523,7 +1654,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
          * Grab the open-file info from namenode
          */
         synchronized void openInfo() throws IOException {
-            LocatedBlocks newInfo = callGetBlockLocations(namenode, src, 0, prefetchSize);
+            LocatedBlocks newInfo = callGetBlockLocations(namenode, src, 0, prefetchSize,
+                    recordAccess);
             if (newInfo == null) {
                 throw new IOException("Cannot open filename " + src);
             }
@@ -1582,7 +1714,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                 targetBlockIdx = LocatedBlocks.getInsertIndex(targetBlockIdx);
                 // fetch more blocks
                 LocatedBlocks newBlocks;
-                newBlocks = callGetBlockLocations(namenode, src, offset, prefetchSize);
+                newBlocks = callGetBlockLocations(namenode, src, offset, prefetchSize,
+                        recordAccess);
                 assert (newBlocks != null) : "Could not find target position " + offset;
                 locatedBlocks.insertRange(targetBlockIdx, newBlocks.getLocatedBlocks());
             }
@@ -1621,7 +1754,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                     blk = locatedBlocks.get(blockIdx);
                 if (blk == null || curOff < blk.getStartOffset()) {
                     LocatedBlocks newBlocks;
-                    newBlocks = callGetBlockLocations(namenode, src, curOff, remaining);
+                    newBlocks = callGetBlockLocations(namenode, src, curOff, remaining,
+                            recordAccess);
                     locatedBlocks.insertRange(blockIdx, newBlocks.getLocatedBlocks());
                     continue;
                 }
@@ -1666,7 +1800,18 @@ public class DFSClient implements FSConstants, java.io.Closeable {
             //
             DatanodeInfo chosenNode = null;
             while (s == null) {
-                DNAddrPair retval = chooseDataNode(targetBlock);
+                DNAddrPair retval;
+                try {
+                    retval = chooseDataNode(targetBlock);
+                } catch (IOException e) {
+                    if (!openParity()) {
+                        throw e;
+                    }
+                    // the block is rebuilt by readBuffer
+                    LOG.warn("Rebuilding " + targetBlock.getBlock() + " of " + src
+                            + " from parity: " + e.getMessage());
+                    return null;
+                }
                 chosenNode = retval.info;
                 InetSocketAddress targetAddr = retval.addr;
 
@@ -1679,7 +1824,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                     blockReader = BlockReader.newBlockReader(s, src, blk.getBlockId(),
                             blk.getGenerationStamp(),
                             offsetIntoBlock, blk.getNumBytes() - offsetIntoBlock,
-                            buffersize, verifyChecksum, clientName);
+                            buffersize, verifyChecksum, clientName, recordAccess);
                     return chosenNode;
                 } catch (IOException ex) {
                     // Put chosen node into dead list, continue
@@ -1717,6 +1862,10 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                 s.close();
                 s = null;
             }
+            if (recoverySource != null) {
+                recoverySource.close();
+                recoveryParity.close();
+            }
             super.close();
             closed = true;
         }
@@ -1744,6 +1893,11 @@ public class DFSClient implements FSConstants, java.io.Closeable {
             boolean retryCurrentNode = true;
 
             while (true) {
+                if (blockReader == null) {
+                    // no datanode could serve the block
+                    recoverByteRange(pos, buf, off, len);
+                    return len;
+                }
                 // retry as many times as seekToNewSource allows.
                 try {
                     return blockReader.read(buf, off, len);
@@ -1773,7 +1927,16 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                     sourceFound = seekToNewSource(pos);
                 }
                 if (!sourceFound) {
-                    throw ioe;
+                    if (!openParity()) {
+                        throw ioe;
+                    }
+                    // no other replica, e.g. the only replica is corrupt
+                    LOG.warn("Rebuilding " + currentBlock + " of " + src
+                            + " from parity: " + ioe.getMessage());
+                    blockReader.close();
+                    blockReader = null;
+                    s.close();
+                    s = null;
                 }
                 retryCurrentNode = false;
             }
@@ -1861,6 +2024,45 @@ public class DFSClient implements FSConstants, java.io.Closeable {
             }
         }
 
+        /**
+         * Open the streams used to rebuild blocks of this file from its
+         * parity, see {@link XorParity}.
+         *
+         * @return false if the file has no parity that is up to date
+         */
+        private synchronized boolean openParity() throws IOException {
+            if (recoverySource != null) {
+                return true;
+            }
+            if (!recoverFromParity) {
+                return false;
+            }
+            String paritySrc = parity.getParityPath(new Path(src)).toUri().getPath();
+            FileStatus srcStatus = getFileInfo(src);
+            FileStatus parityStatus = getFileInfo(paritySrc);
+            if (srcStatus == null || !parity.isValid(srcStatus, parityStatus)) {
+                recoverFromParity = false;
+                return false;
+            }
+            recoveryParity = new DFSInputStream(paritySrc, buffersize, verifyChecksum,
+                    recordAccess);
+            recoverySource = new DFSInputStream(src, buffersize, verifyChecksum,
+                    recordAccess);
+            recoverySource.recoverFromParity = false;
+            recoveryBlockSize = srcStatus.getBlockSize();
+            return true;
+        }
+
+        /**
+         * Rebuild len bytes at position, which lie in one block, from the
+         * other blocks of the stripe and the parity.
+         */
+        private void recoverByteRange(long position, byte[] buf, int offset, int len)
+                throws IOException {
+            parity.recover(recoverySource, recoveryParity, getFileLength(),
+                    recoveryBlockSize, position, buf, offset, len);
+        }
+
         private void fetchBlockByteRange(LocatedBlock block, long start,
                                          long end, byte[] buf, int offset) throws IOException {
             //
@@ -1887,7 +2089,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                             block.getBlock().getBlockId(),
                             block.getBlock().getGenerationStamp(),
                             start, len, buffersize,
-                            verifyChecksum, clientName);
+                            verifyChecksum, clientName, recordAccess);
                     int nread = reader.readAll(buf, offset, len);
                     if (nread != len) {
                         throw new IOException("truncated return from reader.read(): " +
@@ -1952,8 +2154,17 @@ public class DFSClient implements FSConstants, java.io.Closeable {
             for (LocatedBlock blk : blockRange) {
                 long targetStart = position - blk.getStartOffset();
                 long bytesToRead = Math.min(remaining, blk.getBlockSize() - targetStart);
-                fetchBlockByteRange(blk, targetStart,
-                        targetStart + bytesToRead - 1, buffer, offset);
+                try {
+                    fetchBlockByteRange(blk, targetStart,
+                            targetStart + bytesToRead - 1, buffer, offset);
+                } catch (IOException e) {
+                    if (!openParity()) {
+                        throw e;
+                    }
+                    LOG.warn("Rebuilding " + blk.getBlock() + " of " + src
+                            + " from parity: " + e.getMessage());
+                    recoverByteRange(position, buffer, offset, (int) bytesToRead);
+                }
                 remaining -= bytesToRead;
                 position += bytesToRead;
                 offset += bytesToRead;
@@ -1988,7 +2199,12 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                 throw new IOException("Cannot seek after EOF");
             }
             boolean done = false;
-            if (pos <= targetPos && targetPos <= blockEnd) {
+            if (pos <= targetPos && targetPos <= blockEnd && blockReader == null) {
+                // the block is being rebuilt from parity, so there is
+                // no connection to skip on
+                pos = targetPos;
+                done = true;
+            } else if (pos <= targetPos && targetPos <= blockEnd) {
                 //
                 // If this seek is to a positive position in the current
                 // block, and this piece of data might already be lying in
@@ -2040,7 +2256,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
          * deadNodes and added currentNode again. Thats ok. */
                 deadNodes.remove(oldNode);
             }
-            if (!oldNode.getStorageID().equals(newNode.getStorageID())) {
+            if (newNode == null || !oldNode.getStorageID().equals(newNode.getStorageID())) {
                 currentNode = newNode;
                 return true;
             } else {
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.hdfs;
 
+import java.io.UnsupportedEncodingException;
 import java.util.StringTokenizer;
 
 import org.apache.hadoop.fs.Path;
@@ -48,5 +49,16 @@ public class DFSUtil {
         return true;
     }
 
+    /**
+     * Converts a string to a byte array using UTF8 encoding, the encoding
+     * of the names of the namespace.
+     */
+    public static byte[] string2Bytes(String str) {
+        try {
+            return str.getBytes("UTF8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF8 encoding is not supported", e);
+        }
+    }
 }
 
@@ -20,11 +20,13 @@ package org.apache.hadoop.hdfs;
 
 import java.io.*;
 import java.net.*;
+import java.util.NoSuchElementException;
 
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
@@ -183,6 +185,17 @@ public class DistributedFileSystem extends FileSystem {
                 dfs.open(getPathName(f), bufferSize, verifyChecksum, statistics));
     }
 
+    /**
+     * Opens an FSDataInputStream at the indicated Path. If recordAccess is
+     * false, reading the stream neither updates the access time of the file
+     * nor counts as a read for dynamic replication.
+     */
+    public FSDataInputStream open(Path f, int bufferSize, boolean recordAccess)
+            throws IOException {
+        return new DFSClient.DFSDataInputStream(
+                dfs.open(getPathName(f), bufferSize, verifyChecksum, statistics, recordAccess));
+    }
+
     /** This optional operation is not yet supported. */
     public FSDataOutputStream append(Path f, int bufferSize,
                                      Progressable progress) throws IOException {
@@ -244,6 +257,21 @@ public class DistributedFileSystem extends FileSystem {
         dfs.setQuota(getPathName(src), namespaceQuota, diskspaceQuota);
     }
 
+    /** Set a directory's dynamic replication policy
+     * @see org.apache.hadoop.hdfs.protocol.ClientProtocol#setDynamicReplicationPolicy(String, boolean, short, float)
+     */
+    public void setDynamicReplicationPolicy(Path src, boolean eligible, short maxReplication,
+                                            float capacityShare) throws IOException {
+        dfs.setDynamicReplicationPolicy(getPathName(src), eligible, maxReplication, capacityShare);
+    }
+
+    /** Remove a directory's dynamic replication policy
+     * @see org.apache.hadoop.hdfs.protocol.ClientProtocol#clearDynamicReplicationPolicy(String)
+     */
+    public void clearDynamicReplicationPolicy(Path src) throws IOException {
+        dfs.clearDynamicReplicationPolicy(getPathName(src));
+    }
+
     private FileStatus makeQualified(FileStatus f) {
         return new FileStatus(f.getLen(), f.isDir(), f.getReplication(),
                 f.getBlockSize(), f.getModificationTime(),
@@ -262,6 +290,46 @@ public class DistributedFileSystem extends FileSystem {
         return stats;
     }
 
+    /**
+     * List a directory a page of dfs.ls.limit entries at a time, so that a
+     * large directory is never held whole in memory. The size of the listing
+     * is the number of entries the first page saw in the directory.
+     */
+    public ListingIterator listStatusIterator(final Path p) throws IOException {
+        final String src = getPathName(p);
+        final DirectoryListing first = dfs.listPaths(src, DirectoryListing.EMPTY_NAME);
+        if (first == null) {
+            return null;
+        }
+        return new ListingIterator() {
+            private DirectoryListing page = first;
+            private int i = 0;
+
+            public int size() {
+                return first.getPartialListing().length + first.getRemainingEntries();
+            }
+
+            public boolean hasNext() throws IOException {
+                while (i >= page.getPartialListing().length && page.hasMore()) {
+                    page = dfs.listPaths(src, page.getLastName());
+                    if (page == null) {
+                        throw new FileNotFoundException("Directory " + src
+                                + " was removed while it was listed");
+                    }
+                    i = 0;
+                }
+                return i < page.getPartialListing().length;
+            }
+
+            public FileStatus next() throws IOException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more entry in " + p);
+                }
+                return makeQualified(page.getPartialListing()[i++]);
+            }
+        };
+    }
+
     public boolean mkdirs(Path f, FsPermission permission) throws IOException {
         return dfs.mkdirs(getPathName(f), permission);
     }
@@ -485,6 +553,15 @@ public class DistributedFileSystem extends FileSystem {
         dfs.setOwner(getPathName(p), username, groupname);
     }
 
+    /** {@inheritDoc }*/
+    public void prefetchReplication(Path[] files, int[] readers) throws IOException {
+        String[] srcs = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            srcs[i] = getPathName(files[i]);
+        }
+        dfs.prefetchReplication(srcs, readers);
+    }
+
     /** {@inheritDoc }*/
     public void setTimes(Path p, long mtime, long atime
     ) throws IOException {
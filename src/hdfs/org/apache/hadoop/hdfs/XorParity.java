@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+
+/**
+ * XOR parity of a file, which lets a file with a low replication survive
+ * the loss of one block in each stripe.
+ * <p>
+ * The blocks of a file are grouped into stripes of dfs.parity.stripe.length
+ * consecutive blocks. Block s of the parity file is the XOR of the blocks of
+ * stripe s, each padded with zeros to the length of the first block of the
+ * stripe, so it starts at offset s * blockSize of the parity file.
+ * <p>
+ * The parity of /a/b is kept in the file /a/b under dfs.parity.dir and has
+ * the modification time of its source. A parity file with another
+ * modification time or an unexpected length is stale and is not used.
+ */
+public class XorParity {
+    public static final String DIR_KEY = "dfs.parity.dir";
+    public static final String STRIPE_LENGTH_KEY = "dfs.parity.stripe.length";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path dir;
+    private final String dirPrefix;
+    private final int stripeLength;
+
+    public XorParity(Configuration conf) {
+        this.dir = new Path(conf.get(DIR_KEY, "/parity"));
+        this.dirPrefix = dir.toUri().getPath() + Path.SEPARATOR;
+        this.stripeLength = conf.getInt(STRIPE_LENGTH_KEY, 5);
+        if (stripeLength < 1) {
+            throw new IllegalArgumentException(STRIPE_LENGTH_KEY + " must be positive");
+        }
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public int getStripeLength() {
+        return stripeLength;
+    }
+
+    /**
+     * The path of the parity file of src, which must be absolute.
+     */
+    public Path getParityPath(Path src) {
+        return new Path(dirPrefix + src.toUri().getPath().substring(1));
+    }
+
+    /**
+     * The path of the file whose parity is kept at parity.
+     */
+    public Path getSourcePath(Path parity) {
+        return new Path(parity.toUri().getPath().substring(dirPrefix.length() - 1));
+    }
+
+    /**
+     * Whether src is the parity directory or lies under it.
+     */
+    public boolean isParityPath(String src) {
+        return src.startsWith(dirPrefix) || src.equals(dir.toUri().getPath());
+    }
+
+    /**
+     * The length of the parity of a file of fileLength bytes.
+     */
+    public long getParityLength(long fileLength, long blockSize) {
+        long stripeBytes = stripeLength * blockSize;
+        long stripes = (fileLength + stripeBytes - 1) / stripeBytes;
+        if (stripes == 0) {
+            return 0;
+        }
+        // every stripe but the last has a full parity block
+        long lastStripe = (stripes - 1) * stripeBytes;
+        return (stripes - 1) * blockSize + Math.min(blockSize, fileLength - lastStripe);
+    }
+
+    /**
+     * Whether parity, which may be null, is up to date with src.
+     */
+    public boolean isValid(FileStatus src, FileStatus parity) {
+        return parity != null && !parity.isDir()
+                && parity.getModificationTime() == src.getModificationTime()
+                && parity.getLen() == getParityLength(src.getLen(), src.getBlockSize());
+    }
+
+    /**
+     * Write the parity of the file read by in to out.
+     */
+    public void encode(PositionedReadable in, long fileLength, long blockSize,
+                       OutputStream out) throws IOException {
+        byte[] parity = new byte[BUFFER_SIZE];
+        byte[] buf = new byte[BUFFER_SIZE];
+        long stripeBytes = stripeLength * blockSize;
+        for (long stripe = 0; stripe < fileLength; stripe += stripeBytes) {
+            long parityBlockLength = Math.min(blockSize, fileLength - stripe);
+            for (long offset = 0; offset < parityBlockLength; offset += BUFFER_SIZE) {
+                int len = (int) Math.min(BUFFER_SIZE, parityBlockLength - offset);
+                Arrays.fill(parity, 0, len, (byte) 0);
+                xorStripe(in, fileLength, blockSize, stripe, -1, offset, parity, 0, len, buf);
+                out.write(parity, 0, len);
+            }
+        }
+    }
+
+    /**
+     * Rebuild len bytes at position of the file read by in from the other
+     * blocks of its stripe and the parity. The bytes must lie in one block.
+     */
+    public void recover(PositionedReadable in, PositionedReadable parity,
+                        long fileLength, long blockSize, long position,
+                        byte[] b, int off, int len) throws IOException {
+        long block = position - position % blockSize;
+        long offset = position - block;
+        if (offset + len > blockSize || position + len > fileLength) {
+            throw new IOException("Cannot recover " + len + " bytes at " + position
+                    + " from more than one block");
+        }
+        long stripe = block - block % (stripeLength * blockSize);
+        parity.readFully(stripe / stripeLength + offset, b, off, len);
+        byte[] buf = new byte[Math.min(len, BUFFER_SIZE)];
+        for (int done = 0; done < len; done += BUFFER_SIZE) {
+            int n = Math.min(BUFFER_SIZE, len - done);
+            xorStripe(in, fileLength, blockSize, stripe, block, offset + done, b, off + done, n, buf);
+        }
+    }
+
+    /**
+     * XOR the bytes at offset of every block of the stripe but skip into b.
+     */
+    private void xorStripe(PositionedReadable in, long fileLength, long blockSize,
+                           long stripe, long skip, long offset,
+                           byte[] b, int off, int len, byte[] buf) throws IOException {
+        for (int i = 0; i < stripeLength; i++) {
+            long block = stripe + i * blockSize;
+            if (block + offset >= fileLength) {
+                break;
+            }
+            if (block == skip) {
+                continue;
+            }
+            int n = (int) Math.min(len, fileLength - block - offset);
+            in.readFully(block + offset, buf, 0, n);
+            for (int j = 0; j < n; j++) {
+                b[off + j] ^= buf[j];
+            }
+        }
+    }
+}
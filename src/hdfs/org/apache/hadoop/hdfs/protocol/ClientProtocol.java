@@ -40,9 +40,10 @@ public interface ClientProtocol extends VersionedProtocol {
      * Compared to the previous version the following changes have been introduced:
      * (Only the latest change is reflected.
      * The log of historical changes can be retrieved from the svn).
-     * 41: saveNamespace introduced.
+     * 45: getBlockLocations(String, long, long, boolean) introduced, reads
+     *     that are not recorded as accesses.
      */
-    public static final long versionID = 41L;
+    public static final long versionID = 45L;
 
     ///////////////////////////////////////
     // File contents
@@ -71,6 +72,27 @@ public interface ClientProtocol extends VersionedProtocol {
                                            long offset,
                                            long length) throws IOException;
 
+    /**
+     * Get locations of the blocks of the specified file within the specified
+     * range, like {@link #getBlockLocations(String, long, long)}.
+     * <p>
+     * If recordAccess is false the call does not update the access time of
+     * the file and is not counted as a read by dynamic replication. It is
+     * meant for tools that scan files on behalf of the system, such as the
+     * parity archiver, and must not make them look popular.
+     *
+     * @param src file name
+     * @param offset range start offset
+     * @param length range length
+     * @param recordAccess whether the read is an access of the file
+     * @return file length and array of blocks with their locations
+     * @throws IOException
+     */
+    public LocatedBlocks getBlockLocations(String src,
+                                           long offset,
+                                           long length,
+                                           boolean recordAccess) throws IOException;
+
     /**
      * Create a new file entry in the namespace.
      * <p>
@@ -261,6 +283,22 @@ public interface ClientProtocol extends VersionedProtocol {
      */
     public FileStatus[] getListing(String src) throws IOException;
 
+    /**
+     * Get a page of the listing of the indicated directory. The entries
+     * are in name order and start after startAfter; the namenode returns
+     * at most maxEntries of them, and no more than its dfs.ls.limit.
+     *
+     * @param src the directory to list
+     * @param startAfter the name of the last entry of the previous page,
+     *                   {@link DirectoryListing#EMPTY_NAME} for the first page
+     * @param maxEntries the largest number of entries to return
+     * @return the page, or null if src does not exist. A file is listed
+     *         as a page of its own status.
+     * @throws IOException
+     */
+    public DirectoryListing getListing(String src, byte[] startAfter,
+                                       int maxEntries) throws IOException;
+
     ///////////////////////////////////////
     // System issues and management
     ///////////////////////////////////////
@@ -457,6 +495,50 @@ public interface ClientProtocol extends VersionedProtocol {
     public void setQuota(String path, long namespaceQuota, long diskspaceQuota)
             throws IOException;
 
+    /**
+     * Set the dynamic replication policy of a directory. The policy applies
+     * to every file under the directory that has no policy on a closer
+     * ancestor. Files already replicated beyond the new limits are brought
+     * back the next time they are accessed.
+     * @param path  The string representation of the path to the directory
+     * @param eligible whether the replication of the files may be raised
+     *                 according to their popularity
+     * @param maxReplication the highest replication of the files, which may
+     *                       exceed dfs.dynamic.max; 0 means dfs.dynamic.max
+     * @param capacityShare the fraction of the cluster capacity that the extra
+     *                      replicas of the files may occupy; 0 means no limit
+     *
+     * @throws FileNotFoundException if the path is a file or
+     *                               does not exist
+     */
+    public void setDynamicReplicationPolicy(String path, boolean eligible,
+                                            short maxReplication, float capacityShare)
+            throws IOException;
+
+    /**
+     * Remove the dynamic replication policy of a directory, so that its files
+     * follow the policy of the closest ancestor that has one.
+     * @param path  The string representation of the path to the directory
+     *
+     * @throws FileNotFoundException if the path is a file or
+     *                               does not exist
+     */
+    public void clearDynamicReplicationPolicy(String path) throws IOException;
+
+    /**
+     * Tell the namenode that files are about to be read by many readers,
+     * for example the input of a large job that is being initialized, so
+     * that their replication is raised before the reads start instead of
+     * after. This is only a hint: files that do not exist, are being
+     * written or are not popular enough are left alone. The namenode raises
+     * the replication in the background, shortly after the call returns.
+     * @param srcs The string representations of the paths of the files
+     * @param readers the number of readers expected for each file
+     * @throws AccessControlException if the caller may not read one of the
+     *                                files; no file is prefetched then
+     */
+    public void prefetchReplication(String[] srcs, int[] readers) throws IOException;
+
     /**
      * Write all metadata for this file into persistent storage.
      * The file must be currently open for writing.
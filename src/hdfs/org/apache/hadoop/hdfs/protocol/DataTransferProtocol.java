@@ -34,15 +34,12 @@ public interface DataTransferProtocol {
      * when protocol changes. It is not very obvious.
      */
   /*
-   * Version 14:
-   *    OP_REPLACE_BLOCK is sent from the Balancer server to the destination,
-   *    including the block id, source, and proxy.
-   *    OP_COPY_BLOCK is sent from the destination to the proxy, which contains
-   *    only the block id.
-   *    A reply to OP_COPY_BLOCK sends the block content.
-   *    A reply to OP_REPLACE_BLOCK includes an operation status.
+   * Version 15:
+   *    OP_READ_BLOCK_NO_ACCESS reads a block like OP_READ_BLOCK, with the
+   *    same header, but the datanode does not report the read to the
+   *    namenode as an access of the block.
    */
-    public static final int DATA_TRANSFER_VERSION = 14;
+    public static final int DATA_TRANSFER_VERSION = 15;
 
     // Processed at datanode stream-handler
     public static final byte OP_WRITE_BLOCK = (byte) 80;
@@ -51,6 +48,7 @@ public interface DataTransferProtocol {
     public static final byte OP_REPLACE_BLOCK = (byte) 83;
     public static final byte OP_COPY_BLOCK = (byte) 84;
     public static final byte OP_BLOCK_CHECKSUM = (byte) 85;
+    public static final byte OP_READ_BLOCK_NO_ACCESS = (byte) 86;
 
     public static final int OP_STATUS_SUCCESS = 0;
     public static final int OP_STATUS_ERROR = 1;
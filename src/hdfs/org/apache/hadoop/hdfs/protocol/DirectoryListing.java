@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableFactories;
+import org.apache.hadoop.io.WritableFactory;
+import org.apache.hadoop.hdfs.DFSUtil;
+
+/**
+ * One page of the listing of a directory, and the number of entries that
+ * follow it. The next page starts after the name of the last entry, see
+ * {@link ClientProtocol#getListing(String, byte[], int)}.
+ */
+public class DirectoryListing implements Writable {
+    /** The cursor of the first page. */
+    public static final byte[] EMPTY_NAME = new byte[0];
+
+    private FileStatus[] partialListing;
+    private int remainingEntries;
+
+    DirectoryListing() {
+    }
+
+    /**
+     * @param partialListing the entries of the page, in name order
+     * @param remainingEntries number of entries after the page
+     */
+    public DirectoryListing(FileStatus[] partialListing, int remainingEntries) {
+        if (partialListing == null) {
+            throw new IllegalArgumentException("partial listing should not be null");
+        }
+        if (partialListing.length == 0 && remainingEntries != 0) {
+            throw new IllegalArgumentException("Partial listing is empty but "
+                    + "the number of remaining entries is not zero");
+        }
+        this.partialListing = partialListing;
+        this.remainingEntries = remainingEntries;
+    }
+
+    /**
+     * Get the entries of the page.
+     */
+    public FileStatus[] getPartialListing() {
+        return partialListing;
+    }
+
+    /**
+     * Get the number of entries after the page.
+     */
+    public int getRemainingEntries() {
+        return remainingEntries;
+    }
+
+    /**
+     * Check if the directory has more entries than this page.
+     */
+    public boolean hasMore() {
+        return remainingEntries != 0;
+    }
+
+    /**
+     * Get the name of the last entry of the page, the cursor of the next
+     * page; {@link #EMPTY_NAME} if the page is empty.
+     */
+    public byte[] getLastName() {
+        if (partialListing.length == 0) {
+            return EMPTY_NAME;
+        }
+        return DFSUtil.string2Bytes(
+                partialListing[partialListing.length - 1].getPath().getName());
+    }
+
+    //////////////////////////////////////////////////
+    // Writable
+    //////////////////////////////////////////////////
+    static {                                      // register a ctor
+        WritableFactories.setFactory
+                (DirectoryListing.class,
+                        new WritableFactory() {
+                            public Writable newInstance() {
+                                return new DirectoryListing();
+                            }
+                        });
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(partialListing.length);
+        for (FileStatus status : partialListing) {
+            status.write(out);
+        }
+        out.writeInt(remainingEntries);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        int numEntries = in.readInt();
+        partialListing = new FileStatus[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            partialListing[i] = new FileStatus();
+            partialListing[i].readFields(in);
+        }
+        remainingEntries = in.readInt();
+    }
+}
@@ -84,7 +84,7 @@ public interface FSConstants {
     // Version is reflected in the data storage file.
     // Versions are negative.
     // Decrement LAYOUT_VERSION to define a new version.
-    public static final int LAYOUT_VERSION = -18;
+    public static final int LAYOUT_VERSION = -21;
     // Current version:
-    // Support disk space quotas
+    // Save the namespace in the image in sections, by parent instead of by full path
 }
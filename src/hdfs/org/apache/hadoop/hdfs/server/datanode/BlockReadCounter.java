@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the client reads of each block served by this datanode since the
+ * last heartbeat. The counts are sent to the namenode with the next
+ * heartbeat, see
+ * {@link org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol#sendHeartbeat}.
+ * <p>
+ * At most maxBlocks distinct blocks are counted per heartbeat interval;
+ * reads of further blocks are dropped, so a burst of cold reads can not
+ * grow the heartbeat without bound.
+ */
+class BlockReadCounter {
+    private final int maxBlocks;
+    private Map<Long, int[]> reads = new HashMap<Long, int[]>();
+    private long droppedReads = 0;
+
+    BlockReadCounter(int maxBlocks) {
+        this.maxBlocks = maxBlocks;
+    }
+
+    /** Count one read of the given block. */
+    synchronized void readBlock(long blockId) {
+        int[] count = reads.get(blockId);
+        if (count == null) {
+            if (reads.size() >= maxBlocks) {
+                droppedReads++;
+                return;
+            }
+            count = new int[1];
+            reads.put(blockId, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * Return the counts collected so far and start a new interval.
+     * @return block ids and read counts as pairs of longs, or null if no
+     *         block was read
+     */
+    synchronized long[] drain() {
+        if (reads.isEmpty()) {
+            return null;
+        }
+        long[] result = new long[2 * reads.size()];
+        int i = 0;
+        for (Map.Entry<Long, int[]> e : reads.entrySet()) {
+            result[i++] = e.getKey();
+            result[i++] = e.getValue()[0];
+        }
+        reads = new HashMap<Long, int[]>();
+        return result;
+    }
+
+    /**
+     * Put counts returned by {@link #drain()} back, e.g. when the heartbeat
+     * that should have carried them failed. They are added to the reads
+     * counted since the drain.
+     * @param drained the result of {@link #drain()}, may be null
+     */
+    synchronized void restore(long[] drained) {
+        if (drained == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < drained.length; i += 2) {
+            int[] count = reads.get(drained[i]);
+            if (count == null) {
+                if (reads.size() >= maxBlocks) {
+                    droppedReads += drained[i + 1];
+                    continue;
+                }
+                count = new int[1];
+                reads.put(drained[i], count);
+            }
+            count[0] += (int) drained[i + 1];
+        }
+    }
+
+    /** Reads that were not counted because too many blocks were read. */
+    synchronized long getDroppedReads() {
+        return droppedReads;
+    }
+}
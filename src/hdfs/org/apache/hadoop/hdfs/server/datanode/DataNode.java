@@ -128,9 +128,13 @@ public class DataNode extends Configured
 
     volatile boolean shouldRun = true;
     private LinkedList<Block> receivedBlockList = new LinkedList<Block>();
+    // reads of each block since the last heartbeat
+    BlockReadCounter blockReadCounter;
     /** list of blocks being recovered */
     private final Map<Block, Block> ongoingRecovery = new HashMap<Block, Block>();
     private LinkedList<String> delHints = new LinkedList<String>();
+    /** blocks deleted since they were last reported to the namenode */
+    private final LinkedList<Block> deletedBlockList = new LinkedList<Block>();
     public final static String EMPTY_DEL_HINT = "";
     AtomicInteger xmitsInProgress = new AtomicInteger();
     Daemon dataXceiverServer = null;
@@ -289,6 +293,9 @@ public class DataNode extends Configured
                 new DataXceiverServer(ss, conf, this));
         this.threadGroup.setDaemon(true); // auto destroy when empty
 
+        this.blockReadCounter = new BlockReadCounter(
+                conf.getInt("dfs.datanode.read.counter.max.blocks", 10000));
+
         this.blockReportInterval =
                 conf.getLong("dfs.blockreport.intervalMsec", BLOCKREPORT_INTERVAL);
         this.initialBlockReportDelay = conf.getLong("dfs.blockreport.initialDelay",
@@ -672,12 +679,21 @@ public class DataNode extends Configured
                     // -- Bytes remaining
                     //
                     lastHeartbeat = startTime;
-                    DatanodeCommand[] cmds = namenode.sendHeartbeat(dnRegistration,
-                            data.getCapacity(),
-                            data.getDfsUsed(),
-                            data.getRemaining(),
-                            xmitsInProgress.get(),
-                            getXceiverCount());
+                    long[] blockReads = blockReadCounter.drain();
+                    DatanodeCommand[] cmds;
+                    try {
+                        cmds = namenode.sendHeartbeat(dnRegistration,
+                                data.getCapacity(),
+                                data.getDfsUsed(),
+                                data.getRemaining(),
+                                xmitsInProgress.get(),
+                                getXceiverCount(),
+                                blockReads);
+                    } catch (IOException e) {
+                        // keep the counts for the next heartbeat
+                        blockReadCounter.restore(blockReads);
+                        throw e;
+                    }
                     myMetrics.heartbeats.inc(now() - startTime);
                     //LOG.info("Just sent heartbeat, with name " + localName);
                     if (!processCommand(cmds))
@@ -717,6 +733,23 @@ public class DataNode extends Configured
                     }
                 }
 
+                // tell the namenode about the blocks deleted since the last call
+                Block[] deletedArray = null;
+                synchronized (deletedBlockList) {
+                    if (deletedBlockList.size() > 0) {
+                        deletedArray = deletedBlockList.toArray(new Block[deletedBlockList.size()]);
+                    }
+                }
+                if (deletedArray != null) {
+                    long delStartTime = now();
+                    namenode.blocksDeleted(dnRegistration, deletedArray);
+                    myMetrics.blocksDeletedReports.inc(now() - delStartTime);
+                    synchronized (deletedBlockList) {
+                        // blocks are only appended while the report is sent
+                        deletedBlockList.subList(0, deletedArray.length).clear();
+                    }
+                }
+
                 // send block report
                 if (startTime - lastBlockReport > blockReportInterval) {
                     //
@@ -842,6 +875,8 @@ public class DataNode extends Configured
                 } catch (IOException e) {
                     checkDiskError();
                     throw e;
+                } finally {
+                    notifyNamenodeDeletedBlocks(toDelete);
                 }
                 myMetrics.blocksRemoved.inc(toDelete.length);
                 break;
@@ -967,6 +1002,20 @@ public class DataNode extends Configured
         }
     }
 
+    /**
+     * Queue the blocks that are gone from the dataset, some of which
+     * may have failed to be deleted, for the next blocksDeleted() call.
+     */
+    private void notifyNamenodeDeletedBlocks(Block[] blocks) {
+        synchronized (deletedBlockList) {
+            for (Block b : blocks) {
+                if (!data.isValidBlock(b)) {
+                    deletedBlockList.add(b);
+                }
+            }
+        }
+    }
+
   
 
 
@@ -88,7 +88,8 @@ class DataXceiver implements Runnable, FSConstants {
             long startTime = DataNode.now();
             switch (op) {
                 case DataTransferProtocol.OP_READ_BLOCK:
-                    readBlock(in);
+                case DataTransferProtocol.OP_READ_BLOCK_NO_ACCESS:
+                    readBlock(in, op == DataTransferProtocol.OP_READ_BLOCK);
                     datanode.myMetrics.readBlockOp.inc(DataNode.now() - startTime);
                     if (local)
                         datanode.myMetrics.readsFromLocalClient.inc();
@@ -137,9 +138,10 @@ class DataXceiver implements Runnable, FSConstants {
     /**
      * Read a block from the disk.
      * @param in The stream to read from
+     * @param recordAccess whether to count the read in the next heartbeat
      * @throws IOException
      */
-    private void readBlock(DataInputStream in) throws IOException {
+    private void readBlock(DataInputStream in, boolean recordAccess) throws IOException {
         //
         // Read in the header
         //
@@ -189,9 +191,15 @@ class DataXceiver implements Runnable, FSConstants {
 
             datanode.myMetrics.bytesRead.inc((int) read);
             datanode.myMetrics.blocksRead.inc();
+            if (recordAccess) {
+                datanode.blockReadCounter.readBlock(blockId);
+            }
         } catch (SocketException ignored) {
             // Its ok for remote side to close the connection anytime.
             datanode.myMetrics.blocksRead.inc();
+            if (recordAccess) {
+                datanode.blockReadCounter.readBlock(blockId);
+            }
         } catch (IOException ioe) {
       /* What exactly should we do here?
        * Earlier version shutdown() datanode if there is disk error.
@@ -90,6 +90,8 @@ public class DataNodeMetrics implements Updater {
             new MetricsTimeVaryingRate("heartBeats", registry);
     public MetricsTimeVaryingRate blockReports =
             new MetricsTimeVaryingRate("blockReports", registry);
+    public MetricsTimeVaryingRate blocksDeletedReports =
+            new MetricsTimeVaryingRate("blocksDeletedReports", registry);
 
 
     public DataNodeMetrics(Configuration conf, String storageId) {
@@ -135,5 +137,6 @@ public class DataNodeMetrics implements Updater {
         replaceBlockOp.resetMinMax();
         heartbeats.resetMinMax();
         blockReports.resetMinMax();
+        blocksDeletedReports.resetMinMax();
     }
 }
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+/**
+ * An open-addressing hash table of {@link BlockInfo}s, looked up by
+ * {@link Block}. It is the store behind {@link BlocksMap}.
+ * <p>
+ * A {@link java.util.HashMap} costs an entry object per block, holding the
+ * key, the value, the hash and the next entry of the bucket, on top of its
+ * table slot. Here the {@link BlockInfo} itself is kept in the slot, so a
+ * block only costs one reference divided by the load factor. Collisions
+ * are resolved by linear probing, and a removal shifts the following
+ * entries of its cluster back, so no deleted markers are left behind.
+ * <p>
+ * Blocks are matched with {@link Block#equals(Object)}, so a block with a
+ * wildcard generation stamp finds the stored block with the same id, as
+ * it did in the HashMap. This class is not thread safe.
+ */
+class BlockInfoTable extends AbstractCollection<BlockInfo> {
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final float loadFactor;
+    private BlockInfo[] table;
+    private int size = 0;
+    // the table grows before size exceeds threshold
+    private int threshold;
+    // number of structural modifications, for fail-fast iterators
+    private int modCount = 0;
+
+    /**
+     * @param initialCapacity rounded up to a power of two
+     * @param loadFactor the table grows when it is this full, must be below 1
+     */
+    BlockInfoTable(int initialCapacity, float loadFactor) {
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        int capacity = 1;
+        while (capacity < initialCapacity && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        this.loadFactor = loadFactor;
+        this.table = new BlockInfo[capacity];
+        this.threshold = (int) (capacity * loadFactor);
+    }
+
+    /**
+     * Block ids are random, but ids allocated in sequence, as in tests,
+     * must not end up in one cluster either.
+     */
+    private static int indexFor(long blockId, int length) {
+        int h = (int) (blockId ^ (blockId >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    /** @return the slot holding b, or -1 */
+    private int find(Block b) {
+        BlockInfo[] tab = table;
+        int mask = tab.length - 1;
+        for (int i = indexFor(b.getBlockId(), tab.length); ; i = (i + 1) & mask) {
+            BlockInfo e = tab[i];
+            if (e == null) {
+                return -1;
+            }
+            if (b.equals(e)) {
+                return i;
+            }
+        }
+    }
+
+    /** Returns the stored block equal to b, or null. */
+    BlockInfo get(Block b) {
+        int i = find(b);
+        return i < 0 ? null : table[i];
+    }
+
+    /**
+     * Add info if no equal block is stored.
+     * @return false if an equal block was already stored
+     */
+    public boolean add(BlockInfo info) {
+        if (find(info) >= 0) {
+            return false;
+        }
+        if (size + 1 > threshold) {
+            resize();
+        }
+        if (size == table.length - 1) {
+            // a full table has no empty slot to end a probe
+            throw new IllegalStateException("Too many blocks: " + size);
+        }
+        insert(table, info);
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /** Put info into the first free slot of its probe sequence. */
+    private static void insert(BlockInfo[] tab, BlockInfo info) {
+        int mask = tab.length - 1;
+        int i = indexFor(info.getBlockId(), tab.length);
+        while (tab[i] != null) {
+            i = (i + 1) & mask;
+        }
+        tab[i] = info;
+    }
+
+    private void resize() {
+        BlockInfo[] old = table;
+        if (old.length == MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        BlockInfo[] tab = new BlockInfo[old.length << 1];
+        for (BlockInfo e : old) {
+            if (e != null) {
+                insert(tab, e);
+            }
+        }
+        table = tab;
+        threshold = (int) (tab.length * loadFactor);
+    }
+
+    /**
+     * Remove the stored block equal to o.
+     * @return true if a block was removed
+     */
+    public boolean remove(Object o) {
+        if (!(o instanceof Block)) {
+            return false;
+        }
+        int i = find((Block) o);
+        if (i < 0) {
+            return false;
+        }
+        BlockInfo[] tab = table;
+        int mask = tab.length - 1;
+        tab[i] = null;
+        // move back the entries of the cluster that could no longer be
+        // reached from their home slot across the new hole
+        for (int j = (i + 1) & mask; tab[j] != null; j = (j + 1) & mask) {
+            int home = indexFor(tab[j].getBlockId(), tab.length);
+            boolean reachable = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                tab[i] = tab[j];
+                tab[j] = null;
+                i = j;
+            }
+        }
+        size--;
+        modCount++;
+        return true;
+    }
+
+    public boolean contains(Object o) {
+        return o instanceof Block && find((Block) o) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(table, null);
+        size = 0;
+        modCount++;
+    }
+
+    /** The number of slots of the table. */
+    int getCapacity() {
+        return table.length;
+    }
+
+    float getLoadFactor() {
+        return loadFactor;
+    }
+
+    /** The returned iterator does not support removal. */
+    public Iterator<BlockInfo> iterator() {
+        return new Iterator<BlockInfo>() {
+            private final BlockInfo[] tab = table;
+            private final int expectedModCount = modCount;
+            private int index = advance(0);
+
+            private int advance(int i) {
+                while (i < tab.length && tab[i] == null) {
+                    i++;
+                }
+                return i;
+            }
+
+            public boolean hasNext() {
+                return index < tab.length;
+            }
+
+            public BlockInfo next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= tab.length) {
+                    throw new NoSuchElementException();
+                }
+                BlockInfo e = tab[index];
+                index = advance(index + 1);
+                return e;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Sorry. can't remove.");
+            }
+        };
+    }
+}
@@ -44,6 +44,11 @@ class BlocksMap {
          */
         private Object[] triplets;
 
+        /**
+         * 动态副本为本块设置的副本数，0 表示与文件副本数相同
+         */
+        private short dynamicReplication;
+
         BlockInfo(Block blk, int replication) {
             super(blk);
             this.triplets = new Object[3 * replication];
@@ -54,6 +59,25 @@ class BlocksMap {
             return inode;
         }
 
+        short getDynamicReplication() {
+            return dynamicReplication;
+        }
+
+        void setDynamicReplication(short replication) {
+            this.dynamicReplication = replication;
+        }
+
+        /**
+         * 块的期望副本数：文件副本数与块的动态副本数中的较大者，
+         * 不属于任何文件的块返回 0
+         */
+        short getExpectedReplication() {
+            if (inode == null) {
+                return 0;
+            }
+            return (short) Math.max(inode.getReplication(), dynamicReplication);
+        }
+
         DatanodeDescriptor getDatanode(int index) {
             assert this.triplets != null : "BlockInfo is not initialized";
             assert index >= 0 && index * 3 < triplets.length : "Index is out of bound";
@@ -102,7 +126,7 @@ class BlocksMap {
             triplets[index * 3 + 2] = to;
         }
 
-        private int getCapacity() {
+        int getCapacity() {
             assert this.triplets != null : "BlockInfo is not initialized";
             assert triplets.length % 3 == 0 : "Malformed BlockInfo";
             return triplets.length / 3;
@@ -290,19 +314,10 @@ class BlocksMap {
         }
     }
 
-    // Used for tracking HashMap capacity growth
-    private int capacity;
-    private final float loadFactor;
-
-    private Map<BlockInfo, BlockInfo> map;
+    private final BlockInfoTable map;
 
     BlocksMap(int initialCapacity, float loadFactor) {
-        this.capacity = 1;
-        // Capacity is initialized to the next multiple of 2 of initialCapacity
-        while (this.capacity < initialCapacity)
-            this.capacity <<= 1;
-        this.loadFactor = loadFactor;
-        this.map = new HashMap<BlockInfo, BlockInfo>(initialCapacity, loadFactor);
+        this.map = new BlockInfoTable(initialCapacity, loadFactor);
     }
 
     /**
@@ -312,7 +327,7 @@ class BlocksMap {
         BlockInfo info = map.get(b);
         if (info == null) {
             info = new BlockInfo(b, replication);
-            map.put(info, info);
+            map.add(info);
         }
         return info;
     }
@@ -331,6 +346,20 @@ class BlocksMap {
         return info;
     }
 
+    /**
+     * Add a block of a file loaded from the image. The image loader creates
+     * the {@link BlockInfo}s on its worker threads and adds them here in
+     * order; a block that is stored already keeps its stored info.
+     * @return the info stored in the map for the block
+     */
+    BlockInfo addLoadedBlock(BlockInfo info, INodeFile iNode) {
+        if (!map.add(info)) {
+            info = map.get(info);
+        }
+        info.inode = iNode;
+        return info;
+    }
+
     /**
      * Remove INode reference from block b.
      * If it does not belong to any file and data-nodes,
@@ -412,14 +441,14 @@ class BlocksMap {
     }
 
     Collection<BlockInfo> getBlocks() {
-        return map.values();
+        return map;
     }
 
     /**
      * Check if the block exists in map
      */
     boolean contains(Block block) {
-        return map.containsKey(block);
+        return map.contains(block);
     }
 
     /**
@@ -436,17 +465,13 @@ class BlocksMap {
         return true;
     }
 
-    /** Get the capacity of the HashMap that stores blocks */
+    /** Get the capacity of the table that stores blocks */
     public int getCapacity() {
-        // Capacity doubles every time the map size reaches the threshold
-        while (map.size() > (int) (capacity * loadFactor)) {
-            capacity <<= 1;
-        }
-        return capacity;
+        return map.getCapacity();
     }
 
-    /** Get the load factor of the map */
+    /** Get the load factor of the table */
     public float getLoadFactor() {
-        return loadFactor;
+        return map.getLoadFactor();
     }
 }
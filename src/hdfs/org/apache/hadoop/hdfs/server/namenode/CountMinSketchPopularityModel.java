@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * 用 count-min sketch 估计衰减计数的热度模型，内存大小固定，
+ * 与命名空间中的文件数无关，适合文件数非常多的集群。
+ * <p>
+ * sketch 有 depth 行、每行 width 个计数，文件在每行散列到一个计数，
+ * 估计值取这些计数的最小值，只会高估不会低估。更新时只提高小于新估计值的
+ * 计数（conservative update），以减小高估。sketch 不能删除文件，
+ * 已删除文件的计数随时间衰减后自然失去影响。
+ */
+class CountMinSketchPopularityModel extends ForwardDecayPopularityModel {
+    private int depth;
+    private int mask;
+    //depth * width 个 log2 计数，按行存放
+    private double[] cells;
+
+    public void setConf(Configuration conf) {
+        super.setConf(conf);
+        int width = conf.getInt("dfs.dynamic.popularity.sketch.width", 1 << 16);
+        this.depth = conf.getInt("dfs.dynamic.popularity.sketch.depth", 4);
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Invalid sketch size: width "
+                    + width + ", depth " + depth);
+        }
+        //宽度取不小于配置值的 2 的幂
+        int w = Integer.highestOneBit(width);
+        if (w < width) {
+            w <<= 1;
+        }
+        this.mask = w - 1;
+        this.cells = new double[depth * w];
+        Arrays.fill(cells, EMPTY);
+    }
+
+    void add(INodeFile inode, double log2Count) {
+        long h = hash(inode);
+        raise(h, log2Add(estimate(h), log2Count));
+    }
+
+    public long getScore(INodeFile inode) {
+        return toScore(estimate(hash(inode)));
+    }
+
+    public void restore(INodeFile inode, long score) {
+        raise(hash(inode), fromScore(score));
+    }
+
+    public void replace(INodeFile oldNode, INodeFile newNode) {
+        double count = estimate(hash(oldNode));
+        if (count != EMPTY) {
+            raise(hash(newNode), count);
+        }
+    }
+
+    public void remove(INodeFile inode) {
+        //sketch 不支持删除
+    }
+
+    private int index(long h, int row) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private double estimate(long h) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, cells[index(h, row)]);
+        }
+        return min;
+    }
+
+    private void raise(long h, double count) {
+        for (int row = 0; row < depth; row++) {
+            int i = index(h, row);
+            if (cells[i] < count) {
+                cells[i] = count;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Arrays;
+
+/**
+ * 每个被读过的文件一个衰减计数的热度模型。
+ * <p>
+ * 计数保存在开放寻址（线性探测）的散列表中，键数组和计数数组都是
+ * 基本类型数组，不为每个文件分配对象，也不在 inode 中增加字段。
+ * 已从命名空间中删除的文件在扩容时被清除。
+ */
+class DecayedCounterPopularityModel extends ForwardDecayPopularityModel {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private INodeFile[] keys = new INodeFile[INITIAL_CAPACITY];
+    //log2 计数，与 keys 同下标
+    private double[] counts = new double[INITIAL_CAPACITY];
+    private int size = 0;
+
+    void add(INodeFile inode, double log2Count) {
+        int slot = findOrInsert(inode);
+        counts[slot] = log2Add(counts[slot], log2Count);
+    }
+
+    public long getScore(INodeFile inode) {
+        int slot = find(inode);
+        return slot < 0 ? Long.MIN_VALUE : toScore(counts[slot]);
+    }
+
+    public void restore(INodeFile inode, long score) {
+        counts[findOrInsert(inode)] = fromScore(score);
+    }
+
+    public void replace(INodeFile oldNode, INodeFile newNode) {
+        int slot = find(oldNode);
+        if (slot < 0) {
+            return;
+        }
+        double count = counts[slot];
+        removeAt(slot);
+        counts[findOrInsert(newNode)] = count;
+    }
+
+    public void remove(INodeFile inode) {
+        int slot = find(inode);
+        if (slot >= 0) {
+            removeAt(slot);
+        }
+    }
+
+    /** 跟踪的文件数 */
+    int size() {
+        return size;
+    }
+
+    private int home(INodeFile inode, int mask) {
+        return (int) hash(inode) & mask;
+    }
+
+    private int find(INodeFile inode) {
+        int mask = keys.length - 1;
+        for (int i = home(inode, mask); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == inode) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findOrInsert(INodeFile inode) {
+        int slot = find(inode);
+        if (slot >= 0) {
+            return slot;
+        }
+        //负载因子不超过 1/2
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+        }
+        int mask = keys.length - 1;
+        int i = home(inode, mask);
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = inode;
+        counts[i] = EMPTY;
+        size++;
+        return i;
+    }
+
+    /**
+     * 清除已删除的文件，并按剩余文件数重新分配表的大小
+     */
+    private void rehash() {
+        INodeFile[] oldKeys = keys;
+        double[] oldCounts = counts;
+        int live = 0;
+        for (INodeFile key : oldKeys) {
+            if (key != null && key.getParent() != null) {
+                live++;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while ((live + 1) * 4 > capacity) {
+            capacity <<= 1;
+        }
+        keys = new INodeFile[capacity];
+        counts = new double[capacity];
+        Arrays.fill(counts, EMPTY);
+        size = 0;
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            INodeFile key = oldKeys[j];
+            if (key == null || key.getParent() == null) {
+                continue;
+            }
+            int i = home(key, mask);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            counts[i] = oldCounts[j];
+            size++;
+        }
+    }
+
+    /**
+     * 删除下标 i 处的文件，把同一探测序列中后面的文件前移，不留删除标记
+     */
+    private void removeAt(int i) {
+        int mask = keys.length - 1;
+        keys[i] = null;
+        counts[i] = EMPTY;
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int k = home(keys[j], mask);
+            //k 不在 (i, j] 内时，j 处的文件可以移到 i
+            boolean movable = (i <= j) ? (k <= i || k > j) : (k <= i && k > j);
+            if (movable) {
+                keys[i] = keys[j];
+                counts[i] = counts[j];
+                keys[j] = null;
+                counts[j] = EMPTY;
+                i = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按块调整的动态副本。
+ * <p>
+ * 大文件中往往只有少数块是热的（例如 TFile、MapFile 尾部的索引），
+ * 按文件调整副本会浪费大量空间。本类为每个被 datanode 报告读过的块
+ * 维护一个前向衰减的读计数（参见 {@link ForwardDecayPopularityModel}），
+ * 并据此计算块的目标副本数，保存在 {@link BlockInfo} 中：
+ * 衰减后的读次数达到 dfs.dynamic.block.hot.reads 时增加一个副本，
+ * 之后读次数每翻一倍再增加一个，最多到 dfs.dynamic.max。
+ * <p>
+ * 报告到达时只提升副本数；降低副本数由规划线程每隔
+ * dfs.dynamic.block.check.interval 调用 {@link #sweep} 完成，
+ * 这样提升和降低之间有一个检查周期的滞后，不会来回抖动。
+ * <p>
+ * 计数保存在开放寻址的散列表中，键是 BlockInfo 的引用，计数是基本类型数组。
+ * 本类不是线程安全的，调用者需要持有 namesystem 锁。
+ */
+class DynamicBlockReplication {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //半衰期，单位毫秒
+    private final double halfLife;
+    //增加第一个副本所需的衰减读次数的 log2
+    private final double log2HotReads;
+    //动态副本的上限
+    private final int maxReplication;
+
+    private BlockInfo[] keys = new BlockInfo[INITIAL_CAPACITY];
+    //log2 计数，与 keys 同下标
+    private double[] counts = new double[INITIAL_CAPACITY];
+    private int size = 0;
+
+    DynamicBlockReplication(Configuration conf, int maxReplication) {
+        long halfLifeMs = conf.getLong("dfs.dynamic.popularity.halflife", 60 * 60 * 1000L);
+        if (halfLifeMs <= 0) {
+            throw new IllegalArgumentException(
+                    "dfs.dynamic.popularity.halflife must be positive: " + halfLifeMs);
+        }
+        int hotReads = conf.getInt("dfs.dynamic.block.hot.reads", 16);
+        if (hotReads <= 0) {
+            throw new IllegalArgumentException(
+                    "dfs.dynamic.block.hot.reads must be positive: " + hotReads);
+        }
+        this.halfLife = halfLifeMs;
+        this.log2HotReads = Math.log(hotReads) / Math.log(2);
+        this.maxReplication = maxReplication;
+        Arrays.fill(counts, ForwardDecayPopularityModel.EMPTY);
+    }
+
+    /**
+     * 记录块在 now 时刻被读了 reads 次
+     * @return 块的新目标副本数，不需要提升时返回 -1
+     */
+    int recordReads(BlockInfo block, long now, long reads) {
+        if (reads <= 0) {
+            return -1;
+        }
+        int slot = findOrInsert(block);
+        counts[slot] = ForwardDecayPopularityModel.log2Add(counts[slot],
+                now / halfLife + Math.log(reads) / Math.log(2));
+        int target = getTarget(block, counts[slot], now);
+        return target > block.getDynamicReplication() ? target : -1;
+    }
+
+    /**
+     * 重新计算所有被跟踪块的目标副本数，清除已删除或已冷却的块。
+     * @return 目标副本数低于当前动态副本数的块，调用者负责降低它们的副本
+     */
+    List<BlockInfo> sweep(long now) {
+        List<BlockInfo> cooled = new ArrayList<BlockInfo>();
+        for (int i = 0; i < keys.length; i++) {
+            BlockInfo block = keys[i];
+            if (block == null) {
+                continue;
+            }
+            if (block.getINode() == null) {
+                removeAt(i--);
+                continue;
+            }
+            int target = getTarget(block, counts[i], now);
+            if (target < block.getDynamicReplication()) {
+                cooled.add(block);
+            }
+            //衰减后不足一次读的块不再跟踪
+            if (target == 0 && counts[i] - now / halfLife < 0) {
+                removeAt(i--);
+            }
+        }
+        return cooled;
+    }
+
+    /**
+     * 块当前的目标副本数，不需要额外副本时返回 0
+     */
+    int getTarget(BlockInfo block, long now) {
+        int slot = find(block);
+        return slot < 0 ? 0 : getTarget(block, counts[slot], now);
+    }
+
+    private int getTarget(BlockInfo block, double log2Count, long now) {
+        INodeFile inode = block.getINode();
+        if (inode == null || inode.isUnderConstruction()) {
+            return 0;
+        }
+        //now 时刻衰减后的读次数的 log2
+        double decayed = log2Count - now / halfLife;
+        if (decayed < log2HotReads) {
+            return 0;
+        }
+        int extra = (int) Math.floor(decayed - log2HotReads) + 1;
+        int target = Math.min(maxReplication, inode.getReplication() + extra);
+        return target > inode.getReplication() ? target : 0;
+    }
+
+    /** 跟踪的块数 */
+    int size() {
+        return size;
+    }
+
+    private static int home(BlockInfo block, int mask) {
+        long h = System.identityHashCode(block) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(BlockInfo block) {
+        int mask = keys.length - 1;
+        for (int i = home(block, mask); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == block) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findOrInsert(BlockInfo block) {
+        int slot = find(block);
+        if (slot >= 0) {
+            return slot;
+        }
+        //负载因子不超过 1/2
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+        }
+        int mask = keys.length - 1;
+        int i = home(block, mask);
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = block;
+        counts[i] = ForwardDecayPopularityModel.EMPTY;
+        size++;
+        return i;
+    }
+
+    /**
+     * 清除已删除的块，并按剩余块数重新分配表的大小
+     */
+    private void rehash() {
+        BlockInfo[] oldKeys = keys;
+        double[] oldCounts = counts;
+        int live = 0;
+        for (BlockInfo key : oldKeys) {
+            if (key != null && key.getINode() != null) {
+                live++;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while ((live + 1) * 4 > capacity) {
+            capacity <<= 1;
+        }
+        keys = new BlockInfo[capacity];
+        counts = new double[capacity];
+        Arrays.fill(counts, ForwardDecayPopularityModel.EMPTY);
+        size = 0;
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            BlockInfo key = oldKeys[j];
+            if (key == null || key.getINode() == null) {
+                continue;
+            }
+            int i = home(key, mask);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            counts[i] = oldCounts[j];
+            size++;
+        }
+    }
+
+    /**
+     * 删除下标 i 处的块，把同一探测序列中后面的块前移，不留删除标记。
+     * 被前移到 i 处的块在 {@link #sweep} 中会被再次检查。
+     */
+    private void removeAt(int i) {
+        int mask = keys.length - 1;
+        keys[i] = null;
+        counts[i] = ForwardDecayPopularityModel.EMPTY;
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int k = home(keys[j], mask);
+            //k 不在 (i, j] 内时，j 处的块可以移到 i
+            boolean movable = (i <= j) ? (k <= i || k > j) : (k <= i && k > j);
+            if (movable) {
+                keys[i] = keys[j];
+                counts[i] = counts[j];
+                keys[j] = null;
+                counts[j] = ForwardDecayPopularityModel.EMPTY;
+                i = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * 动态副本的空间控制器，决定何时降低副本数以及一次降低多少字节。
+ * <p>
+ * 已用空间超过高水位 dfs.dynamic.top 时进入降副本状态，
+ * 直到已用空间降到低水位 dfs.dynamic.low 以下才退出；降副本状态下
+ * 不提升任何文件的副本数，两个水位之间的差距避免了提升和降低来回抖动。
+ * <p>
+ * 每次只降低到达低水位所需的字节数，并且按 dfs.dynamic.demote.bandwidth
+ * （字节每秒）限速，把删除多余副本的工作分散到一段时间内。
+ * datanode 要在删除副本后的若干次心跳中才报告空间变化，
+ * 最近 dfs.dynamic.demote.settle.interval 内已降低的字节数视为即将释放，
+ * 不会被重复降低。
+ * <p>
+ * 本类不是线程安全的，调用者需要持有 namesystem 锁。
+ */
+class DynamicReplicationCapacityController {
+    //高水位，已用空间百分比
+    private final float highWater;
+    //低水位，已用空间百分比
+    private final float lowWater;
+    //每秒最多降低的字节数
+    private final long bandwidth;
+    //已降低的副本被视为尚未释放的时间
+    private final long settleInterval;
+
+    //是否处于降副本状态
+    private boolean demoting = false;
+    //可用于降副本的字节数，按 bandwidth 随时间累积，最多累积一秒
+    private long credit;
+    private long lastRefill;
+    //最近一个 settleInterval 内已降低但可能尚未反映到空间统计中的字节数
+    private long settlingBytes = 0;
+    private long settleStart;
+
+    DynamicReplicationCapacityController(Configuration conf, float highWater, long now) {
+        this.highWater = highWater;
+        this.lowWater = Math.max(0, conf.getFloat("dfs.dynamic.low", highWater - 5.0f));
+        if (lowWater > highWater) {
+            throw new IllegalArgumentException("dfs.dynamic.low " + lowWater
+                    + " must not be greater than dfs.dynamic.top " + highWater);
+        }
+        this.bandwidth = conf.getLong("dfs.dynamic.demote.bandwidth", 64L * 1024 * 1024);
+        if (bandwidth <= 0) {
+            throw new IllegalArgumentException(
+                    "dfs.dynamic.demote.bandwidth must be positive: " + bandwidth);
+        }
+        this.settleInterval = conf.getLong("dfs.dynamic.demote.settle.interval", 60 * 1000L);
+        this.credit = bandwidth;
+        this.lastRefill = now;
+        this.settleStart = now;
+    }
+
+    /**
+     * 根据当前空间更新降副本状态
+     * @return 当前是否可以提升副本数
+     */
+    boolean canPromote(long capacityTotal, long capacityRemaining) {
+        float used = updateState(capacityTotal, capacityRemaining);
+        return !demoting && used <= highWater;
+    }
+
+    /**
+     * 本次应该降低的字节数：到达低水位还需要的字节数，受限速约束。
+     * 返回正数时，即使一个文件比它大也可以降低该文件。
+     */
+    long getBytesToDemote(long now, long capacityTotal, long capacityRemaining) {
+        updateState(capacityTotal, capacityRemaining);
+        if (now - lastRefill > 0) {
+            credit = Math.min(bandwidth, credit + (now - lastRefill) * bandwidth / 1000);
+            lastRefill = now;
+        }
+        if (now - settleStart >= settleInterval) {
+            settlingBytes = 0;
+            settleStart = now;
+        }
+        if (!demoting || credit <= 0) {
+            return 0;
+        }
+        long used = capacityTotal - capacityRemaining;
+        long needed = used - (long) (capacityTotal * (double) lowWater / 100) - settlingBytes;
+        return needed <= 0 ? 0 : Math.min(needed, credit);
+    }
+
+    /**
+     * 记录已降低的字节数
+     */
+    void demoted(long bytes) {
+        credit -= bytes;
+        settlingBytes += bytes;
+    }
+
+    boolean isDemoting() {
+        return demoting;
+    }
+
+    private float updateState(long capacityTotal, long capacityRemaining) {
+        if (capacityTotal <= 0) {
+            return 0;
+        }
+        float used = 100 - ((float) capacityRemaining * 100.0f) / (float) capacityTotal;
+        if (used > highWater) {
+            demoting = true;
+        } else if (used <= lowWater) {
+            demoting = false;
+        }
+        return used;
+    }
+}
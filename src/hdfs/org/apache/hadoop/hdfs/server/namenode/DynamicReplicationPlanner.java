@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 动态副本规划线程。
+ * <p>
+ * getBlockLocations 只负责把访问事件放入一个有界的无锁队列，
+ * 由本线程批量取出事件，在持有 namesystem 锁的情况下统一调用
+ * {@link FSNamesystem.DynamicReplicationMonitor} 调整副本数，
+ * 这样客户端 open 的延迟与动态副本集合的大小无关。
+ * <p>
+ * 队列满时新的访问事件被直接丢弃，只影响副本调整的及时性，
+ * 不影响正确性：文件下一次被访问时会再次进入队列。
+ * <p>
+ * JobTracker 等报告的预计读者数（预取提示）与访问事件共用同一个队列，
+ * 由本线程换算成预计的分数后调整副本，RPC 线程不持有写锁执行分配算法。
+ * <p>
+ * datanode 心跳中的块读次数也放入一个有界队列，由本线程折算到文件后
+ * 记录到热度模型，并用于按块调整副本。已冷却的块由本线程定期降低副本数。
+ * <p>
+ * 空间不足时也由本线程逐步降低最冷文件的副本数，
+ * 参见 {@link DynamicReplicationCapacityController}。
+ */
+class DynamicReplicationPlanner implements Runnable {
+    static final Log LOG = LogFactory.getLog(DynamicReplicationPlanner.class);
+
+    /** 一次访问事件：被访问的路径以及当时解析到的 inode */
+    static class AccessEvent {
+        final String src;
+        final INodeFile inode;
+        //预取提示的预计读者数，普通访问为 0
+        final int readers;
+
+        AccessEvent(String src, INodeFile inode, int readers) {
+            this.src = src;
+            this.inode = inode;
+            this.readers = readers;
+        }
+    }
+
+    private final FSNamesystem namesystem;
+    private final ConcurrentLinkedQueue<AccessEvent> events =
+            new ConcurrentLinkedQueue<AccessEvent>();
+    //队列中事件数，用来实现有界队列
+    private final AtomicInteger pending = new AtomicInteger();
+    //因队列已满而丢弃的事件数
+    private final AtomicLong dropped = new AtomicLong();
+    //心跳中的块读次数
+    private final ConcurrentLinkedQueue<long[]> blockReads =
+            new ConcurrentLinkedQueue<long[]>();
+    private final AtomicInteger pendingReports = new AtomicInteger();
+    private final AtomicLong droppedReports = new AtomicLong();
+
+    //队列容量
+    private final int capacity;
+    //每批最多处理的事件数
+    private final int batchSize;
+    //队列为空时的休眠时间
+    private final long interval;
+    //块读次数队列容量
+    private final int reportCapacity;
+    //检查已冷却的块的间隔
+    private final long blockCheckInterval;
+    private long lastBlockCheck;
+
+    DynamicReplicationPlanner(FSNamesystem namesystem, Configuration conf) {
+        this.namesystem = namesystem;
+        this.capacity = conf.getInt("dfs.dynamic.planner.queue.size", 10000);
+        this.batchSize = conf.getInt("dfs.dynamic.planner.batch.size", 1000);
+        this.interval = conf.getLong("dfs.dynamic.planner.interval", 100);
+        this.reportCapacity = conf.getInt("dfs.dynamic.planner.report.queue.size", 1000);
+        this.blockCheckInterval = conf.getLong("dfs.dynamic.block.check.interval", 5 * 60 * 1000L);
+        this.lastBlockCheck = FSNamesystem.now();
+    }
+
+    /**
+     * 提交一次访问事件，不加锁也不阻塞。
+     * @return false 如果队列已满，事件被丢弃
+     */
+    boolean offer(String src, INodeFile inode) {
+        return offer(new AccessEvent(src, inode, 0));
+    }
+
+    /**
+     * 提交一个预取提示：文件即将有 readers 个读者，不加锁也不阻塞。
+     * @return false 如果队列已满，提示被丢弃
+     */
+    boolean offerPrefetch(String src, INodeFile inode, int readers) {
+        return offer(new AccessEvent(src, inode, readers));
+    }
+
+    private boolean offer(AccessEvent event) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        events.offer(event);
+        return true;
+    }
+
+    /**
+     * 提交一个 datanode 心跳中的块读次数，不加锁也不阻塞。
+     * @return false 如果队列已满，报告被丢弃
+     */
+    boolean offerBlockReads(long[] reads) {
+        if (pendingReports.incrementAndGet() > reportCapacity) {
+            pendingReports.decrementAndGet();
+            droppedReports.incrementAndGet();
+            return false;
+        }
+        blockReads.offer(reads);
+        return true;
+    }
+
+    /** 因队列已满而丢弃的块读次数报告数 */
+    long getDroppedReports() {
+        return droppedReports.get();
+    }
+
+    /** 队列中等待处理的事件数 */
+    int getPendingEvents() {
+        return pending.get();
+    }
+
+    /** 因队列已满而丢弃的事件总数 */
+    long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    public void run() {
+        while (namesystem.isRunning()) {
+            try {
+                long now = FSNamesystem.now();
+                if (now - lastBlockCheck >= blockCheckInterval) {
+                    lastBlockCheck = now;
+                    namesystem.checkDynamicBlockReplication();
+                }
+                //空间超过高水位时按限速降低副本数，降副本已记录在日志中
+                if (namesystem.checkDynamicReplicationCapacity() > 0) {
+                    namesystem.getEditLog().logSync();
+                }
+                if (processBatch() == 0) {
+                    Thread.sleep(interval);
+                }
+            } catch (InterruptedException ie) {
+                LOG.info(getClass().getSimpleName() + " received InterruptedException.");
+                break;
+            } catch (Throwable t) {
+                LOG.warn("DynamicReplicationPlanner: " + StringUtils.stringifyException(t));
+            }
+        }
+    }
+
+    /**
+     * 取出一批事件和块读次数报告并处理，同一个 inode 在一批中只处理一次。
+     * 预取提示在访问事件之后处理，同一文件有多个提示时取读者数最多的。
+     * @return 本批取出的事件数和报告数
+     */
+    int processBatch() throws IOException {
+        Map<INodeFile, String> batch = new IdentityHashMap<INodeFile, String>();
+        Map<INodeFile, AccessEvent> hints = new IdentityHashMap<INodeFile, AccessEvent>();
+        int polled = 0;
+        AccessEvent event;
+        while (polled < batchSize && (event = events.poll()) != null) {
+            pending.decrementAndGet();
+            polled++;
+            if (event.readers > 0) {
+                AccessEvent old = hints.get(event.inode);
+                if (old == null || old.readers < event.readers) {
+                    hints.put(event.inode, event);
+                }
+            } else {
+                batch.put(event.inode, event.src);
+            }
+        }
+        List<long[]> reports = new ArrayList<long[]>();
+        long[] report;
+        while (reports.size() < batchSize && (report = blockReads.poll()) != null) {
+            pendingReports.decrementAndGet();
+            reports.add(report);
+        }
+        if (batch.isEmpty() && hints.isEmpty() && reports.isEmpty()) {
+            return 0;
+        }
+        namesystem.writeLock();
+        try {
+            for (long[] r : reports) {
+                namesystem.recordBlockReads(r, batch);
+            }
+            for (Map.Entry<INodeFile, String> e : batch.entrySet()) {
+                String src = e.getValue();
+                INodeFile inode = e.getKey();
+                //文件在排队期间可能被删除、改名或替换，此时忽略该事件
+                if (namesystem.dir.getFileINode(src) != inode) {
+                    continue;
+                }
+                try {
+                    namesystem.allocateReplicationInternal(src, inode);
+                } catch (SafeModeException se) {
+                    //安全模式下不调整副本，丢弃剩余事件
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Skip dynamic replication in safe mode: " + se.getMessage());
+                    }
+                    break;
+                } catch (IOException ie) {
+                    LOG.warn("Failed to allocate replication for " + src + ": "
+                            + StringUtils.stringifyException(ie));
+                }
+            }
+            for (AccessEvent hint : hints.values()) {
+                if (namesystem.dir.getFileINode(hint.src) != hint.inode) {
+                    continue;
+                }
+                try {
+                    namesystem.prefetchReplicationInternal(hint.src, hint.inode, hint.readers);
+                } catch (SafeModeException se) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Skip prefetch in safe mode: " + se.getMessage());
+                    }
+                    break;
+                } catch (IOException ie) {
+                    LOG.warn("Failed to prefetch replication for " + hint.src + ": "
+                            + StringUtils.stringifyException(ie));
+                }
+            }
+        } finally {
+            namesystem.writeUnlock();
+        }
+        //副本调整已记录在日志中，在锁外同步到磁盘
+        namesystem.getEditLog().logSync();
+        return polled + reports.size();
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+/**
+ * 目录的动态副本策略。
+ * <p>
+ * 策略像配额一样保存在目录 inode 上，对目录树中没有更近策略的文件生效，
+ * 查找文件的策略只需沿父目录向上走，代价为 O(depth)。策略规定：
+ * <ul>
+ * <li>文件是否可以提升副本数；</li>
+ * <li>文件的最大副本数，可以超过 dfs.dynamic.max；</li>
+ * <li>受本策略约束的文件动态增加的副本最多占用的集群容量比例。</li>
+ * </ul>
+ * 本类不是线程安全的，调用者需要持有 namesystem 锁。
+ */
+class DynamicReplicationPolicy {
+    private boolean eligible;
+    //0 表示使用 dfs.dynamic.max
+    private short maxReplication;
+    //0 表示不限制
+    private float capacityShare;
+    //受本策略约束的文件中超过 minDynamicReplication 的副本的字节数
+    long dynamicBytes = 0;
+
+    DynamicReplicationPolicy(boolean eligible, short maxReplication, float capacityShare) {
+        set(eligible, maxReplication, capacityShare);
+    }
+
+    /** 修改策略，已统计的字节数保持不变 */
+    void set(boolean eligible, short maxReplication, float capacityShare) {
+        this.eligible = eligible;
+        this.maxReplication = maxReplication;
+        this.capacityShare = capacityShare;
+    }
+
+    boolean isEligible() {
+        return eligible;
+    }
+
+    short getMaxReplication() {
+        return maxReplication;
+    }
+
+    float getCapacityShare() {
+        return capacityShare;
+    }
+
+    /**
+     * 文件的最大副本数
+     * @param defaultMax 没有设置最大副本数时使用的值
+     * @param min 不允许提升副本数时使用的值
+     */
+    int getMaxReplication(int defaultMax, int min) {
+        if (!eligible) {
+            return min;
+        }
+        return maxReplication == 0 ? defaultMax : maxReplication;
+    }
+
+    /** 再增加 bytes 字节的动态副本是否超过容量份额 */
+    boolean canGrow(long bytes, long capacityTotal) {
+        return capacityShare <= 0 || dynamicBytes + bytes <= capacityShare * capacityTotal;
+    }
+
+    public String toString() {
+        return "eligible=" + eligible + ", max=" + maxReplication
+                + ", share=" + capacityShare + ", bytes=" + dynamicBytes;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * This class is used in Namesystem's jetty to report the state of
+ * dynamic replication: the size of each tier and the hottest files.
+ * The number of files listed is given by the parameter "files",
+ * defaulting to dfs.dynamic.hotfiles.count.
+ */
+public class DynamicReplicationServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    public void doGet(HttpServletRequest request,
+                      HttpServletResponse response
+    ) throws ServletException, IOException {
+        ServletContext context = getServletContext();
+        NameNode nn = (NameNode) context.getAttribute("name.node");
+        Configuration conf = (Configuration) context.getAttribute("name.conf");
+        int count = conf.getInt("dfs.dynamic.hotfiles.count", 20);
+        String files = request.getParameter("files");
+        if (files != null) {
+            try {
+                count = Integer.parseInt(files);
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Invalid value of files: " + files);
+                return;
+            }
+        }
+
+        FSNamesystem namesystem = nn.getNamesystem();
+        int[] tierFiles;
+        long[] tierBytes;
+        String[] hotFiles;
+        namesystem.readLock();
+        try {
+            tierFiles = namesystem.getDynamicReplicationTierFiles();
+            tierBytes = namesystem.getDynamicReplicationTierBytes();
+            hotFiles = namesystem.getDynamicReplicationHotFiles(count);
+        } finally {
+            namesystem.readUnlock();
+        }
+
+        response.setContentType("text/plain; charset=UTF-8");
+        PrintWriter out = response.getWriter();
+        out.println("Reads recorded: " + namesystem.getDynamicReplicationAccesses());
+        out.println("Blocks queued for dynamic replication: "
+                + namesystem.getDynamicReplicationQueueBlocks());
+        out.println();
+        out.println("Replication\tFiles\tBytes");
+        for (int i = 0; i < tierFiles.length; i++) {
+            out.println((namesystem.getMinDynamicReplication() + i + 1) + "\t"
+                    + tierFiles[i] + "\t" + tierBytes[i]);
+        }
+        out.println();
+        out.println("Path\tReplication\tScore");
+        for (String file : hotFiles) {
+            out.println(file);
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Arrays;
+
+/**
+ * 一个动态副本集合：集合中所有文件的副本数都等于 {@link #getReplication()}。
+ * <p>
+ * 集合用索引最小堆实现，按分数（指数平均访问时间）排序。
+ * 每个成员 {@link Entry} 记录自己在堆中的下标，因此插入、删除和
+ * 修改分数都是 O(log n)，取分数最小的文件是 O(1)。
+ * <p>
+ * 本类不是线程安全的，调用者需要持有 namesystem 锁。
+ */
+class DynamicReplicationTier {
+    /** 堆中的一个成员 */
+    static class Entry {
+        final INodeFile inode;
+        long score;
+        //所在集合，不在任何集合中时为 null
+        DynamicReplicationTier tier;
+        //在堆数组中的下标
+        int index = -1;
+        //文件的大小，加入集合和调用 resize 时计算，用于统计集合的字节数
+        long bytes;
+        //加入集合时文件所受的目录策略，用于统计策略的字节数
+        DynamicReplicationPolicy policy;
+
+        Entry(INodeFile inode, long score) {
+            this.inode = inode;
+            this.score = score;
+        }
+
+        INodeFile getINode() {
+            return inode;
+        }
+
+        long getScore() {
+            return score;
+        }
+
+        DynamicReplicationTier getTier() {
+            return tier;
+        }
+    }
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final int replication;
+    private Entry[] heap = new Entry[DEFAULT_CAPACITY];
+    private int size = 0;
+    //集合中文件的总大小，不乘副本数
+    private long bytes = 0;
+
+    DynamicReplicationTier(int replication) {
+        this.replication = replication;
+    }
+
+    /** 集合中文件的副本数 */
+    int getReplication() {
+        return replication;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** 集合中文件的总大小，不乘副本数 */
+    long getBytes() {
+        return bytes;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** 分数最小的成员，集合为空时返回 null */
+    Entry peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    /** 取出分数最小的成员，集合为空时返回 null */
+    Entry poll() {
+        if (size == 0) {
+            return null;
+        }
+        Entry min = heap[0];
+        removeAt(0);
+        return min;
+    }
+
+    /** 插入一个不属于任何集合的成员 */
+    void add(Entry e) {
+        if (e.tier != null) {
+            throw new IllegalArgumentException(e.inode + " already belongs to tier "
+                    + e.tier.replication);
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        e.tier = this;
+        e.bytes = sizeOf(e.inode);
+        bytes += e.bytes;
+        e.index = size;
+        heap[size++] = e;
+        siftUp(e.index);
+    }
+
+    /** 删除本集合中的成员 */
+    boolean remove(Entry e) {
+        if (e.tier != this) {
+            return false;
+        }
+        removeAt(e.index);
+        return true;
+    }
+
+    /** 修改本集合中成员的分数并调整其位置 */
+    void update(Entry e, long score) {
+        if (e.tier != this) {
+            throw new IllegalArgumentException(e.inode + " does not belong to tier "
+                    + replication);
+        }
+        long old = e.score;
+        e.score = score;
+        if (score < old) {
+            siftUp(e.index);
+        } else if (score > old) {
+            siftDown(e.index);
+        }
+    }
+
+    /**
+     * 重新计算成员的文件大小，文件追加写、新增或放弃数据块后调用
+     * @return 文件大小的变化
+     */
+    long resize(Entry e) {
+        if (e.tier != this) {
+            throw new IllegalArgumentException(e.inode + " does not belong to tier "
+                    + replication);
+        }
+        long size = sizeOf(e.inode);
+        long delta = size - e.bytes;
+        e.bytes = size;
+        bytes += delta;
+        return delta;
+    }
+
+    /** 文件一个副本的大小，正在写的文件最后一块按块大小计算 */
+    private static long sizeOf(INodeFile inode) {
+        return inode.diskspaceConsumed() / Math.max(1, inode.getReplication());
+    }
+
+    /** 按堆数组顺序访问第 i 个成员，用于遍历 */
+    Entry get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+        return heap[i];
+    }
+
+    private void removeAt(int i) {
+        Entry removed = heap[i];
+        bytes -= removed.bytes;
+        size--;
+        if (i != size) {
+            Entry last = heap[size];
+            heap[i] = last;
+            last.index = i;
+            if (last.score < removed.score) {
+                siftUp(i);
+            } else {
+                siftDown(i);
+            }
+        }
+        heap[size] = null;
+        removed.tier = null;
+        removed.index = -1;
+    }
+
+    private void siftUp(int i) {
+        Entry e = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Entry p = heap[parent];
+            if (p.score <= e.score) {
+                break;
+            }
+            heap[i] = p;
+            p.index = i;
+            i = parent;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+
+    private void siftDown(int i) {
+        Entry e = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].score < heap[child].score) {
+                child = right;
+            }
+            Entry c = heap[child];
+            if (e.score <= c.score) {
+                break;
+            }
+            heap[i] = c;
+            c.index = i;
+            i = child;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * 以指数平均访问时间作为分数的热度模型。
+ * <p>
+ * 指数平均访问时间由 {@link FSDirectory} 在更新访问时间时计算并保存在
+ * inode 中，本模型没有自己的状态。访问时间精度
+ * （dfs.access.time.precision）内的重复读不会改变分数。
+ */
+class EwmaPopularityModel implements PopularityModel, Configurable {
+    private Configuration conf;
+    //与 FSNamesystem 相同，按配置中的十进制值转换
+    private double alpha = 0.5;
+
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.alpha = Double.parseDouble(Float.toString(conf.getFloat("dfs.dynamic.alpha", 0.5f)));
+    }
+
+    public Configuration getConf() {
+        return conf;
+    }
+
+    public boolean recordAccess(INodeFile inode, long now, boolean accessTimeUpdated) {
+        return accessTimeUpdated;
+    }
+
+    public boolean recordReads(INodeFile inode, long now, double reads) {
+        //访问时间只由 open 更新
+        return false;
+    }
+
+    public long getScore(INodeFile inode) {
+        return inode.getAccessTime();
+    }
+
+    /**
+     * readers 次在 now 时刻的访问后的指数平均访问时间：
+     * 与 now 的差每次乘以 (1 - alpha)
+     */
+    public long getExpectedScore(INodeFile inode, long now, int readers) {
+        long atime = inode.getAccessTime();
+        if (readers <= 0 || atime >= now) {
+            return atime;
+        }
+        double remaining = (now - atime) * Math.pow(1 - alpha, readers);
+        return now - (long) Math.ceil(remaining);
+    }
+
+    public void restore(INodeFile inode, long score) {
+        //访问时间本身已保存在映像和日志中
+    }
+
+    public void replace(INodeFile oldNode, INodeFile newNode) {
+        //新的 inode 复制了旧 inode 的访问时间
+    }
+
+    public void remove(INodeFile inode) {
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
@@ -37,10 +38,11 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /*************************************************
  * FSDirectory stores the filesystem directory state.
@@ -55,6 +57,8 @@ class FSDirectory implements FSConstants, Closeable {
 
     final FSNamesystem namesystem;
     final INodeDirectoryWithQuota rootDir;
+    //目录树的读写锁，只读的查找可以与其他查找并发执行
+    private final ReentrantReadWriteLock dirLock = new ReentrantReadWriteLock();
     FSImage fsImage;
     private boolean ready = false;
     // Metrics record
@@ -77,6 +81,7 @@ class FSDirectory implements FSConstants, Closeable {
     }
 
     private void initialize(Configuration conf) {
+        fsImage.setConf(conf);
         MetricsContext metricsContext = MetricsUtil.getContext("dfs");
         directoryMetrics = MetricsUtil.createRecord(metricsContext, "FSDirectory");
         directoryMetrics.setTag("sessionId", conf.get("session.id"));
@@ -110,6 +115,22 @@ class FSDirectory implements FSConstants, Closeable {
         }
     }
 
+    void readLock() {
+        dirLock.readLock().lock();
+    }
+
+    void readUnlock() {
+        dirLock.readLock().unlock();
+    }
+
+    void writeLock() {
+        dirLock.writeLock().lock();
+    }
+
+    void writeUnlock() {
+        dirLock.writeLock().unlock();
+    }
+
     private void incrDeletedFileCount(int count) {
         directoryMetrics.incrMetric("files_deleted", count);
         directoryMetrics.update();
@@ -162,8 +183,11 @@ class FSDirectory implements FSConstants, Closeable {
                 permissions, replication,
                 preferredBlockSize, modTime, clientName,
                 clientMachine, clientNode);
-        synchronized (rootDir) {
+        writeLock();
+        try {
             newNode = addNode(path, newNode, -1, false);
+        } finally {
+            writeUnlock();
         }
         if (newNode == null) {
             NameNode.stateChangeLog.info("DIR* FSDirectory.addFile: "
@@ -197,7 +221,8 @@ class FSDirectory implements FSConstants, Closeable {
                     modificationTime, atime, preferredBlockSize);
             diskspace = ((INodeFile) newNode).diskspaceConsumed(blocks);
         }
-        synchronized (rootDir) {
+        writeLock();
+        try {
             try {
                 newNode = addNode(path, newNode, diskspace, false);
                 if (newNode != null && blocks != null) {
@@ -212,6 +237,8 @@ class FSDirectory implements FSConstants, Closeable {
                 return null;
             }
             return newNode;
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -240,7 +267,8 @@ class FSDirectory implements FSConstants, Closeable {
                     modificationTime, atime, preferredBlockSize);
         // add new node to the parent
         INodeDirectory newParent = null;
-        synchronized (rootDir) {
+        writeLock();
+        try {
             try {
                 newParent = rootDir.addToParent(src, newNode, parentINode, false);
             } catch (FileNotFoundException e) {
@@ -256,6 +284,8 @@ class FSDirectory implements FSConstants, Closeable {
                     newF.setBlock(i, namesystem.blocksMap.addINode(blocks[i], newF));
                 }
             }
+        } finally {
+            writeUnlock();
         }
         return newParent;
     }
@@ -266,7 +296,8 @@ class FSDirectory implements FSConstants, Closeable {
     Block addBlock(String path, INode[] inodes, Block block) throws IOException {
         waitForReady();
 
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INodeFile fileNode = (INodeFile) inodes[inodes.length - 1];
 
             // check quota limits and updated space consumed
@@ -282,6 +313,8 @@ class FSDirectory implements FSConstants, Closeable {
                     + path + " with " + block
                     + " block is added to the in-memory "
                     + "file system");
+        } finally {
+            writeUnlock();
         }
         return block;
     }
@@ -293,11 +326,14 @@ class FSDirectory implements FSConstants, Closeable {
             throws IOException {
         waitForReady();
 
-        synchronized (rootDir) {
+        writeLock();
+        try {
             fsImage.getEditLog().logOpenFile(path, file);
             NameNode.stateChangeLog.debug("DIR* FSDirectory.persistBlocks: "
                     + path + " with " + file.getBlocks().length
                     + " blocks is persisted to the file system");
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -306,7 +342,8 @@ class FSDirectory implements FSConstants, Closeable {
      */
     void closeFile(String path, INodeFile file) throws IOException {
         waitForReady();
-        synchronized (rootDir) {
+        writeLock();
+        try {
             // file is closed
             fsImage.getEditLog().logCloseFile(path, file);
             if (NameNode.stateChangeLog.isDebugEnabled()) {
@@ -314,6 +351,8 @@ class FSDirectory implements FSConstants, Closeable {
                         + path + " with " + file.getBlocks().length
                         + " blocks is persisted to the file system");
             }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -324,7 +363,8 @@ class FSDirectory implements FSConstants, Closeable {
                         Block block) throws IOException {
         waitForReady();
 
-        synchronized (rootDir) {
+        writeLock();
+        try {
             // modify file-> block and blocksMap
             fileNode.removeBlock(block);
             namesystem.blocksMap.removeINode(block);
@@ -336,6 +376,8 @@ class FSDirectory implements FSConstants, Closeable {
             NameNode.stateChangeLog.debug("DIR* FSDirectory.addFile: "
                     + path + " with " + block
                     + " block is added to the file system");
+        } finally {
+            writeUnlock();
         }
         return true;
     }
@@ -365,7 +407,8 @@ class FSDirectory implements FSConstants, Closeable {
      */
     boolean unprotectedRenameTo(String src, String dst, long timestamp)
             throws QuotaExceededException {
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INode[] srcInodes = rootDir.getExistingPathINodes(src);
 
             // check the validation of the source
@@ -456,6 +499,8 @@ class FSDirectory implements FSConstants, Closeable {
             NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
                     + "failed to rename " + src + " to " + dst);
             return false;
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -481,16 +526,17 @@ class FSDirectory implements FSConstants, Closeable {
 
     Block[] setDynamicReplication(String src,
                            short replication,
-                           int[] oldReplication
+                           int[] oldReplication,
+                           long score
     ) throws IOException {
         waitForReady();
         Block[] fileBlocks = unprotectedSetReplication(src, replication, oldReplication);
-        /* 这里不在EditLog中记录副本变化的原因是：
-         * 假如NameNode崩溃，重新启动时各个文件的副本数会重新设置为3，
-         * 而动态副本类中的文件集合会重新初始化，两者正好相适应，
-         * 如果记录了EditLog，各个文件的副本数有高有低，但是动态副本类中
-         * 集合并没有相应的记录会出问题
+        /* 动态副本的变化和文件的分数一起记录在EditLog中，
+         * NameNode重新启动时据此恢复文件的副本数和动态副本集合，
+         * 避免所有文件回到默认副本数后重新学习热度并大量删除副本
          * */
+        if (fileBlocks != null)
+            fsImage.getEditLog().logSetDynamicReplication(src, replication, score);
         return fileBlocks;
     }
 
@@ -502,7 +548,8 @@ class FSDirectory implements FSConstants, Closeable {
             oldReplication = new int[1];
         oldReplication[0] = -1;
         Block[] fileBlocks = null;
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INode[] inodes = rootDir.getExistingPathINodes(src);
             INode inode = inodes[inodes.length - 1];
             if (inode == null)
@@ -519,6 +566,8 @@ class FSDirectory implements FSConstants, Closeable {
 
             fileNode.setReplication(replication);
             fileBlocks = fileNode.getBlocks();
+        } finally {
+            writeUnlock();
         }
         return fileBlocks;
     }
@@ -530,7 +579,8 @@ class FSDirectory implements FSConstants, Closeable {
      * @throws IOException if it is a directory or does not exist.
      */
     long getPreferredBlockSize(String filename) throws IOException {
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode fileNode = rootDir.getNode(filename);
             if (fileNode == null) {
                 throw new IOException("Unknown file: " + filename);
@@ -540,17 +590,22 @@ class FSDirectory implements FSConstants, Closeable {
                         filename);
             }
             return ((INodeFile) fileNode).getPreferredBlockSize();
+        } finally {
+            readUnlock();
         }
     }
 
     boolean exists(String src) {
         src = normalizePath(src);
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode inode = rootDir.getNode(src);
             if (inode == null) {
                 return false;
             }
             return inode.isDirectory() ? true : ((INodeFile) inode).getBlocks() != null;
+        } finally {
+            readUnlock();
         }
     }
 
@@ -561,11 +616,14 @@ class FSDirectory implements FSConstants, Closeable {
     }
 
     void unprotectedSetPermission(String src, FsPermission permissions) throws FileNotFoundException {
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INode inode = rootDir.getNode(src);
             if (inode == null)
                 throw new FileNotFoundException("File does not exist: " + src);
             inode.setPermission(permissions);
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -576,7 +634,8 @@ class FSDirectory implements FSConstants, Closeable {
     }
 
     void unprotectedSetOwner(String src, String username, String groupname) throws FileNotFoundException {
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INode inode = rootDir.getNode(src);
             if (inode == null)
                 throw new FileNotFoundException("File does not exist: " + src);
@@ -586,6 +645,8 @@ class FSDirectory implements FSConstants, Closeable {
             if (groupname != null) {
                 inode.setGroup(groupname);
             }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -596,21 +657,11 @@ class FSDirectory implements FSConstants, Closeable {
         if (NameNode.stateChangeLog.isDebugEnabled()) {
             NameNode.stateChangeLog.debug("DIR* FSDirectory.delete: " + src);
         }
-        //先取出受影响的文件
-        FileStatus[] files = getListing(src);
         waitForReady();
         long now = FSNamesystem.now();
         INode deletedNode = unprotectedDelete(src, now);
         if (deletedNode != null) {
             fsImage.getEditLog().logDelete(src, now);
-            //删除成功则调用api尝试从动态集合中删除
-            if(files != null){
-                for(FileStatus file : files){
-                    if(!file.isDir()){
-                        namesystem.attemptToDeleteFileFromDynamicReplicationSet(file.getPath().toString(), file.getReplication());
-                    }
-                }
-            }
         }
         return deletedNode;
     }
@@ -621,12 +672,15 @@ class FSDirectory implements FSConstants, Closeable {
         if (!isDir(src)) {
             return true;
         }
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode targetNode = rootDir.getNode(src);
             assert targetNode != null : "should be taken care in isDir() above";
             if (((INodeDirectory) targetNode).getChildren().size() != 0) {
                 dirNotEmpty = false;
             }
+        } finally {
+            readUnlock();
         }
         return dirNotEmpty;
     }
@@ -641,7 +695,8 @@ class FSDirectory implements FSConstants, Closeable {
     INode unprotectedDelete(String src, long modificationTime) {
         src = normalizePath(src);
 
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INode[] inodes = rootDir.getExistingPathINodes(src);
             INode targetNode = inodes[inodes.length - 1];
 
@@ -660,6 +715,8 @@ class FSDirectory implements FSConstants, Closeable {
                     removeChild(inodes, inodes.length - 1);
                     // set the parent's modification time
                     inodes[inodes.length - 2].setModificationTime(modificationTime);
+                    //子树清空前把其中的文件移出动态集合，回放日志时也会执行
+                    namesystem.removeDynamicReplication(targetNode);
                     // GC all the blocks underneath the node.
                     ArrayList<Block> v = new ArrayList<Block>();
                     int filesRemoved = targetNode.collectSubtreeBlocksAndClear(v);
@@ -676,6 +733,8 @@ class FSDirectory implements FSConstants, Closeable {
                     return null;
                 }
             }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -692,7 +751,8 @@ class FSDirectory implements FSConstants, Closeable {
      */
     private void replaceNode(String path, INodeFile oldnode, INodeFile newnode,
                              boolean updateDiskspace) throws IOException {
-        synchronized (rootDir) {
+        writeLock();
+        try {
             long dsOld = oldnode.diskspaceConsumed();
 
             //
@@ -710,6 +770,7 @@ class FSDirectory implements FSConstants, Closeable {
        */
 
             rootDir.addNode(path, newnode);
+            namesystem.replaceDynamicReplicationINode(oldnode, newnode);
 
             //check if disk space needs to be updated.
             long dsNew = 0;
@@ -729,6 +790,8 @@ class FSDirectory implements FSConstants, Closeable {
                 newnode.setBlock(index, info); // inode refers to the block in BlocksMap
                 index++;
             }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -741,7 +804,8 @@ class FSDirectory implements FSConstants, Closeable {
     FileStatus[] getListing(String src) {
         String srcs = normalizePath(src);
 
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode targetNode = rootDir.getNode(srcs);
             if (targetNode == null)
                 return null;
@@ -758,6 +822,45 @@ class FSDirectory implements FSConstants, Closeable {
                 i++;
             }
             return listing;
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Get a page of the listing of src: at most maxEntries children, in
+     * name order, after the child named startAfter. A null or empty
+     * startAfter lists from the first child.
+     * @return the page, or null if src does not exist
+     */
+    DirectoryListing getListing(String src, byte[] startAfter, int maxEntries) {
+        String srcs = normalizePath(src);
+
+        readLock();
+        try {
+            INode targetNode = rootDir.getNode(srcs);
+            if (targetNode == null)
+                return null;
+            if (!targetNode.isDirectory()) {
+                return new DirectoryListing(
+                        new FileStatus[]{createFileStatus(srcs, targetNode)}, 0);
+            }
+            INodeDirectory dirInode = (INodeDirectory) targetNode;
+            List<INode> contents = dirInode.getChildren();
+            int startChild = dirInode.nextChild(startAfter);
+            int numOfListing = Math.max(0,
+                    Math.min(contents.size() - startChild, maxEntries));
+            FileStatus listing[] = new FileStatus[numOfListing];
+            if (!srcs.endsWith(Path.SEPARATOR))
+                srcs += Path.SEPARATOR;
+            for (int i = 0; i < numOfListing; i++) {
+                INode cur = contents.get(startChild + i);
+                listing[i] = createFileStatus(srcs + cur.getLocalName(), cur);
+            }
+            return new DirectoryListing(listing,
+                    contents.size() - startChild - numOfListing);
+        } finally {
+            readUnlock();
         }
     }
 
@@ -768,13 +871,16 @@ class FSDirectory implements FSConstants, Closeable {
      */
     FileStatus getFileInfo(String src) {
         String srcs = normalizePath(src);
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode targetNode = rootDir.getNode(srcs);
             if (targetNode == null) {
                 return null;
             } else {
                 return createFileStatus(srcs, targetNode);
             }
+        } finally {
+            readUnlock();
         }
     }
 
@@ -783,13 +889,16 @@ class FSDirectory implements FSConstants, Closeable {
      */
     Block[] getFileBlocks(String src) {
         waitForReady();
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode targetNode = rootDir.getNode(src);
             if (targetNode == null)
                 return null;
             if (targetNode.isDirectory())
                 return null;
             return ((INodeFile) targetNode).getBlocks();
+        } finally {
+            readUnlock();
         }
     }
 
@@ -797,11 +906,14 @@ class FSDirectory implements FSConstants, Closeable {
      * Get {@link INode} associated with the file.
      */
     INodeFile getFileINode(String src) {
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode inode = rootDir.getNode(src);
             if (inode == null || inode.isDirectory())
                 return null;
             return (INodeFile) inode;
+        } finally {
+            readUnlock();
         }
     }
 
@@ -818,8 +930,11 @@ class FSDirectory implements FSConstants, Closeable {
      * @see INodeDirectory#getExistingPathINodes(byte[][], INode[])
      */
     INode[] getExistingPathINodes(String path) {
-        synchronized (rootDir) {
+        readLock();
+        try {
             return rootDir.getExistingPathINodes(path);
+        } finally {
+            readUnlock();
         }
     }
 
@@ -828,7 +943,8 @@ class FSDirectory implements FSConstants, Closeable {
      */
     boolean isValidToCreate(String src) {
         String srcs = normalizePath(src);
-        synchronized (rootDir) {
+        readLock();
+        try {
             if (srcs.startsWith("/") &&
                     !srcs.endsWith("/") &&
                     rootDir.getNode(srcs) == null) {
@@ -836,6 +952,8 @@ class FSDirectory implements FSConstants, Closeable {
             } else {
                 return false;
             }
+        } finally {
+            readUnlock();
         }
     }
 
@@ -843,9 +961,12 @@ class FSDirectory implements FSConstants, Closeable {
      * Check whether the path specifies a directory
      */
     boolean isDir(String src) {
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode node = rootDir.getNode(normalizePath(src));
             return node != null && node.isDirectory();
+        } finally {
+            readUnlock();
         }
     }
 
@@ -861,7 +982,8 @@ class FSDirectory implements FSConstants, Closeable {
     void updateSpaceConsumed(String path, long nsDelta, long dsDelta)
             throws QuotaExceededException,
             FileNotFoundException {
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INode[] inodes = rootDir.getExistingPathINodes(path);
             int len = inodes.length;
             if (inodes[len - 1] == null) {
@@ -869,6 +991,8 @@ class FSDirectory implements FSConstants, Closeable {
                         " does not exist under rootDir.");
             }
             updateCount(inodes, len - 1, nsDelta, dsDelta, true);
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -947,7 +1071,8 @@ class FSDirectory implements FSConstants, Closeable {
         byte[][] components = INode.getPathComponents(names);
         INode[] inodes = new INode[components.length];
 
-        synchronized (rootDir) {
+        writeLock();
+        try {
             rootDir.getExistingPathINodes(components, inodes);
 
             // find the index of the first null in inodes[]
@@ -978,6 +1103,8 @@ class FSDirectory implements FSConstants, Closeable {
                 NameNode.stateChangeLog.debug(
                         "DIR* FSDirectory.mkdirs: created directory " + cur);
             }
+        } finally {
+            writeUnlock();
         }
         return true;
     }
@@ -988,11 +1115,14 @@ class FSDirectory implements FSConstants, Closeable {
                            long timestamp) throws QuotaExceededException {
         byte[][] components = INode.getPathComponents(src);
         INode[] inodes = new INode[components.length];
-        synchronized (rootDir) {
+        writeLock();
+        try {
             rootDir.getExistingPathINodes(components, inodes);
             unprotectedMkdir(inodes, inodes.length - 1, components[inodes.length - 1],
                     permissions, false, timestamp);
             return inodes[inodes.length - 1];
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -1017,10 +1147,13 @@ class FSDirectory implements FSConstants, Closeable {
         byte[][] components = INode.getPathComponents(src);
         child.setLocalName(components[components.length - 1]);
         INode[] inodes = new INode[components.length];
-        synchronized (rootDir) {
+        writeLock();
+        try {
             rootDir.getExistingPathINodes(components, inodes);
             return addChild(inodes, inodes.length - 1, child, childDiskspace,
                     inheritPermission);
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -1160,13 +1293,16 @@ class FSDirectory implements FSConstants, Closeable {
 
     ContentSummary getContentSummary(String src) throws IOException {
         String srcs = normalizePath(src);
-        synchronized (rootDir) {
+        readLock();
+        try {
             INode targetNode = rootDir.getNode(srcs);
             if (targetNode == null) {
                 throw new FileNotFoundException("File does not exist: " + srcs);
             } else {
                 return targetNode.computeContentSummary();
             }
+        } finally {
+            readUnlock();
         }
     }
 
@@ -1307,29 +1443,154 @@ class FSDirectory implements FSConstants, Closeable {
      */
     void setQuota(String src, long nsQuota, long dsQuota)
             throws FileNotFoundException, QuotaExceededException {
-        synchronized (rootDir) {
+        writeLock();
+        try {
             INodeDirectory dir = unprotectedSetQuota(src, nsQuota, dsQuota);
             if (dir != null) {
                 fsImage.getEditLog().logSetQuota(src, dir.getNsQuota(),
                         dir.getDsQuota());
             }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 设置目录的动态副本策略。目录已有策略时在原策略上修改，
+     * 保留已统计的动态副本字节数。
+     * @return 策略是否改变
+     * @throws FileNotFoundException 路径不存在或者是文件
+     */
+    boolean unprotectedSetDynamicReplicationPolicy(String src, boolean eligible,
+                                                   short maxReplication, float capacityShare)
+            throws FileNotFoundException {
+        INodeDirectory dirNode = getPolicyDirectory(src);
+        DynamicReplicationPolicy policy = dirNode.getDynamicReplicationPolicy();
+        if (policy == null) {
+            dirNode.setDynamicReplicationPolicy(
+                    new DynamicReplicationPolicy(eligible, maxReplication, capacityShare));
+            //目录树中已在动态集合里的文件改由新策略统计
+            namesystem.dynamicReplicationPoliciesChanged();
+            return true;
+        }
+        if (policy.isEligible() == eligible && policy.getMaxReplication() == maxReplication
+                && policy.getCapacityShare() == capacityShare) {
+            return false;
+        }
+        policy.set(eligible, maxReplication, capacityShare);
+        return true;
+    }
+
+    /**
+     * 清除目录的动态副本策略
+     * @return 目录原来是否有策略
+     * @throws FileNotFoundException 路径不存在或者是文件
+     */
+    boolean unprotectedClearDynamicReplicationPolicy(String src)
+            throws FileNotFoundException {
+        INodeDirectory dirNode = getPolicyDirectory(src);
+        if (dirNode.getDynamicReplicationPolicy() == null) {
+            return false;
+        }
+        dirNode.setDynamicReplicationPolicy(null);
+        //文件改由上层目录的策略统计，没有则不受策略约束
+        namesystem.dynamicReplicationPoliciesChanged();
+        return true;
+    }
+
+    private INodeDirectory getPolicyDirectory(String src) throws FileNotFoundException {
+        String srcs = normalizePath(src);
+        INode targetNode = rootDir.getNode(srcs);
+        if (targetNode == null) {
+            throw new FileNotFoundException("Directory does not exist: " + srcs);
+        } else if (!targetNode.isDirectory()) {
+            throw new FileNotFoundException(
+                    "Cannot set dynamic replication policy on a file: " + srcs);
+        }
+        return (INodeDirectory) targetNode;
+    }
+
+    /**
+     * See {@link ClientProtocol#setDynamicReplicationPolicy(String, boolean, short, float)}.
+     */
+    void setDynamicReplicationPolicy(String src, boolean eligible,
+                                     short maxReplication, float capacityShare)
+            throws FileNotFoundException {
+        writeLock();
+        try {
+            if (unprotectedSetDynamicReplicationPolicy(src, eligible, maxReplication,
+                    capacityShare)) {
+                fsImage.getEditLog().logSetDynamicReplicationPolicy(src, eligible,
+                        maxReplication, capacityShare);
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * See {@link ClientProtocol#clearDynamicReplicationPolicy(String)}.
+     */
+    void clearDynamicReplicationPolicy(String src) throws FileNotFoundException {
+        writeLock();
+        try {
+            if (unprotectedClearDynamicReplicationPolicy(src)) {
+                fsImage.getEditLog().logClearDynamicReplicationPolicy(src);
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 目录树中设置了动态副本策略的目录，用于保存映像
+     */
+    void collectDynamicReplicationPolicies(INodeDirectory dir,
+                                       Map<String, DynamicReplicationPolicy> policies) {
+        if (dir.getDynamicReplicationPolicy() != null) {
+            policies.put(dir.getFullPathName(), dir.getDynamicReplicationPolicy());
+        }
+        for (INode child : dir.getChildren()) {
+            if (child.isDirectory()) {
+                collectDynamicReplicationPolicies((INodeDirectory) child, policies);
+            }
         }
     }
 
     long totalInodes() {
-        synchronized (rootDir) {
+        readLock();
+        try {
             return rootDir.numItemsInTree();
+        } finally {
+            readUnlock();
         }
     }
 
+    /**
+     * Count the objects of the namespace and estimate their heap usage.
+     */
+    NamespaceMemoryReport getMemoryReport() {
+        NamespaceMemoryReport report = new NamespaceMemoryReport();
+        readLock();
+        try {
+            report.add(rootDir);
+        } finally {
+            readUnlock();
+        }
+        report.blocksMapCapacity = namesystem.blocksMap.getCapacity();
+        return report;
+    }
+
     /**
      * Sets the access time on the file. Logs it in the transaction log
      */
-    void setTimes(String src, INodeFile inode, long mtime, long atime, boolean force)
+    boolean setTimes(String src, INodeFile inode, long mtime, long atime, boolean force)
             throws IOException {
         if (unprotectedSetTimes(src, inode, mtime, atime, force)) {
             fsImage.getEditLog().logTimes(src, mtime, atime);
+            return true;
         }
+        return false;
     }
 
     boolean unprotectedSetTimes(String src, long mtime, long atime, boolean force)
@@ -1352,9 +1613,10 @@ class FSDirectory implements FSConstants, Closeable {
             accessTimePrecision = accessTimePrecision<30000?accessTimePrecision:30000;
             // if the last access time update was within the last precision interval, then
             // no need to store access time
-            NameNode.allocationLog.info("access time precision is " + accessTimePrecision);
-            NameNode.allocationLog.info("old access time of file " + src + " is " + inodeTime);
-            NameNode.allocationLog.info("now access time of file " + src + " is " + atime);
+            if (NameNode.allocationLog.isDebugEnabled()) {
+                NameNode.allocationLog.debug("access time of file " + src + ": precision "
+                        + accessTimePrecision + ", old " + inodeTime + ", now " + atime);
+            }
             if (force){
                 inode.setAccessTime(atime);
                 status = true;
@@ -1363,34 +1625,35 @@ class FSDirectory implements FSConstants, Closeable {
                 status = false;
             } else {
                 //使用指数平均法来计算平均访问时间
-                long newAccessTime;
-                float alpha = namesystem.getAlpha();
-                //使用BigDecimal来精确计算
-                BigDecimal bigInodeTime = new BigDecimal(String.valueOf(inodeTime));
-                BigDecimal bigOne = new BigDecimal(String.valueOf(1));
-                BigDecimal bigAlpha = new BigDecimal(String.valueOf(alpha));
-                BigDecimal bigAtime = new BigDecimal(String.valueOf(atime));
-                newAccessTime = bigInodeTime.multiply(bigOne.subtract(bigAlpha)).add(bigAtime.multiply(bigAlpha)).longValue();
-
-                NameNode.allocationLog.info("new access time of file " + src + " is " + newAccessTime);
+                long newAccessTime = exponentialAverage(inodeTime, atime, namesystem.getAlpha());
+                if (NameNode.allocationLog.isDebugEnabled()) {
+                    NameNode.allocationLog.debug("new access time of file " + src + " is " + newAccessTime);
+                }
                 inode.setAccessTime(newAccessTime);
-
-                //尝试执行副本更新算法
-                NameNode.allocationLog.info("begin update replication of file " + src);
-                namesystem.allocateReplication(src, inode);
-                NameNode.allocationLog.info("end update replication of file " + src);
                 status = true;
             }
         }
         return status;
     }
 
+    /**
+     * 指数平均：oldTime * (1 - alpha) + newTime * alpha，结果向下取整。
+     * 只使用基本类型运算，不分配对象。
+     * <p>
+     * 这是原先 BigDecimal 精确计算的近似：alpha 和差值的乘积用 double 计算，
+     * 有舍入误差，结果可能与精确值相差 1 毫秒，差值超过 2^53 毫秒时误差更大。
+     * 这个误差远小于访问时间精度，对副本分配没有影响。
+     */
+    static long exponentialAverage(long oldTime, long newTime, double alpha) {
+        return oldTime + (long) Math.floor((newTime - oldTime) * alpha);
+    }
+
     /**
      * Create FileStatus by file INode
      */
     private static FileStatus createFileStatus(String path, INode node) {
         // length is zero for directories
-        return new FileStatus(node.isDirectory() ? 0 : node.computeContentSummary().getLength(),
+        return new FileStatus(node.isDirectory() ? 0 : ((INodeFile) node).computeFileSize(),
                 node.isDirectory(),
                 node.isDirectory() ? 0 : ((INodeFile) node).getReplication(),
                 node.isDirectory() ? 0 : ((INodeFile) node).getPreferredBlockSize(),
@@ -29,10 +29,19 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.lang.Math;
 import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
 
+import org.apache.hadoop.conf.Configuration;
+
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
@@ -70,6 +79,9 @@ public class FSEditLog {
     private static final byte OP_CLEAR_NS_QUOTA = 12; // clear namespace quota
     private static final byte OP_TIMES = 13; // sets mod & access time on a file
     private static final byte OP_SET_QUOTA = 14; // sets name and disk quotas.
+    private static final byte OP_SET_DYNAMIC_REPLICATION = 15; // dynamic replication tier
+    private static final byte OP_SET_DYNAMIC_POLICY = 16; // directory dynamic replication policy
+    private static final byte OP_CLEAR_DYNAMIC_POLICY = 17; // clear dynamic replication policy
     private static int sizeFlushBuffer = 512 * 1024;
 
     private ArrayList<EditLogOutputStream> editStreams = null;
@@ -87,6 +99,22 @@ public class FSEditLog {
     // is a sync currently running?
     private boolean isSyncRunning;
 
+    // the edits files are extended by this many zero bytes at a time
+    private int preallocateSize = 4 * 1024 * 1024;
+
+    // how long a sync waits for more transactions to join it, in ms
+    private long syncDelay = 0;
+    // a delayed sync starts once this many transactions are waiting
+    private int maxSyncBatch = 1000;
+    // is a sync waiting for more transactions?
+    private boolean isSyncDelayed;
+    // number of handlers that waited for the previous sync, the delay is
+    // only worth it while several handlers are logging
+    private int syncWaiters = 0;
+
+    // flushes the second and further edits streams, created on demand
+    private ExecutorService flushExecutor;
+
     // these are statistics counters.
     private long numTransactions;        // number of transactions
     private long numTransactionsBatchedInSync;
@@ -118,11 +146,13 @@ public class FSEditLog {
         private FileChannel fc;         // channel of the file stream for sync
         private DataOutputBuffer bufCurrent;  // current buffer for writing
         private DataOutputBuffer bufReady;    // buffer ready for flushing
-        static ByteBuffer fill = ByteBuffer.allocateDirect(512); // preallocation
+        static ByteBuffer fill = ByteBuffer.allocateDirect(64 * 1024); // preallocation
+        private final int preallocateSize; // bytes added to the file at a time
 
-        EditLogFileOutputStream(File name) throws IOException {
+        EditLogFileOutputStream(File name, int preallocateSize) throws IOException {
             super();
             file = name;
+            this.preallocateSize = preallocateSize;
             bufCurrent = new DataOutputBuffer(sizeFlushBuffer);
             bufReady = new DataOutputBuffer(sizeFlushBuffer);
             RandomAccessFile rp = new RandomAccessFile(name, "rw");
@@ -222,15 +252,21 @@ public class FSEditLog {
         // allocate a big chunk of data
         private void preallocate() throws IOException {
             long position = fc.position();
-            if (position + 4096 >= fc.size()) {
-                FSNamesystem.LOG.debug("Preallocating Edit log, current size " +
-                        fc.size());
-                long newsize = position + 1024 * 1024; // 1MB
-                fill.position(0);
-                int written = fc.write(fill, newsize);
-                FSNamesystem.LOG.debug("Edit log size is now " + fc.size() +
-                        " written " + written + " bytes " +
-                        " at offset " + newsize);
+            long needed = position + bufReady.size() + 4096;
+            long size = fc.size();
+            if (needed >= size) {
+                FSNamesystem.LOG.debug("Preallocating Edit log, current size " + size);
+                // write the zeros rather than only the last byte, so that
+                // the blocks are allocated now and not on every sync
+                long newsize = Math.max(needed, position + preallocateSize);
+                // the streams are flushed in parallel, each needs its own view
+                ByteBuffer zeros = fill.duplicate();
+                while (size < newsize) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), newsize - size));
+                    size += fc.write(zeros, size);
+                }
+                FSNamesystem.LOG.debug("Edit log size is now " + fc.size());
             }
         }
 
@@ -290,6 +326,16 @@ public class FSEditLog {
         lastPrintTime = FSNamesystem.now();
     }
 
+    /**
+     * Read the journal parameters.
+     */
+    synchronized void setConf(Configuration conf) {
+        syncDelay = conf.getLong("dfs.namenode.edits.sync.delay", 0);
+        maxSyncBatch = conf.getInt("dfs.namenode.edits.sync.batch", 1000);
+        preallocateSize = conf.getInt("dfs.namenode.edits.preallocate.size",
+                4 * 1024 * 1024);
+    }
+
     private File getEditFile(StorageDirectory sd) {
         return fsimage.getEditFile(sd);
     }
@@ -306,6 +352,11 @@ public class FSEditLog {
         return numStorageDirs;
     }
 
+    /** The number of syncs of the open edits streams. */
+    synchronized long getNumSyncs() {
+        return editStreams == null || editStreams.isEmpty() ? 0 : editStreams.get(0).getNumSync();
+    }
+
     synchronized int getNumEditStreams() {
         return editStreams == null ? 0 : editStreams.size();
     }
@@ -329,7 +380,7 @@ public class FSEditLog {
             StorageDirectory sd = it.next();
             File eFile = getEditFile(sd);
             try {
-                EditLogOutputStream eStream = new EditLogFileOutputStream(eFile);
+                EditLogOutputStream eStream = new EditLogFileOutputStream(eFile, preallocateSize);
                 editStreams.add(eStream);
             } catch (IOException e) {
                 FSNamesystem.LOG.warn("Unable to open edit log file " + eFile);
@@ -340,7 +391,7 @@ public class FSEditLog {
     }
 
     public synchronized void createEditLogFile(File name) throws IOException {
-        EditLogOutputStream eStream = new EditLogFileOutputStream(name);
+        EditLogOutputStream eStream = new EditLogFileOutputStream(name, preallocateSize);
         eStream.create();
         eStream.close();
     }
@@ -385,6 +436,10 @@ public class FSEditLog {
             }
         }
         editStreams.clear();
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            flushExecutor = null;
+        }
     }
 
     /**
@@ -437,7 +492,7 @@ public class FSEditLog {
      * The specified streams have IO errors. Remove them from logging
      * new transactions.
      */
-    private void processIOError(ArrayList<EditLogOutputStream> errorStreams) {
+    private void processIOError(List<EditLogOutputStream> errorStreams) {
         if (errorStreams == null) {
             return;                       // nothing to do
         }
@@ -644,6 +699,26 @@ public class FSEditLog {
                         path = FSImage.readString(in);
                         short replication = adjustReplication(readShort(in));
                         fsDir.unprotectedSetReplication(path, replication, null);
+                        fsNamesys.attemptToDeleteFileFromDynamicReplicationSet(
+                                fsDir.getFileINode(path));
+                        break;
+                    }
+                    case OP_SET_DYNAMIC_REPLICATION: {
+                        numOpSetRepl++;
+                        if (logVersion > -19) {
+                            throw new IOException("Unexpected opcode " + opcode
+                                    + " for version " + logVersion);
+                        }
+                        int length = in.readInt();
+                        if (length != 3) {
+                            throw new IOException("Incorrect data format. "
+                                    + "dynamic replication operation.");
+                        }
+                        path = FSImage.readString(in);
+                        short replication = adjustReplication(readShort(in));
+                        long score = readLong(in);
+                        fsDir.unprotectedSetReplication(path, replication, null);
+                        fsNamesys.restoreDynamicReplication(path, replication, score);
                         break;
                     }
                     case OP_RENAME: {
@@ -765,6 +840,28 @@ public class FSEditLog {
 
                         break;
 
+                    case OP_SET_DYNAMIC_POLICY: {
+                        if (logVersion > -20) {
+                            throw new IOException("Unexpected opcode " + opcode
+                                    + " for version " + logVersion);
+                        }
+                        path = FSImage.readString(in);
+                        boolean eligible = in.readBoolean();
+                        short maxReplication = (short) in.readInt();
+                        float capacityShare = in.readFloat();
+                        fsDir.unprotectedSetDynamicReplicationPolicy(path, eligible,
+                                maxReplication, capacityShare);
+                        break;
+                    }
+                    case OP_CLEAR_DYNAMIC_POLICY: {
+                        if (logVersion > -20) {
+                            throw new IOException("Unexpected opcode " + opcode
+                                    + " for version " + logVersion);
+                        }
+                        fsDir.unprotectedClearDynamicReplicationPolicy(FSImage.readString(in));
+                        break;
+                    }
+
                     case OP_TIMES: {
                         numOpTimes++;
                         int length = in.readInt();
@@ -857,6 +954,11 @@ public class FSEditLog {
         TransactionId id = myTransactionId.get();
         id.txid = txid;
 
+        // start a delayed sync once enough transactions wait for it
+        if (isSyncDelayed && txid - synctxid >= maxSyncBatch) {
+            notifyAll();
+        }
+
         // update statistics
         long end = FSNamesystem.now();
         numTransactions++;
@@ -868,20 +970,31 @@ public class FSEditLog {
     //
     // Sync all modifications done by this thread.
     //
+    // The transactions logged while a sync runs are synced together by the
+    // next one, so a sync covers all the handlers that wait for it. With
+    // dfs.namenode.edits.sync.delay set, a sync also waits that long for
+    // more transactions, unless dfs.namenode.edits.sync.batch of them are
+    // already waiting. It only waits if other handlers waited for the
+    // previous sync, so that a lone handler is not slowed down, and never
+    // while the caller holds the namesystem write lock, which would stall
+    // every other handler for the whole delay.
+    //
     public void logSync() throws IOException {
-        ArrayList<EditLogOutputStream> errorStreams = null;
+        List<EditLogOutputStream> errorStreams = null;
         long syncStart = 0;
 
         // Fetch the transactionId of this thread.
         long mytxid = myTransactionId.get().txid;
 
-        final int numEditStreams;
+        final List<EditLogOutputStream> streams;
         synchronized (this) {
-            numEditStreams = editStreams.size();
-            assert numEditStreams > 0 : "no editlog streams";
+            assert editStreams.size() > 0 : "no editlog streams";
             printStatistics(false);
 
             // if somebody is already syncing, then wait
+            if (mytxid > synctxid && isSyncRunning) {
+                syncWaiters++;
+            }
             while (mytxid > synctxid && isSyncRunning) {
                 try {
                     wait(1000);
@@ -900,21 +1013,89 @@ public class FSEditLog {
             }
 
             // now, this thread will do the sync
-            syncStart = txid;
             isSyncRunning = true;
+            if (syncDelay > 0 && syncWaiters > 0 && !holdsNamesystemWriteLock()) {
+                isSyncDelayed = true;
+                long deadline = FSNamesystem.now() + syncDelay;
+                for (long now = FSNamesystem.now();
+                     now < deadline && txid - synctxid < maxSyncBatch;
+                     now = FSNamesystem.now()) {
+                    try {
+                        wait(deadline - now);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                }
+                isSyncDelayed = false;
+            }
+            syncStart = txid;
+            syncWaiters = 0;
 
             // swap buffers
-            for (int idx = 0; idx < numEditStreams; idx++) {
-                editStreams.get(idx).setReadyToFlush();
+            streams = new ArrayList<EditLogOutputStream>(editStreams);
+            for (EditLogOutputStream eStream : streams) {
+                eStream.setReadyToFlush();
             }
         }
 
         // do the sync
         long start = FSNamesystem.now();
-        for (int idx = 0; idx < numEditStreams; idx++) {
-            EditLogOutputStream eStream = editStreams.get(idx);
+        errorStreams = flushAll(streams);
+        long elapsed = FSNamesystem.now() - start;
+
+        synchronized (this) {
+            processIOError(errorStreams);
+            if (metrics != null) { // Metrics is non-null only when used inside name node
+                metrics.transactionsPerSync.inc(syncStart - synctxid);
+            }
+            synctxid = syncStart;
+            isSyncRunning = false;
+            this.notifyAll();
+        }
+
+        if (metrics != null) // Metrics is non-null only when used inside name node
+            metrics.syncs.inc(elapsed);
+    }
+
+    /**
+     * Is the namesystem write lock held by this thread? A sync must not
+     * delay then, since no other handler can log a transaction meanwhile.
+     */
+    private static boolean holdsNamesystemWriteLock() {
+        FSNamesystem fsNamesys = FSNamesystem.getFSNamesystem();
+        return fsNamesys != null && fsNamesys.hasWriteLock();
+    }
+
+    /**
+     * Flush the streams, the first one in this thread and the others in
+     * parallel, so that a sync takes as long as the slowest directory
+     * rather than the sum of all of them.
+     * @return the streams that failed, or null
+     */
+    private List<EditLogOutputStream> flushAll(List<EditLogOutputStream> streams) {
+        List<EditLogOutputStream> errorStreams = null;
+        List<Future<?>> flushes = null;
+        if (streams.size() > 1) {
+            ExecutorService executor = getFlushExecutor();
+            flushes = new ArrayList<Future<?>>(streams.size() - 1);
+            for (int idx = 1; idx < streams.size(); idx++) {
+                final EditLogOutputStream eStream = streams.get(idx);
+                flushes.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        eStream.flush();
+                        return null;
+                    }
+                }));
+            }
+        }
+        for (int idx = 0; idx < streams.size(); idx++) {
+            EditLogOutputStream eStream = streams.get(idx);
             try {
-                eStream.flush();
+                if (idx == 0) {
+                    eStream.flush();
+                } else {
+                    waitForFlush(flushes.get(idx - 1));
+                }
             } catch (IOException ie) {
                 //
                 // remember the streams that encountered an error.
@@ -923,21 +1104,50 @@ public class FSEditLog {
                     errorStreams = new ArrayList<EditLogOutputStream>(1);
                 }
                 errorStreams.add(eStream);
-                FSNamesystem.LOG.error("Unable to sync edit log. " +
-                        "Fatal Error.");
+                FSNamesystem.LOG.error("Unable to sync edit log " + eStream.getName()
+                        + ". Fatal Error.", ie);
             }
         }
-        long elapsed = FSNamesystem.now() - start;
+        return errorStreams;
+    }
 
-        synchronized (this) {
-            processIOError(errorStreams);
-            synctxid = syncStart;
-            isSyncRunning = false;
-            this.notifyAll();
+    private static void waitForFlush(Future<?> flush) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    flush.get();
+                    return;
+                } catch (InterruptedException ie) {
+                    // the flush is running, it has to finish before the
+                    // buffers can be swapped again
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw (IOException) new IOException(cause.toString()).initCause(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
+    }
 
-        if (metrics != null) // Metrics is non-null only when used inside name node
-            metrics.syncs.inc(elapsed);
+    private synchronized ExecutorService getFlushExecutor() {
+        if (flushExecutor == null) {
+            flushExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "EditLog flusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return flushExecutor;
     }
 
     //
@@ -1043,6 +1253,19 @@ public class FSEditLog {
                 FSEditLog.toLogReplication(replication));
     }
 
+    /**
+     * Add dynamic replication record to edit log. Unlike
+     * {@link #logSetReplication(String, short)} it also records the score
+     * of the file so that its dynamic replication tier can be rebuilt.
+     */
+    void logSetDynamicReplication(String src, short replication, long score) {
+        UTF8 info[] = new UTF8[]{
+                new UTF8(src),
+                FSEditLog.toLogReplication(replication),
+                FSEditLog.toLogLong(score)};
+        logEdit(OP_SET_DYNAMIC_REPLICATION, new ArrayWritable(UTF8.class, info));
+    }
+
     /** Add set namespace quota record to edit log
      *
      * @param src the string representation of the path to a directory
@@ -1053,6 +1276,18 @@ public class FSEditLog {
                 new LongWritable(nsQuota), new LongWritable(dsQuota));
     }
 
+    /** Add set dynamic replication policy record to edit log */
+    void logSetDynamicReplicationPolicy(String src, boolean eligible,
+                                        short maxReplication, float capacityShare) {
+        logEdit(OP_SET_DYNAMIC_POLICY, new UTF8(src), new BooleanWritable(eligible),
+                new IntWritable(maxReplication), new FloatWritable(capacityShare));
+    }
+
+    /** Add clear dynamic replication policy record to edit log */
+    void logClearDynamicReplicationPolicy(String src) {
+        logEdit(OP_CLEAR_DYNAMIC_POLICY, new UTF8(src));
+    }
+
     /**  Add set permissions record to edit log */
     void logSetPermissions(String src, FsPermission permissions) {
         logEdit(OP_SET_PERMISSIONS, new UTF8(src), permissions);
@@ -1146,7 +1381,7 @@ public class FSEditLog {
             StorageDirectory sd = it.next();
             try {
                 EditLogFileOutputStream eStream =
-                        new EditLogFileOutputStream(getEditNewFile(sd));
+                        new EditLogFileOutputStream(getEditNewFile(sd), preallocateSize);
                 eStream.create();
                 editStreams.add(eStream);
             } catch (IOException e) {
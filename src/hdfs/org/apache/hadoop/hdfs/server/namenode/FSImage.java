@@ -38,12 +38,11 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.lang.Math;
-import java.nio.ByteBuffer;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.PermissionStatus;
-import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
@@ -139,10 +138,10 @@ public class FSImage extends Storage {
     volatile private CheckpointStates ckptState = FSImage.CheckpointStates.START;
 
     /**
-     * Used for saving the image to disk
+     * Threads and inodes per section of the image, see {@link FSImageSections}
      */
-    static private final FsPermission FILE_PERM = new FsPermission((short) 0);
-    static private final byte[] PATH_SEPARATOR = INode.string2Bytes(Path.SEPARATOR);
+    private int imageThreads = Math.min(8, Runtime.getRuntime().availableProcessors());
+    private int imageSectionSize = 100000;
 
     /**
      */
@@ -159,6 +158,17 @@ public class FSImage extends Storage {
         setStorageDirectories(fsDirs, fsEditsDirs);
     }
 
+    /**
+     * Read the image and journal parameters.
+     */
+    void setConf(Configuration conf) {
+        imageThreads = conf.getInt("dfs.namenode.image.threads", imageThreads);
+        imageSectionSize = conf.getInt("dfs.namenode.image.section.size", imageSectionSize);
+        if (editLog != null) {
+            editLog.setConf(conf);
+        }
+    }
+
     public FSImage(StorageInfo storageInfo) {
         super(NodeType.NAME_NODE, storageInfo);
     }
@@ -876,91 +886,14 @@ public class FSImage extends Storage {
 
             needToSave = (imgVersion != FSConstants.LAYOUT_VERSION);
 
-            // read file info
-            short replication = FSNamesystem.getFSNamesystem().getDefaultReplication();
-
             LOG.info("Number of files = " + numFiles);
 
-            String path;
-            String parentPath = "";
-            INodeDirectory parentINode = fsDir.rootDir;
-            for (long i = 0; i < numFiles; i++) {
-                long modificationTime = 0;
-                long atime = 0;
-                long blockSize = 0;
-                path = readString(in);
-                replication = in.readShort();
-                replication = FSEditLog.adjustReplication(replication);
-                modificationTime = in.readLong();
-                if (imgVersion <= -17) {
-                    atime = in.readLong();
-                }
-                if (imgVersion <= -8) {
-                    blockSize = in.readLong();
-                }
-                int numBlocks = in.readInt();
-                Block blocks[] = null;
-
-                // for older versions, a blocklist of size 0
-                // indicates a directory.
-                if ((-9 <= imgVersion && numBlocks > 0) ||
-                        (imgVersion < -9 && numBlocks >= 0)) {
-                    blocks = new Block[numBlocks];
-                    for (int j = 0; j < numBlocks; j++) {
-                        blocks[j] = new Block();
-                        if (-14 < imgVersion) {
-                            blocks[j].set(in.readLong(), in.readLong(),
-                                    Block.GRANDFATHER_GENERATION_STAMP);
-                        } else {
-                            blocks[j].readFields(in);
-                        }
-                    }
-                }
-                // Older versions of HDFS does not store the block size in inode.
-                // If the file has more than one block, use the size of the
-                // first block as the blocksize. Otherwise use the default block size.
-                //
-                if (-8 <= imgVersion && blockSize == 0) {
-                    if (numBlocks > 1) {
-                        blockSize = blocks[0].getNumBytes();
-                    } else {
-                        long first = ((numBlocks == 1) ? blocks[0].getNumBytes() : 0);
-                        blockSize = Math.max(fsNamesys.getDefaultBlockSize(), first);
-                    }
-                }
-
-                // get quota only when the node is a directory
-                long nsQuota = -1L;
-                if (imgVersion <= -16 && blocks == null) {
-                    nsQuota = in.readLong();
-                }
-                long dsQuota = -1L;
-                if (imgVersion <= -18 && blocks == null) {
-                    dsQuota = in.readLong();
-                }
-
-                PermissionStatus permissions = fsNamesys.getUpgradePermission();
-                if (imgVersion <= -11) {
-                    permissions = PermissionStatus.read(in);
-                }
-                if (path.length() == 0) { // it is the root
-                    // update the root's attributes
-                    if (nsQuota != -1 || dsQuota != -1) {
-                        fsDir.rootDir.setQuota(nsQuota, dsQuota);
-                    }
-                    fsDir.rootDir.setModificationTime(modificationTime);
-                    fsDir.rootDir.setPermissionStatus(permissions);
-                    continue;
-                }
-                // check if the new inode belongs to the same parent
-                if (!isParent(path, parentPath)) {
-                    parentINode = null;
-                    parentPath = getParent(path);
-                }
-                // add new inode
-                parentINode = fsDir.addToParent(path, parentINode, permissions,
-                        blocks, replication, modificationTime,
-                        atime, nsQuota, dsQuota, blockSize);
+            if (imgVersion <= -21) {
+                // sectioned image, inodes by parent instead of by full path
+                new FSImageSections(imageThreads, imageSectionSize).load(in, fsDir,
+                        fsNamesys.blocksMap);
+            } else {
+                loadINodesByPath(imgVersion, numFiles, in, fsNamesys);
             }
 
             // load datanode info
@@ -969,6 +902,13 @@ public class FSImage extends Storage {
             // load Files Under Construction
             this.loadFilesUnderConstruction(imgVersion, in, fsNamesys);
 
+            // load directory dynamic replication policies, which the
+            // tiers loaded next are accounted to
+            this.loadDynamicReplicationPolicies(imgVersion, in, fsDir);
+
+            // load dynamic replication tiers
+            this.loadDynamicReplicationState(imgVersion, in, fsNamesys);
+
         } finally {
             in.close();
         }
@@ -976,6 +916,105 @@ public class FSImage extends Storage {
         return needToSave;
     }
 
+    /**
+     * Load the inodes of an image older than layout -21, which saved every
+     * inode with its full path.
+     */
+    private void loadINodesByPath(int imgVersion, long numFiles, DataInputStream in,
+                                  FSNamesystem fsNamesys) throws IOException {
+        FSDirectory fsDir = fsNamesys.dir;
+        short replication;
+        String path;
+        String parentPath = "";
+        INodeDirectory parentINode = fsDir.rootDir;
+        for (long i = 0; i < numFiles; i++) {
+            long modificationTime = 0;
+            long atime = 0;
+            long blockSize = 0;
+            path = readString(in);
+            replication = in.readShort();
+            replication = FSEditLog.adjustReplication(replication);
+            modificationTime = in.readLong();
+            if (imgVersion <= -17) {
+                atime = in.readLong();
+            }
+            if (imgVersion <= -8) {
+                blockSize = in.readLong();
+            }
+            int numBlocks = in.readInt();
+            Block blocks[] = null;
+
+            // for older versions, a blocklist of size 0
+            // indicates a directory.
+            if ((-9 <= imgVersion && numBlocks > 0) ||
+                    (imgVersion < -9 && numBlocks >= 0)) {
+                blocks = new Block[numBlocks];
+                for (int j = 0; j < numBlocks; j++) {
+                    blocks[j] = new Block();
+                    if (-14 < imgVersion) {
+                        blocks[j].set(in.readLong(), in.readLong(),
+                                Block.GRANDFATHER_GENERATION_STAMP);
+                    } else {
+                        blocks[j].readFields(in);
+                    }
+                }
+            }
+            // Older versions of HDFS does not store the block size in inode.
+            // If the file has more than one block, use the size of the
+            // first block as the blocksize. Otherwise use the default block size.
+            //
+            if (-8 <= imgVersion && blockSize == 0) {
+                if (numBlocks > 1) {
+                    blockSize = blocks[0].getNumBytes();
+                } else {
+                    long first = ((numBlocks == 1) ? blocks[0].getNumBytes() : 0);
+                    blockSize = Math.max(fsNamesys.getDefaultBlockSize(), first);
+                }
+            }
+
+            // get quota only when the node is a directory
+            long nsQuota = -1L;
+            if (imgVersion <= -16 && blocks == null) {
+                nsQuota = in.readLong();
+            }
+            long dsQuota = -1L;
+            if (imgVersion <= -18 && blocks == null) {
+                dsQuota = in.readLong();
+            }
+
+            PermissionStatus permissions = fsNamesys.getUpgradePermission();
+            if (imgVersion <= -11) {
+                permissions = PermissionStatus.read(in);
+            }
+            if (path.length() == 0) { // it is the root
+                // update the root's attributes
+                if (nsQuota != -1 || dsQuota != -1) {
+                    fsDir.rootDir.setQuota(nsQuota, dsQuota);
+                }
+                fsDir.rootDir.setModificationTime(modificationTime);
+                fsDir.rootDir.setPermissionStatus(permissions);
+                continue;
+            }
+            // check if the new inode belongs to the same parent
+            if (!isParent(path, parentPath)) {
+                // the children of a directory are saved together,
+                // so the previous parent is complete
+                if (parentINode != null) {
+                    parentINode.trimChildren();
+                }
+                parentINode = null;
+                parentPath = getParent(path);
+            }
+            // add new inode
+            parentINode = fsDir.addToParent(path, parentINode, permissions,
+                    blocks, replication, modificationTime,
+                    atime, nsQuota, dsQuota, blockSize);
+        }
+        if (parentINode != null) {
+            parentINode.trimChildren();
+        }
+    }
+
     /**
      * Return string representing the parent of the given path.
      */
@@ -1031,14 +1070,10 @@ public class FSImage extends Storage {
             out.writeInt(namespaceID);
             out.writeLong(fsDir.rootDir.numItemsInTree());
             out.writeLong(fsNamesys.getGenerationStamp());
-            byte[] byteStore = new byte[4 * FSConstants.MAX_PATH_LENGTH];
-            ByteBuffer strbuf = ByteBuffer.wrap(byteStore);
-            // save the root
-            saveINode2Image(strbuf, fsDir.rootDir, out);
-            // save the rest of the nodes
-            saveImage(strbuf, 0, fsDir.rootDir, out);
+            new FSImageSections(imageThreads, imageSectionSize).save(fsDir.rootDir, out);
             fsNamesys.saveFilesUnderConstruction(out);
-            strbuf = null;
+            saveDynamicReplicationPolicies(fsDir, out);
+            fsNamesys.saveDynamicReplicationState(out);
         } finally {
             out.close();
         }
@@ -1122,73 +1157,6 @@ public class FSImage extends Storage {
         }
     }
 
-    /*
-     * Save one inode's attributes to the image.
-     */
-    private static void saveINode2Image(ByteBuffer name,
-                                        INode node,
-                                        DataOutputStream out) throws IOException {
-        int nameLen = name.position();
-        out.writeShort(nameLen);
-        out.write(name.array(), name.arrayOffset(), nameLen);
-        if (!node.isDirectory()) {  // write file inode
-            INodeFile fileINode = (INodeFile) node;
-            out.writeShort(fileINode.getReplication());
-            out.writeLong(fileINode.getModificationTime());
-            out.writeLong(fileINode.getAccessTime());
-            out.writeLong(fileINode.getPreferredBlockSize());
-            Block[] blocks = fileINode.getBlocks();
-            out.writeInt(blocks.length);
-            for (Block blk : blocks)
-                blk.write(out);
-            FILE_PERM.fromShort(fileINode.getFsPermissionShort());
-            PermissionStatus.write(out, fileINode.getUserName(),
-                    fileINode.getGroupName(),
-                    FILE_PERM);
-        } else {   // write directory inode
-            out.writeShort(0);  // replication
-            out.writeLong(node.getModificationTime());
-            out.writeLong(0);   // access time
-            out.writeLong(0);   // preferred block size
-            out.writeInt(-1);    // # of blocks
-            out.writeLong(node.getNsQuota());
-            out.writeLong(node.getDsQuota());
-            FILE_PERM.fromShort(node.getFsPermissionShort());
-            PermissionStatus.write(out, node.getUserName(),
-                    node.getGroupName(),
-                    FILE_PERM);
-        }
-    }
-
-    /**
-     * Save file tree image starting from the given root.
-     * This is a recursive procedure, which first saves all children of
-     * a current directory and then moves inside the sub-directories.
-     */
-    private static void saveImage(ByteBuffer parentPrefix,
-                                  int prefixLength,
-                                  INodeDirectory current,
-                                  DataOutputStream out) throws IOException {
-        int newPrefixLength = prefixLength;
-        if (current.getChildrenRaw() == null)
-            return;
-        for (INode child : current.getChildren()) {
-            // print all children first
-            parentPrefix.position(prefixLength);
-            parentPrefix.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
-            saveINode2Image(parentPrefix, child, out);
-        }
-        for (INode child : current.getChildren()) {
-            if (!child.isDirectory())
-                continue;
-            parentPrefix.position(prefixLength);
-            parentPrefix.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
-            newPrefixLength = parentPrefix.position();
-            saveImage(parentPrefix, newPrefixLength, (INodeDirectory) child, out);
-        }
-        parentPrefix.position(prefixLength);
-    }
-
     void loadDatanodes(int version, DataInputStream in) throws IOException {
         if (version > -3) // pre datanode image version
             return;
@@ -1231,6 +1199,58 @@ public class FSImage extends Storage {
         }
     }
 
+    private void loadDynamicReplicationPolicies(int version, DataInputStream in,
+                                                FSDirectory fsDir) throws IOException {
+        if (version > -20) // pre directory policy image version
+            return;
+        int size = in.readInt();
+
+        LOG.info("Number of directories with dynamic replication policies = " + size);
+
+        for (int i = 0; i < size; i++) {
+            String path = readString(in);
+            boolean eligible = in.readBoolean();
+            short maxReplication = in.readShort();
+            float capacityShare = in.readFloat();
+            fsDir.unprotectedSetDynamicReplicationPolicy(path, eligible,
+                    maxReplication, capacityShare);
+        }
+    }
+
+    /**
+     * Save the dynamic replication policies of all directories
+     */
+    private static void saveDynamicReplicationPolicies(FSDirectory fsDir,
+                                                       DataOutputStream out) throws IOException {
+        Map<String, DynamicReplicationPolicy> policies =
+                new LinkedHashMap<String, DynamicReplicationPolicy>();
+        fsDir.collectDynamicReplicationPolicies(fsDir.rootDir, policies);
+        out.writeInt(policies.size());
+        for (Map.Entry<String, DynamicReplicationPolicy> e : policies.entrySet()) {
+            writeString(e.getKey(), out);
+            DynamicReplicationPolicy policy = e.getValue();
+            out.writeBoolean(policy.isEligible());
+            out.writeShort(policy.getMaxReplication());
+            out.writeFloat(policy.getCapacityShare());
+        }
+    }
+
+    private void loadDynamicReplicationState(int version, DataInputStream in,
+                                             FSNamesystem fs) throws IOException {
+        if (version > -19) // pre dynamic replication image version
+            return;
+        int size = in.readInt();
+
+        LOG.info("Number of files with dynamic replication = " + size);
+
+        for (int i = 0; i < size; i++) {
+            String path = readString(in);
+            short replication = in.readShort();
+            long score = in.readLong();
+            fs.restoreDynamicReplication(path, replication, score);
+        }
+    }
+
     // Helper function that reads in an INodeUnderConstruction
     // from the input stream
     //
@@ -0,0 +1,561 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+/**
+ * The sectioned layout of the namespace in the image, from layout
+ * version -21 on.
+ * <p>
+ * Up to layout -20 the image held every inode with its full path, and the
+ * loader split each path and looked its parent up again. The sectioned
+ * layout keeps the header and the trailing parts of the image and writes
+ * the namespace as
+ * <pre>
+ * string table  the user and group names the inodes refer to
+ * root          the attributes of the root directory
+ * sections      their count, then for each section the path of its
+ *               parent directory, its length and the section itself
+ * </pre>
+ * A section holds a run of children of its parent directory with their
+ * subtrees, in pre-order. Each inode is written with its local name and
+ * the index of its parent within the section, -1 for the parent of the
+ * section. A directory whose subtree does not fit in a section is split:
+ * the directory is written in a section of its parent, and its children
+ * in sections of their own, later in the image.
+ * <p>
+ * The sections are independent of each other, so the saver serializes
+ * them on a pool of threads, and the loader parses them on the pool. The
+ * thread that reads or writes the image keeps the order of the sections
+ * and attaches the parsed subtrees and their blocks to the namespace.
+ * At most twice as many sections as threads are in flight.
+ */
+class FSImageSections {
+    /** Parent index of the inodes that are children of the section parent. */
+    private static final int SECTION_PARENT = -1;
+
+    private final int threads;
+    private final int sectionSize;
+
+    /**
+     * @param threads number of threads serializing or parsing sections,
+     *                1 to do it all on the calling thread
+     * @param sectionSize number of inodes of a section
+     */
+    FSImageSections(int threads, int sectionSize) {
+        this.threads = Math.max(1, threads);
+        this.sectionSize = Math.max(1, sectionSize);
+    }
+
+    /**
+     * A run of children of a directory, with the subtrees of the children
+     * that are not split.
+     */
+    private static class Section {
+        final String parentPath;
+        final List<INode> children = new ArrayList<INode>();
+        long size = 0;
+
+        Section(String parentPath) {
+            this.parentPath = parentPath;
+        }
+    }
+
+    /** The subtrees of a section, parsed and not yet in the namespace. */
+    private static class ParsedSection {
+        final String parentPath;
+        final List<INode> children = new ArrayList<INode>();
+        final List<INodeFile> files = new ArrayList<INodeFile>();
+        int numINodes = 0;
+
+        ParsedSection(String parentPath) {
+            this.parentPath = parentPath;
+        }
+    }
+
+    /////////////////////////////////////////////////////////////
+    // Saving
+    /////////////////////////////////////////////////////////////
+
+    /**
+     * Save the namespace below root. The namespace must not change while
+     * it is saved.
+     */
+    void save(INodeDirectory root, DataOutputStream out) throws IOException {
+        final Set<INodeDirectory> split = Collections.newSetFromMap(
+                new IdentityHashMap<INodeDirectory, Boolean>());
+        BitSet users = new BitSet();
+        BitSet groups = new BitSet();
+        users.set(root.getUserSerialNumber());
+        groups.set(root.getGroupSerialNumber());
+        countSubtree(root, split, users, groups);
+        split.add(root);
+
+        writeSerialNumbers(users, true, out);
+        writeSerialNumbers(groups, false, out);
+        writeAttributes(root, out);
+
+        List<Section> sections = new ArrayList<Section>();
+        planSections(root, "", split, sections);
+        out.writeInt(sections.size());
+
+        ExecutorService executor = newExecutor("Image saver");
+        LinkedList<Future<ByteArrayOutputStream>> pending =
+                new LinkedList<Future<ByteArrayOutputStream>>();
+        int written = 0;
+        try {
+            for (final Section section : sections) {
+                pending.add(submit(executor, new Callable<ByteArrayOutputStream>() {
+                    public ByteArrayOutputStream call() throws IOException {
+                        return writeSection(section, split);
+                    }
+                }));
+                while (pending.size() >= 2 * threads) {
+                    writeSection(sections.get(written++), getResult(pending.removeFirst()), out);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeSection(sections.get(written++), getResult(pending.removeFirst()), out);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Count the inodes below dir and mark the directories to split. The
+     * users and groups of the inodes are collected on the way.
+     */
+    private long countSubtree(INodeDirectory dir, Set<INodeDirectory> split,
+                              BitSet users, BitSet groups) {
+        long count = 0;
+        for (INode child : dir.getChildren()) {
+            users.set(child.getUserSerialNumber());
+            groups.set(child.getGroupSerialNumber());
+            count++;
+            if (child.isDirectory()) {
+                count += countSubtree((INodeDirectory) child, split, users, groups);
+            }
+        }
+        if (count > sectionSize) {
+            split.add(dir);
+        }
+        return count;
+    }
+
+    private static long countInodes(INodeDirectory dir) {
+        long count = 0;
+        for (INode child : dir.getChildren()) {
+            count++;
+            if (child.isDirectory()) {
+                count += countInodes((INodeDirectory) child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Pack the children of a split directory into sections, then plan the
+     * sections of its split children. Every section follows the section
+     * that holds its parent directory.
+     */
+    private void planSections(INodeDirectory dir, String path,
+                              Set<INodeDirectory> split, List<Section> sections) {
+        Section current = null;
+        List<INodeDirectory> splitChildren = new ArrayList<INodeDirectory>();
+        for (INode child : dir.getChildren()) {
+            long size = 1;
+            if (child.isDirectory()) {
+                if (split.contains(child)) {
+                    splitChildren.add((INodeDirectory) child);
+                } else {
+                    size += countInodes((INodeDirectory) child);
+                }
+            }
+            if (current == null || current.size + size > sectionSize) {
+                current = new Section(path);
+                sections.add(current);
+            }
+            current.children.add(child);
+            current.size += size;
+        }
+        for (INodeDirectory child : splitChildren) {
+            planSections(child, path + Path.SEPARATOR + child.getLocalName(),
+                    split, sections);
+        }
+    }
+
+    private static ByteArrayOutputStream writeSection(Section section,
+                                                      Set<INodeDirectory> split) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                (int) Math.min(64 * section.size, 64 * 1024 * 1024));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt((int) section.size);
+        int index = 0;
+        for (INode child : section.children) {
+            index = writeSubtree(child, SECTION_PARENT, index, split, out);
+        }
+        out.flush();
+        return bytes;
+    }
+
+    /**
+     * Write node, with index in the section, and the subtree below it.
+     * @return the index of the next inode of the section
+     */
+    private static int writeSubtree(INode node, int parent, int index,
+                                    Set<INodeDirectory> split,
+                                    DataOutputStream out) throws IOException {
+        out.writeInt(parent);
+        byte[] name = node.getLocalNameBytes();
+        out.writeShort(name.length);
+        out.write(name);
+        writeAttributes(node, out);
+        int self = index++;
+        if (node.isDirectory() && !split.contains(node)) {
+            for (INode child : ((INodeDirectory) node).getChildren()) {
+                index = writeSubtree(child, self, index, split, out);
+            }
+        }
+        return index;
+    }
+
+    private static void writeSection(Section section, ByteArrayOutputStream bytes,
+                                     DataOutputStream out) throws IOException {
+        FSImage.writeString(section.parentPath, out);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Write the attributes of an inode: its number of blocks, -1 for a
+     * directory, then the modification time, the permission status, and
+     * the quotas of a directory or the rest of the header and the blocks
+     * of a file.
+     */
+    private static void writeAttributes(INode node, DataOutputStream out) throws IOException {
+        if (node.isDirectory()) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(((INodeFile) node).getBlocks().length);
+        }
+        out.writeLong(node.getModificationTime());
+        out.writeInt(node.getUserSerialNumber());
+        out.writeInt(node.getGroupSerialNumber());
+        out.writeShort(node.getFsPermissionShort());
+        if (node.isDirectory()) {
+            out.writeLong(node.getNsQuota());
+            out.writeLong(node.getDsQuota());
+        } else {
+            INodeFile file = (INodeFile) node;
+            out.writeShort(file.getReplication());
+            out.writeLong(file.getAccessTime());
+            out.writeLong(file.getPreferredBlockSize());
+            for (Block blk : file.getBlocks()) {
+                blk.write(out);
+            }
+        }
+    }
+
+    /**
+     * The string table: the serial numbers in use and their names. The
+     * inodes refer to users and groups by the serial number they had when
+     * the image was saved.
+     */
+    private static void writeSerialNumbers(BitSet serialNumbers, boolean user,
+                                           DataOutputStream out) throws IOException {
+        out.writeInt(serialNumbers.cardinality());
+        for (int n = serialNumbers.nextSetBit(0); n >= 0; n = serialNumbers.nextSetBit(n + 1)) {
+            String name = user ? SerialNumberManager.INSTANCE.getUser(n)
+                    : SerialNumberManager.INSTANCE.getGroup(n);
+            out.writeInt(n);
+            out.writeBoolean(name != null);
+            if (name != null) {
+                FSImage.writeString(name, out);
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////////
+    // Loading
+    /////////////////////////////////////////////////////////////
+
+    /**
+     * Load the namespace into fsDir, whose blocks map must be empty.
+     * @return the number of inodes loaded, the root excluded
+     */
+    long load(DataInputStream in, FSDirectory fsDir,
+              final BlocksMap blocksMap) throws IOException {
+        final int[] users = readSerialNumbers(in, true);
+        final int[] groups = readSerialNumbers(in, false);
+        INode root = readAttributes(null, in, users, groups);
+        if (root.getNsQuota() != -1 || root.getDsQuota() != -1) {
+            fsDir.rootDir.setQuota(root.getNsQuota(), root.getDsQuota());
+        }
+        fsDir.rootDir.setModificationTime(root.getModificationTime());
+        fsDir.rootDir.setPermissionStatus(root.getPermissionStatus());
+
+        int numSections = in.readInt();
+        FSImage.LOG.info("Number of image sections = " + numSections);
+        List<INodeDirectory> parents = new ArrayList<INodeDirectory>();
+        ExecutorService executor = newExecutor("Image loader");
+        LinkedList<Future<ParsedSection>> pending = new LinkedList<Future<ParsedSection>>();
+        long numINodes = 0;
+        try {
+            for (int i = 0; i < numSections; i++) {
+                final String parentPath = FSImage.readString(in);
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                pending.add(submit(executor, new Callable<ParsedSection>() {
+                    public ParsedSection call() throws IOException {
+                        return readSection(parentPath, data, users, groups);
+                    }
+                }));
+                while (pending.size() >= 2 * threads) {
+                    numINodes += attach(getResult(pending.removeFirst()), fsDir, blocksMap, parents);
+                }
+            }
+            while (!pending.isEmpty()) {
+                numINodes += attach(getResult(pending.removeFirst()), fsDir, blocksMap, parents);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        // the children of the section parents are complete now
+        for (INodeDirectory parent : parents) {
+            parent.trimChildren();
+        }
+        return numINodes;
+    }
+
+    /**
+     * Map the serial numbers of the string table to the serial numbers of
+     * the running namenode.
+     */
+    private static int[] readSerialNumbers(DataInputStream in, boolean user) throws IOException {
+        int size = in.readInt();
+        int[] serialNumbers = new int[0];
+        for (int i = 0; i < size; i++) {
+            int n = in.readInt();
+            String name = in.readBoolean() ? FSImage.readString(in) : null;
+            if (n < 0) {
+                throw new IOException("Invalid serial number " + n + " in the image");
+            }
+            if (n >= serialNumbers.length) {
+                int[] grown = new int[Math.max(n + 1, 2 * serialNumbers.length)];
+                System.arraycopy(serialNumbers, 0, grown, 0, serialNumbers.length);
+                serialNumbers = grown;
+            }
+            serialNumbers[n] = user ? SerialNumberManager.INSTANCE.getUserSerialNumber(name)
+                    : SerialNumberManager.INSTANCE.getGroupSerialNumber(name);
+        }
+        return serialNumbers;
+    }
+
+    /**
+     * Parse a section into subtrees. The directories of the section are
+     * complete, except the split ones, which have no children yet.
+     */
+    private static ParsedSection readSection(String parentPath, byte[] data,
+                                             int[] users, int[] groups) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        ParsedSection section = new ParsedSection(parentPath);
+        INode[] nodes = new INode[in.readInt()];
+        section.numINodes = nodes.length;
+        // adding a child raises the modification time of its parent
+        long[] modificationTimes = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            int parent = in.readInt();
+            byte[] name = new byte[in.readUnsignedShort()];
+            in.readFully(name);
+            INode node = readAttributes(name, in, users, groups);
+            nodes[i] = node;
+            modificationTimes[i] = node.getModificationTime();
+            if (parent == SECTION_PARENT) {
+                section.children.add(node);
+            } else if (parent < 0 || parent >= i || !nodes[parent].isDirectory()) {
+                throw new IOException("Invalid parent " + parent + " of "
+                        + node.getLocalName() + " in a section of " + parentPath);
+            } else if (((INodeDirectory) nodes[parent]).addChild(node, false) == null) {
+                throw new IOException("Duplicate inode " + node.getLocalName()
+                        + " in a section of " + parentPath);
+            }
+            if (!node.isDirectory()) {
+                section.files.add((INodeFile) node);
+            }
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].isDirectory()) {
+                ((INodeDirectory) nodes[i]).trimChildren();
+                nodes[i].modificationTime = modificationTimes[i];
+            }
+        }
+        return section;
+    }
+
+    private static INode readAttributes(byte[] name, DataInputStream in,
+                                        int[] users, int[] groups) throws IOException {
+        int numBlocks = in.readInt();
+        long modificationTime = in.readLong();
+        int user = mapSerialNumber(users, in.readInt());
+        int group = mapSerialNumber(groups, in.readInt());
+        long permission = INode.packPermissionStatus(user, group, in.readShort());
+        if (numBlocks < 0) {
+            long nsQuota = in.readLong();
+            long dsQuota = in.readLong();
+            if (nsQuota >= 0 || dsQuota >= 0) {
+                return new INodeDirectoryWithQuota(name, permission, modificationTime,
+                        nsQuota, dsQuota);
+            }
+            return new INodeDirectory(name, permission, modificationTime);
+        }
+        short replication = FSEditLog.adjustReplication(in.readShort());
+        long atime = in.readLong();
+        long blockSize = in.readLong();
+        BlockInfo[] blocks = new BlockInfo[numBlocks];
+        Block blk = new Block();
+        for (int i = 0; i < numBlocks; i++) {
+            blk.readFields(in);
+            blocks[i] = new BlockInfo(blk, replication);
+        }
+        return new INodeFile(name, permission, blocks, replication,
+                modificationTime, atime, blockSize);
+    }
+
+    private static int mapSerialNumber(int[] serialNumbers, int n) throws IOException {
+        if (n < 0 || n >= serialNumbers.length) {
+            throw new IOException("Serial number " + n + " is not in the string table");
+        }
+        return serialNumbers[n];
+    }
+
+    /**
+     * Attach the subtrees of a section to the namespace and add their
+     * blocks to the blocks map.
+     * @return the number of files and directories attached
+     */
+    private static long attach(ParsedSection section, FSDirectory fsDir,
+                               BlocksMap blocksMap,
+                               List<INodeDirectory> parents) throws IOException {
+        INodeDirectory parent = parents.isEmpty() ? null : parents.get(parents.size() - 1);
+        fsDir.writeLock();
+        try {
+            if (parent == null || !section.parentPath.equals(getPath(parent))) {
+                INode node = section.parentPath.length() == 0 ? fsDir.rootDir
+                        : fsDir.rootDir.getNode(section.parentPath);
+                if (node == null || !node.isDirectory()) {
+                    throw new IOException("The parent " + section.parentPath
+                            + " of an image section is not a directory");
+                }
+                parent = (INodeDirectory) node;
+                parents.add(parent);
+            }
+            long modificationTime = parent.getModificationTime();
+            for (INode child : section.children) {
+                if (parent.addChild(child, false) == null) {
+                    throw new IOException("Duplicate inode " + child.getLocalName()
+                            + " in " + section.parentPath);
+                }
+            }
+            parent.modificationTime = modificationTime;
+            for (INodeFile file : section.files) {
+                BlockInfo[] blocks = file.getBlocks();
+                for (int i = 0; i < blocks.length; i++) {
+                    file.setBlock(i, blocksMap.addLoadedBlock(blocks[i], file));
+                }
+            }
+            return section.numINodes;
+        } finally {
+            fsDir.writeUnlock();
+        }
+    }
+
+    private static String getPath(INodeDirectory dir) {
+        return dir.isRoot() ? "" : dir.getFullPathName();
+    }
+
+    /////////////////////////////////////////////////////////////
+    // Threads
+    /////////////////////////////////////////////////////////////
+
+    private ExecutorService newExecutor(final String name) {
+        if (threads == 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Run task on the executor, or right away without one. */
+    private static <T> Future<T> submit(ExecutorService executor, Callable<T> task) {
+        if (executor != null) {
+            return executor.submit(task);
+        }
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            throw (IOException) new InterruptedIOException(
+                    "Interrupted while waiting for an image section").initCause(ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw (IOException) new IOException(cause.toString()).initCause(cause);
+        }
+    }
+}
@@ -37,6 +37,7 @@ import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.server.namenode.UnderReplicatedBlocks.BlockIterator;
 import org.apache.hadoop.hdfs.server.namenode.metrics.FSNamesystemMBean;
 import org.apache.hadoop.hdfs.server.namenode.metrics.FSNamesystemMetrics;
+import org.apache.hadoop.hdfs.server.namenode.metrics.StripedCounter;
 import org.apache.hadoop.hdfs.server.protocol.*;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.io.IOUtils;
@@ -63,6 +64,9 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /***************************************************
  * FSNamesystem does the actual bookkeeping work for the
@@ -115,6 +119,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     public static final float DEFAULT_MAP_LOAD_FACTOR = 0.75f;
 
     private boolean isPermissionEnabled;
+    // largest number of entries of a page of a directory listing
+    private int lsLimit;
     private UserGroupInformation fsOwner;
     private String supergroup;
     private PermissionStatus defaultPermission;
@@ -126,6 +132,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     volatile long pendingReplicationBlocksCount = 0L;
     volatile long corruptReplicaBlocksCount = 0L;
     volatile long underReplicatedBlocksCount = 0L;
+    volatile long dynamicReplicationQueueBlocksCount = 0L;
     volatile long scheduledReplicationBlocksCount = 0L;
     volatile long excessBlocksCount = 0L;
     volatile long pendingDeletionBlocksCount = 0L;
@@ -278,7 +285,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     private long accessTimePrecision = 0;
 
     //指数平均法中灵敏度alpha
-    private float alpha;
+    private double alpha;
 
     //最大动态副本
     private int maxDynamicReplication;
@@ -286,20 +293,392 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     //最小动态副本
     private int minDynamicReplication;
 
+    //每个 datanode 每轮最多调度的动态副本复制数
+    private float dynamicReplicationWorkMultiplier;
+
     //存储空间使用上限
     private float capacityUsedPercentTop;
 
     //动态副本类
-    private DynamicReplicationMonitor dynamicReplicationMonitor;
+    DynamicReplicationMonitor dynamicReplicationMonitor;
+
+    //动态副本的空间控制器，决定何时提升、何时降低副本数
+    private DynamicReplicationCapacityController capacityController;
+
+    //文件热度模型，动态副本按其分数排序
+    private PopularityModel popularityModel;
+
+    //按块调整的动态副本，只提升热块的副本数
+    private DynamicBlockReplication dynamicBlockReplication;
+
+    //按机架统计的读请求来源，用于放置动态副本，为 null 时按普通策略放置
+    private ReadLocalityStats readLocality;
+
+    //热度模型记录的读次数，在读路径上更新，使用分段计数器避免竞争
+    private final StripedCounter dynamicAccesses = new StripedCounter();
+    //JMX 中列出的最热文件数
+    private int dynamicHotFilesCount;
+
+    //动态副本规划线程，异步执行副本分配算法
+    private DynamicReplicationPlanner dynamicReplicationPlanner;
+    Daemon dpthread = null;   // DynamicReplicationPlanner thread
+
+    //停止 dpthread 后可以由调用者直接驱动规划线程，例如离线模拟
+    DynamicReplicationPlanner getDynamicReplicationPlanner() {
+        return dynamicReplicationPlanner;
+    }
+
+    //把访问事件交给规划线程，不在调用者线程中执行副本分配算法
+    public void allocateReplication(String src, INodeFile inode) {
+        if (dynamicReplicationPlanner != null) {
+            dynamicReplicationPlanner.offer(src, inode);
+        }
+    }
+
+    //记录一次读，文件分数变化时交给规划线程重新分配副本，调用者持有写锁
+    void recordAccess(String src, INodeFile inode, long now, boolean accessTimeUpdated) {
+        if (popularityModel.recordAccess(inode, now, accessTimeUpdated)) {
+            allocateReplication(src, inode);
+        }
+    }
+
+    /**
+     * 一次尚未生效的读：读路径只持有读锁，不能修改 inode 的访问时间，
+     * 先放入队列，在下一次获取写锁时批量生效。
+     */
+    private static class PendingAccess {
+        final String src;
+        final INodeFile inode;
+        final long time;
+
+        PendingAccess(String src, INodeFile inode, long time) {
+            this.src = src;
+            this.inode = inode;
+            this.time = time;
+        }
+    }
+
+    //尚未生效的读
+    private final ConcurrentLinkedQueue<PendingAccess> pendingAccesses =
+            new ConcurrentLinkedQueue<PendingAccess>();
+    private final AtomicInteger pendingAccessCount = new AtomicInteger();
+    //积累这么多读后，读线程主动获取写锁使其生效
+    private int accessTimeBatchSize;
+
+    /**
+     * 命名空间锁。getFileInfo、getListing、getContentSummary 和
+     * getBlockLocations 等只读操作持有读锁，可以并发执行；修改命名空间或
+     * 块状态的操作持有写锁。使用非公平模式：公平模式下读者要排在等待的写者
+     * 之后，大量 handler 线程反复挂起和唤醒，吞吐量只有非公平模式的三分之一；
+     * 非公平模式下队首是写者时新来的读者也会等待，写者不会被饿死。
+     */
+    private final ReentrantReadWriteLock fsLock = new ReentrantReadWriteLock();
+
+    void readLock() {
+        fsLock.readLock().lock();
+    }
+
+    void readUnlock() {
+        fsLock.readLock().unlock();
+    }
+
+    /**
+     * 获取写锁。最外层的获取会先让排队的读生效，
+     * 所以写操作总能看到在它之前完成的读更新的访问时间。
+     */
+    void writeLock() {
+        if (fsLock.getReadHoldCount() > 0 && !fsLock.isWriteLockedByCurrentThread()) {
+            //读锁不能升级为写锁，否则线程会永远等待自己
+            throw new IllegalMonitorStateException("Cannot upgrade the namesystem read lock");
+        }
+        fsLock.writeLock().lock();
+        if (fsLock.getWriteHoldCount() == 1) {
+            applyPendingAccesses();
+        }
+    }
+
+    void writeUnlock() {
+        fsLock.writeLock().unlock();
+    }
+
+    boolean hasWriteLock() {
+        return fsLock.isWriteLockedByCurrentThread();
+    }
+
+    //在读锁下记录一次读，待持有写锁时生效
+    private void queueAccess(String src, INodeFile inode, long now) {
+        dynamicAccesses.inc();
+        pendingAccesses.add(new PendingAccess(src, inode, now));
+        pendingAccessCount.incrementAndGet();
+    }
+
+    //让排队的读生效，调用者持有写锁
+    private void applyPendingAccesses() {
+        PendingAccess access;
+        while ((access = pendingAccesses.poll()) != null) {
+            pendingAccessCount.decrementAndGet();
+            INodeFile inode = access.inode;
+            if (inode.getParent() == null) {
+                //排队期间文件已被删除
+                continue;
+            }
+            try {
+                boolean accessTimeUpdated = isAccessTimeSupported()
+                        && dir.setTimes(access.src, inode, -1, access.time, false);
+                recordAccess(access.src, inode, access.time, accessTimeUpdated);
+            } catch (IOException e) {
+                LOG.warn("Could not update the access time of " + access.src + ": "
+                        + StringUtils.stringifyException(e));
+            }
+        }
+    }
+
+    /**
+     * 让排队的读生效，由 ReplicationMonitor 定期调用，
+     * 读较少时访问时间也不会长时间滞后。
+     */
+    void flushPendingAccesses() {
+        if (pendingAccessCount.get() > 0) {
+            writeLock();
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 把 datanode 报告的块读次数折算成文件的读次数并记录到热度模型，
+     * 分数变化的文件加入 changed。块读次数同时用于按块调整副本。
+     * 由规划线程在持有 namesystem 锁时调用。
+     * @param blockReads 块 id 和读次数交替排列
+     */
+    void recordBlockReads(long[] blockReads, Map<INodeFile, String> changed) throws IOException {
+        long now = now();
+        Map<INodeFile, long[]> fileReads = new IdentityHashMap<INodeFile, long[]>();
+        Block block = new Block();
+        for (int i = 0; i + 1 < blockReads.length; i += 2) {
+            block.set(blockReads[i], 0, GenerationStamp.WILDCARD_STAMP);
+            BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+            INodeFile inode = storedBlock == null ? null : storedBlock.getINode();
+            if (inode == null) {
+                continue;
+            }
+            if (dynamicBlockReplication != null) {
+                int target = dynamicBlockReplication.recordReads(storedBlock, now, blockReads[i + 1]);
+                if (target > 0 && dynamicReplicationMonitor != null) {
+                    //目录策略同样限制块的副本数
+                    target = Math.min(target, dynamicReplicationMonitor.getMaxReplication(
+                            dynamicReplicationMonitor.getPolicy(inode)));
+                }
+                //空间达到上限时不再提升块的副本数
+                if (target > 0 && !isInSafeMode() && canPromoteDynamicReplication()) {
+                    setBlockDynamicReplication(storedBlock, (short) target);
+                }
+            }
+            long[] reads = fileReads.get(inode);
+            if (reads == null) {
+                reads = new long[1];
+                fileReads.put(inode, reads);
+            }
+            reads[0] += blockReads[i + 1];
+        }
+        for (Map.Entry<INodeFile, long[]> e : fileReads.entrySet()) {
+            INodeFile inode = e.getKey();
+            //顺序读完整个文件时每块各读一次，相当于文件被读一次
+            int numBlocks = Math.max(1, inode.getBlocks().length);
+            if (popularityModel.recordReads(inode, now, (double) e.getValue()[0] / numBlocks)) {
+                String src = inode.getFullPathName();
+                if (src != null) {
+                    changed.put(inode, src);
+                }
+            }
+        }
+    }
+
+    PopularityModel getPopularityModel() {
+        return popularityModel;
+    }
+
+    //空间是否允许提升副本数
+    private boolean canPromoteDynamicReplication() {
+        synchronized (heartbeats) {
+            return capacityController.canPromote(capacityTotal, capacityRemaining);
+        }
+    }
+
+    /**
+     * 已用空间超过高水位时，按限速降低最冷文件的副本数，直到降到低水位。
+     * 由规划线程周期调用。
+     * @return 本次降低的字节数
+     */
+    long checkDynamicReplicationCapacity() throws IOException {
+        writeLock();
+        try {
+            if (dynamicReplicationMonitor == null || isInSafeMode()) {
+                return 0;
+            }
+            long bytes;
+            synchronized (heartbeats) {
+                bytes = capacityController.getBytesToDemote(now(), capacityTotal, capacityRemaining);
+            }
+            if (bytes <= 0) {
+                return 0;
+            }
+            long demoted = dynamicReplicationMonitor.demote(bytes);
+            capacityController.demoted(demoted);
+            NameNode.getNameNodeMetrics().dynamicBytesReclaimed.inc(demoted);
+            return demoted;
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 降低已冷却的块的副本数，由规划线程每隔 dfs.dynamic.block.check.interval 调用
+     */
+    void checkDynamicBlockReplication() throws IOException {
+        writeLock();
+        try {
+            if (dynamicBlockReplication == null || isInSafeMode()) {
+                return;
+            }
+            long now = now();
+            for (BlockInfo block : dynamicBlockReplication.sweep(now)) {
+                int target = dynamicBlockReplication.getTarget(block, now);
+                if (target < block.getDynamicReplication()) {
+                    setBlockDynamicReplication(block, (short) target);
+                }
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 修改块的动态副本数，并按新的期望副本数更新副本队列或删除多余的副本
+     * @param replication 块的新动态副本数，0 表示与文件副本数相同
+     */
+    void setBlockDynamicReplication(BlockInfo block, short replication)
+            throws IOException {
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot set replication for " + block, safeMode);
+            INodeFile inode = block.getINode();
+            if (inode == null || inode.isUnderConstruction()) {
+                return;
+            }
+            int oldExpected = block.getExpectedReplication();
+            block.setDynamicReplication(replication);
+            int newExpected = block.getExpectedReplication();
+            if (oldExpected == newExpected) {
+                return;
+            }
+            updateNeededReplications(block, 0, newExpected - oldExpected);
+            if (newExpected < oldExpected) {
+                processOverReplicatedBlock(block, (short) newExpected, null, null);
+                NameNode.getNameNodeMetrics().numDynamicBlocksDemoted.inc();
+            } else {
+                NameNode.getNameNodeMetrics().numDynamicBlocksPromoted.inc();
+            }
+            if (NameNode.allocationLog.isDebugEnabled()) {
+                NameNode.allocationLog.debug("replication of " + block + " in "
+                        + inode.getLocalName() + " was changed from " + oldExpected
+                        + " to " + newExpected);
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
 
-    //执行副本分配算法
-    public void allocateReplication(String src,INodeFile inode) throws IOException {
-        this.dynamicReplicationMonitor.allocateReplication(src, inode);
+    //文件被删除，不再跟踪其热度
+    void removePopularity(INodeFile inode) {
+        if (popularityModel != null) {
+            popularityModel.remove(inode);
+        }
+    }
+
+    //执行副本分配算法，由规划线程调用
+    void allocateReplicationInternal(String src, INodeFile inode) throws IOException {
+        writeLock();
+        try {
+            long start = System.nanoTime();
+            this.dynamicReplicationMonitor.allocateReplication(src, inode);
+            NameNode.getNameNodeMetrics().dynamicAllocateReplication.inc(
+                    (System.nanoTime() - start) / 1000);
+        } finally {
+            writeUnlock();
+        }
     }
 
     //尝试删除
-    public boolean attemptToDeleteFileFromDynamicReplicationSet(String src, int rep){
-        return this.dynamicReplicationMonitor.deleteFileFromOldSet(src, rep);
+    boolean attemptToDeleteFileFromDynamicReplicationSet(INodeFile inode){
+        if (this.dynamicReplicationMonitor == null) {
+            return false;
+        }
+        return this.dynamicReplicationMonitor.deleteFileFromOldSet(inode);
+    }
+
+    //把被删除子树中的文件移出动态集合和流行度模型，需要在子树被清空前调用
+    void removeDynamicReplication(INode deleted) {
+        if (this.dynamicReplicationMonitor == null && this.popularityModel == null) {
+            return;
+        }
+        if (deleted.isDirectory()) {
+            for (INode child : ((INodeDirectory) deleted).getChildren()) {
+                removeDynamicReplication(child);
+            }
+        } else {
+            attemptToDeleteFileFromDynamicReplicationSet((INodeFile) deleted);
+            removePopularity((INodeFile) deleted);
+        }
+    }
+
+    //加载映像或日志时恢复文件所在的动态副本集合
+    void restoreDynamicReplication(String src, short replication, long score){
+        INodeFile inode = dir.getFileINode(src);
+        if (inode != null && this.popularityModel != null) {
+            this.popularityModel.restore(inode, score);
+        }
+        if (this.dynamicReplicationMonitor != null) {
+            this.dynamicReplicationMonitor.restore(inode, replication, score);
+        }
+    }
+
+    //文件所在动态副本集合的副本数，不在任何集合中时返回0
+    int getDynamicReplicationTier(INodeFile inode){
+        readLock();
+        try {
+            if (this.dynamicReplicationMonitor == null) {
+                return 0;
+            }
+            DynamicReplicationTier.Entry entry = this.dynamicReplicationMonitor.members.get(inode);
+            return entry == null ? 0 : entry.getTier().getReplication();
+        } finally {
+            readUnlock();
+        }
+    }
+
+    //目录增加或清除了动态副本策略，回放日志和加载映像时也会执行
+    void dynamicReplicationPoliciesChanged(){
+        if (this.dynamicReplicationMonitor != null) {
+            this.dynamicReplicationMonitor.reassignPolicies();
+        }
+    }
+
+    //文件的大小在集合之外发生变化（新增或放弃数据块）时更新集合和策略的字节数
+    void dynamicReplicationFileResized(INodeFile inode){
+        if (this.dynamicReplicationMonitor != null) {
+            this.dynamicReplicationMonitor.resize(inode);
+        }
+    }
+
+    //文件的 inode 被替换时更新动态集合
+    void replaceDynamicReplicationINode(INodeFile oldNode, INodeFile newNode){
+        if (this.popularityModel != null) {
+            this.popularityModel.replace(oldNode, newNode);
+        }
+        if (this.dynamicReplicationMonitor != null) {
+            this.dynamicReplicationMonitor.replaceINode(oldNode, newNode);
+        }
     }
     /**
      * FSNamesystem constructor.
@@ -321,8 +700,6 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         this.systemStart = now();
         setConfigurationParameters(conf);
 
-        this.dynamicReplicationMonitor = new DynamicReplicationMonitor(maxDynamicReplication, minDynamicReplication, capacityUsedPercentTop);
-
         this.nameNodeAddress = nn.getNameNodeAddress();
         this.registerMBean(conf); // register the MBean for the FSNamesystemStutus
         this.dir = new FSDirectory(this, conf);
@@ -341,9 +718,12 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         this.hbthread = new Daemon(new HeartbeatMonitor());
         this.lmthread = new Daemon(leaseManager.new Monitor());
         this.replthread = new Daemon(new ReplicationMonitor());
+        this.dynamicReplicationPlanner = new DynamicReplicationPlanner(this, conf);
+        this.dpthread = new Daemon(dynamicReplicationPlanner);
         hbthread.start();
         lmthread.start();
         replthread.start();
+        dpthread.start();
 
         this.hostsReader = new HostsFileReader(conf.get("dfs.hosts", ""),
                 conf.get("dfs.hosts.exclude", ""));
@@ -415,6 +795,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         this.isPermissionEnabled = conf.getBoolean("dfs.permissions", true);
         LOG.info("supergroup=" + supergroup);
         LOG.info("isPermissionEnabled=" + isPermissionEnabled);
+        this.lsLimit = Math.max(1, conf.getInt("dfs.ls.limit", 1000));
         short filePermission = (short) conf.getInt("dfs.upgrade.permission", 0777);
         this.defaultPermission = PermissionStatus.createImmutable(
                 fsOwner.getUserName(), supergroup, new FsPermission(filePermission));
@@ -425,12 +806,37 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                 this,
                 clusterMap);
 
-        this.alpha = conf.getFloat("dfs.dynamic.alpha",0.5f);
+        //按配置中的十进制值转换，避免 float 到 double 的舍入误差
+        this.alpha = Double.parseDouble(Float.toString(conf.getFloat("dfs.dynamic.alpha",0.5f)));
         this.capacityUsedPercentTop = conf.getFloat("dfs.dynamic.top", 80.0f);
         this.maxDynamicReplication = conf.getInt("dfs.dynamic.max", 6);
+        this.dynamicHotFilesCount = conf.getInt("dfs.dynamic.hotfiles.count", 20);
         //this.minDynamicReplication = conf.getInt("dfs.dynamic.min", 3);
         this.defaultReplication = conf.getInt("dfs.replication", 3);
         this.minDynamicReplication = this.defaultReplication;
+        //只缺动态副本的块使用单独的复制队列和预算
+        this.neededReplications = new UnderReplicatedBlocks(
+                new UnderReplicatedBlocks.DynamicReplicaFilter() {
+                    public boolean onlyMissesDynamicReplicas(Block block, int curReplicas) {
+                        return FSNamesystem.this.onlyMissesDynamicReplicas(block, curReplicas);
+                    }
+                });
+        this.dynamicReplicationWorkMultiplier =
+                conf.getFloat("dfs.dynamic.replication.work.multiplier", 1.0f);
+        this.popularityModel = ReflectionUtils.newInstance(
+                conf.getClass("dfs.dynamic.popularity.model", EwmaPopularityModel.class,
+                        PopularityModel.class), conf);
+        LOG.info("dfs.dynamic.popularity.model=" + popularityModel.getClass().getName());
+        //加载映像和日志时需要恢复动态副本集合，因此在这里创建
+        this.dynamicReplicationMonitor = new DynamicReplicationMonitor(maxDynamicReplication, minDynamicReplication, capacityUsedPercentTop);
+        this.capacityController = new DynamicReplicationCapacityController(conf, capacityUsedPercentTop, now());
+        if (conf.getBoolean("dfs.dynamic.placement.readaware", true)) {
+            this.readLocality = new ReadLocalityStats(
+                    conf.getLong("dfs.dynamic.popularity.halflife", 60 * 60 * 1000L), now());
+        }
+        if (conf.getBoolean("dfs.dynamic.block.enabled", true)) {
+            this.dynamicBlockReplication = new DynamicBlockReplication(conf, maxDynamicReplication);
+        }
         this.maxReplication = conf.getInt("dfs.replication.max", 512);
         this.minReplication = conf.getInt("dfs.replication.min", 1);
         if (minReplication <= 0)
@@ -461,6 +867,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         this.blockInvalidateLimit = Math.max(this.blockInvalidateLimit,
                 20 * (int) (heartbeatInterval / 1000));
         this.accessTimePrecision = conf.getLong("dfs.access.time.precision", 60000);
+        this.accessTimeBatchSize = conf.getInt("dfs.namenode.accesstime.batch", 1000);
         this.supportAppends = conf.getBoolean("dfs.support.append", false);
     }
 
@@ -491,11 +898,13 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * them to finish, but a short timeout returns control back to caller.
      */
     public void close() {
+        flushPendingAccesses();
         fsRunning = false;
         try {
             if (pendingReplications != null) pendingReplications.stop();
             if (hbthread != null) hbthread.interrupt();
             if (replthread != null) replthread.interrupt();
+            if (dpthread != null) dpthread.interrupt();
             if (dnthread != null) dnthread.interrupt();
             if (smmthread != null) smmthread.interrupt();
         } catch (Exception e) {
@@ -524,62 +933,82 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     /**
      * Dump all metadata into specified file
      */
-    synchronized void metaSave(String filename) throws IOException {
-        checkSuperuserPrivilege();
-        File file = new File(System.getProperty("hadoop.log.dir"),
-                filename);
-        PrintWriter out = new PrintWriter(new BufferedWriter(
-                new FileWriter(file, true)));
+    void metaSave(String filename) throws IOException {
+        writeLock();
+        try {
+            checkSuperuserPrivilege();
+            File file = new File(System.getProperty("hadoop.log.dir"),
+                    filename);
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new FileWriter(file, true)));
 
 
-        //
-        // Dump contents of neededReplication
-        //
-        synchronized (neededReplications) {
-            out.println("Metasave: Blocks waiting for replication: " +
-                    neededReplications.size());
-            for (Block block : neededReplications) {
-                List<DatanodeDescriptor> containingNodes =
-                        new ArrayList<DatanodeDescriptor>();
-                NumberReplicas numReplicas = new NumberReplicas();
-                // source node returned is not used
-                chooseSourceDatanode(block, containingNodes, numReplicas);
-                int usableReplicas = numReplicas.liveReplicas() +
-                        numReplicas.decommissionedReplicas();
-                // l: == live:, d: == decommissioned c: == corrupt e: == excess
-                out.print(block + " (replicas:" +
-                        " l: " + numReplicas.liveReplicas() +
-                        " d: " + numReplicas.decommissionedReplicas() +
-                        " c: " + numReplicas.corruptReplicas() +
-                        " e: " + numReplicas.excessReplicas() +
-                        ((usableReplicas > 0) ? "" : " MISSING") + ")");
-
-                for (Iterator<DatanodeDescriptor> jt = blocksMap.nodeIterator(block);
-                     jt.hasNext(); ) {
-                    DatanodeDescriptor node = jt.next();
-                    out.print(" " + node + " : ");
+            //
+            // Dump contents of neededReplication
+            //
+            synchronized (neededReplications) {
+                out.println("Metasave: Blocks waiting for replication: " +
+                        neededReplications.recoverySize());
+                out.println("Metasave: Blocks waiting for dynamic replication: " +
+                        neededReplications.dynamicSize());
+                for (Block block : neededReplications) {
+                    metaSaveNeededReplication(out, block);
+                }
+                for (Block block : neededReplications.dynamicBlocks()) {
+                    metaSaveNeededReplication(out, block);
                 }
-                out.println("");
             }
-        }
 
-        //
-        // Dump blocks from pendingReplication
-        //
-        pendingReplications.metaSave(out);
+            //
+            // Dump blocks from pendingReplication
+            //
+            pendingReplications.metaSave(out);
 
-        //
-        // Dump blocks that are waiting to be deleted
-        //
-        dumpRecentInvalidateSets(out);
+            //
+            // Dump blocks that are waiting to be deleted
+            //
+            dumpRecentInvalidateSets(out);
 
-        //
-        // Dump all datanodes
-        //
-        datanodeDump(out);
+            //
+            // Dump all datanodes
+            //
+            datanodeDump(out);
+
+            //
+            // Dump the estimated heap usage of the namespace
+            //
+            dir.getMemoryReport().write(out);
+
+            out.flush();
+            out.close();
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    //Dump one block waiting for replication
+    private void metaSaveNeededReplication(PrintWriter out, Block block) {
+        List<DatanodeDescriptor> containingNodes =
+                new ArrayList<DatanodeDescriptor>();
+        NumberReplicas numReplicas = new NumberReplicas();
+        // source node returned is not used
+        chooseSourceDatanode(block, containingNodes, numReplicas);
+        int usableReplicas = numReplicas.liveReplicas() +
+                numReplicas.decommissionedReplicas();
+        // l: == live:, d: == decommissioned c: == corrupt e: == excess
+        out.print(block + " (replicas:" +
+                " l: " + numReplicas.liveReplicas() +
+                " d: " + numReplicas.decommissionedReplicas() +
+                " c: " + numReplicas.corruptReplicas() +
+                " e: " + numReplicas.excessReplicas() +
+                ((usableReplicas > 0) ? "" : " MISSING") + ")");
 
-        out.flush();
-        out.close();
+        for (Iterator<DatanodeDescriptor> jt = blocksMap.nodeIterator(block);
+             jt.hasNext(); ) {
+            DatanodeDescriptor node = jt.next();
+            out.print(" " + node + " : ");
+        }
+        out.println("");
     }
 
     long getDefaultBlockSize() {
@@ -589,7 +1018,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     long getAccessTimePrecision() {
         return accessTimePrecision;
     }
-    float getAlpha(){
+    double getAlpha(){
         return alpha;
     }
     private boolean isAccessTimeSupported() {
@@ -598,24 +1027,30 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
 
     /* get replication factor of a block */
     private int getReplication(Block block) {
-        INodeFile fileINode = blocksMap.getINode(block);
-        if (fileINode == null) { // block does not belong to any file
+        BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+        if (storedBlock == null) { // block does not belong to any file
             return 0;
         }
-        assert !fileINode.isDirectory() : "Block cannot belong to a directory.";
-        return fileINode.getReplication();
+        assert storedBlock.getINode() == null || !storedBlock.getINode().isDirectory()
+                : "Block cannot belong to a directory.";
+        return storedBlock.getExpectedReplication();
     }
 
     /* updates a block in under replication queue */
-    synchronized void updateNeededReplications(Block block,
+    void updateNeededReplications(Block block,
                                                int curReplicasDelta, int expectedReplicasDelta) {
-        NumberReplicas repl = countNodes(block);
-        int curExpectedReplicas = getReplication(block);
-        neededReplications.update(block,
-                repl.liveReplicas(),
-                repl.decommissionedReplicas(),
-                curExpectedReplicas,
-                curReplicasDelta, expectedReplicasDelta);
+        writeLock();
+        try {
+            NumberReplicas repl = countNodes(block);
+            int curExpectedReplicas = getReplication(block);
+            neededReplications.update(block,
+                    repl.liveReplicas(),
+                    repl.decommissionedReplicas(),
+                    curExpectedReplicas,
+                    curReplicasDelta, expectedReplicasDelta);
+        } finally {
+            writeUnlock();
+        }
     }
 
     /////////////////////////////////////////////////////////
@@ -631,43 +1066,48 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * @param datanode on which blocks are located
      * @param size total size of blocks
      */
-    synchronized BlocksWithLocations getBlocks(DatanodeID datanode, long size)
+    BlocksWithLocations getBlocks(DatanodeID datanode, long size)
             throws IOException {
-        checkSuperuserPrivilege();
+        writeLock();
+        try {
+            checkSuperuserPrivilege();
+
+            DatanodeDescriptor node = getDatanode(datanode);
+            if (node == null) {
+                NameNode.stateChangeLog.warn("BLOCK* NameSystem.getBlocks: "
+                        + "Asking for blocks from an unrecorded node " + datanode.getName());
+                throw new IllegalArgumentException(
+                        "Unexpected exception.  Got getBlocks message for datanode " +
+                                datanode.getName() + ", but there is no info for it");
+            }
 
-        DatanodeDescriptor node = getDatanode(datanode);
-        if (node == null) {
-            NameNode.stateChangeLog.warn("BLOCK* NameSystem.getBlocks: "
-                    + "Asking for blocks from an unrecorded node " + datanode.getName());
-            throw new IllegalArgumentException(
-                    "Unexpected exception.  Got getBlocks message for datanode " +
-                            datanode.getName() + ", but there is no info for it");
-        }
-
-        int numBlocks = node.numBlocks();
-        if (numBlocks == 0) {
-            return new BlocksWithLocations(new BlockWithLocations[0]);
-        }
-        Iterator<Block> iter = node.getBlockIterator();
-        int startBlock = r.nextInt(numBlocks); // starting from a random block
-        // skip blocks
-        for (int i = 0; i < startBlock; i++) {
-            iter.next();
-        }
-        List<BlockWithLocations> results = new ArrayList<BlockWithLocations>();
-        long totalSize = 0;
-        while (totalSize < size && iter.hasNext()) {
-            totalSize += addBlock(iter.next(), results);
-        }
-        if (totalSize < size) {
-            iter = node.getBlockIterator(); // start from the beginning
-            for (int i = 0; i < startBlock && totalSize < size; i++) {
+            int numBlocks = node.numBlocks();
+            if (numBlocks == 0) {
+                return new BlocksWithLocations(new BlockWithLocations[0]);
+            }
+            Iterator<Block> iter = node.getBlockIterator();
+            int startBlock = r.nextInt(numBlocks); // starting from a random block
+            // skip blocks
+            for (int i = 0; i < startBlock; i++) {
+                iter.next();
+            }
+            List<BlockWithLocations> results = new ArrayList<BlockWithLocations>();
+            long totalSize = 0;
+            while (totalSize < size && iter.hasNext()) {
                 totalSize += addBlock(iter.next(), results);
             }
-        }
+            if (totalSize < size) {
+                iter = node.getBlockIterator(); // start from the beginning
+                for (int i = 0; i < startBlock && totalSize < size; i++) {
+                    totalSize += addBlock(iter.next(), results);
+                }
+            }
 
-        return new BlocksWithLocations(
-                results.toArray(new BlockWithLocations[results.size()]));
+            return new BlocksWithLocations(
+                    results.toArray(new BlockWithLocations[results.size()]));
+        } finally {
+            writeUnlock();
+        }
     }
 
     /**
@@ -705,15 +1145,23 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Set permissions for an existing file.
      * @throws IOException
      */
-    public synchronized void setPermission(String src, FsPermission permission
+    public void setPermission(String src, FsPermission permission
     ) throws IOException {
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot set permission for " + src, safeMode);
-        checkOwner(src);
-        dir.setPermission(src, permission);
+        FileStatus stat = null;
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot set permission for " + src, safeMode);
+            checkOwner(src);
+            dir.setPermission(src, permission);
+            if (auditLog.isInfoEnabled()) {
+                stat = dir.getFileInfo(src);
+            }
+        } finally {
+            writeUnlock();
+        }
         getEditLog().logSync();
         if (auditLog.isInfoEnabled()) {
-            final FileStatus stat = dir.getFileInfo(src);
             logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
                     "setPermission", src, null, stat);
@@ -724,24 +1172,32 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Set owner for an existing file.
      * @throws IOException
      */
-    public synchronized void setOwner(String src, String username, String group
+    public void setOwner(String src, String username, String group
     ) throws IOException {
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot set owner for " + src, safeMode);
-        PermissionChecker pc = checkOwner(src);
-        if (!pc.isSuper) {
-            if (username != null && !pc.user.equals(username)) {
-                throw new AccessControlException("Non-super user cannot change owner.");
+        FileStatus stat = null;
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot set owner for " + src, safeMode);
+            PermissionChecker pc = checkOwner(src);
+            if (!pc.isSuper) {
+                if (username != null && !pc.user.equals(username)) {
+                    throw new AccessControlException("Non-super user cannot change owner.");
+                }
+                if (group != null && !pc.containsGroup(group)) {
+                    throw new AccessControlException("User does not belong to " + group
+                            + " .");
+                }
             }
-            if (group != null && !pc.containsGroup(group)) {
-                throw new AccessControlException("User does not belong to " + group
-                        + " .");
+            dir.setOwner(src, username, group);
+            if (auditLog.isInfoEnabled()) {
+                stat = dir.getFileInfo(src);
             }
+        } finally {
+            writeUnlock();
         }
-        dir.setOwner(src, username, group);
         getEditLog().logSync();
         if (auditLog.isInfoEnabled()) {
-            final FileStatus stat = dir.getFileInfo(src);
             logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
                     "setOwner", src, null, stat);
@@ -755,11 +1211,23 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      */
     LocatedBlocks getBlockLocations(String clientMachine, String src,
                                     long offset, long length) throws IOException {
+        return getBlockLocations(clientMachine, src, offset, length, true);
+    }
+
+    /**
+     * Get block locations within the specified range, recording the read
+     * as an access of the file only if doAccessTime is set.
+     *
+     * @see ClientProtocol#getBlockLocations(String, long, long, boolean)
+     */
+    LocatedBlocks getBlockLocations(String clientMachine, String src,
+                                    long offset, long length,
+                                    boolean doAccessTime) throws IOException {
         if (isPermissionEnabled) {
             checkPathAccess(src, FsAction.READ);
         }
 
-        LocatedBlocks blocks = getBlockLocations(src, offset, length, true);
+        LocatedBlocks blocks = getBlockLocations(src, offset, length, doAccessTime);
         if (blocks != null) {
             //sort the blocks
             DatanodeDescriptor client = host2DataNodeMap.getDatanodeByHost(
@@ -767,6 +1235,10 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
             for (LocatedBlock b : blocks.getLocatedBlocks()) {
                 clusterMap.pseudoSortByDistance(client, b.getLocations());
             }
+            //记录读请求来自哪个机架
+            if (doAccessTime && client != null && readLocality != null) {
+                readLocality.recordRead(client.getNetworkLocation(), now());
+            }
         }
         return blocks;
     }
@@ -794,6 +1266,9 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         }
         final LocatedBlocks ret = getBlockLocationsInternal(src,
                 offset, length, Integer.MAX_VALUE, doAccessTime);
+        if (doAccessTime && pendingAccessCount.get() >= accessTimeBatchSize) {
+            flushPendingAccesses();
+        }
         if (auditLog.isInfoEnabled()) {
             logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
@@ -802,79 +1277,84 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return ret;
     }
 
-    private synchronized LocatedBlocks getBlockLocationsInternal(String src,
+    private LocatedBlocks getBlockLocationsInternal(String src,
                                                                  long offset,
                                                                  long length,
                                                                  int nrBlocksToReturn,
                                                                  boolean doAccessTime)
             throws IOException {
-        INodeFile inode = dir.getFileINode(src);
-        if (inode == null) {
-            return null;
-        }
-        if (doAccessTime && isAccessTimeSupported()) {
-            dir.setTimes(src, inode, -1, now(), false);
-        }
-        Block[] blocks = inode.getBlocks();
-        if (blocks == null) {
-            return null;
-        }
-        if (blocks.length == 0) {
-            return inode.createLocatedBlocks(new ArrayList<LocatedBlock>(blocks.length));
-        }
-        List<LocatedBlock> results;
-        results = new ArrayList<LocatedBlock>(blocks.length);
-
-        int curBlk = 0;
-        long curPos = 0, blkSize = 0;
-        int nrBlocks = (blocks[0].getNumBytes() == 0) ? 0 : blocks.length;
-        for (curBlk = 0; curBlk < nrBlocks; curBlk++) {
-            blkSize = blocks[curBlk].getNumBytes();
-            assert blkSize > 0 : "Block of size 0";
-            if (curPos + blkSize > offset) {
-                break;
+        readLock();
+        try {
+            INodeFile inode = dir.getFileINode(src);
+            if (inode == null) {
+                return null;
+            }
+            if (doAccessTime) {
+                queueAccess(src, inode, now());
+            }
+            Block[] blocks = inode.getBlocks();
+            if (blocks == null) {
+                return null;
+            }
+            if (blocks.length == 0) {
+                return inode.createLocatedBlocks(new ArrayList<LocatedBlock>(blocks.length));
+            }
+            List<LocatedBlock> results;
+            results = new ArrayList<LocatedBlock>(blocks.length);
+
+            int curBlk = 0;
+            long curPos = 0, blkSize = 0;
+            int nrBlocks = (blocks[0].getNumBytes() == 0) ? 0 : blocks.length;
+            for (curBlk = 0; curBlk < nrBlocks; curBlk++) {
+                blkSize = blocks[curBlk].getNumBytes();
+                assert blkSize > 0 : "Block of size 0";
+                if (curPos + blkSize > offset) {
+                    break;
+                }
+                curPos += blkSize;
             }
-            curPos += blkSize;
-        }
 
-        if (nrBlocks > 0 && curBlk == nrBlocks)   // offset >= end of file
-            return null;
+            if (nrBlocks > 0 && curBlk == nrBlocks)   // offset >= end of file
+                return null;
 
-        long endOff = offset + length;
+            long endOff = offset + length;
 
-        do {
-            // get block locations
-            int numNodes = blocksMap.numNodes(blocks[curBlk]);
-            int numCorruptNodes = countNodes(blocks[curBlk]).corruptReplicas();
-            int numCorruptReplicas = corruptReplicas.numCorruptReplicas(blocks[curBlk]);
-            if (numCorruptNodes != numCorruptReplicas) {
-                LOG.warn("Inconsistent number of corrupt replicas for " +
-                        blocks[curBlk] + "blockMap has " + numCorruptNodes +
-                        " but corrupt replicas map has " + numCorruptReplicas);
-            }
-            boolean blockCorrupt = (numCorruptNodes == numNodes);
-            int numMachineSet = blockCorrupt ? numNodes :
-                    (numNodes - numCorruptNodes);
-            DatanodeDescriptor[] machineSet = new DatanodeDescriptor[numMachineSet];
-            if (numMachineSet > 0) {
-                numNodes = 0;
-                for (Iterator<DatanodeDescriptor> it =
-                     blocksMap.nodeIterator(blocks[curBlk]); it.hasNext(); ) {
-                    DatanodeDescriptor dn = it.next();
-                    boolean replicaCorrupt = corruptReplicas.isReplicaCorrupt(blocks[curBlk], dn);
-                    if (blockCorrupt || (!blockCorrupt && !replicaCorrupt))
-                        machineSet[numNodes++] = dn;
+            do {
+                // get block locations
+                int numNodes = blocksMap.numNodes(blocks[curBlk]);
+                int numCorruptNodes = countNodes(blocks[curBlk]).corruptReplicas();
+                int numCorruptReplicas = corruptReplicas.numCorruptReplicas(blocks[curBlk]);
+                if (numCorruptNodes != numCorruptReplicas) {
+                    LOG.warn("Inconsistent number of corrupt replicas for " +
+                            blocks[curBlk] + "blockMap has " + numCorruptNodes +
+                            " but corrupt replicas map has " + numCorruptReplicas);
                 }
-            }
-            results.add(new LocatedBlock(blocks[curBlk], machineSet, curPos,
-                    blockCorrupt));
-            curPos += blocks[curBlk].getNumBytes();
-            curBlk++;
-        } while (curPos < endOff
-                && curBlk < blocks.length
-                && results.size() < nrBlocksToReturn);
-
-        return inode.createLocatedBlocks(results);
+                boolean blockCorrupt = (numCorruptNodes == numNodes);
+                int numMachineSet = blockCorrupt ? numNodes :
+                        (numNodes - numCorruptNodes);
+                DatanodeDescriptor[] machineSet = new DatanodeDescriptor[numMachineSet];
+                if (numMachineSet > 0) {
+                    numNodes = 0;
+                    for (Iterator<DatanodeDescriptor> it =
+                         blocksMap.nodeIterator(blocks[curBlk]); it.hasNext(); ) {
+                        DatanodeDescriptor dn = it.next();
+                        boolean replicaCorrupt = corruptReplicas.isReplicaCorrupt(blocks[curBlk], dn);
+                        if (blockCorrupt || (!blockCorrupt && !replicaCorrupt))
+                            machineSet[numNodes++] = dn;
+                    }
+                }
+                results.add(new LocatedBlock(blocks[curBlk], machineSet, curPos,
+                        blockCorrupt));
+                curPos += blocks[curBlk].getNumBytes();
+                curBlk++;
+            } while (curPos < endOff
+                    && curBlk < blocks.length
+                    && results.size() < nrBlocksToReturn);
+
+            return inode.createLocatedBlocks(results);
+        } finally {
+            readUnlock();
+        }
     }
 
     /**
@@ -882,27 +1362,32 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * The access time is precise upto an hour. The transaction, if needed, is
      * written to the edits log but is not flushed.
      */
-    public synchronized void setTimes(String src, long mtime, long atime) throws IOException {
-        if (!isAccessTimeSupported() && atime != -1) {
-            throw new IOException("Access time for hdfs is not configured. " +
-                    " Please set dfs.support.accessTime configuration parameter.");
-        }
-        //
-        // The caller needs to have write access to set access & modification times.
-        if (isPermissionEnabled) {
-            checkPathAccess(src, FsAction.WRITE);
-        }
-        INodeFile inode = dir.getFileINode(src);
-        if (inode != null) {
-            dir.setTimes(src, inode, mtime, atime, true);
-            if (auditLog.isInfoEnabled()) {
-                final FileStatus stat = dir.getFileInfo(src);
-                logAuditEvent(UserGroupInformation.getCurrentUGI(),
-                        Server.getRemoteIp(),
-                        "setTimes", src, null, stat);
+    public void setTimes(String src, long mtime, long atime) throws IOException {
+        writeLock();
+        try {
+            if (!isAccessTimeSupported() && atime != -1) {
+                throw new IOException("Access time for hdfs is not configured. " +
+                        " Please set dfs.support.accessTime configuration parameter.");
             }
-        } else {
-            throw new FileNotFoundException("File " + src + " does not exist.");
+            //
+            // The caller needs to have write access to set access & modification times.
+            if (isPermissionEnabled) {
+                checkPathAccess(src, FsAction.WRITE);
+            }
+            INodeFile inode = dir.getFileINode(src);
+            if (inode != null) {
+                dir.setTimes(src, inode, mtime, atime, true);
+                if (auditLog.isInfoEnabled()) {
+                    final FileStatus stat = dir.getFileInfo(src);
+                    logAuditEvent(UserGroupInformation.getCurrentUGI(),
+                            Server.getRemoteIp(),
+                            "setTimes", src, null, stat);
+                }
+            } else {
+                throw new FileNotFoundException("File " + src + " does not exist.");
+            }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -931,9 +1416,9 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return status;
     }
 
-    private boolean setDynamicReplication(String src, short replication)
+    private boolean setDynamicReplication(String src, short replication, long score)
             throws IOException {
-        boolean status = setDynamicReplicationInternal(src, replication);
+        boolean status = setDynamicReplicationInternal(src, replication, score);
         if (status && auditLog.isInfoEnabled()) {
             logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
@@ -942,82 +1427,114 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return status;
     }
 
-    private synchronized boolean setReplicationInternal(String src,
+    private boolean setReplicationInternal(String src,
                                                         short replication
     ) throws IOException {
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot set replication for " + src, safeMode);
-        verifyReplication(src, replication, null);
-        if (isPermissionEnabled) {
-            checkPathAccess(src, FsAction.WRITE);
-        }
-
-        int[] oldReplication = new int[1];
-        Block[] fileBlocks;
-        fileBlocks = dir.setReplication(src, replication, oldReplication);
-        if (fileBlocks == null)  // file not found or is a directory
-            return false;
-        int oldRepl = oldReplication[0];
-        if (oldRepl == replication) // the same replication
-            return true;
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot set replication for " + src, safeMode);
+            verifyReplication(src, replication, null);
+            if (isPermissionEnabled) {
+                checkPathAccess(src, FsAction.WRITE);
+            }
 
-        // update needReplication priority queues
-        for (int idx = 0; idx < fileBlocks.length; idx++)
-            updateNeededReplications(fileBlocks[idx], 0, replication - oldRepl);
+            int[] oldReplication = new int[1];
+            Block[] fileBlocks;
+            fileBlocks = dir.setReplication(src, replication, oldReplication);
+            if (fileBlocks == null)  // file not found or is a directory
+                return false;
+            //用户显式设置了副本数，文件不再由动态副本管理
+            attemptToDeleteFileFromDynamicReplicationSet(dir.getFileINode(src));
+            int oldRepl = oldReplication[0];
+            if (oldRepl == replication) // the same replication
+                return true;
 
-        if (oldRepl > replication) {
-            // old replication > the new one; need to remove copies
-            LOG.info("Reducing replication for file " + src
-                    + ". New replication is " + replication);
+            // update needReplication priority queues
             for (int idx = 0; idx < fileBlocks.length; idx++)
-                processOverReplicatedBlock(fileBlocks[idx], replication, null, null);
-        } else { // replication factor is increased
-            LOG.info("Increasing replication for file " + src
-                    + ". New replication is " + replication);
+                updateNeededReplications(fileBlocks[idx], 0,
+                        getReplicationDelta(fileBlocks[idx], oldRepl, replication));
+
+            if (oldRepl > replication) {
+                // old replication > the new one; need to remove copies
+                LOG.info("Reducing replication for file " + src
+                        + ". New replication is " + replication);
+                for (int idx = 0; idx < fileBlocks.length; idx++)
+                    processOverReplicatedBlock(fileBlocks[idx],
+                            (short) getReplication(fileBlocks[idx]), null, null);
+            } else { // replication factor is increased
+                LOG.info("Increasing replication for file " + src
+                        + ". New replication is " + replication);
+            }
+            return true;
+        } finally {
+            writeUnlock();
         }
-        return true;
     }
 
-    private synchronized boolean setDynamicReplicationInternal(String src,
-                                                        short replication
+    private boolean setDynamicReplicationInternal(String src,
+                                                        short replication,
+                                                        long score
     ) throws IOException {
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot set replication for " + src, safeMode);
-        verifyReplication(src, replication, null);
-
-        /*no permission check*/
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot set replication for " + src, safeMode);
+            verifyReplication(src, replication, null);
 
-        int[] oldReplication = new int[1];
-        Block[] fileBlocks;
-        fileBlocks = dir.setDynamicReplication(src, replication, oldReplication);
-        if (fileBlocks == null)  // file not found or is a directory
-            return false;
-        int oldRepl = oldReplication[0];
-        if (oldRepl == replication) // the same replication
-            return true;
+            /*no permission check*/
 
-        // update needReplication priority queues
-        for (int idx = 0; idx < fileBlocks.length; idx++)
-            updateNeededReplications(fileBlocks[idx], 0, replication - oldRepl);
+            int[] oldReplication = new int[1];
+            Block[] fileBlocks;
+            fileBlocks = dir.setDynamicReplication(src, replication, oldReplication, score);
+            if (fileBlocks == null)  // file not found or is a directory
+                return false;
+            int oldRepl = oldReplication[0];
+            if (oldRepl == replication) // the same replication
+                return true;
 
-        if (oldRepl > replication) {
-            // old replication > the new one; need to remove copies
-            LOG.info("Reducing replication for file " + src
-                    + ". New replication is " + replication);
+            // update needReplication priority queues
             for (int idx = 0; idx < fileBlocks.length; idx++)
-                processOverReplicatedBlock(fileBlocks[idx], replication, null, null);
-        } else { // replication factor is increased
-            LOG.info("Increasing replication for file " + src
-                    + ". New replication is " + replication);
+                updateNeededReplications(fileBlocks[idx], 0,
+                        getReplicationDelta(fileBlocks[idx], oldRepl, replication));
+
+            if (oldRepl > replication) {
+                // old replication > the new one; need to remove copies
+                LOG.info("Reducing replication for file " + src
+                        + ". New replication is " + replication);
+                for (int idx = 0; idx < fileBlocks.length; idx++)
+                    processOverReplicatedBlock(fileBlocks[idx],
+                            (short) getReplication(fileBlocks[idx]), null, null);
+            } else { // replication factor is increased
+                LOG.info("Increasing replication for file " + src
+                        + ". New replication is " + replication);
+            }
+            return true;
+        } finally {
+            writeUnlock();
         }
-        return true;
+    }
+
+    /**
+     * 文件副本数从 oldRepl 改为 newRepl 时块的期望副本数的变化，
+     * 块的动态副本数高于文件副本数时期望副本数不随文件变化
+     */
+    private int getReplicationDelta(Block block, int oldRepl, int newRepl) {
+        BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+        int blockRepl = storedBlock == null ? 0 : storedBlock.getDynamicReplication();
+        return Math.max(newRepl, blockRepl) - Math.max(oldRepl, blockRepl);
     }
 
     long getPreferredBlockSize(String filename) throws IOException {
-        if (isPermissionEnabled) {
-            checkTraverse(filename);
+        readLock();
+        try {
+            if (isPermissionEnabled) {
+                checkTraverse(filename);
+            }
+            return dir.getPreferredBlockSize(filename);
+        } finally {
+            readUnlock();
         }
-        return dir.getPreferredBlockSize(filename);
     }
 
     /**
@@ -1064,7 +1581,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         }
     }
 
-    private synchronized void startFileInternal(String src,
+    private void startFileInternal(String src,
                                                 PermissionStatus permissions,
                                                 String holder,
                                                 String clientMachine,
@@ -1073,148 +1590,156 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                                                 short replication,
                                                 long blockSize
     ) throws IOException {
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-            NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: src=" + src
-                    + ", holder=" + holder
-                    + ", clientMachine=" + clientMachine
-                    + ", replication=" + replication
-                    + ", overwrite=" + overwrite
-                    + ", append=" + append);
-        }
-
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot create file" + src, safeMode);
-        if (!DFSUtil.isValidName(src)) {
-            throw new IOException("Invalid file name: " + src);
-        }
-
-        // Verify that the destination does not exist as a directory already.
-        boolean pathExists = dir.exists(src);
-        if (pathExists && dir.isDir(src)) {
-            throw new IOException("Cannot create file " + src + "; already exists as a directory.");
-        }
-
-        if (isPermissionEnabled) {
-            if (append || (overwrite && pathExists)) {
-                checkPathAccess(src, FsAction.WRITE);
-            } else {
-                checkAncestorAccess(src, FsAction.WRITE);
-            }
-        }
-
+        writeLock();
         try {
-            INode myFile = dir.getFileINode(src);
-            if (myFile != null && myFile.isUnderConstruction()) {
-                INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction) myFile;
-                //
-                // If the file is under construction , then it must be in our
-                // leases. Find the appropriate lease record.
-                //
-                Lease lease = leaseManager.getLease(holder);
-                //
-                // We found the lease for this file. And surprisingly the original
-                // holder is trying to recreate this file. This should never occur.
-                //
-                if (lease != null) {
-                    throw new AlreadyBeingCreatedException(
-                            "failed to create file " + src + " for " + holder +
-                                    " on client " + clientMachine +
-                                    " because current leaseholder is trying to recreate file.");
-                }
-                //
-                // Find the original holder.
-                //
-                lease = leaseManager.getLease(pendingFile.clientName);
-                if (lease == null) {
-                    throw new AlreadyBeingCreatedException(
-                            "failed to create file " + src + " for " + holder +
-                                    " on client " + clientMachine +
-                                    " because pendingCreates is non-null but no leases found.");
-                }
-                //
-                // If the original holder has not renewed in the last SOFTLIMIT
-                // period, then start lease recovery.
-                //
-                if (lease.expiredSoftLimit()) {
-                    LOG.info("startFile: recover lease " + lease + ", src=" + src);
-                    internalReleaseLease(lease, src);
+            if (NameNode.stateChangeLog.isDebugEnabled()) {
+                NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: src=" + src
+                        + ", holder=" + holder
+                        + ", clientMachine=" + clientMachine
+                        + ", replication=" + replication
+                        + ", overwrite=" + overwrite
+                        + ", append=" + append);
+            }
+
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot create file" + src, safeMode);
+            if (!DFSUtil.isValidName(src)) {
+                throw new IOException("Invalid file name: " + src);
+            }
+            if (!append && (blockSize < 0 || blockSize > INodeFile.MAX_PREFERRED_BLOCK_SIZE)) {
+                throw new IOException("Invalid block size " + blockSize + " for " + src);
+            }
+
+            // Verify that the destination does not exist as a directory already.
+            boolean pathExists = dir.exists(src);
+            if (pathExists && dir.isDir(src)) {
+                throw new IOException("Cannot create file " + src + "; already exists as a directory.");
+            }
+
+            if (isPermissionEnabled) {
+                if (append || (overwrite && pathExists)) {
+                    checkPathAccess(src, FsAction.WRITE);
+                } else {
+                    checkAncestorAccess(src, FsAction.WRITE);
                 }
-                throw new AlreadyBeingCreatedException("failed to create file " + src + " for " + holder +
-                        " on client " + clientMachine +
-                        ", because this file is already being created by " +
-                        pendingFile.getClientName() +
-                        " on " + pendingFile.getClientMachine());
             }
 
             try {
-                verifyReplication(src, replication, clientMachine);
-            } catch (IOException e) {
-                throw new IOException("failed to create " + e.getMessage());
-            }
-            if (append) {
-                if (myFile == null) {
-                    throw new FileNotFoundException("failed to append to non-existent file "
-                            + src + " on client " + clientMachine);
-                } else if (myFile.isDirectory()) {
-                    throw new IOException("failed to append to directory " + src
-                            + " on client " + clientMachine);
+                INode myFile = dir.getFileINode(src);
+                if (myFile != null && myFile.isUnderConstruction()) {
+                    INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction) myFile;
+                    //
+                    // If the file is under construction , then it must be in our
+                    // leases. Find the appropriate lease record.
+                    //
+                    Lease lease = leaseManager.getLease(holder);
+                    //
+                    // We found the lease for this file. And surprisingly the original
+                    // holder is trying to recreate this file. This should never occur.
+                    //
+                    if (lease != null) {
+                        throw new AlreadyBeingCreatedException(
+                                "failed to create file " + src + " for " + holder +
+                                        " on client " + clientMachine +
+                                        " because current leaseholder is trying to recreate file.");
+                    }
+                    //
+                    // Find the original holder.
+                    //
+                    lease = leaseManager.getLease(pendingFile.clientName);
+                    if (lease == null) {
+                        throw new AlreadyBeingCreatedException(
+                                "failed to create file " + src + " for " + holder +
+                                        " on client " + clientMachine +
+                                        " because pendingCreates is non-null but no leases found.");
+                    }
+                    //
+                    // If the original holder has not renewed in the last SOFTLIMIT
+                    // period, then start lease recovery.
+                    //
+                    if (lease.expiredSoftLimit()) {
+                        LOG.info("startFile: recover lease " + lease + ", src=" + src);
+                        internalReleaseLease(lease, src);
+                    }
+                    throw new AlreadyBeingCreatedException("failed to create file " + src + " for " + holder +
+                            " on client " + clientMachine +
+                            ", because this file is already being created by " +
+                            pendingFile.getClientName() +
+                            " on " + pendingFile.getClientMachine());
                 }
-            } else if (!dir.isValidToCreate(src)) {
-                if (overwrite) {
-                    delete(src, true);
-                } else {
-                    throw new IOException("failed to create file " + src
-                            + " on client " + clientMachine
-                            + " either because the filename is invalid or the file exists");
+
+                try {
+                    verifyReplication(src, replication, clientMachine);
+                } catch (IOException e) {
+                    throw new IOException("failed to create " + e.getMessage());
+                }
+                if (append) {
+                    if (myFile == null) {
+                        throw new FileNotFoundException("failed to append to non-existent file "
+                                + src + " on client " + clientMachine);
+                    } else if (myFile.isDirectory()) {
+                        throw new IOException("failed to append to directory " + src
+                                + " on client " + clientMachine);
+                    }
+                } else if (!dir.isValidToCreate(src)) {
+                    if (overwrite) {
+                        delete(src, true);
+                    } else {
+                        throw new IOException("failed to create file " + src
+                                + " on client " + clientMachine
+                                + " either because the filename is invalid or the file exists");
+                    }
                 }
-            }
 
-            DatanodeDescriptor clientNode =
-                    host2DataNodeMap.getDatanodeByHost(clientMachine);
+                DatanodeDescriptor clientNode =
+                        host2DataNodeMap.getDatanodeByHost(clientMachine);
 
-            if (append) {
-                //
-                // Replace current node with a INodeUnderConstruction.
-                // Recreate in-memory lease record.
-                //
-                INodeFile node = (INodeFile) myFile;
-                INodeFileUnderConstruction cons = new INodeFileUnderConstruction(
-                        node.getLocalNameBytes(),
-                        node.getReplication(),
-                        node.getModificationTime(),
-                        node.getPreferredBlockSize(),
-                        node.getBlocks(),
-                        node.getPermissionStatus(),
-                        holder,
-                        clientMachine,
-                        clientNode);
-                dir.replaceNode(src, node, cons);
-                leaseManager.addLease(cons.clientName, src);
+                if (append) {
+                    //
+                    // Replace current node with a INodeUnderConstruction.
+                    // Recreate in-memory lease record.
+                    //
+                    INodeFile node = (INodeFile) myFile;
+                    INodeFileUnderConstruction cons = new INodeFileUnderConstruction(
+                            node.getLocalNameBytes(),
+                            node.getReplication(),
+                            node.getModificationTime(),
+                            node.getPreferredBlockSize(),
+                            node.getBlocks(),
+                            node.getPermissionStatus(),
+                            holder,
+                            clientMachine,
+                            clientNode);
+                    dir.replaceNode(src, node, cons);
+                    leaseManager.addLease(cons.clientName, src);
 
-            } else {
-                // Now we can add the name to the filesystem. This file has no
-                // blocks associated with it.
-                //
-                checkFsObjectLimit();
-
-                // increment global generation stamp
-                long genstamp = nextGenerationStamp();
-                INodeFileUnderConstruction newNode = dir.addFile(src, permissions,
-                        replication, blockSize, holder, clientMachine, clientNode, genstamp);
-                if (newNode == null) {
-                    throw new IOException("DIR* NameSystem.startFile: " +
-                            "Unable to add file to namespace.");
-                }
-                leaseManager.addLease(newNode.clientName, src);
-                if (NameNode.stateChangeLog.isDebugEnabled()) {
-                    NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: "
-                            + "add " + src + " to namespace for " + holder);
+                } else {
+                    // Now we can add the name to the filesystem. This file has no
+                    // blocks associated with it.
+                    //
+                    checkFsObjectLimit();
+
+                    // increment global generation stamp
+                    long genstamp = nextGenerationStamp();
+                    INodeFileUnderConstruction newNode = dir.addFile(src, permissions,
+                            replication, blockSize, holder, clientMachine, clientNode, genstamp);
+                    if (newNode == null) {
+                        throw new IOException("DIR* NameSystem.startFile: " +
+                                "Unable to add file to namespace.");
+                    }
+                    leaseManager.addLease(newNode.clientName, src);
+                    if (NameNode.stateChangeLog.isDebugEnabled()) {
+                        NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: "
+                                + "add " + src + " to namespace for " + holder);
+                    }
                 }
+            } catch (IOException ie) {
+                NameNode.stateChangeLog.warn("DIR* NameSystem.startFile: "
+                        + ie.getMessage());
+                throw ie;
             }
-        } catch (IOException ie) {
-            NameNode.stateChangeLog.warn("DIR* NameSystem.startFile: "
-                    + ie.getMessage());
-            throw ie;
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -1237,7 +1762,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         // have a partial block at the end.
         //
         LocatedBlock lb = null;
-        synchronized (this) {
+        writeLock();
+        try {
             INodeFileUnderConstruction file = (INodeFileUnderConstruction) dir.getFileINode(src);
 
             Block[] blocks = file.getBlocks();
@@ -1245,7 +1771,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                 Block last = blocks[blocks.length - 1];
                 BlockInfo storedBlock = blocksMap.getStoredBlock(last);
                 if (file.getPreferredBlockSize() > storedBlock.getNumBytes()) {
-                    long fileLength = file.computeContentSummary().getLength();
+                    long fileLength = file.computeFileSize();
                     DatanodeDescriptor[] targets = new DatanodeDescriptor[blocksMap.numNodes(last)];
                     Iterator<DatanodeDescriptor> it = blocksMap.nodeIterator(last);
                     for (int i = 0; it != null && it.hasNext(); i++) {
@@ -1274,6 +1800,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                     }
                 }
             }
+        } finally {
+            writeUnlock();
         }
         if (lb != null) {
             if (NameNode.stateChangeLog.isDebugEnabled()) {
@@ -1314,7 +1842,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         NameNode.stateChangeLog.debug("BLOCK* NameSystem.getAdditionalBlock: file "
                 + src + " for " + clientName);
 
-        synchronized (this) {
+        writeLock();
+        try {
             if (isInSafeMode()) {
                 throw new SafeModeException("Cannot add block to " + src, safeMode);
             }
@@ -1330,10 +1859,12 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
             if (!checkFileProgress(pendingFile, false)) {
                 throw new NotReplicatedYetException("Not replicated yet:" + src);
             }
-            fileLength = pendingFile.computeContentSummary().getLength();
+            fileLength = pendingFile.computeFileSize();
             blockSize = pendingFile.getPreferredBlockSize();
             clientNode = pendingFile.getClientNode();
             replication = (int) pendingFile.getReplication();
+        } finally {
+            writeUnlock();
         }
 
         // choose targets for the new block tobe allocated.
@@ -1348,7 +1879,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         }
 
         // Allocate a new block and record it in the INode.
-        synchronized (this) {
+        writeLock();
+        try {
             INode[] pathINodes = dir.getExistingPathINodes(src);
             int inodesLen = pathINodes.length;
             checkLease(src, clientName, pathINodes[inodesLen - 1]);
@@ -1366,6 +1898,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
             for (DatanodeDescriptor dn : targets) {
                 dn.incBlocksScheduled();
             }
+        } finally {
+            writeUnlock();
         }
 
         // Create next block
@@ -1375,19 +1909,25 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     /**
      * The client would like to let go of the given block
      */
-    public synchronized boolean abandonBlock(Block b, String src, String holder
+    public boolean abandonBlock(Block b, String src, String holder
     ) throws IOException {
-        //
-        // Remove the block from the pending creates list
-        //
-        NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
-                + b + "of file " + src);
-        INodeFileUnderConstruction file = checkLease(src, holder);
-        dir.removeBlock(src, file, b);
-        NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
-                + b
-                + " is removed from pendingCreates");
-        return true;
+        writeLock();
+        try {
+            //
+            // Remove the block from the pending creates list
+            //
+            NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
+                    + b + "of file " + src);
+            INodeFileUnderConstruction file = checkLease(src, holder);
+            dir.removeBlock(src, file, b);
+            dynamicReplicationFileResized(file);
+            NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: "
+                    + b
+                    + " is removed from pendingCreates");
+            return true;
+        } finally {
+            writeUnlock();
+        }
     }
 
     // make sure that we still have the lease on this file.
@@ -1443,37 +1983,42 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     }
 
 
-    private synchronized CompleteFileStatus completeFileInternal(String src,
+    private CompleteFileStatus completeFileInternal(String src,
                                                                  String holder) throws IOException {
-        NameNode.stateChangeLog.debug("DIR* NameSystem.completeFile: " + src + " for " + holder);
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot complete file " + src, safeMode);
-        INode iFile = dir.getFileINode(src);
-        INodeFileUnderConstruction pendingFile = null;
-        Block[] fileBlocks = null;
-
-        if (iFile != null && iFile.isUnderConstruction()) {
-            pendingFile = (INodeFileUnderConstruction) iFile;
-            fileBlocks = dir.getFileBlocks(src);
-        }
-        if (fileBlocks == null) {
-            NameNode.stateChangeLog.warn("DIR* NameSystem.completeFile: "
-                    + "failed to complete " + src
-                    + " because dir.getFileBlocks() is null " +
-                    " and pendingFile is " +
-                    ((pendingFile == null) ? "null" :
-                            ("from " + pendingFile.getClientMachine()))
-            );
-            return CompleteFileStatus.OPERATION_FAILED;
-        } else if (!checkFileProgress(pendingFile, true)) {
-            return CompleteFileStatus.STILL_WAITING;
-        }
+        writeLock();
+        try {
+            NameNode.stateChangeLog.debug("DIR* NameSystem.completeFile: " + src + " for " + holder);
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot complete file " + src, safeMode);
+            INode iFile = dir.getFileINode(src);
+            INodeFileUnderConstruction pendingFile = null;
+            Block[] fileBlocks = null;
+
+            if (iFile != null && iFile.isUnderConstruction()) {
+                pendingFile = (INodeFileUnderConstruction) iFile;
+                fileBlocks = dir.getFileBlocks(src);
+            }
+            if (fileBlocks == null) {
+                NameNode.stateChangeLog.warn("DIR* NameSystem.completeFile: "
+                        + "failed to complete " + src
+                        + " because dir.getFileBlocks() is null " +
+                        " and pendingFile is " +
+                        ((pendingFile == null) ? "null" :
+                                ("from " + pendingFile.getClientMachine()))
+                );
+                return CompleteFileStatus.OPERATION_FAILED;
+            } else if (!checkFileProgress(pendingFile, true)) {
+                return CompleteFileStatus.STILL_WAITING;
+            }
 
-        finalizeINodeFileUnderConstruction(src, pendingFile);
+            finalizeINodeFileUnderConstruction(src, pendingFile);
 
-        NameNode.stateChangeLog.info("DIR* NameSystem.completeFile: file " + src
-                + " is closed by " + holder);
-        return CompleteFileStatus.COMPLETE_SUCCESS;
+            NameNode.stateChangeLog.info("DIR* NameSystem.completeFile: file " + src
+                    + " is closed by " + holder);
+            return CompleteFileStatus.COMPLETE_SUCCESS;
+        } finally {
+            writeUnlock();
+        }
     }
 
     /**
@@ -1481,10 +2026,10 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * replication factor, then insert them into neededReplication
      */
     private void checkReplicationFactor(INodeFile file) {
-        int numExpectedReplicas = file.getReplication();
         Block[] pendingBlocks = file.getBlocks();
         int nrBlocks = pendingBlocks.length;
         for (int i = 0; i < nrBlocks; i++) {
+            int numExpectedReplicas = getReplication(pendingBlocks[i]);
             // filter out containingNodes that are marked for decommission.
             NumberReplicas number = countNodes(pendingBlocks[i]);
             if (number.liveReplicas() < numExpectedReplicas) {
@@ -1512,6 +2057,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         }
         b.setGenerationStamp(getGenerationStamp());
         b = dir.addBlock(src, inodes, b);
+        dynamicReplicationFileResized((INodeFile) inodes[inodes.length - 1]);
         NameNode.stateChangeLog.info("BLOCK* NameSystem.allocateBlock: "
                 + src + ". " + b);
         return b;
@@ -1522,28 +2068,33 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * replicated.  If not, return false. If checkall is true, then check
      * all blocks, otherwise check only penultimate block.
      */
-    synchronized boolean checkFileProgress(INodeFile v, boolean checkall) {
-        if (checkall) {
-            //
-            // check all blocks of the file.
-            //
-            for (Block block : v.getBlocks()) {
-                if (blocksMap.numNodes(block) < this.minReplication) {
-                    return false;
+    boolean checkFileProgress(INodeFile v, boolean checkall) {
+        writeLock();
+        try {
+            if (checkall) {
+                //
+                // check all blocks of the file.
+                //
+                for (Block block : v.getBlocks()) {
+                    if (blocksMap.numNodes(block) < this.minReplication) {
+                        return false;
+                    }
                 }
-            }
-        } else {
-            //
-            // check the penultimate block of this file
-            //
-            Block b = v.getPenultimateBlock();
-            if (b != null) {
-                if (blocksMap.numNodes(b) < this.minReplication) {
-                    return false;
+            } else {
+                //
+                // check the penultimate block of this file
+                //
+                Block b = v.getPenultimateBlock();
+                if (b != null) {
+                    if (blocksMap.numNodes(b) < this.minReplication) {
+                        return false;
+                    }
                 }
             }
+            return true;
+        } finally {
+            writeUnlock();
         }
-        return true;
     }
 
     /**
@@ -1600,18 +2151,23 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     /**
      * dumps the contents of recentInvalidateSets
      */
-    private synchronized void dumpRecentInvalidateSets(PrintWriter out) {
-        int size = recentInvalidateSets.values().size();
-        out.println("Metasave: Blocks " + pendingDeletionBlocksCount
-                + " waiting deletion from " + size + " datanodes.");
-        if (size == 0) {
-            return;
-        }
-         for (Map.Entry<String, Collection<Block>> entry : recentInvalidateSets.entrySet()) {
-            Collection<Block> blocks = entry.getValue();
-            if (blocks.size() > 0) {
-                out.println(datanodeMap.get(entry.getKey()).getName() + blocks);
+    private void dumpRecentInvalidateSets(PrintWriter out) {
+        writeLock();
+        try {
+            int size = recentInvalidateSets.values().size();
+            out.println("Metasave: Blocks " + pendingDeletionBlocksCount
+                    + " waiting deletion from " + size + " datanodes.");
+            if (size == 0) {
+                return;
+            }
+             for (Map.Entry<String, Collection<Block>> entry : recentInvalidateSets.entrySet()) {
+                Collection<Block> blocks = entry.getValue();
+                if (blocks.size() > 0) {
+                    out.println(datanodeMap.get(entry.getKey()).getName() + blocks);
+                }
             }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -1620,75 +2176,85 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * @param blk Block to be marked as corrupt
      * @param dn Datanode which holds the corrupt replica
      */
-    public synchronized void markBlockAsCorrupt(Block blk, DatanodeInfo dn)
+    public void markBlockAsCorrupt(Block blk, DatanodeInfo dn)
             throws IOException {
-        DatanodeDescriptor node = getDatanode(dn);
-        if (node == null) {
-            throw new IOException("Cannot mark block" + blk.getBlockName() +
-                    " as corrupt because datanode " + dn.getName() +
-                    " does not exist. ");
-        }
-
-        final BlockInfo storedBlockInfo = blocksMap.getStoredBlock(blk);
-        if (storedBlockInfo == null) {
-            // Check if the replica is in the blockMap, if not
-            // ignore the request for now. This could happen when BlockScanner
-            // thread of Datanode reports bad block before Block reports are sent
-            // by the Datanode on startup
-            NameNode.stateChangeLog.info("BLOCK NameSystem.markBlockAsCorrupt: " +
-                    "block " + blk + " could not be marked " +
-                    "as corrupt as it does not exists in " +
-                    "blocksMap");
-        } else {
-            INodeFile inode = storedBlockInfo.getINode();
-            if (inode == null) {
+        writeLock();
+        try {
+            DatanodeDescriptor node = getDatanode(dn);
+            if (node == null) {
+                throw new IOException("Cannot mark block" + blk.getBlockName() +
+                        " as corrupt because datanode " + dn.getName() +
+                        " does not exist. ");
+            }
+
+            final BlockInfo storedBlockInfo = blocksMap.getStoredBlock(blk);
+            if (storedBlockInfo == null) {
+                // Check if the replica is in the blockMap, if not
+                // ignore the request for now. This could happen when BlockScanner
+                // thread of Datanode reports bad block before Block reports are sent
+                // by the Datanode on startup
                 NameNode.stateChangeLog.info("BLOCK NameSystem.markBlockAsCorrupt: " +
                         "block " + blk + " could not be marked " +
-                        "as corrupt as it does not belong to " +
-                        "any file");
-                addToInvalidates(storedBlockInfo, node);
-                return;
-            }
-            // Add this replica to corruptReplicas Map
-            corruptReplicas.addToCorruptReplicasMap(storedBlockInfo, node);
-            if (countNodes(storedBlockInfo).liveReplicas() > inode.getReplication()) {
-                // the block is over-replicated so invalidate the replicas immediately
-                invalidateBlock(storedBlockInfo, node);
+                        "as corrupt as it does not exists in " +
+                        "blocksMap");
             } else {
-                // add the block to neededReplication
-                updateNeededReplications(storedBlockInfo, -1, 0);
+                INodeFile inode = storedBlockInfo.getINode();
+                if (inode == null) {
+                    NameNode.stateChangeLog.info("BLOCK NameSystem.markBlockAsCorrupt: " +
+                            "block " + blk + " could not be marked " +
+                            "as corrupt as it does not belong to " +
+                            "any file");
+                    addToInvalidates(storedBlockInfo, node);
+                    return;
+                }
+                // Add this replica to corruptReplicas Map
+                corruptReplicas.addToCorruptReplicasMap(storedBlockInfo, node);
+                if (countNodes(storedBlockInfo).liveReplicas() > storedBlockInfo.getExpectedReplication()) {
+                    // the block is over-replicated so invalidate the replicas immediately
+                    invalidateBlock(storedBlockInfo, node);
+                } else {
+                    // add the block to neededReplication
+                    updateNeededReplications(storedBlockInfo, -1, 0);
+                }
             }
+        } finally {
+            writeUnlock();
         }
     }
 
     /**
      * Invalidates the given block on the given datanode.
      */
-    public synchronized void invalidateBlock(Block blk, DatanodeInfo dn)
+    public void invalidateBlock(Block blk, DatanodeInfo dn)
             throws IOException {
-        NameNode.stateChangeLog.info("DIR* NameSystem.invalidateBlock: "
-                + blk + " on "
-                + dn.getName());
-        DatanodeDescriptor node = getDatanode(dn);
-        if (node == null) {
-            throw new IOException("Cannot invalidate block " + blk +
-                    " because datanode " + dn.getName() +
-                    " does not exist.");
-        }
-
-        // Check how many copies we have of the block.  If we have at least one
-        // copy on a live node, then we can delete it.
-        int count = countNodes(blk).liveReplicas();
-        if (count > 1) {
-            addToInvalidates(blk, dn);
-            removeStoredBlock(blk, node);
-            NameNode.stateChangeLog.debug("BLOCK* NameSystem.invalidateBlocks: "
-                    + blk + " on "
-                    + dn.getName() + " listed for deletion.");
-        } else {
-            NameNode.stateChangeLog.info("BLOCK* NameSystem.invalidateBlocks: "
+        writeLock();
+        try {
+            NameNode.stateChangeLog.info("DIR* NameSystem.invalidateBlock: "
                     + blk + " on "
-                    + dn.getName() + " is the only copy and was not deleted.");
+                    + dn.getName());
+            DatanodeDescriptor node = getDatanode(dn);
+            if (node == null) {
+                throw new IOException("Cannot invalidate block " + blk +
+                        " because datanode " + dn.getName() +
+                        " does not exist.");
+            }
+
+            // Check how many copies we have of the block.  If we have at least one
+            // copy on a live node, then we can delete it.
+            int count = countNodes(blk).liveReplicas();
+            if (count > 1) {
+                addToInvalidates(blk, dn);
+                removeStoredBlock(blk, node);
+                NameNode.stateChangeLog.debug("BLOCK* NameSystem.invalidateBlocks: "
+                        + blk + " on "
+                        + dn.getName() + " listed for deletion.");
+            } else {
+                NameNode.stateChangeLog.info("BLOCK* NameSystem.invalidateBlocks: "
+                        + blk + " on "
+                        + dn.getName() + " is the only copy and was not deleted.");
+            }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -1716,30 +2282,35 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return status;
     }
 
-    private synchronized boolean renameToInternal(String src, String dst
+    private boolean renameToInternal(String src, String dst
     ) throws IOException {
-        NameNode.stateChangeLog.debug("DIR* NameSystem.renameTo: " + src + " to " + dst);
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot rename " + src, safeMode);
-        if (!DFSUtil.isValidName(dst)) {
-            throw new IOException("Invalid name: " + dst);
-        }
+        writeLock();
+        try {
+            NameNode.stateChangeLog.debug("DIR* NameSystem.renameTo: " + src + " to " + dst);
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot rename " + src, safeMode);
+            if (!DFSUtil.isValidName(dst)) {
+                throw new IOException("Invalid name: " + dst);
+            }
 
-        if (isPermissionEnabled) {
-            //We should not be doing this.  This is move() not renameTo().
-            //but for now,
-            String actualdst = dir.isDir(dst) ?
-                    dst + Path.SEPARATOR + new Path(src).getName() : dst;
-            checkParentAccess(src, FsAction.WRITE);
-            checkAncestorAccess(actualdst, FsAction.WRITE);
-        }
+            if (isPermissionEnabled) {
+                //We should not be doing this.  This is move() not renameTo().
+                //but for now,
+                String actualdst = dir.isDir(dst) ?
+                        dst + Path.SEPARATOR + new Path(src).getName() : dst;
+                checkParentAccess(src, FsAction.WRITE);
+                checkAncestorAccess(actualdst, FsAction.WRITE);
+            }
 
-        FileStatus dinfo = dir.getFileInfo(dst);
-        if (dir.renameTo(src, dst)) {
-            changeLease(src, dst, dinfo);     // update lease with new filename
-            return true;
+            FileStatus dinfo = dir.getFileInfo(dst);
+            if (dir.renameTo(src, dst)) {
+                changeLease(src, dst, dinfo);     // update lease with new filename
+                return true;
+            }
+            return false;
+        } finally {
+            writeUnlock();
         }
-        return false;
     }
 
     /**
@@ -1764,18 +2335,23 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Remove the indicated filename from the namespace.  This may
      * invalidate some blocks that make up the file.
      */
-    synchronized boolean deleteInternal(String src,
+    boolean deleteInternal(String src,
                                         boolean enforcePermission) throws IOException {
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-            NameNode.stateChangeLog.debug("DIR* NameSystem.delete: " + src);
-        }
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot delete " + src, safeMode);
-        if (enforcePermission && isPermissionEnabled) {
-            checkPermission(src, false, null, FsAction.WRITE, null, FsAction.ALL);
-        }
+        writeLock();
+        try {
+            if (NameNode.stateChangeLog.isDebugEnabled()) {
+                NameNode.stateChangeLog.debug("DIR* NameSystem.delete: " + src);
+            }
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot delete " + src, safeMode);
+            if (enforcePermission && isPermissionEnabled) {
+                checkPermission(src, false, null, FsAction.WRITE, null, FsAction.ALL);
+            }
 
-        return dir.delete(src) != null;
+            return dir.delete(src) != null;
+        } finally {
+            writeUnlock();
+        }
     }
 
     void removePathAndBlocks(String src, List<Block> blocks) throws IOException {
@@ -1794,10 +2370,15 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      *         or null if file not found
      */
     FileStatus getFileInfo(String src) throws IOException {
-        if (isPermissionEnabled) {
-            checkTraverse(src);
+        readLock();
+        try {
+            if (isPermissionEnabled) {
+                checkTraverse(src);
+            }
+            return dir.getFileInfo(src);
+        } finally {
+            readUnlock();
         }
-        return dir.getFileInfo(src);
     }
 
     /**
@@ -1819,42 +2400,52 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     /**
      * Create all the necessary directories
      */
-    private synchronized boolean mkdirsInternal(String src,
+    private boolean mkdirsInternal(String src,
                                                 PermissionStatus permissions) throws IOException {
-        NameNode.stateChangeLog.debug("DIR* NameSystem.mkdirs: " + src);
-        if (isPermissionEnabled) {
-            checkTraverse(src);
-        }
-        if (dir.isDir(src)) {
-            // all the users of mkdirs() are used to expect 'true' even if
-            // a new directory is not created.
-            return true;
-        }
-        if (isInSafeMode())
-            throw new SafeModeException("Cannot create directory " + src, safeMode);
-        if (!DFSUtil.isValidName(src)) {
-            throw new IOException("Invalid directory name: " + src);
-        }
-        if (isPermissionEnabled) {
-            checkAncestorAccess(src, FsAction.WRITE);
-        }
+        writeLock();
+        try {
+            NameNode.stateChangeLog.debug("DIR* NameSystem.mkdirs: " + src);
+            if (isPermissionEnabled) {
+                checkTraverse(src);
+            }
+            if (dir.isDir(src)) {
+                // all the users of mkdirs() are used to expect 'true' even if
+                // a new directory is not created.
+                return true;
+            }
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot create directory " + src, safeMode);
+            if (!DFSUtil.isValidName(src)) {
+                throw new IOException("Invalid directory name: " + src);
+            }
+            if (isPermissionEnabled) {
+                checkAncestorAccess(src, FsAction.WRITE);
+            }
 
-        // validate that we have enough inodes. This is, at best, a
-        // heuristic because the mkdirs() operation migth need to
-        // create multiple inodes.
-        checkFsObjectLimit();
+            // validate that we have enough inodes. This is, at best, a
+            // heuristic because the mkdirs() operation migth need to
+            // create multiple inodes.
+            checkFsObjectLimit();
 
-        if (!dir.mkdirs(src, permissions, false, now())) {
-            throw new IOException("Invalid directory name: " + src);
+            if (!dir.mkdirs(src, permissions, false, now())) {
+                throw new IOException("Invalid directory name: " + src);
+            }
+            return true;
+        } finally {
+            writeUnlock();
         }
-        return true;
     }
 
     ContentSummary getContentSummary(String src) throws IOException {
-        if (isPermissionEnabled) {
-            checkPermission(src, false, null, null, null, FsAction.READ_EXECUTE);
+        readLock();
+        try {
+            if (isPermissionEnabled) {
+                checkPermission(src, false, null, null, null, FsAction.READ_EXECUTE);
+            }
+            return dir.getContentSummary(src);
+        } finally {
+            readUnlock();
         }
-        return dir.getContentSummary(src);
     }
 
     /**
@@ -1873,6 +2464,109 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         getEditLog().logSync();
     }
 
+    /**
+     * 设置目录的动态副本策略。
+     * See {@link ClientProtocol#setDynamicReplicationPolicy(String, boolean, short, float)}
+     * for the contract.
+     */
+    void setDynamicReplicationPolicy(String path, boolean eligible, short maxReplication,
+                                     float capacityShare) throws IOException {
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot set dynamic replication policy on " + path, safeMode);
+            if (isPermissionEnabled) {
+                checkSuperuserPrivilege();
+            }
+            if (maxReplication < 0 || maxReplication > this.maxReplication) {
+                throw new IllegalArgumentException("Illegal maximum replication " + maxReplication
+                        + ", it should be between 0 and " + this.maxReplication);
+            }
+            if (capacityShare < 0 || capacityShare > 1) {
+                throw new IllegalArgumentException("Illegal capacity share " + capacityShare
+                        + ", it should be between 0 and 1");
+            }
+            //策略对已提升的文件在其下次被访问时生效，不扫描目录树
+            dir.setDynamicReplicationPolicy(path, eligible, maxReplication, capacityShare);
+        } finally {
+            writeUnlock();
+        }
+        getEditLog().logSync();
+    }
+
+    /**
+     * 按 JobTracker 等报告的预计读者数提前提升文件的副本数。
+     * 这里只检查权限并把提示交给规划线程，不持有写锁执行副本分配算法。
+     * See {@link ClientProtocol#prefetchReplication(String[], int[])}
+     * for the contract.
+     */
+    void prefetchReplication(String[] srcs, int[] readers) throws IOException {
+        if (srcs.length != readers.length) {
+            throw new IllegalArgumentException("Got " + srcs.length + " files but "
+                    + readers.length + " reader counts");
+        }
+        readLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot prefetch replication", safeMode);
+            if (dynamicReplicationMonitor == null) {
+                return;
+            }
+            //只能为自己可以读的文件提升副本数，先检查全部文件，有一个不可读就都不处理
+            if (isPermissionEnabled) {
+                for (String src : srcs) {
+                    checkPathAccess(src, FsAction.READ);
+                }
+            }
+            for (int i = 0; i < srcs.length; i++) {
+                INodeFile inode = dir.getFileINode(srcs[i]);
+                if (inode == null || inode.isUnderConstruction() || readers[i] <= 0) {
+                    continue;
+                }
+                dynamicReplicationPlanner.offerPrefetch(srcs[i], inode, readers[i]);
+            }
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * 按预计的读者数调整文件的副本数，由规划线程调用。
+     * 提示只影响这一次分配，不写入热度模型，作业结束后文件按实际的读冷却。
+     */
+    void prefetchReplicationInternal(String src, INodeFile inode, int readers) throws IOException {
+        writeLock();
+        try {
+            if (dynamicReplicationMonitor == null || inode.isUnderConstruction()) {
+                return;
+            }
+            long score = popularityModel.getExpectedScore(inode, now(), readers);
+            dynamicReplicationMonitor.allocateReplication(src, inode, score);
+            NameNode.getNameNodeMetrics().numDynamicFilesPrefetched.inc();
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 清除目录的动态副本策略。
+     * See {@link ClientProtocol#clearDynamicReplicationPolicy(String)} for the contract.
+     */
+    void clearDynamicReplicationPolicy(String path) throws IOException {
+        writeLock();
+        try {
+            if (isInSafeMode())
+                throw new SafeModeException("Cannot clear dynamic replication policy on " + path, safeMode);
+            if (isPermissionEnabled) {
+                checkSuperuserPrivilege();
+            }
+            dir.clearDynamicReplicationPolicy(path);
+        } finally {
+            writeUnlock();
+        }
+        getEditLog().logSync();
+    }
+
     /** Persist all metadata about this file.
      * @param src The string representation of the path
      * @param clientName The string representation of the client
@@ -1882,12 +2576,15 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
 
         NameNode.stateChangeLog.info("BLOCK* NameSystem.fsync: file "
                 + src + " for " + clientName);
-        synchronized (this) {
+        writeLock();
+        try {
             if (isInSafeMode()) {
                 throw new SafeModeException("Cannot fsync file " + src, safeMode);
             }
             INodeFileUnderConstruction pendingFile = checkLease(src, clientName);
             dir.persistBlocks(src, pendingFile);
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -1960,85 +2657,93 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         checkReplicationFactor(newFile);
     }
 
-    synchronized void commitBlockSynchronization(Block lastblock,
+    void commitBlockSynchronization(Block lastblock,
                                                  long newgenerationstamp, long newlength,
                                                  boolean closeFile, boolean deleteblock, DatanodeID[] newtargets
     ) throws IOException {
-        LOG.info("commitBlockSynchronization(lastblock=" + lastblock
-                + ", newgenerationstamp=" + newgenerationstamp
-                + ", newlength=" + newlength
-                + ", newtargets=" + Arrays.asList(newtargets)
-                + ", closeFile=" + closeFile
-                + ", deleteBlock=" + deleteblock
-                + ")");
-        final BlockInfo oldblockinfo = blocksMap.getStoredBlock(lastblock);
-        if (oldblockinfo == null) {
-            throw new IOException("Block (=" + lastblock + ") not found");
-        }
-        INodeFile iFile = oldblockinfo.getINode();
-        if (!iFile.isUnderConstruction()) {
-            throw new IOException("Unexpected block (=" + lastblock
-                    + ") since the file (=" + iFile.getLocalName()
-                    + ") is not under construction");
-        }
-        INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction) iFile;
+        String src;
+        writeLock();
+        try {
+            LOG.info("commitBlockSynchronization(lastblock=" + lastblock
+                    + ", newgenerationstamp=" + newgenerationstamp
+                    + ", newlength=" + newlength
+                    + ", newtargets=" + Arrays.asList(newtargets)
+                    + ", closeFile=" + closeFile
+                    + ", deleteBlock=" + deleteblock
+                    + ")");
+            final BlockInfo oldblockinfo = blocksMap.getStoredBlock(lastblock);
+            if (oldblockinfo == null) {
+                throw new IOException("Block (=" + lastblock + ") not found");
+            }
+            INodeFile iFile = oldblockinfo.getINode();
+            if (!iFile.isUnderConstruction()) {
+                throw new IOException("Unexpected block (=" + lastblock
+                        + ") since the file (=" + iFile.getLocalName()
+                        + ") is not under construction");
+            }
+            INodeFileUnderConstruction pendingFile = (INodeFileUnderConstruction) iFile;
 
 
-        // Remove old block from blocks map. This always have to be done
-        // because the generation stamp of this block is changing.
-        blocksMap.removeBlock(oldblockinfo);
+            // Remove old block from blocks map. This always have to be done
+            // because the generation stamp of this block is changing.
+            blocksMap.removeBlock(oldblockinfo);
 
-        if (deleteblock) {
-            pendingFile.removeBlock(lastblock);
-        } else {
-            // update last block, construct newblockinfo and add it to the blocks map
-            lastblock.set(lastblock.getBlockId(), newlength, newgenerationstamp);
-            final BlockInfo newblockinfo = blocksMap.addINode(lastblock, pendingFile);
-
-            // find the DatanodeDescriptor objects
-            // There should be no locations in the blocksMap till now because the
-            // file is underConstruction
-            DatanodeDescriptor[] descriptors = null;
-            if (newtargets.length > 0) {
-                descriptors = new DatanodeDescriptor[newtargets.length];
-                for (int i = 0; i < newtargets.length; i++) {
-                    descriptors[i] = getDatanode(newtargets[i]);
+            if (deleteblock) {
+                pendingFile.removeBlock(lastblock);
+            } else {
+                // update last block, construct newblockinfo and add it to the blocks map
+                lastblock.set(lastblock.getBlockId(), newlength, newgenerationstamp);
+                final BlockInfo newblockinfo = blocksMap.addINode(lastblock, pendingFile);
+
+                // find the DatanodeDescriptor objects
+                // There should be no locations in the blocksMap till now because the
+                // file is underConstruction
+                DatanodeDescriptor[] descriptors = null;
+                if (newtargets.length > 0) {
+                    descriptors = new DatanodeDescriptor[newtargets.length];
+                    for (int i = 0; i < newtargets.length; i++) {
+                        descriptors[i] = getDatanode(newtargets[i]);
+                    }
+                }
+                if (closeFile) {
+                    // the file is getting closed. Insert block locations into blocksMap.
+                    // Otherwise fsck will report these blocks as MISSING, especially if the
+                    // blocksReceived from Datanodes take a long time to arrive.
+                    for (int i = 0; i < descriptors.length; i++) {
+                        descriptors[i].addBlock(newblockinfo);
+                    }
+                    pendingFile.setLastBlock(newblockinfo, null);
+                } else {
+                    // add locations into the INodeUnderConstruction
+                    pendingFile.setLastBlock(newblockinfo, descriptors);
                 }
             }
-            if (closeFile) {
-                // the file is getting closed. Insert block locations into blocksMap.
-                // Otherwise fsck will report these blocks as MISSING, especially if the
-                // blocksReceived from Datanodes take a long time to arrive.
-                for (int i = 0; i < descriptors.length; i++) {
-                    descriptors[i].addBlock(newblockinfo);
+
+            // If this commit does not want to close the file, persist
+            // blocks only if append is supported
+            src = leaseManager.findPath(pendingFile);
+            if (!closeFile) {
+                if (supportAppends) {
+                    dir.persistBlocks(src, pendingFile);
                 }
-                pendingFile.setLastBlock(newblockinfo, null);
             } else {
-                // add locations into the INodeUnderConstruction
-                pendingFile.setLastBlock(newblockinfo, descriptors);
+                //remove lease, close file
+                finalizeINodeFileUnderConstruction(src, pendingFile);
             }
+        } finally {
+            writeUnlock();
         }
-
-        // If this commit does not want to close the file, persist
-        // blocks only if append is supported and return
-        String src = leaseManager.findPath(pendingFile);
+        //在写锁外同步日志，避免同步等待期间阻塞其他操作
+        getEditLog().logSync();
         if (!closeFile) {
-            if (supportAppends) {
-                dir.persistBlocks(src, pendingFile);
-                getEditLog().logSync();
-            }
             LOG.info("commitBlockSynchronization(" + lastblock + ") successful");
-            return;
+        } else {
+            LOG.info("commitBlockSynchronization(newblock=" + lastblock
+                    + ", file=" + src
+                    + ", newgenerationstamp=" + newgenerationstamp
+                    + ", newlength=" + newlength
+                    + ", newtargets=" + Arrays.asList(newtargets) + ") successful");
         }
-
-        //remove lease, close file
-        finalizeINodeFileUnderConstruction(src, pendingFile);
-        getEditLog().logSync();
-        LOG.info("commitBlockSynchronization(newblock=" + lastblock
-                + ", file=" + src
-                + ", newgenerationstamp=" + newgenerationstamp
-                + ", newlength=" + newlength
-                + ", newtargets=" + Arrays.asList(newtargets) + ") successful");
     }
 
 
@@ -2056,19 +2761,58 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * exists so we can return file attributes (soon to be implemented)
      */
     public FileStatus[] getListing(String src) throws IOException {
-        if (isPermissionEnabled) {
-            if (dir.isDir(src)) {
-                checkPathAccess(src, FsAction.READ_EXECUTE);
-            } else {
-                checkTraverse(src);
+        FileStatus[] listing;
+        readLock();
+        try {
+            if (isPermissionEnabled) {
+                if (dir.isDir(src)) {
+                    checkPathAccess(src, FsAction.READ_EXECUTE);
+                } else {
+                    checkTraverse(src);
+                }
+            }
+            listing = dir.getListing(src);
+        } finally {
+            readUnlock();
+        }
+        if (auditLog.isInfoEnabled()) {
+            logAuditEvent(UserGroupInformation.getCurrentUGI(),
+                    Server.getRemoteIp(),
+                    "listStatus", src, null, null);
+        }
+        return listing;
+    }
+
+    /**
+     * Get a page of the listing of src, see
+     * {@link ClientProtocol#getListing(String, byte[], int)}. A page holds
+     * no more than dfs.ls.limit entries, which bounds the time the lock is
+     * held for a large directory.
+     */
+    public DirectoryListing getListing(String src, byte[] startAfter,
+                                       int maxEntries) throws IOException {
+        DirectoryListing listing;
+        readLock();
+        try {
+            if (isPermissionEnabled) {
+                if (dir.isDir(src)) {
+                    checkPathAccess(src, FsAction.READ_EXECUTE);
+                } else {
+                    checkTraverse(src);
+                }
             }
+            listing = dir.getListing(src, startAfter,
+                    Math.max(1, Math.min(maxEntries, lsLimit)));
+        } finally {
+            readUnlock();
         }
-        if (auditLog.isInfoEnabled()) {
+        // audit the listing once, on its first page
+        if (auditLog.isInfoEnabled() && (startAfter == null || startAfter.length == 0)) {
             logAuditEvent(UserGroupInformation.getCurrentUGI(),
                     Server.getRemoteIp(),
                     "listStatus", src, null, null);
         }
-        return dir.getListing(src);
+        return listing;
     }
 
     /////////////////////////////////////////////////////////
@@ -2100,116 +2844,121 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      *
      * @see org.apache.hadoop.hdfs.server.datanode.DataNode#register()
      */
-    public synchronized void registerDatanode(DatanodeRegistration nodeReg
+    public void registerDatanode(DatanodeRegistration nodeReg
     ) throws IOException {
-        String dnAddress = Server.getRemoteAddress();
-        if (dnAddress == null) {
-            // Mostly called inside an RPC.
-            // But if not, use address passed by the data-node.
-            dnAddress = nodeReg.getHost();
-        }
-
-        // check if the datanode is allowed to be connect to the namenode
-        if (!verifyNodeRegistration(nodeReg, dnAddress)) {
-            throw new DisallowedDatanodeException(nodeReg);
-        }
-
-        String hostName = nodeReg.getHost();
-
-        // update the datanode's name with ip:port
-        DatanodeID dnReg = new DatanodeID(dnAddress + ":" + nodeReg.getPort(),
-                nodeReg.getStorageID(),
-                nodeReg.getInfoPort(),
-                nodeReg.getIpcPort());
-        nodeReg.updateRegInfo(dnReg);
-
-        NameNode.stateChangeLog.info(
-                "BLOCK* NameSystem.registerDatanode: "
-                        + "node registration from " + nodeReg.getName()
-                        + " storage " + nodeReg.getStorageID());
-
-        DatanodeDescriptor nodeS = datanodeMap.get(nodeReg.getStorageID());
-        DatanodeDescriptor nodeN = host2DataNodeMap.getDatanodeByName(nodeReg.getName());
-
-        if (nodeN != null && nodeN != nodeS) {
-            NameNode.LOG.info("BLOCK* NameSystem.registerDatanode: "
-                    + "node from name: " + nodeN.getName());
-            // nodeN previously served a different data storage,
-            // which is not served by anybody anymore.
-            removeDatanode(nodeN);
-            // physically remove node from datanodeMap
-            wipeDatanode(nodeN);
-            nodeN = null;
-        }
-
-        if (nodeS != null) {
-            if (nodeN == nodeS) {
-                // The same datanode has been just restarted to serve the same data
-                // storage. We do not need to remove old data blocks, the delta will
-                // be calculated on the next block report from the datanode
-                NameNode.stateChangeLog.debug("BLOCK* NameSystem.registerDatanode: "
-                        + "node restarted.");
-            } else {
-                // nodeS is found
-        /* The registering datanode is a replacement node for the existing
-          data storage, which from now on will be served by a new node.
-          If this message repeats, both nodes might have same storageID
-          by (insanely rare) random chance. User needs to restart one of the
-          nodes with its data cleared (or user can just remove the StorageID
-          value in "VERSION" file under the data directory of the datanode,
-          but this is might not work if VERSION file format has changed
-       */
-                NameNode.stateChangeLog.info("BLOCK* NameSystem.registerDatanode: "
-                        + "node " + nodeS.getName()
-                        + " is replaced by " + nodeReg.getName() +
-                        " with the same storageID " +
-                        nodeReg.getStorageID());
+        writeLock();
+        try {
+            String dnAddress = Server.getRemoteAddress();
+            if (dnAddress == null) {
+                // Mostly called inside an RPC.
+                // But if not, use address passed by the data-node.
+                dnAddress = nodeReg.getHost();
             }
-            // update cluster map
-            clusterMap.remove(nodeS);
-            nodeS.updateRegInfo(nodeReg);
-            nodeS.setHostName(hostName);
 
-            // resolve network location
-            resolveNetworkLocation(nodeS);
-            clusterMap.add(nodeS);
+            // check if the datanode is allowed to be connect to the namenode
+            if (!verifyNodeRegistration(nodeReg, dnAddress)) {
+                throw new DisallowedDatanodeException(nodeReg);
+            }
 
-            // also treat the registration message as a heartbeat
-            synchronized (heartbeats) {
-                if (!heartbeats.contains(nodeS)) {
-                    heartbeats.add(nodeS);
-                    //update its timestamp
-                    nodeS.updateHeartbeat(0L, 0L, 0L, 0);
-                    nodeS.isAlive = true;
+            String hostName = nodeReg.getHost();
+
+            // update the datanode's name with ip:port
+            DatanodeID dnReg = new DatanodeID(dnAddress + ":" + nodeReg.getPort(),
+                    nodeReg.getStorageID(),
+                    nodeReg.getInfoPort(),
+                    nodeReg.getIpcPort());
+            nodeReg.updateRegInfo(dnReg);
+
+            NameNode.stateChangeLog.info(
+                    "BLOCK* NameSystem.registerDatanode: "
+                            + "node registration from " + nodeReg.getName()
+                            + " storage " + nodeReg.getStorageID());
+
+            DatanodeDescriptor nodeS = datanodeMap.get(nodeReg.getStorageID());
+            DatanodeDescriptor nodeN = host2DataNodeMap.getDatanodeByName(nodeReg.getName());
+
+            if (nodeN != null && nodeN != nodeS) {
+                NameNode.LOG.info("BLOCK* NameSystem.registerDatanode: "
+                        + "node from name: " + nodeN.getName());
+                // nodeN previously served a different data storage,
+                // which is not served by anybody anymore.
+                removeDatanode(nodeN);
+                // physically remove node from datanodeMap
+                wipeDatanode(nodeN);
+                nodeN = null;
+            }
+
+            if (nodeS != null) {
+                if (nodeN == nodeS) {
+                    // The same datanode has been just restarted to serve the same data
+                    // storage. We do not need to remove old data blocks, the delta will
+                    // be calculated on the next block report from the datanode
+                    NameNode.stateChangeLog.debug("BLOCK* NameSystem.registerDatanode: "
+                            + "node restarted.");
+                } else {
+                    // nodeS is found
+            /* The registering datanode is a replacement node for the existing
+              data storage, which from now on will be served by a new node.
+              If this message repeats, both nodes might have same storageID
+              by (insanely rare) random chance. User needs to restart one of the
+              nodes with its data cleared (or user can just remove the StorageID
+              value in "VERSION" file under the data directory of the datanode,
+              but this is might not work if VERSION file format has changed
+           */
+                    NameNode.stateChangeLog.info("BLOCK* NameSystem.registerDatanode: "
+                            + "node " + nodeS.getName()
+                            + " is replaced by " + nodeReg.getName() +
+                            " with the same storageID " +
+                            nodeReg.getStorageID());
+                }
+                // update cluster map
+                clusterMap.remove(nodeS);
+                nodeS.updateRegInfo(nodeReg);
+                nodeS.setHostName(hostName);
+
+                // resolve network location
+                resolveNetworkLocation(nodeS);
+                clusterMap.add(nodeS);
+
+                // also treat the registration message as a heartbeat
+                synchronized (heartbeats) {
+                    if (!heartbeats.contains(nodeS)) {
+                        heartbeats.add(nodeS);
+                        //update its timestamp
+                        nodeS.updateHeartbeat(0L, 0L, 0L, 0);
+                        nodeS.isAlive = true;
+                    }
                 }
+                return;
             }
-            return;
-        }
 
-        // this is a new datanode serving a new data storage
-        if (nodeReg.getStorageID().equals("")) {
-            // this data storage has never been registered
-            // it is either empty or was created by pre-storageID version of DFS
-            nodeReg.storageID = newStorageID();
-            NameNode.stateChangeLog.debug(
-                    "BLOCK* NameSystem.registerDatanode: "
-                            + "new storageID " + nodeReg.getStorageID() + " assigned.");
-        }
-        // register new datanode
-        DatanodeDescriptor nodeDescr
-                = new DatanodeDescriptor(nodeReg, NetworkTopology.DEFAULT_RACK, hostName);
-        resolveNetworkLocation(nodeDescr);
-        unprotectedAddDatanode(nodeDescr);
-        clusterMap.add(nodeDescr);
+            // this is a new datanode serving a new data storage
+            if (nodeReg.getStorageID().equals("")) {
+                // this data storage has never been registered
+                // it is either empty or was created by pre-storageID version of DFS
+                nodeReg.storageID = newStorageID();
+                NameNode.stateChangeLog.debug(
+                        "BLOCK* NameSystem.registerDatanode: "
+                                + "new storageID " + nodeReg.getStorageID() + " assigned.");
+            }
+            // register new datanode
+            DatanodeDescriptor nodeDescr
+                    = new DatanodeDescriptor(nodeReg, NetworkTopology.DEFAULT_RACK, hostName);
+            resolveNetworkLocation(nodeDescr);
+            unprotectedAddDatanode(nodeDescr);
+            clusterMap.add(nodeDescr);
 
-        // also treat the registration message as a heartbeat
-        synchronized (heartbeats) {
-            heartbeats.add(nodeDescr);
-            nodeDescr.isAlive = true;
-            // no need to update its timestamp
-            // because its is done when the descriptor is created
+            // also treat the registration message as a heartbeat
+            synchronized (heartbeats) {
+                heartbeats.add(nodeDescr);
+                nodeDescr.isAlive = true;
+                // no need to update its timestamp
+                // because its is done when the descriptor is created
+            }
+            return;
+        } finally {
+            writeUnlock();
         }
-        return;
     }
 
     /* Resolve a node's network location */
@@ -2290,7 +3039,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      */
     DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
                                       long capacity, long dfsUsed, long remaining,
-                                      int xceiverCount, int xmitsInProgress) throws IOException {
+                                      int xceiverCount, int xmitsInProgress,
+                                      long[] blockReads) throws IOException {
         DatanodeCommand cmd = null;
         synchronized (heartbeats) {
             synchronized (datanodeMap) {
@@ -2315,6 +3065,11 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                 nodeinfo.updateHeartbeat(capacity, dfsUsed, remaining, xceiverCount);
                 updateStats(nodeinfo, true);
 
+                //块的读次数交给规划线程记录到热度模型
+                if (blockReads != null && dynamicReplicationPlanner != null) {
+                    dynamicReplicationPlanner.offerBlockReads(blockReads);
+                }
+
                 //check lease recovery
                 cmd = nodeinfo.getLeaseRecoveryCommand(Integer.MAX_VALUE);
                 if (cmd != null) {
@@ -2396,6 +3151,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         public void run() {
             while (fsRunning) {
                 try {
+                    flushPendingAccesses();
                     computeDatanodeWork();
                     processPendingReplications();
                     Thread.sleep(replicationRecheckInterval);
@@ -2429,6 +3185,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     public int computeDatanodeWork() throws IOException {
         int workFound = 0;
         int blocksToProcess = 0;
+        int dynamicBlocksToProcess = 0;
         int nodesToProcess = 0;
         // blocks should not be replicated or removed if safe mode is on
         if (isInSafeMode())
@@ -2436,18 +3193,25 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         synchronized (heartbeats) {
             blocksToProcess = (int) (heartbeats.size()
                     * ReplicationMonitor.REPLICATION_WORK_MULTIPLIER_PER_ITERATION);
+            dynamicBlocksToProcess = (int) Math.ceil(heartbeats.size()
+                    * dynamicReplicationWorkMultiplier);
             nodesToProcess = (int) Math.ceil((double) heartbeats.size()
                     * ReplicationMonitor.INVALIDATE_WORK_PCT_PER_ITERATION / 100);
         }
 
         workFound = computeReplicationWork(blocksToProcess);
+        workFound += computeDynamicReplicationWork(dynamicBlocksToProcess);
 
         // Update FSNamesystemMetrics counters
-        synchronized (this) {
+        writeLock();
+        try {
             pendingReplicationBlocksCount = pendingReplications.size();
             underReplicatedBlocksCount = neededReplications.size();
+            dynamicReplicationQueueBlocksCount = neededReplications.dynamicSize();
             scheduledReplicationBlocksCount = workFound;
             corruptReplicaBlocksCount = corruptReplicas.size();
+        } finally {
+            writeUnlock();
         }
 
         workFound += computeInvalidateWork(nodesToProcess);
@@ -2492,6 +3256,31 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return scheduledReplicationCount;
     }
 
+    /**
+     * 为只缺动态副本的块调度复制，使用单独的预算，
+     * 因此热文件的扩散不会挤占真正缺副本的块的复制
+     *
+     * @return number of blocks scheduled for replication during this iteration.
+     */
+    private int computeDynamicReplicationWork(int blocksToProcess) {
+        List<Block> blocks;
+        writeLock();
+        try {
+            synchronized (neededReplications) {
+                blocks = neededReplications.chooseDynamicBlocks(blocksToProcess);
+            }
+        } finally {
+            writeUnlock();
+        }
+        int scheduledReplicationCount = 0;
+        for (Block block : blocks) {
+            if (computeReplicationWorkForBlock(block, UnderReplicatedBlocks.DYNAMIC_PRIORITY)) {
+                scheduledReplicationCount++;
+            }
+        }
+        return scheduledReplicationCount;
+    }
+
     /** Get a list of block lists to be replicated
      * The index of block lists represents the
      *
@@ -2499,55 +3288,101 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * @return Return a list of block lists to be replicated.
      *         The block list index represents its replication priority.
      */
-    synchronized List<List<Block>> chooseUnderReplicatedBlocks(int blocksToProcess) {
-        // initialize data structure for the return value
-        List<List<Block>> blocksToReplicate =
-                new ArrayList<List<Block>>(UnderReplicatedBlocks.LEVEL);
-        for (int i = 0; i < UnderReplicatedBlocks.LEVEL; i++) {
-            blocksToReplicate.add(new ArrayList<Block>());
-        }
-
-        synchronized (neededReplications) {
-            if (neededReplications.size() == 0) {
-                missingBlocksInCurIter = 0;
-                missingBlocksInPrevIter = 0;
-                return blocksToReplicate;
-            }
-
-            // Go through all blocks that need replications.
-            BlockIterator neededReplicationsIterator = neededReplications.iterator();
-            // skip to the first unprocessed block, which is at replIndex
-            for (int i = 0; i < replIndex && neededReplicationsIterator.hasNext(); i++) {
-                neededReplicationsIterator.next();
+    List<List<Block>> chooseUnderReplicatedBlocks(int blocksToProcess) {
+        writeLock();
+        try {
+            // initialize data structure for the return value
+            List<List<Block>> blocksToReplicate =
+                    new ArrayList<List<Block>>(UnderReplicatedBlocks.LEVEL);
+            for (int i = 0; i < UnderReplicatedBlocks.LEVEL; i++) {
+                blocksToReplicate.add(new ArrayList<Block>());
             }
-            // # of blocks to process equals either twice the number of live
-            // data-nodes or the number of under-replicated blocks whichever is less
-            blocksToProcess = Math.min(blocksToProcess, neededReplications.size());
 
-            for (int blkCnt = 0; blkCnt < blocksToProcess; blkCnt++, replIndex++) {
-                if (!neededReplicationsIterator.hasNext()) {
-                    // start from the beginning
-                    replIndex = 0;
-                    missingBlocksInPrevIter = missingBlocksInCurIter;
+            synchronized (neededReplications) {
+                if (neededReplications.recoverySize() == 0) {
                     missingBlocksInCurIter = 0;
-                    blocksToProcess = Math.min(blocksToProcess, neededReplications.size());
-                    if (blkCnt >= blocksToProcess)
-                        break;
-                    neededReplicationsIterator = neededReplications.iterator();
-                    assert neededReplicationsIterator.hasNext() :
-                            "neededReplications should not be empty.";
+                    missingBlocksInPrevIter = 0;
+                    return blocksToReplicate;
                 }
 
-                Block block = neededReplicationsIterator.next();
-                int priority = neededReplicationsIterator.getPriority();
-                if (priority < 0 || priority >= blocksToReplicate.size()) {
-                    LOG.warn("Unexpected replication priority: " + priority + " " + block);
-                } else {
-                    blocksToReplicate.get(priority).add(block);
+                // Go through all blocks that need replications.
+                BlockIterator neededReplicationsIterator = neededReplications.iterator();
+                // skip to the first unprocessed block, which is at replIndex
+                for (int i = 0; i < replIndex && neededReplicationsIterator.hasNext(); i++) {
+                    neededReplicationsIterator.next();
                 }
-            } // end for
-        } // end synchronized
-        return blocksToReplicate;
+                // # of blocks to process equals either twice the number of live
+                // data-nodes or the number of under-replicated blocks whichever is less
+                blocksToProcess = Math.min(blocksToProcess, neededReplications.recoverySize());
+
+                for (int blkCnt = 0; blkCnt < blocksToProcess; blkCnt++, replIndex++) {
+                    if (!neededReplicationsIterator.hasNext()) {
+                        // start from the beginning
+                        replIndex = 0;
+                        missingBlocksInPrevIter = missingBlocksInCurIter;
+                        missingBlocksInCurIter = 0;
+                        blocksToProcess = Math.min(blocksToProcess, neededReplications.recoverySize());
+                        if (blkCnt >= blocksToProcess)
+                            break;
+                        neededReplicationsIterator = neededReplications.iterator();
+                        assert neededReplicationsIterator.hasNext() :
+                                "neededReplications should not be empty.";
+                    }
+
+                    Block block = neededReplicationsIterator.next();
+                    int priority = neededReplicationsIterator.getPriority();
+                    if (priority < 0 || priority >= blocksToReplicate.size()) {
+                        LOG.warn("Unexpected replication priority: " + priority + " " + block);
+                    } else {
+                        blocksToReplicate.get(priority).add(block);
+                    }
+                } // end for
+            } // end synchronized
+            return blocksToReplicate;
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * 块缺少的副本是否全部由动态副本增加，是则按读热度选择目标 datanode
+     */
+    private boolean isDynamicReplicationWork(Block block, int numEffectiveReplicas) {
+        return readLocality != null && onlyMissesDynamicReplicas(block, numEffectiveReplicas);
+    }
+
+    /**
+     * 块缺少的副本是否全部来自动态副本：块的目标副本数由动态副本提升
+     * （文件在动态副本集合中或块有动态副本数），并且已有副本数不少于提升前的副本数。
+     * 调用者持有写锁。
+     */
+    boolean onlyMissesDynamicReplicas(Block block, int curReplicas) {
+        BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+        if (storedBlock == null || storedBlock.getINode() == null) {
+            return false;
+        }
+        INodeFile inode = storedBlock.getINode();
+        int baseReplication;
+        if (dynamicReplicationMonitor != null
+                && dynamicReplicationMonitor.members.containsKey(inode)) {
+            //文件副本数已被动态副本提升，提升前为 minDynamicReplication
+            baseReplication = minDynamicReplication;
+        } else if (storedBlock.getDynamicReplication() > inode.getReplication()) {
+            baseReplication = inode.getReplication();
+        } else {
+            return false;
+        }
+        return curReplicas >= baseReplication;
+    }
+
+    /**
+     * 块已从 neededReplications 中删除，动态副本队列中的块不影响
+     * 按优先级遍历的位置 replIndex
+     */
+    private void removedFromIteration(int priority) {
+        if (priority != UnderReplicatedBlocks.DYNAMIC_PRIORITY) {
+            replIndex--;
+        }
     }
 
     /** Replicate a block
@@ -2560,18 +3395,20 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         int requiredReplication, numEffectiveReplicas;
         List<DatanodeDescriptor> containingNodes;
         DatanodeDescriptor srcNode;
+        boolean forReads;
 
-        synchronized (this) {
+        writeLock();
+        try {
             synchronized (neededReplications) {
                 // block should belong to a file
                 INodeFile fileINode = blocksMap.getINode(block);
                 // abandoned block or block reopened for append
                 if (fileINode == null || fileINode.isUnderConstruction()) {
                     neededReplications.remove(block, priority); // remove from neededReplications
-                    replIndex--;
+                    removedFromIteration(priority);
                     return false;
                 }
-                requiredReplication = fileINode.getReplication();
+                requiredReplication = getReplication(block);
 
                 // get a source data-node
                 containingNodes = new ArrayList<DatanodeDescriptor>();
@@ -2589,23 +3426,39 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                         pendingReplications.getNumReplicas(block);
                 if (numEffectiveReplicas >= requiredReplication) {
                     neededReplications.remove(block, priority); // remove from neededReplications
-                    replIndex--;
+                    removedFromIteration(priority);
                     NameNode.stateChangeLog.info("BLOCK* "
                             + "Removing block " + block
                             + " from neededReplications as it has enough replicas.");
                     return false;
                 }
+                forReads = isDynamicReplicationWork(block, numEffectiveReplicas);
             }
+        } finally {
+            writeUnlock();
         }
 
         // choose replication targets: NOT HODING THE GLOBAL LOCK
-        DatanodeDescriptor targets[] = replicator.chooseTarget(
-                requiredReplication - numEffectiveReplicas,
-                srcNode, containingNodes, null, block.getNumBytes());
+        DatanodeDescriptor targets[];
+        if (forReads) {
+            //因读热度增加的副本放到读请求多、负载低的 datanode 上
+            List<DatanodeDescriptor> candidates;
+            synchronized (heartbeats) {
+                candidates = new ArrayList<DatanodeDescriptor>(heartbeats);
+            }
+            targets = replicator.chooseTargetForReads(
+                    requiredReplication - numEffectiveReplicas, srcNode, containingNodes,
+                    candidates, readLocality.getReads(now()), block.getNumBytes());
+        } else {
+            targets = replicator.chooseTarget(
+                    requiredReplication - numEffectiveReplicas,
+                    srcNode, containingNodes, null, block.getNumBytes());
+        }
         if (targets.length == 0)
             return false;
 
-        synchronized (this) {
+        writeLock();
+        try {
             synchronized (neededReplications) {
                 // Recheck since global lock was released
                 // block should belong to a file
@@ -2613,10 +3466,10 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                 // abandoned block or block reopened for append
                 if (fileINode == null || fileINode.isUnderConstruction()) {
                     neededReplications.remove(block, priority); // remove from neededReplications
-                    replIndex--;
+                    removedFromIteration(priority);
                     return false;
                 }
-                requiredReplication = fileINode.getReplication();
+                requiredReplication = getReplication(block);
 
                 // do not schedule more if enough replicas is already pending
                 NumberReplicas numReplicas = countNodes(block);
@@ -2624,7 +3477,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                         pendingReplications.getNumReplicas(block);
                 if (numEffectiveReplicas >= requiredReplication) {
                     neededReplications.remove(block, priority); // remove from neededReplications
-                    replIndex--;
+                    removedFromIteration(priority);
                     NameNode.stateChangeLog.info("BLOCK* "
                             + "Removing block " + block
                             + " from neededReplications as it has enough replicas.");
@@ -2649,7 +3502,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                 // remove from neededReplications
                 if (numEffectiveReplicas + targets.length >= requiredReplication) {
                     neededReplications.remove(block, priority); // remove from neededReplications
-                    replIndex--;
+                    removedFromIteration(priority);
                 }
                 if (NameNode.stateChangeLog.isInfoEnabled()) {
                     StringBuffer targetList = new StringBuffer("datanode(s)");
@@ -2666,6 +3519,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                                     + " pendingReplications = " + pendingReplications.size());
                 }
             }
+        } finally {
+            writeUnlock();
         }
 
         return true;
@@ -2747,53 +3602,58 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      *
      * @return number of blocks scheduled for removal during this iteration.
      */
-    private synchronized int invalidateWorkForOneNode() {
-        // blocks should not be replicated or removed if safe mode is on
-        if (isInSafeMode())
-            return 0;
-        if (recentInvalidateSets.isEmpty())
-            return 0;
-        // get blocks to invalidate for the first node
-        String firstNodeId = recentInvalidateSets.keySet().iterator().next();
-        assert firstNodeId != null;
-        DatanodeDescriptor dn = datanodeMap.get(firstNodeId);
-        if (dn == null) {
-            removeFromInvalidates(firstNodeId);
-            return 0;
-        }
+    private int invalidateWorkForOneNode() {
+        writeLock();
+        try {
+            // blocks should not be replicated or removed if safe mode is on
+            if (isInSafeMode())
+                return 0;
+            if (recentInvalidateSets.isEmpty())
+                return 0;
+            // get blocks to invalidate for the first node
+            String firstNodeId = recentInvalidateSets.keySet().iterator().next();
+            assert firstNodeId != null;
+            DatanodeDescriptor dn = datanodeMap.get(firstNodeId);
+            if (dn == null) {
+                removeFromInvalidates(firstNodeId);
+                return 0;
+            }
 
-        Collection<Block> invalidateSet = recentInvalidateSets.get(firstNodeId);
-        if (invalidateSet == null)
-            return 0;
+            Collection<Block> invalidateSet = recentInvalidateSets.get(firstNodeId);
+            if (invalidateSet == null)
+                return 0;
 
-        ArrayList<Block> blocksToInvalidate =
-                new ArrayList<Block>(blockInvalidateLimit);
+            ArrayList<Block> blocksToInvalidate =
+                    new ArrayList<Block>(blockInvalidateLimit);
 
-        // # blocks that can be sent in one message is limited
-        Iterator<Block> it = invalidateSet.iterator();
-        for (int blkCount = 0; blkCount < blockInvalidateLimit && it.hasNext();
-             blkCount++) {
-            blocksToInvalidate.add(it.next());
-            it.remove();
-        }
+            // # blocks that can be sent in one message is limited
+            Iterator<Block> it = invalidateSet.iterator();
+            for (int blkCount = 0; blkCount < blockInvalidateLimit && it.hasNext();
+                 blkCount++) {
+                blocksToInvalidate.add(it.next());
+                it.remove();
+            }
 
-        // If we send everything in this message, remove this node entry
-        if (!it.hasNext()) {
-            removeFromInvalidates(firstNodeId);
-        }
+            // If we send everything in this message, remove this node entry
+            if (!it.hasNext()) {
+                removeFromInvalidates(firstNodeId);
+            }
 
-        dn.addBlocksToBeInvalidated(blocksToInvalidate);
+            dn.addBlocksToBeInvalidated(blocksToInvalidate);
 
-        if (NameNode.stateChangeLog.isInfoEnabled()) {
-            StringBuffer blockList = new StringBuffer();
-            for (Block blk : blocksToInvalidate) {
-                blockList.append(' ');
-                blockList.append(blk);
+            if (NameNode.stateChangeLog.isInfoEnabled()) {
+                StringBuffer blockList = new StringBuffer();
+                for (Block blk : blocksToInvalidate) {
+                    blockList.append(' ');
+                    blockList.append(blk);
+                }
+                NameNode.stateChangeLog.info("BLOCK* ask "
+                        + dn.getName() + " to delete " + blockList);
             }
-            NameNode.stateChangeLog.info("BLOCK* ask "
-                    + dn.getName() + " to delete " + blockList);
+            return blocksToInvalidate.size();
+        } finally {
+            writeUnlock();
         }
-        return blocksToInvalidate.size();
     }
 
     public void setNodeReplicationLimit(int limit) {
@@ -2807,7 +3667,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
     void processPendingReplications() {
         Block[] timedOutItems = pendingReplications.getTimedOutBlocks();
         if (timedOutItems != null) {
-            synchronized (this) {
+            writeLock();
+            try {
                 for (int i = 0; i < timedOutItems.length; i++) {
                     NumberReplicas num = countNodes(timedOutItems[i]);
                     neededReplications.add(timedOutItems[i],
@@ -2815,6 +3676,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                             num.decommissionedReplicas(),
                             getReplication(timedOutItems[i]));
                 }
+            } finally {
+                writeUnlock();
             }
       /* If we know the target datanodes where the replication timedout,
        * we could invoke decBlocksScheduled() on it. Its ok for now.
@@ -2826,14 +3689,19 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * remove a datanode descriptor
      * @param nodeID datanode ID
      */
-    synchronized public void removeDatanode(DatanodeID nodeID)
+    public void removeDatanode(DatanodeID nodeID)
             throws IOException {
-        DatanodeDescriptor nodeInfo = getDatanode(nodeID);
-        if (nodeInfo != null) {
-            removeDatanode(nodeInfo);
-        } else {
-            NameNode.stateChangeLog.warn("BLOCK* NameSystem.removeDatanode: "
-                    + nodeID.getName() + " does not exist");
+        writeLock();
+        try {
+            DatanodeDescriptor nodeInfo = getDatanode(nodeID);
+            if (nodeInfo != null) {
+                removeDatanode(nodeInfo);
+            } else {
+                NameNode.stateChangeLog.warn("BLOCK* NameSystem.removeDatanode: "
+                        + nodeID.getName() + " does not exist");
+            }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -2929,7 +3797,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
 
             // acquire the fsnamesystem lock, and then remove the dead node.
             if (foundDead) {
-                synchronized (this) {
+                writeLock();
+                try {
                     synchronized (heartbeats) {
                         synchronized (datanodeMap) {
                             DatanodeDescriptor nodeInfo = null;
@@ -2945,6 +3814,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                             }
                         }
                     }
+                } finally {
+                    writeUnlock();
                 }
             }
             allAlive = !foundDead;
@@ -2955,49 +3826,54 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * The given node is reporting all its blocks.  Use this info to
      * update the (machine-->blocklist) and (block-->machinelist) tables.
      */
-    public synchronized void processReport(DatanodeID nodeID,
+    public void processReport(DatanodeID nodeID,
                                            BlockListAsLongs newReport
     ) throws IOException {
-        long startTime = now();
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-            NameNode.stateChangeLog.debug("BLOCK* NameSystem.processReport: "
-                    + "from " + nodeID.getName() + " " +
-                    newReport.getNumberOfBlocks() + " blocks");
-        }
-        DatanodeDescriptor node = getDatanode(nodeID);
-        if (node == null) {
-            throw new IOException("ProcessReport from unregisterted node: "
-                    + nodeID.getName());
-        }
+        writeLock();
+        try {
+            long startTime = now();
+            if (NameNode.stateChangeLog.isDebugEnabled()) {
+                NameNode.stateChangeLog.debug("BLOCK* NameSystem.processReport: "
+                        + "from " + nodeID.getName() + " " +
+                        newReport.getNumberOfBlocks() + " blocks");
+            }
+            DatanodeDescriptor node = getDatanode(nodeID);
+            if (node == null) {
+                throw new IOException("ProcessReport from unregisterted node: "
+                        + nodeID.getName());
+            }
 
-        // Check if this datanode should actually be shutdown instead.
-        if (shouldNodeShutdown(node)) {
-            setDatanodeDead(node);
-            throw new DisallowedDatanodeException(node);
-        }
+            // Check if this datanode should actually be shutdown instead.
+            if (shouldNodeShutdown(node)) {
+                setDatanodeDead(node);
+                throw new DisallowedDatanodeException(node);
+            }
 
-        //
-        // Modify the (block-->datanode) map, according to the difference
-        // between the old and new block report.
-        //
-        Collection<Block> toAdd = new LinkedList<Block>();
-        Collection<Block> toRemove = new LinkedList<Block>();
-        Collection<Block> toInvalidate = new LinkedList<Block>();
-        node.reportDiff(blocksMap, newReport, toAdd, toRemove, toInvalidate);
+            //
+            // Modify the (block-->datanode) map, according to the difference
+            // between the old and new block report.
+            //
+            Collection<Block> toAdd = new LinkedList<Block>();
+            Collection<Block> toRemove = new LinkedList<Block>();
+            Collection<Block> toInvalidate = new LinkedList<Block>();
+            node.reportDiff(blocksMap, newReport, toAdd, toRemove, toInvalidate);
 
-        for (Block b : toRemove) {
-            removeStoredBlock(b, node);
-        }
-        for (Block b : toAdd) {
-            addStoredBlock(b, node, null);
-        }
-        for (Block b : toInvalidate) {
-            NameNode.stateChangeLog.info("BLOCK* NameSystem.processReport: block "
-                    + b + " on " + node.getName() + " size " + b.getNumBytes()
-                    + " does not belong to any file.");
-            addToInvalidates(b, node);
+            for (Block b : toRemove) {
+                removeStoredBlock(b, node);
+            }
+            for (Block b : toAdd) {
+                addStoredBlock(b, node, null);
+            }
+            for (Block b : toInvalidate) {
+                NameNode.stateChangeLog.info("BLOCK* NameSystem.processReport: block "
+                        + b + " on " + node.getName() + " size " + b.getNumBytes()
+                        + " does not belong to any file.");
+                addToInvalidates(b, node);
+            }
+            NameNode.getNameNodeMetrics().blockReport.inc((int) (now() - startTime));
+        } finally {
+            writeUnlock();
         }
-        NameNode.getNameNodeMetrics().blockReport.inc((int) (now() - startTime));
     }
 
     /**
@@ -3005,166 +3881,171 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * needed replications if this takes care of the problem.
      * @return the block that is stored in blockMap.
      */
-    synchronized Block addStoredBlock(Block block,
+    Block addStoredBlock(Block block,
                                       DatanodeDescriptor node,
                                       DatanodeDescriptor delNodeHint) {
-        BlockInfo storedBlock = blocksMap.getStoredBlock(block);
-        if (storedBlock == null || storedBlock.getINode() == null) {
-            // If this block does not belong to anyfile, then we are done.
-            NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
-                    + "addStoredBlock request received for "
-                    + block + " on " + node.getName()
-                    + " size " + block.getNumBytes()
-                    + " But it does not belong to any file.");
-            // we could add this block to invalidate set of this datanode.
-            // it will happen in next block report otherwise.
-            return block;
-        }
+        writeLock();
+        try {
+            BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+            if (storedBlock == null || storedBlock.getINode() == null) {
+                // If this block does not belong to anyfile, then we are done.
+                NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
+                        + "addStoredBlock request received for "
+                        + block + " on " + node.getName()
+                        + " size " + block.getNumBytes()
+                        + " But it does not belong to any file.");
+                // we could add this block to invalidate set of this datanode.
+                // it will happen in next block report otherwise.
+                return block;
+            }
 
-        // add block to the data-node
-        boolean added = node.addBlock(storedBlock);
-
-        assert storedBlock != null : "Block must be stored by now";
-
-        if (block != storedBlock) {
-            if (block.getNumBytes() >= 0) {
-                long cursize = storedBlock.getNumBytes();
-                if (cursize == 0) {
-                    storedBlock.setNumBytes(block.getNumBytes());
-                } else if (cursize != block.getNumBytes()) {
-                    LOG.warn("Inconsistent size for block " + block +
-                            " reported from " + node.getName() +
-                            " current size is " + cursize +
-                            " reported size is " + block.getNumBytes());
-                    try {
-                        if (cursize > block.getNumBytes()) {
-                            // new replica is smaller in size than existing block.
-                            // Mark the new replica as corrupt.
-                            LOG.warn("Mark new replica " + block + " from " + node.getName() +
-                                    "as corrupt because its length is shorter than existing ones");
-                            markBlockAsCorrupt(block, node);
-                        } else {
-                            // new replica is larger in size than existing block.
-                            // Mark pre-existing replicas as corrupt.
-                            int numNodes = blocksMap.numNodes(block);
-                            int count = 0;
-                            DatanodeDescriptor nodes[] = new DatanodeDescriptor[numNodes];
-                            Iterator<DatanodeDescriptor> it = blocksMap.nodeIterator(block);
-                            for (; it != null && it.hasNext(); ) {
-                                DatanodeDescriptor dd = it.next();
-                                if (!dd.equals(node)) {
-                                    nodes[count++] = dd;
-                                }
-                            }
-                            for (int j = 0; j < count; j++) {
-                                LOG.warn("Mark existing replica " + block + " from " + node.getName() +
-                                        " as corrupt because its length is shorter than the new one");
-                                markBlockAsCorrupt(block, nodes[j]);
-                            }
-                            //
-                            // change the size of block in blocksMap
-                            //
-                            storedBlock = blocksMap.getStoredBlock(block); //extra look up!
-                            if (storedBlock == null) {
-                                LOG.warn("Block " + block +
-                                        " reported from " + node.getName() +
-                                        " does not exist in blockMap. Surprise! Surprise!");
+            // add block to the data-node
+            boolean added = node.addBlock(storedBlock);
+
+            assert storedBlock != null : "Block must be stored by now";
+
+            if (block != storedBlock) {
+                if (block.getNumBytes() >= 0) {
+                    long cursize = storedBlock.getNumBytes();
+                    if (cursize == 0) {
+                        storedBlock.setNumBytes(block.getNumBytes());
+                    } else if (cursize != block.getNumBytes()) {
+                        LOG.warn("Inconsistent size for block " + block +
+                                " reported from " + node.getName() +
+                                " current size is " + cursize +
+                                " reported size is " + block.getNumBytes());
+                        try {
+                            if (cursize > block.getNumBytes()) {
+                                // new replica is smaller in size than existing block.
+                                // Mark the new replica as corrupt.
+                                LOG.warn("Mark new replica " + block + " from " + node.getName() +
+                                        "as corrupt because its length is shorter than existing ones");
+                                markBlockAsCorrupt(block, node);
                             } else {
-                                storedBlock.setNumBytes(block.getNumBytes());
+                                // new replica is larger in size than existing block.
+                                // Mark pre-existing replicas as corrupt.
+                                int numNodes = blocksMap.numNodes(block);
+                                int count = 0;
+                                DatanodeDescriptor nodes[] = new DatanodeDescriptor[numNodes];
+                                Iterator<DatanodeDescriptor> it = blocksMap.nodeIterator(block);
+                                for (; it != null && it.hasNext(); ) {
+                                    DatanodeDescriptor dd = it.next();
+                                    if (!dd.equals(node)) {
+                                        nodes[count++] = dd;
+                                    }
+                                }
+                                for (int j = 0; j < count; j++) {
+                                    LOG.warn("Mark existing replica " + block + " from " + node.getName() +
+                                            " as corrupt because its length is shorter than the new one");
+                                    markBlockAsCorrupt(block, nodes[j]);
+                                }
+                                //
+                                // change the size of block in blocksMap
+                                //
+                                storedBlock = blocksMap.getStoredBlock(block); //extra look up!
+                                if (storedBlock == null) {
+                                    LOG.warn("Block " + block +
+                                            " reported from " + node.getName() +
+                                            " does not exist in blockMap. Surprise! Surprise!");
+                                } else {
+                                    storedBlock.setNumBytes(block.getNumBytes());
+                                }
                             }
+                        } catch (IOException e) {
+                            LOG.warn("Error in deleting bad block " + block + e);
                         }
-                    } catch (IOException e) {
-                        LOG.warn("Error in deleting bad block " + block + e);
                     }
-                }
 
-                //Updated space consumed if required.
-                INodeFile file = (storedBlock != null) ? storedBlock.getINode() : null;
-                long diff = (file == null) ? 0 :
-                        (file.getPreferredBlockSize() - storedBlock.getNumBytes());
-
-                if (diff > 0 && file.isUnderConstruction() &&
-                        cursize < storedBlock.getNumBytes()) {
-                    try {
-                        String path = /* For finding parents */
-                                leaseManager.findPath((INodeFileUnderConstruction) file);
-                        dir.updateSpaceConsumed(path, 0, -diff * file.getReplication());
-                    } catch (IOException e) {
-                        LOG.warn("Unexpected exception while updating disk space : " +
-                                e.getMessage());
+                    //Updated space consumed if required.
+                    INodeFile file = (storedBlock != null) ? storedBlock.getINode() : null;
+                    long diff = (file == null) ? 0 :
+                            (file.getPreferredBlockSize() - storedBlock.getNumBytes());
+
+                    if (diff > 0 && file.isUnderConstruction() &&
+                            cursize < storedBlock.getNumBytes()) {
+                        try {
+                            String path = /* For finding parents */
+                                    leaseManager.findPath((INodeFileUnderConstruction) file);
+                            dir.updateSpaceConsumed(path, 0, -diff * file.getReplication());
+                        } catch (IOException e) {
+                            LOG.warn("Unexpected exception while updating disk space : " +
+                                    e.getMessage());
+                        }
                     }
                 }
+                block = storedBlock;
             }
-            block = storedBlock;
-        }
-        assert storedBlock == block : "Block must be stored by now";
+            assert storedBlock == block : "Block must be stored by now";
 
-        int curReplicaDelta = 0;
+            int curReplicaDelta = 0;
 
-        if (added) {
-            curReplicaDelta = 1;
-            //
-            // At startup time, because too many new blocks come in
-            // they take up lots of space in the log file.
-            // So, we log only when namenode is out of safemode.
-            //
-            if (!isInSafeMode()) {
-                NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
-                        + "blockMap updated: " + node.getName() + " is added to " + block + " size " + block.getNumBytes());
+            if (added) {
+                curReplicaDelta = 1;
+                //
+                // At startup time, because too many new blocks come in
+                // they take up lots of space in the log file.
+                // So, we log only when namenode is out of safemode.
+                //
+                if (!isInSafeMode()) {
+                    NameNode.stateChangeLog.info("BLOCK* NameSystem.addStoredBlock: "
+                            + "blockMap updated: " + node.getName() + " is added to " + block + " size " + block.getNumBytes());
+                }
+            } else {
+                NameNode.stateChangeLog.warn("BLOCK* NameSystem.addStoredBlock: "
+                        + "Redundant addStoredBlock request received for "
+                        + block + " on " + node.getName()
+                        + " size " + block.getNumBytes());
             }
-        } else {
-            NameNode.stateChangeLog.warn("BLOCK* NameSystem.addStoredBlock: "
-                    + "Redundant addStoredBlock request received for "
-                    + block + " on " + node.getName()
-                    + " size " + block.getNumBytes());
-        }
 
-        // filter out containingNodes that are marked for decommission.
-        NumberReplicas num = countNodes(storedBlock);
-        int numLiveReplicas = num.liveReplicas();
-        int numCurrentReplica = numLiveReplicas
-                + pendingReplications.getNumReplicas(block);
+            // filter out containingNodes that are marked for decommission.
+            NumberReplicas num = countNodes(storedBlock);
+            int numLiveReplicas = num.liveReplicas();
+            int numCurrentReplica = numLiveReplicas
+                    + pendingReplications.getNumReplicas(block);
 
-        // check whether safe replication is reached for the block
-        incrementSafeBlockCount(numCurrentReplica);
+            // check whether safe replication is reached for the block
+            incrementSafeBlockCount(numCurrentReplica);
 
-        //
-        // if file is being actively written to, then do not check
-        // replication-factor here. It will be checked when the file is closed.
-        //
-        INodeFile fileINode = null;
-        fileINode = storedBlock.getINode();
-        if (fileINode.isUnderConstruction()) {
-            return block;
-        }
+            //
+            // if file is being actively written to, then do not check
+            // replication-factor here. It will be checked when the file is closed.
+            //
+            INodeFile fileINode = null;
+            fileINode = storedBlock.getINode();
+            if (fileINode.isUnderConstruction()) {
+                return block;
+            }
 
-        // do not handle mis-replicated blocks during startup
-        if (isInSafeMode())
-            return block;
+            // do not handle mis-replicated blocks during startup
+            if (isInSafeMode())
+                return block;
 
-        // handle underReplication/overReplication
-        short fileReplication = fileINode.getReplication();
-        if (numCurrentReplica >= fileReplication) {
-            neededReplications.remove(block, numCurrentReplica,
-                    num.decommissionedReplicas, fileReplication);
-        } else {
-            updateNeededReplications(block, curReplicaDelta, 0);
-        }
-        if (numCurrentReplica > fileReplication) {
-            processOverReplicatedBlock(block, fileReplication, node, delNodeHint);
-        }
-        // If the file replication has reached desired value
-        // we can remove any corrupt replicas the block may have
-        int corruptReplicasCount = corruptReplicas.numCorruptReplicas(block);
-        int numCorruptNodes = num.corruptReplicas();
-        if (numCorruptNodes != corruptReplicasCount) {
-            LOG.warn("Inconsistent number of corrupt replicas for " +
-                    block + "blockMap has " + numCorruptNodes +
-                    " but corrupt replicas map has " + corruptReplicasCount);
+            // handle underReplication/overReplication
+            short fileReplication = storedBlock.getExpectedReplication();
+            if (numCurrentReplica >= fileReplication) {
+                neededReplications.remove(block, numCurrentReplica,
+                        num.decommissionedReplicas, fileReplication);
+            } else {
+                updateNeededReplications(block, curReplicaDelta, 0);
+            }
+            if (numCurrentReplica > fileReplication) {
+                processOverReplicatedBlock(block, fileReplication, node, delNodeHint);
+            }
+            // If the file replication has reached desired value
+            // we can remove any corrupt replicas the block may have
+            int corruptReplicasCount = corruptReplicas.numCorruptReplicas(block);
+            int numCorruptNodes = num.corruptReplicas();
+            if (numCorruptNodes != corruptReplicasCount) {
+                LOG.warn("Inconsistent number of corrupt replicas for " +
+                        block + "blockMap has " + numCorruptNodes +
+                        " but corrupt replicas map has " + corruptReplicasCount);
+            }
+            if ((corruptReplicasCount > 0) && (numLiveReplicas >= fileReplication))
+                invalidateCorruptReplicas(block);
+            return block;
+        } finally {
+            writeUnlock();
         }
-        if ((corruptReplicasCount > 0) && (numLiveReplicas >= fileReplication))
-            invalidateCorruptReplicas(block);
-        return block;
     }
 
     /**
@@ -3205,39 +4086,44 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * For each block in the name-node verify whether it belongs to any file,
      * over or under replicated. Place it into the respective queue.
      */
-    private synchronized void processMisReplicatedBlocks() {
-        long nrInvalid = 0, nrOverReplicated = 0, nrUnderReplicated = 0;
-        neededReplications.clear();
-        for (BlocksMap.BlockInfo block : blocksMap.getBlocks()) {
-            INodeFile fileINode = block.getINode();
-            if (fileINode == null) {
-                // block does not belong to any file
-                nrInvalid++;
-                addToInvalidates(block);
-                continue;
-            }
-            // calculate current replication
-            short expectedReplication = fileINode.getReplication();
-            NumberReplicas num = countNodes(block);
-            int numCurrentReplica = num.liveReplicas();
-            // add to under-replicated queue if need to be
-            if (neededReplications.add(block,
-                    numCurrentReplica,
-                    num.decommissionedReplicas(),
-                    expectedReplication)) {
-                nrUnderReplicated++;
-            }
+    private void processMisReplicatedBlocks() {
+        writeLock();
+        try {
+            long nrInvalid = 0, nrOverReplicated = 0, nrUnderReplicated = 0;
+            neededReplications.clear();
+            for (BlocksMap.BlockInfo block : blocksMap.getBlocks()) {
+                INodeFile fileINode = block.getINode();
+                if (fileINode == null) {
+                    // block does not belong to any file
+                    nrInvalid++;
+                    addToInvalidates(block);
+                    continue;
+                }
+                // calculate current replication
+                short expectedReplication = block.getExpectedReplication();
+                NumberReplicas num = countNodes(block);
+                int numCurrentReplica = num.liveReplicas();
+                // add to under-replicated queue if need to be
+                if (neededReplications.add(block,
+                        numCurrentReplica,
+                        num.decommissionedReplicas(),
+                        expectedReplication)) {
+                    nrUnderReplicated++;
+                }
 
-            if (numCurrentReplica > expectedReplication) {
-                // over-replicated block
-                nrOverReplicated++;
-                processOverReplicatedBlock(block, expectedReplication, null, null);
+                if (numCurrentReplica > expectedReplication) {
+                    // over-replicated block
+                    nrOverReplicated++;
+                    processOverReplicatedBlock(block, expectedReplication, null, null);
+                }
             }
+            LOG.info("Total number of blocks = " + blocksMap.size());
+            LOG.info("Number of invalid blocks = " + nrInvalid);
+            LOG.info("Number of under-replicated blocks = " + nrUnderReplicated);
+            LOG.info("Number of  over-replicated blocks = " + nrOverReplicated);
+        } finally {
+            writeUnlock();
         }
-        LOG.info("Total number of blocks = " + blocksMap.size());
-        LOG.info("Number of invalid blocks = " + nrInvalid);
-        LOG.info("Number of under-replicated blocks = " + nrUnderReplicated);
-        LOG.info("Number of  over-replicated blocks = " + nrOverReplicated);
     }
 
     /**
@@ -3394,95 +4280,135 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Modify (block-->datanode) map.  Possibly generate
      * replication tasks, if the removed block is still valid.
      */
-    synchronized void removeStoredBlock(Block block, DatanodeDescriptor node) {
-        NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
-                + block + " from " + node.getName());
-        if (!blocksMap.removeNode(block, node)) {
+    void removeStoredBlock(Block block, DatanodeDescriptor node) {
+        writeLock();
+        try {
             NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
-                    + block + " has already been removed from node " + node);
-            return;
-        }
+                    + block + " from " + node.getName());
+            if (!blocksMap.removeNode(block, node)) {
+                NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
+                        + block + " has already been removed from node " + node);
+                return;
+            }
 
-        //
-        // It's possible that the block was removed because of a datanode
-        // failure.  If the block is still valid, check if replication is
-        // necessary.  In that case, put block on a possibly-will-
-        // be-replicated list.
-        //
-        INode fileINode = blocksMap.getINode(block);
-        if (fileINode != null) {
-            decrementSafeBlockCount(block);
-            updateNeededReplications(block, -1, 0);
-        }
+            //
+            // It's possible that the block was removed because of a datanode
+            // failure.  If the block is still valid, check if replication is
+            // necessary.  In that case, put block on a possibly-will-
+            // be-replicated list.
+            //
+            INode fileINode = blocksMap.getINode(block);
+            if (fileINode != null) {
+                decrementSafeBlockCount(block);
+                updateNeededReplications(block, -1, 0);
+            }
 
-        //
-        // We've removed a block from a node, so it's definitely no longer
-        // in "excess" there.
-        //
-        Collection<Block> excessBlocks = excessReplicateMap.get(node.getStorageID());
-        if (excessBlocks != null) {
-            if (excessBlocks.remove(block)) {
-                excessBlocksCount--;
-                NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
-                        + block + " is removed from excessBlocks");
-                if (excessBlocks.size() == 0) {
-                    excessReplicateMap.remove(node.getStorageID());
+            //
+            // We've removed a block from a node, so it's definitely no longer
+            // in "excess" there.
+            //
+            Collection<Block> excessBlocks = excessReplicateMap.get(node.getStorageID());
+            if (excessBlocks != null) {
+                if (excessBlocks.remove(block)) {
+                    excessBlocksCount--;
+                    NameNode.stateChangeLog.debug("BLOCK* NameSystem.removeStoredBlock: "
+                            + block + " is removed from excessBlocks");
+                    if (excessBlocks.size() == 0) {
+                        excessReplicateMap.remove(node.getStorageID());
+                    }
                 }
             }
-        }
 
-        // Remove the replica from corruptReplicas
-        corruptReplicas.removeFromCorruptReplicasMap(block, node);
+            // Remove the replica from corruptReplicas
+            corruptReplicas.removeFromCorruptReplicasMap(block, node);
+        } finally {
+            writeUnlock();
+        }
     }
 
     /**
      * The given node is reporting that it received a certain block.
      */
-    public synchronized void blockReceived(DatanodeID nodeID,
+    public void blockReceived(DatanodeID nodeID,
                                            Block block,
                                            String delHint
     ) throws IOException {
-        DatanodeDescriptor node = getDatanode(nodeID);
-        if (node == null) {
-            NameNode.stateChangeLog.warn("BLOCK* NameSystem.blockReceived: "
-                    + block + " is received from an unrecorded node "
-                    + nodeID.getName());
-            throw new IllegalArgumentException(
-                    "Unexpected exception.  Got blockReceived message from node "
-                            + block + ", but there is no info for it");
-        }
+        writeLock();
+        try {
+            DatanodeDescriptor node = getDatanode(nodeID);
+            if (node == null) {
+                NameNode.stateChangeLog.warn("BLOCK* NameSystem.blockReceived: "
+                        + block + " is received from an unrecorded node "
+                        + nodeID.getName());
+                throw new IllegalArgumentException(
+                        "Unexpected exception.  Got blockReceived message from node "
+                                + block + ", but there is no info for it");
+            }
 
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-            NameNode.stateChangeLog.debug("BLOCK* NameSystem.blockReceived: "
-                    + block + " is received from " + nodeID.getName());
-        }
+            if (NameNode.stateChangeLog.isDebugEnabled()) {
+                NameNode.stateChangeLog.debug("BLOCK* NameSystem.blockReceived: "
+                        + block + " is received from " + nodeID.getName());
+            }
+
+            // Check if this datanode should actually be shutdown instead.
+            if (shouldNodeShutdown(node)) {
+                setDatanodeDead(node);
+                throw new DisallowedDatanodeException(node);
+            }
+
+            // decrement number of blocks scheduled to this datanode.
+            node.decBlocksScheduled();
+
+            // get the deletion hint node
+            DatanodeDescriptor delHintNode = null;
+            if (delHint != null && delHint.length() != 0) {
+                delHintNode = datanodeMap.get(delHint);
+                if (delHintNode == null) {
+                    NameNode.stateChangeLog.warn("BLOCK* NameSystem.blockReceived: "
+                            + block
+                            + " is expected to be removed from an unrecorded node "
+                            + delHint);
+                }
+            }
 
-        // Check if this datanode should actually be shutdown instead.
-        if (shouldNodeShutdown(node)) {
-            setDatanodeDead(node);
-            throw new DisallowedDatanodeException(node);
+            //
+            // Modify the blocks->datanode map and node's map.
+            //
+            pendingReplications.remove(block);
+            addStoredBlock(block, node, delHintNode);
+        } finally {
+            writeUnlock();
         }
+    }
+
+    /**
+     * The given node is reporting that it deleted the given blocks.
+     * Only these blocks are removed from the (block-->datanode) map,
+     * the rest of the node's blocks are left alone.
+     */
+    public void blocksDeleted(DatanodeID nodeID, Block[] blocks) throws IOException {
+        writeLock();
+        try {
+            long startTime = now();
+            DatanodeDescriptor node = getDatanode(nodeID);
+            if (node == null) {
+                throw new IOException("blocksDeleted from unregistered node: "
+                        + nodeID.getName());
+            }
 
-        // decrement number of blocks scheduled to this datanode.
-        node.decBlocksScheduled();
+            // Check if this datanode should actually be shutdown instead.
+            if (shouldNodeShutdown(node)) {
+                setDatanodeDead(node);
+                throw new DisallowedDatanodeException(node);
+            }
 
-        // get the deletion hint node
-        DatanodeDescriptor delHintNode = null;
-        if (delHint != null && delHint.length() != 0) {
-            delHintNode = datanodeMap.get(delHint);
-            if (delHintNode == null) {
-                NameNode.stateChangeLog.warn("BLOCK* NameSystem.blockReceived: "
-                        + block
-                        + " is expected to be removed from an unrecorded node "
-                        + delHint);
+            for (Block b : blocks) {
+                removeStoredBlock(b, node);
             }
+            NameNode.getNameNodeMetrics().blocksDeleted.inc((int) (now() - startTime));
+        } finally {
+            writeUnlock();
         }
-
-        //
-        // Modify the blocks->datanode map and node's map.
-        //
-        pendingReplications.remove(block);
-        addStoredBlock(block, node, delHintNode);
     }
 
     public long getMissingBlocksCount() {
@@ -3579,70 +4505,80 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return getDatanodeListForReport(type).size();
     }
 
-    private synchronized ArrayList<DatanodeDescriptor> getDatanodeListForReport(
+    private ArrayList<DatanodeDescriptor> getDatanodeListForReport(
             DatanodeReportType type) {
+        writeLock();
+        try {
+
+            boolean listLiveNodes = type == DatanodeReportType.ALL ||
+                    type == DatanodeReportType.LIVE;
+            boolean listDeadNodes = type == DatanodeReportType.ALL ||
+                    type == DatanodeReportType.DEAD;
+
+            HashMap<String, String> mustList = new HashMap<String, String>();
+
+            if (listDeadNodes) {
+                //first load all the nodes listed in include and exclude files.
+                for (Iterator<String> it = hostsReader.getHosts().iterator();
+                     it.hasNext(); ) {
+                    mustList.put(it.next(), "");
+                }
+                for (Iterator<String> it = hostsReader.getExcludedHosts().iterator();
+                     it.hasNext(); ) {
+                    mustList.put(it.next(), "");
+                }
+            }
 
-        boolean listLiveNodes = type == DatanodeReportType.ALL ||
-                type == DatanodeReportType.LIVE;
-        boolean listDeadNodes = type == DatanodeReportType.ALL ||
-                type == DatanodeReportType.DEAD;
+            ArrayList<DatanodeDescriptor> nodes = null;
 
-        HashMap<String, String> mustList = new HashMap<String, String>();
+            synchronized (datanodeMap) {
+                nodes = new ArrayList<DatanodeDescriptor>(datanodeMap.size() +
+                        mustList.size());
 
-        if (listDeadNodes) {
-            //first load all the nodes listed in include and exclude files.
-            for (Iterator<String> it = hostsReader.getHosts().iterator();
-                 it.hasNext(); ) {
-                mustList.put(it.next(), "");
-            }
-            for (Iterator<String> it = hostsReader.getExcludedHosts().iterator();
-                 it.hasNext(); ) {
-                mustList.put(it.next(), "");
+                for (Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator();
+                     it.hasNext(); ) {
+                    DatanodeDescriptor dn = it.next();
+                    boolean isDead = isDatanodeDead(dn);
+                    if ((isDead && listDeadNodes) || (!isDead && listLiveNodes)) {
+                        nodes.add(dn);
+                    }
+                    //Remove any form of the this datanode in include/exclude lists.
+                    mustList.remove(dn.getName());
+                    mustList.remove(dn.getHost());
+                    mustList.remove(dn.getHostName());
+                }
             }
-        }
-
-        ArrayList<DatanodeDescriptor> nodes = null;
-
-        synchronized (datanodeMap) {
-            nodes = new ArrayList<DatanodeDescriptor>(datanodeMap.size() +
-                    mustList.size());
 
-            for (Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator();
-                 it.hasNext(); ) {
-                DatanodeDescriptor dn = it.next();
-                boolean isDead = isDatanodeDead(dn);
-                if ((isDead && listDeadNodes) || (!isDead && listLiveNodes)) {
+            if (listDeadNodes) {
+                for (Iterator<String> it = mustList.keySet().iterator(); it.hasNext(); ) {
+                    DatanodeDescriptor dn =
+                            new DatanodeDescriptor(new DatanodeID(it.next()));
+                    dn.setLastUpdate(0);
                     nodes.add(dn);
                 }
-                //Remove any form of the this datanode in include/exclude lists.
-                mustList.remove(dn.getName());
-                mustList.remove(dn.getHost());
-                mustList.remove(dn.getHostName());
             }
-        }
 
-        if (listDeadNodes) {
-            for (Iterator<String> it = mustList.keySet().iterator(); it.hasNext(); ) {
-                DatanodeDescriptor dn =
-                        new DatanodeDescriptor(new DatanodeID(it.next()));
-                dn.setLastUpdate(0);
-                nodes.add(dn);
-            }
+            return nodes;
+        } finally {
+            writeUnlock();
         }
-
-        return nodes;
     }
 
-    public synchronized DatanodeInfo[] datanodeReport(DatanodeReportType type
+    public DatanodeInfo[] datanodeReport(DatanodeReportType type
     ) throws AccessControlException {
-        checkSuperuserPrivilege();
+        writeLock();
+        try {
+            checkSuperuserPrivilege();
 
-        ArrayList<DatanodeDescriptor> results = getDatanodeListForReport(type);
-        DatanodeInfo[] arr = new DatanodeInfo[results.size()];
-        for (int i = 0; i < arr.length; i++) {
-            arr[i] = new DatanodeInfo(results.get(i));
+            ArrayList<DatanodeDescriptor> results = getDatanodeListForReport(type);
+            DatanodeInfo[] arr = new DatanodeInfo[results.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = new DatanodeInfo(results.get(i));
+            }
+            return arr;
+        } finally {
+            writeUnlock();
         }
-        return arr;
     }
 
     /**
@@ -3653,42 +4589,57 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * @throws AccessControlException if superuser privilege is violated.
      * @throws IOException if
      */
-    synchronized void saveNamespace() throws AccessControlException, IOException {
-        checkSuperuserPrivilege();
-        if (!isInSafeMode()) {
-            throw new IOException("Safe mode should be turned ON " +
-                    "in order to create namespace image.");
+    void saveNamespace() throws AccessControlException, IOException {
+        writeLock();
+        try {
+            checkSuperuserPrivilege();
+            if (!isInSafeMode()) {
+                throw new IOException("Safe mode should be turned ON " +
+                        "in order to create namespace image.");
+            }
+            getFSImage().saveFSImage();
+            LOG.info("New namespace image has been created.");
+        } finally {
+            writeUnlock();
         }
-        getFSImage().saveFSImage();
-        LOG.info("New namespace image has been created.");
     }
 
     /**
      */
-    public synchronized void DFSNodesStatus(ArrayList<DatanodeDescriptor> live,
+    public void DFSNodesStatus(ArrayList<DatanodeDescriptor> live,
                                             ArrayList<DatanodeDescriptor> dead) {
+        writeLock();
+        try {
 
-        ArrayList<DatanodeDescriptor> results =
-                getDatanodeListForReport(DatanodeReportType.ALL);
-        for (Iterator<DatanodeDescriptor> it = results.iterator(); it.hasNext(); ) {
-            DatanodeDescriptor node = it.next();
-            if (isDatanodeDead(node))
-                dead.add(node);
-            else
-                live.add(node);
+            ArrayList<DatanodeDescriptor> results =
+                    getDatanodeListForReport(DatanodeReportType.ALL);
+            for (Iterator<DatanodeDescriptor> it = results.iterator(); it.hasNext(); ) {
+                DatanodeDescriptor node = it.next();
+                if (isDatanodeDead(node))
+                    dead.add(node);
+                else
+                    live.add(node);
+            }
+        } finally {
+            writeUnlock();
         }
     }
 
     /**
      * Prints information about all datanodes.
      */
-    private synchronized void datanodeDump(PrintWriter out) {
-        synchronized (datanodeMap) {
-            out.println("Metasave: Number of datanodes: " + datanodeMap.size());
-            for (Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator(); it.hasNext(); ) {
-                DatanodeDescriptor node = it.next();
-                out.println(node.dumpDatanode());
+    private void datanodeDump(PrintWriter out) {
+        writeLock();
+        try {
+            synchronized (datanodeMap) {
+                out.println("Metasave: Number of datanodes: " + datanodeMap.size());
+                for (Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator(); it.hasNext(); ) {
+                    DatanodeDescriptor node = it.next();
+                    out.println(node.dumpDatanode());
+                }
             }
+        } finally {
+            writeUnlock();
         }
     }
 
@@ -3927,7 +4878,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         hostsReader.updateFileNames(conf.get("dfs.hosts", ""),
                 conf.get("dfs.hosts.exclude", ""));
         hostsReader.refresh();
-        synchronized (this) {
+        writeLock();
+        try {
             for (Iterator<DatanodeDescriptor> it = datanodeMap.values().iterator();
                  it.hasNext(); ) {
                 DatanodeDescriptor node = it.next();
@@ -3948,6 +4900,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                     }
                 }
             }
+        } finally {
+            writeUnlock();
         }
 
     }
@@ -3965,22 +4919,27 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Returns TRUE if node is registered (including when it is on the
      * exclude list and is being decommissioned).
      */
-    private synchronized boolean verifyNodeRegistration(DatanodeRegistration nodeReg, String ipAddr)
+    private boolean verifyNodeRegistration(DatanodeRegistration nodeReg, String ipAddr)
             throws IOException {
-        if (!inHostsList(nodeReg, ipAddr)) {
-            return false;
-        }
-        if (inExcludedHostsList(nodeReg, ipAddr)) {
-            DatanodeDescriptor node = getDatanode(nodeReg);
-            if (node == null) {
-                throw new IOException("verifyNodeRegistration: unknown datanode " +
-                        nodeReg.getName());
+        writeLock();
+        try {
+            if (!inHostsList(nodeReg, ipAddr)) {
+                return false;
             }
-            if (!checkDecommissionStateInternal(node)) {
-                startDecommission(node);
+            if (inExcludedHostsList(nodeReg, ipAddr)) {
+                DatanodeDescriptor node = getDatanode(nodeReg);
+                if (node == null) {
+                    throw new IOException("verifyNodeRegistration: unknown datanode " +
+                            nodeReg.getName());
+                }
+                if (!checkDecommissionStateInternal(node)) {
+                    startDecommission(node);
+                }
             }
+            return true;
+        } finally {
+            writeUnlock();
         }
-        return true;
     }
 
     /**
@@ -4393,17 +5352,11 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         int minDynamicReplication;
         //动态副本调整空间上限，达到这个值应该减少副本数
         float capacityUsedPercentTop;
-        //保存不同优先级的集合，最高优先级集合中文件副本数为dynamicMax，最低优先级集合中文件副本数为dynamicMin+1
-        Hashtable<Integer,LinkedList<String>> replicationSets;
-        //保存每个集合中指数平均访问时间最小的文件
-        Hashtable<Integer,String> minAccessTimeFile;
-        //比较器用来比较两个文件之间指数平均访问时间的大小
-        Comparator<String> accessTimeComparator = new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2){
-                return (int)(dir.getFileINode(o1).getAccessTime()-dir.getFileINode(o2).getAccessTime());
-            }
-        };
+        //保存不同优先级的集合，下标为副本数，最高优先级集合中文件副本数为dynamicMax，最低优先级集合中文件副本数为dynamicMin+1
+        DynamicReplicationTier[] replicationSets;
+        //所有集合中的文件，用 inode 的引用作为键（INode.equals 只比较文件名）
+        IdentityHashMap<INodeFile, DynamicReplicationTier.Entry> members;
+
         DynamicReplicationMonitor(int maxDynamicReplication, int minDynamicReplication, float capacityUsedPercentTop){
             this.initialize(maxDynamicReplication, minDynamicReplication,capacityUsedPercentTop);
         }
@@ -4411,164 +5364,378 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
             this.maxDynamicReplication = maxDynamicReplication;
             this.minDynamicReplication = minDynamicReplication;
             this.capacityUsedPercentTop = capacityUsedPercentTop;
-            this.replicationSets = new Hashtable<Integer, LinkedList<String>>();
+            this.replicationSets = new DynamicReplicationTier[Math.max(maxDynamicReplication, minDynamicReplication) + 1];
             for(int i = minDynamicReplication+1;i <= maxDynamicReplication;i++){
-                replicationSets.put(i,new LinkedList<String>());
+                replicationSets[i] = new DynamicReplicationTier(i);
             }
-            this.minAccessTimeFile = new Hashtable<Integer, String>();
-
+            this.members = new IdentityHashMap<INodeFile, DynamicReplicationTier.Entry>();
         }
 
         /**
          * 更新被访问文件的副本数
          */
         void allocateReplication(String src, INodeFile inode) throws IOException{
-            //对于只有一块的小文件，不进行调整
+            allocateReplication(src, inode, popularityModel.getScore(inode));
+        }
+
+        /**
+         * 按给定的分数更新文件的副本数，预取提示用预计的分数代替当前分数
+         */
+        void allocateReplication(String src, INodeFile inode, long srcScore) throws IOException{
+            //对于只有一块的小文件，不按文件调整，由按块调整的动态副本处理
             if(inode.getBlocks().length == 1){
-                NameNode.allocationLog.info("the block numbers of " + src + " is one,don't change its replication");
+                if (NameNode.allocationLog.isDebugEnabled()) {
+                    NameNode.allocationLog.debug("the block numbers of " + src + " is one,don't change its replication");
+                }
                 return;
             }
 
-            //获取文件信息
-            int srcReplication = inode.getReplication();
-            long srcAccessTime = inode.getAccessTime();
+            DynamicReplicationPolicy policy = getPolicy(inode);
+            int maxReplication = getMaxReplication(policy);
+            DynamicReplicationTier.Entry entry = members.get(inode);
 
-            //插入成功且副本数不是最小副本数则在原集合中删除
-            if((insertFileIntoNewSet(src, srcReplication, srcAccessTime))&&(srcReplication > minDynamicReplication)){
-                replicationSets.get(srcReplication).remove(src);
-                NameNode.allocationLog.info(src + " was removed from set " + srcReplication);
+            //目录策略收紧后文件的副本数可能超过上限，先降到上限
+            if(entry != null && entry.getTier().getReplication() > maxReplication){
+                limit(src, entry, maxReplication);
+                return;
             }
 
-
-            //如果是最小文件则更新最小文件
-            if((srcReplication > minDynamicReplication)&&(minAccessTimeFile.get(srcReplication).equals(src))) {
-                updateMinAccessTimeFileOfSet(srcReplication);
+            //尝试插入更高副本数的集合，失败则只更新文件在原集合中的分数；
+            //空间控制器处于降副本状态时不提升副本数
+            if(!canPromoteDynamicReplication() || !insertFileIntoNewSet(src, inode, srcScore, policy, maxReplication)){
+                if(entry != null){
+                    resize(entry);
+                    entry.getTier().update(entry, srcScore);
+                }
             }
-
-
-
-            //对空间是否达到上限进行判断处理
-            NameNode.allocationLog.info("before check capacity");
-            NameNode.allocationLog.info("capacity remaing is " + getCapacityRemainingPercent());
-            if( (100 - getCapacityRemainingPercent()) > capacityUsedPercentTop){
-                NameNode.allocationLog.info("begin to decrease capacity use");
-                //从低副本集合向高副本集合扫描
-                for(int rep = minDynamicReplication +1; rep <= maxDynamicReplication; rep++){
-                    //获得文件集合，集合中每个文件副本数为rep
-                    LinkedList<String> replicationSet = replicationSets.get(rep);
-                    if (!replicationSet.isEmpty()){
-                        //对集合进行排序，选取accessTime最小的那一半文件
-                        replicationSet.sort(accessTimeComparator);
-                        ArrayList<String> halfReplicationSet =  new ArrayList<String>(replicationSet.subList(0,replicationSet.size()/2));
-                        //这一半文件的副本数都减一
-                        for(String file : halfReplicationSet){
-                            //修改副本数成功后才把文件转移到更低副本的集合
-                            if(setDynamicReplication(file,(short)(rep - 1))){
-                                //从原集合移除这一文件
-                                if(replicationSet.remove(file)){
-                                    //如果不是最后一个集合，那么该文件加入副本数更小的集合
-                                    if(rep > minDynamicReplication +1){
-                                        replicationSets.get(rep-1).add(file);
-                                    }
-                                }
-
-                            }
-                        }
-                        //更新rep文件集合中最小accessTimeFile
-                        minAccessTimeFile.put(rep, replicationSet.get(0));
+        }
+        /**
+         * 文件所受的目录策略：沿父目录向上最近的策略，没有则返回 null。
+         * 代价为 O(depth)，不扫描目录树。
+         */
+        DynamicReplicationPolicy getPolicy(INode inode){
+            for(INodeDirectory dir = inode.getParent(); dir != null; dir = dir.getParent()){
+                DynamicReplicationPolicy policy = dir.getDynamicReplicationPolicy();
+                if(policy != null){
+                    return policy;
+                }
+            }
+            return null;
+        }
+        /**
+         * 受 policy 约束的文件允许的最大副本数，不允许提升时为 minDynamicReplication
+         */
+        int getMaxReplication(DynamicReplicationPolicy policy){
+            return policy == null ? maxDynamicReplication
+                    : policy.getMaxReplication(maxDynamicReplication, minDynamicReplication);
+        }
+        /**
+         * 最高的集合的副本数
+         */
+        private int getTopReplication(){
+            return replicationSets.length - 1;
+        }
+        /**
+         * 确保副本数不超过 replication 的集合都已创建，目录策略的最大副本数可以超过 dfs.dynamic.max
+         */
+        private void ensureTiers(int replication){
+            int old = replicationSets.length;
+            if(replication < old){
+                return;
+            }
+            replicationSets = Arrays.copyOf(replicationSets, replication + 1);
+            for(int i = Math.max(old, minDynamicReplication + 1); i <= replication; i++){
+                replicationSets[i] = new DynamicReplicationTier(i);
+            }
+        }
+        /**
+         * 把文件加入集合，并把超过 minDynamicReplication 的副本计入文件所受的策略
+         */
+        private void join(DynamicReplicationTier tier, DynamicReplicationTier.Entry entry){
+            tier.add(entry);
+            entry.policy = getPolicy(entry.getINode());
+            if(entry.policy != null){
+                entry.policy.dynamicBytes += (long)(tier.getReplication() - minDynamicReplication) * entry.bytes;
+            }
+        }
+        /**
+         * 目录策略设置或清除后，把集合中文件的动态副本字节数转到它们现在所受的策略，
+         * 新策略的字节数由其目录树中的文件重新累计，被清除的策略不再计入任何文件。
+         * 代价为 O(集合中的文件数 * depth)，不扫描目录树。
+         */
+        void reassignPolicies(){
+            for(DynamicReplicationTier.Entry entry : members.values()){
+                DynamicReplicationTier tier = entry.getTier();
+                DynamicReplicationPolicy policy = getPolicy(entry.getINode());
+                if(tier == null || policy == entry.policy){
+                    continue;
+                }
+                long bytes = (long)(tier.getReplication() - minDynamicReplication) * entry.bytes;
+                if(entry.policy != null){
+                    entry.policy.dynamicBytes -= bytes;
+                }
+                if(policy != null){
+                    policy.dynamicBytes += bytes;
+                }
+                entry.policy = policy;
+            }
+        }
+        /**
+         * 重新计算集合中文件的大小，并把变化计入文件所受的策略
+         */
+        void resize(INodeFile inode){
+            DynamicReplicationTier.Entry entry = members.get(inode);
+            if(entry != null && entry.getTier() != null){
+                resize(entry);
+            }
+        }
+        private void resize(DynamicReplicationTier.Entry entry){
+            DynamicReplicationTier tier = entry.getTier();
+            long delta = tier.resize(entry);
+            if(entry.policy != null && delta != 0){
+                entry.policy.dynamicBytes += (long)(tier.getReplication() - minDynamicReplication) * delta;
+            }
+        }
+        /**
+         * 把文件移出所在集合，并从加入集合时所受的策略中减去其副本
+         */
+        private void leave(DynamicReplicationTier.Entry entry){
+            DynamicReplicationTier tier = entry.getTier();
+            if(entry.policy != null){
+                entry.policy.dynamicBytes -= (long)(tier.getReplication() - minDynamicReplication) * entry.bytes;
+                entry.policy = null;
+            }
+            tier.remove(entry);
+        }
+        /**
+         * 把集合中文件的副本数降到 replication，不超过 minDynamicReplication 时移出所有集合
+         */
+        private void limit(String src, DynamicReplicationTier.Entry entry, int replication) throws IOException{
+            int target = Math.max(replication, minDynamicReplication);
+            if(!setDynamicReplication(src, (short)target, entry.getScore())){
+                return;
+            }
+            NameNode.getNameNodeMetrics().numDynamicFilesDemoted.inc();
+            leave(entry);
+            if(target > minDynamicReplication){
+                join(replicationSets[target], entry);
+            } else {
+                members.remove(entry.getINode());
+            }
+            if (NameNode.allocationLog.isDebugEnabled()) {
+                NameNode.allocationLog.debug(src + " was limited to " + target + " by its directory policy");
+            }
+        }
+        /**
+         * 依次把所有集合中分数最小的文件副本数减一，直到释放的空间达到 bytes
+         * 或集合为空。释放的空间按文件一个副本的大小计算。
+         * @return 释放的字节数
+         */
+        long demote(long bytes) throws IOException{
+            long reclaimed = 0;
+            while(reclaimed < bytes){
+                //所有集合中分数最小的文件
+                DynamicReplicationTier coldest = null;
+                for(int rep = minDynamicReplication + 1; rep <= getTopReplication(); rep++){
+                    DynamicReplicationTier.Entry min = peekLive(replicationSets[rep]);
+                    if((min != null)&&((coldest == null)||(min.getScore() < coldest.peek().getScore()))){
+                        coldest = replicationSets[rep];
+                    }
+                }
+                if(coldest == null){
+                    break;
+                }
+                int rep = coldest.getReplication();
+                DynamicReplicationTier.Entry entry = coldest.peek();
+                leave(entry);
+                INodeFile inode = entry.getINode();
+                String file = inode.getFullPathName();
+                //修改副本数成功后才把文件转移到更低副本的集合
+                if((file != null)&&(setDynamicReplication(file,(short)(rep - 1),entry.getScore()))){
+                    reclaimed += inode.diskspaceConsumed() / inode.getReplication();
+                    NameNode.getNameNodeMetrics().numDynamicFilesDemoted.inc();
+                    if(rep > minDynamicReplication + 1){
+                        //如果不是最后一个集合，那么该文件加入副本数更小的集合
+                        join(replicationSets[rep-1], entry);
+                    } else {
+                        members.remove(inode);
                     }
+                } else {
+                    members.remove(inode);
                 }
-                NameNode.allocationLog.info("end decreasing capacity use");
             }
-            NameNode.allocationLog.info("after check capacity");
+            if (reclaimed > 0 && NameNode.allocationLog.isDebugEnabled()) {
+                NameNode.allocationLog.debug("capacity remaining is " + getCapacityRemainingPercent()
+                        + ", demoted " + reclaimed + " bytes");
+            }
+            return reclaimed;
         }
         /**
-         * 尝试将文件插入新集合，成功插入则返回true，accessTime太小不满足插入条件就返回false
+         * 尝试将文件插入新集合，成功插入则返回true，分数太小不满足插入条件就返回false
          */
-        private boolean insertFileIntoNewSet(String src, int srcReplication, long srcAccessTime) throws IOException{
+        private boolean insertFileIntoNewSet(String src, INodeFile inode, long srcScore,
+                                             DynamicReplicationPolicy policy, int maxReplication) throws IOException{
             if(src.isEmpty()){
                 return false;
             }
-            //遍历比srcReplication副本数大的集合，尝试插入
-            for(int rep = maxDynamicReplication; rep >= srcReplication+1 ; rep--){
-                NameNode.allocationLog.info("begin to scan set " + rep);
-                LinkedList<String> replicationSet = replicationSets.get(rep);
-
-                if(!replicationSet.isEmpty()){
-                    NameNode.allocationLog.info("min access time file of set " + rep + " is " + minAccessTimeFile.get(rep));
-                    NameNode.allocationLog.info("min access time of set " + rep + " is " + dir.getFileInfo(minAccessTimeFile.get(rep)).getAccessTime());
-                }
-
-                //集合为空或者访问时间大于等于集合中最小访问时间就进行插入
-                if(replicationSet.isEmpty()){
-                    //修改副本数成功才插入相应集合
-                    if(setDynamicReplication(src,(short)rep)){
-                        //插入新集合
-                        replicationSet.add(src);
-                        NameNode.allocationLog.info(src + " was inserted into set " + rep);
-                        //如果集合为空则src是第一个插入的文件，所以最小acessTime文件设置为src
-                        minAccessTimeFile.put(rep, src);
-                        NameNode.allocationLog.info(src + " is the minAccessTimeFile of set " + rep);
-                        return true;
+            //副本数低于 minDynamicReplication 的文件（例如已归档的冷文件）也只能进入已有的集合
+            int srcReplication = Math.max(inode.getReplication(), minDynamicReplication);
+            long replicaBytes = inode.diskspaceConsumed() / Math.max(1, inode.getReplication());
+            ensureTiers(maxReplication);
+            //遍历比srcReplication副本数大、不超过策略上限的集合，尝试插入
+            for(int rep = maxReplication; rep >= srcReplication+1 ; rep--){
+                DynamicReplicationTier replicationSet = replicationSets[rep];
+                DynamicReplicationTier.Entry min = peekLive(replicationSet);
+
+                //集合为空或者分数大于等于集合中最小分数就进行插入
+                if((min == null)||(srcScore >= min.getScore())){
+                    //超过目录策略的容量份额时尝试更低的副本数
+                    if((policy != null)&&(!policy.canGrow((rep - srcReplication) * replicaBytes, getCapacityTotal()))){
+                        continue;
                     }
-
-                }
-                else if(srcAccessTime >= dir.getFileInfo(minAccessTimeFile.get(rep)).getAccessTime()){
                     //修改副本数成功才插入相应集合
-                    if(setDynamicReplication(src,(short)rep)){
-                        replicationSet.add(src);
-                        NameNode.allocationLog.info(src + " was inserted into set " + rep);
+                    if(setDynamicReplication(src,(short)rep,srcScore)){
+                        DynamicReplicationTier.Entry entry = members.get(inode);
+                        if(entry == null){
+                            entry = new DynamicReplicationTier.Entry(inode, srcScore);
+                            members.put(inode, entry);
+                        } else {
+                            //从原集合中删除
+                            leave(entry);
+                            entry.score = srcScore;
+                        }
+                        join(replicationSet, entry);
+                        NameNode.getNameNodeMetrics().numDynamicFilesPromoted.inc();
+                        if (NameNode.allocationLog.isDebugEnabled()) {
+                            NameNode.allocationLog.debug(src + " was inserted into set " + rep);
+                        }
                         return true;
                     }
                 }
             }
             return false;
         }
+        /**
+         * 返回集合中分数最小且仍在命名空间中的文件。删除文件或目录时文件已移出集合，
+         * 这里再清除一次脱离命名空间的文件作为防护
+         */
+        private DynamicReplicationTier.Entry peekLive(DynamicReplicationTier replicationSet){
+            DynamicReplicationTier.Entry min;
+            while(((min = replicationSet.peek()) != null)&&(min.getINode().getParent() == null)){
+                leave(min);
+                members.remove(min.getINode());
+            }
+            return min;
+        }
         /**
          * 尝试将文件从动态集合中删除
          */
-        private boolean deleteFileFromOldSet(String src, int rep){
-            if(src.isEmpty()){
+        private boolean deleteFileFromOldSet(INodeFile inode){
+            DynamicReplicationTier.Entry entry = members.remove(inode);
+            if(entry == null){
                 return false;
             }
-            boolean result = false;
-            if((rep > minReplication)&&(rep <= maxReplication)){
-                LinkedList<String> replicationSet = replicationSets.get(rep);
-                if(replicationSet != null){
-                    result = replicationSet.remove(src);
-                    if(minAccessTimeFile.get(rep).equals(src)){
-                        updateMinAccessTimeFileOfSet(rep);
-                    }
+            leave(entry);
+            return true;
+        }
+        /**
+         * 文件的 inode 被替换（例如追加写）时，用新的 inode 替换集合中的旧 inode
+         */
+        private void replaceINode(INodeFile oldNode, INodeFile newNode){
+            DynamicReplicationTier.Entry old = members.remove(oldNode);
+            if(old == null){
+                return;
+            }
+            DynamicReplicationTier tier = old.getTier();
+            leave(old);
+            DynamicReplicationTier.Entry entry = new DynamicReplicationTier.Entry(newNode, old.getScore());
+            members.put(newNode, entry);
+            join(tier, entry);
+        }
+        /**
+         * 根据映像或日志中的记录恢复文件所在的集合，
+         * 副本数不超过 minDynamicReplication 的文件不属于任何集合。
+         * 副本数可以超过 maxDynamicReplication，这是目录策略允许的。
+         */
+        private void restore(INodeFile inode, short replication, long score){
+            if(inode == null){
+                return;
+            }
+            deleteFileFromOldSet(inode);
+            if(replication <= minDynamicReplication){
+                return;
+            }
+            ensureTiers(replication);
+            DynamicReplicationTier.Entry entry = new DynamicReplicationTier.Entry(inode, score);
+            members.put(inode, entry);
+            join(replicationSets[replication], entry);
+        }
+        /**
+         * 各集合的文件数，下标 i 对应副本数为 minDynamicReplication + i + 1 的集合
+         */
+        int[] getTierFiles(){
+            int[] files = new int[Math.max(0, getTopReplication() - minDynamicReplication)];
+            for(int i = 0; i < files.length; i++){
+                files[i] = replicationSets[minDynamicReplication + i + 1].size();
+            }
+            return files;
+        }
+        /**
+         * 各集合中文件的总大小，不乘副本数，下标与 {@link #getTierFiles()} 相同
+         */
+        long[] getTierBytes(){
+            long[] bytes = new long[Math.max(0, getTopReplication() - minDynamicReplication)];
+            for(int i = 0; i < bytes.length; i++){
+                bytes[i] = replicationSets[minDynamicReplication + i + 1].getBytes();
+            }
+            return bytes;
+        }
+        /**
+         * 所有集合中分数最高的 n 个文件，按分数从高到低排列
+         */
+        List<DynamicReplicationTier.Entry> getHottest(int n){
+            if(n <= 0){
+                return new ArrayList<DynamicReplicationTier.Entry>();
+            }
+            PriorityQueue<DynamicReplicationTier.Entry> top = new PriorityQueue<DynamicReplicationTier.Entry>(
+                    n + 1, new Comparator<DynamicReplicationTier.Entry>() {
+                        public int compare(DynamicReplicationTier.Entry a, DynamicReplicationTier.Entry b) {
+                            return a.getScore() < b.getScore() ? -1 : (a.getScore() == b.getScore() ? 0 : 1);
+                        }
+                    });
+            for(DynamicReplicationTier.Entry entry : members.values()){
+                top.add(entry);
+                if(top.size() > n){
+                    top.poll();
                 }
             }
-            return result;
+            LinkedList<DynamicReplicationTier.Entry> hottest = new LinkedList<DynamicReplicationTier.Entry>();
+            while(!top.isEmpty()){
+                hottest.addFirst(top.poll());
+            }
+            return hottest;
         }
         /**
-         * 更新rep对应集合中accessTime最小的文件
+         * 把集合中仍在命名空间中的文件写入映像：路径、副本数和分数
          */
-        private boolean updateMinAccessTimeFileOfSet(int rep){
-            //先保存最初的最小文件
-            String oldFile = minAccessTimeFile.get(rep);
-            String newFile = "";
-            //先把minAccessTime设为最大值
-            long minAccessTime = Long.MAX_VALUE;
-            //遍历集合，寻找是否有更小的元素
-            for(String file:replicationSets.get(rep)){
-                FileStatus fileInfo = dir.getFileInfo(file);
-                if(fileInfo != null){
-                    if(fileInfo.getAccessTime() < minAccessTime){
-                        newFile = file;
-                        minAccessTime = fileInfo.getAccessTime();
-                    }
+        private void save(DataOutputStream out) throws IOException{
+            List<String> paths = new ArrayList<String>(members.size());
+            List<DynamicReplicationTier.Entry> entries =
+                    new ArrayList<DynamicReplicationTier.Entry>(members.size());
+            for(DynamicReplicationTier.Entry entry : members.values()){
+                String path = entry.getINode().getFullPathName();
+                if(path != null){
+                    paths.add(path);
+                    entries.add(entry);
                 }
-
             }
-            if(!newFile.equals(oldFile)){
-                minAccessTimeFile.put(rep, newFile);
-                NameNode.allocationLog.info(newFile + " is the new minAccessTimeFile of set " + rep);
-                return true;
+            out.writeInt(entries.size());
+            for(int i = 0; i < entries.size(); i++){
+                DynamicReplicationTier.Entry entry = entries.get(i);
+                FSImage.writeString(paths.get(i), out);
+                out.writeShort(entry.getTier().getReplication());
+                out.writeLong(entry.getScore());
             }
-            return false;
         }
     }
 
@@ -4644,29 +5811,39 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Enter safe mode manually.
      * @throws IOException
      */
-    synchronized void enterSafeMode() throws IOException {
-        if (!isInSafeMode()) {
-            safeMode = new SafeModeInfo();
-            return;
+    void enterSafeMode() throws IOException {
+        writeLock();
+        try {
+            if (!isInSafeMode()) {
+                safeMode = new SafeModeInfo();
+                return;
+            }
+            safeMode.setManual();
+            NameNode.stateChangeLog.info("STATE* Safe mode is ON. "
+                    + safeMode.getTurnOffTip());
+        } finally {
+            writeUnlock();
         }
-        safeMode.setManual();
-        NameNode.stateChangeLog.info("STATE* Safe mode is ON. "
-                + safeMode.getTurnOffTip());
     }
 
     /**
      * Leave safe mode.
      * @throws IOException
      */
-    synchronized void leaveSafeMode(boolean checkForUpgrades) throws SafeModeException {
-        if (!isInSafeMode()) {
-            NameNode.stateChangeLog.info("STATE* Safe mode is already OFF.");
-            return;
+    void leaveSafeMode(boolean checkForUpgrades) throws SafeModeException {
+        writeLock();
+        try {
+            if (!isInSafeMode()) {
+                NameNode.stateChangeLog.info("STATE* Safe mode is already OFF.");
+                return;
+            }
+            if (getDistributedUpgradeState())
+                throw new SafeModeException("Distributed upgrade is in progress",
+                        safeMode);
+            safeMode.leave(checkForUpgrades);
+        } finally {
+            writeUnlock();
         }
-        if (getDistributedUpgradeState())
-            throw new SafeModeException("Distributed upgrade is in progress",
-                    safeMode);
-        safeMode.leave(checkForUpgrades);
     }
 
     String getSafeModeTip() {
@@ -4679,22 +5856,32 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return getEditLog().getEditLogSize();
     }
 
-    synchronized CheckpointSignature rollEditLog() throws IOException {
-        if (isInSafeMode()) {
-            throw new SafeModeException("Checkpoint not created",
-                    safeMode);
+    CheckpointSignature rollEditLog() throws IOException {
+        writeLock();
+        try {
+            if (isInSafeMode()) {
+                throw new SafeModeException("Checkpoint not created",
+                        safeMode);
+            }
+            LOG.info("Roll Edit Log from " + Server.getRemoteAddress());
+            return getFSImage().rollEditLog();
+        } finally {
+            writeUnlock();
         }
-        LOG.info("Roll Edit Log from " + Server.getRemoteAddress());
-        return getFSImage().rollEditLog();
     }
 
-    synchronized void rollFSImage() throws IOException {
-        if (isInSafeMode()) {
-            throw new SafeModeException("Checkpoint not created",
-                    safeMode);
+    void rollFSImage() throws IOException {
+        writeLock();
+        try {
+            if (isInSafeMode()) {
+                throw new SafeModeException("Checkpoint not created",
+                        safeMode);
+            }
+            LOG.info("Roll FSImage from " + Server.getRemoteAddress());
+            getFSImage().rollFSImage();
+        } finally {
+            writeUnlock();
         }
-        LOG.info("Roll FSImage from " + Server.getRemoteAddress());
-        getFSImage().rollFSImage();
     }
 
     /**
@@ -4786,8 +5973,13 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
                 fsOwner.getUserName(), supergroup);
         if (!pc.isSuper) {
             dir.waitForReady();
-            pc.checkPermission(path, dir.rootDir, doCheckOwner,
-                    ancestorAccess, parentAccess, access, subAccess);
+            dir.readLock();
+            try {
+                pc.checkPermission(path, dir.rootDir, doCheckOwner,
+                        ancestorAccess, parentAccess, access, subAccess);
+            } finally {
+                dir.readUnlock();
+            }
         }
         return pc;
     }
@@ -4823,6 +6015,85 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return underReplicatedBlocksCount;
     }
 
+    /** 只缺动态副本、等待复制的块数 */
+    public long getDynamicReplicationQueueBlocks() {
+        return dynamicReplicationQueueBlocksCount;
+    }
+
+    public long getDynamicReplicationAccesses() {
+        return dynamicAccesses.get();
+    }
+
+    public int getDynamicReplicationFiles() {
+        readLock();
+        try {
+            return dynamicReplicationMonitor.members.size();
+        } finally {
+            readUnlock();
+        }
+    }
+
+    public long getDynamicReplicationBytes() {
+        readLock();
+        try {
+            long bytes = 0;
+            for (long b : dynamicReplicationMonitor.getTierBytes()) {
+                bytes += b;
+            }
+            return bytes;
+        } finally {
+            readUnlock();
+        }
+    }
+
+    public int[] getDynamicReplicationTierFiles() {
+        readLock();
+        try {
+            return dynamicReplicationMonitor.getTierFiles();
+        } finally {
+            readUnlock();
+        }
+    }
+
+    public long[] getDynamicReplicationTierBytes() {
+        readLock();
+        try {
+            return dynamicReplicationMonitor.getTierBytes();
+        } finally {
+            readUnlock();
+        }
+    }
+
+    public String[] getDynamicReplicationHotFiles() {
+        return getDynamicReplicationHotFiles(dynamicHotFilesCount);
+    }
+
+    /**
+     * 分数最高的 n 个动态副本文件，按分数从高到低排列，
+     * 每行为路径、副本数和分数，以制表符分隔
+     */
+    String[] getDynamicReplicationHotFiles(int n) {
+        readLock();
+        try {
+            List<DynamicReplicationTier.Entry> hottest = dynamicReplicationMonitor.getHottest(n);
+            List<String> files = new ArrayList<String>(hottest.size());
+            for (DynamicReplicationTier.Entry entry : hottest) {
+                String path = entry.getINode().getFullPathName();
+                if (path != null) {
+                    files.add(path + "\t" + entry.getTier().getReplication() + "\t" + entry.getScore());
+                }
+            }
+            return files.toArray(new String[files.size()]);
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /** 动态副本集合的最小副本数，集合 i 中文件的副本数为该值加 i + 1 */
+    int getMinDynamicReplication() {
+        return minDynamicReplication;
+    }
+
     /** Returns number of blocks with corrupt replicas */
     public long getCorruptReplicaBlocks() {
         return corruptReplicaBlocksCount;
@@ -4840,8 +6111,13 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         return excessBlocksCount;
     }
 
-    public synchronized int getBlockCapacity() {
-        return blocksMap.getCapacity();
+    public int getBlockCapacity() {
+        readLock();
+        try {
+            return blocksMap.getCapacity();
+        } finally {
+            readUnlock();
+        }
     }
 
     public String getFSState() {
@@ -4950,25 +6226,30 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
      * Verifies that the block is associated with a file that has a lease.
      * Increments, logs and then returns the stamp
      */
-    synchronized long nextGenerationStampForBlock(Block block) throws IOException {
-        BlockInfo storedBlock = blocksMap.getStoredBlock(block);
-        if (storedBlock == null) {
-            String msg = block + " is already commited, storedBlock == null.";
-            LOG.info(msg);
-            throw new IOException(msg);
-        }
-        INodeFile fileINode = storedBlock.getINode();
-        if (!fileINode.isUnderConstruction()) {
-            String msg = block + " is already commited, !fileINode.isUnderConstruction().";
-            LOG.info(msg);
-            throw new IOException(msg);
-        }
-        if (!((INodeFileUnderConstruction) fileINode).setLastRecoveryTime(now())) {
-            String msg = block + " is beening recovered, ignoring this request.";
-            LOG.info(msg);
-            throw new IOException(msg);
+    long nextGenerationStampForBlock(Block block) throws IOException {
+        writeLock();
+        try {
+            BlockInfo storedBlock = blocksMap.getStoredBlock(block);
+            if (storedBlock == null) {
+                String msg = block + " is already commited, storedBlock == null.";
+                LOG.info(msg);
+                throw new IOException(msg);
+            }
+            INodeFile fileINode = storedBlock.getINode();
+            if (!fileINode.isUnderConstruction()) {
+                String msg = block + " is already commited, !fileINode.isUnderConstruction().";
+                LOG.info(msg);
+                throw new IOException(msg);
+            }
+            if (!((INodeFileUnderConstruction) fileINode).setLastRecoveryTime(now())) {
+                String msg = block + " is beening recovered, ignoring this request.";
+                LOG.info(msg);
+                throw new IOException(msg);
+            }
+            return nextGenerationStamp();
+        } finally {
+            writeUnlock();
         }
-        return nextGenerationStamp();
     }
 
     // rename was successful. If any part of the renamed subtree had
@@ -4996,6 +6277,22 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean {
         leaseManager.changeLease(src, dst, overwrite, replaceBy);
     }
 
+    /**
+     * Serializes the dynamic replication tiers.
+     */
+    void saveDynamicReplicationState(DataOutputStream out) throws IOException {
+        writeLock();
+        try {
+            if (dynamicReplicationMonitor == null) {
+                out.writeInt(0);
+                return;
+            }
+            dynamicReplicationMonitor.save(out);
+        } finally {
+            writeUnlock();
+        }
+    }
+
     /**
      * Serializes leases.
      */
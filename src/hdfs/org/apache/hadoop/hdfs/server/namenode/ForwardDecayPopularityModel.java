@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * 按读次数计算热度、并随时间指数衰减的模型的基类。
+ * <p>
+ * 使用前向衰减：t 时刻的一次读贡献 2^(t / halfLife)，
+ * 文件的计数是所有读的贡献之和。任意时刻 T 的衰减计数等于
+ * 该和乘以 2^(-T / halfLife)，对所有文件是同一个因子，
+ * 因此不同时刻得到的计数可以直接比较，计数也不需要定期衰减。
+ * <p>
+ * 为避免溢出，计数以 log2 保存在 double 中，分数是 log2 计数的定点数，
+ * 单位为 1/{@link #SCALE} 个半衰期。
+ */
+abstract class ForwardDecayPopularityModel implements PopularityModel, Configurable {
+    /** 分数的定点数精度：每个半衰期 2^20 */
+    static final double SCALE = 1 << 20;
+    /** 没有读记录时的 log2 计数 */
+    static final double EMPTY = Double.NEGATIVE_INFINITY;
+
+    private Configuration conf;
+    //半衰期，单位毫秒
+    private double halfLife;
+
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        long halfLifeMs = conf.getLong("dfs.dynamic.popularity.halflife", 60 * 60 * 1000L);
+        if (halfLifeMs <= 0) {
+            throw new IllegalArgumentException(
+                    "dfs.dynamic.popularity.halflife must be positive: " + halfLifeMs);
+        }
+        this.halfLife = halfLifeMs;
+    }
+
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /** t 时刻一次读的贡献的 log2 */
+    double weight(long now) {
+        return now / halfLife;
+    }
+
+    public boolean recordAccess(INodeFile inode, long now, boolean accessTimeUpdated) {
+        add(inode, weight(now));
+        return true;
+    }
+
+    public boolean recordReads(INodeFile inode, long now, double reads) {
+        if (reads <= 0) {
+            return false;
+        }
+        add(inode, weight(now) + Math.log(reads) / Math.log(2));
+        return true;
+    }
+
+    public long getExpectedScore(INodeFile inode, long now, int readers) {
+        double count = fromScore(getScore(inode));
+        if (readers <= 0) {
+            return toScore(count);
+        }
+        return toScore(log2Add(count, weight(now) + Math.log(readers) / Math.log(2)));
+    }
+
+    /**
+     * 给文件的计数加上 2^log2Count
+     */
+    abstract void add(INodeFile inode, double log2Count);
+
+    /** log2(2^a + 2^b) */
+    static double log2Add(double a, double b) {
+        if (a == EMPTY) {
+            return b;
+        }
+        if (b == EMPTY) {
+            return a;
+        }
+        double max = Math.max(a, b);
+        double min = Math.min(a, b);
+        return max + Math.log1p(Math.pow(2, min - max)) / Math.log(2);
+    }
+
+    static long toScore(double log2Count) {
+        if (log2Count == EMPTY) {
+            return Long.MIN_VALUE;
+        }
+        return Math.round(log2Count * SCALE);
+    }
+
+    static double fromScore(long score) {
+        if (score == Long.MIN_VALUE) {
+            return EMPTY;
+        }
+        return score / SCALE;
+    }
+
+    /** 把 inode 的身份散列成 64 位 */
+    static long hash(INodeFile inode) {
+        long h = System.identityHashCode(inode) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29);
+    }
+}
@@ -25,8 +25,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.permission.*;
 import org.apache.hadoop.hdfs.protocol.Block;
-import org.apache.hadoop.hdfs.protocol.LocatedBlock;
-import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 
 /**
  * We keep an in-memory representation of the file/block hierarchy.
@@ -105,6 +103,19 @@ abstract class INode implements Comparable<byte[]> {
         setLocalName(name);
     }
 
+    /**
+     * Constructor for the image loader, which packs the permission status
+     * with {@link #packPermissionStatus} instead of looking up the user and
+     * group names of every inode.
+     */
+    INode(byte[] name, long permission, long mTime, long atime) {
+        this.name = name;
+        this.parent = null;
+        this.permission = permission;
+        this.modificationTime = mTime;
+        this.accessTime = atime;
+    }
+
     /** copy constructor
      *
      * @param other Other node to be copied
@@ -175,6 +186,28 @@ abstract class INode implements Comparable<byte[]> {
         return (short) PermissionStatusFormat.MODE.retrieve(permission);
     }
 
+    /** Get the serial number of the user, see {@link SerialNumberManager} */
+    int getUserSerialNumber() {
+        return (int) PermissionStatusFormat.USER.retrieve(permission);
+    }
+
+    /** Get the serial number of the group, see {@link SerialNumberManager} */
+    int getGroupSerialNumber() {
+        return (int) PermissionStatusFormat.GROUP.retrieve(permission);
+    }
+
+    /**
+     * Pack a permission status the way an inode stores it.
+     * @param user serial number of the user
+     * @param group serial number of the group
+     * @param mode the permission bits
+     */
+    static long packPermissionStatus(int user, int group, short mode) {
+        long permission = PermissionStatusFormat.MODE.combine(mode & 0xffff, 0L);
+        permission = PermissionStatusFormat.GROUP.combine(group, permission);
+        return PermissionStatusFormat.USER.combine(user, permission);
+    }
+
     /** Set the {@link FsPermission} of this {@link INode} */
     protected void setPermission(FsPermission permission) {
         updatePermissionStatus(PermissionStatusFormat.MODE, permission.toShort());
@@ -271,6 +304,34 @@ abstract class INode implements Comparable<byte[]> {
         return this.parent;
     }
 
+    /**
+     * Construct the full path name of this inode by walking up its parents.
+     * @return full path name, or null if the inode is no longer attached
+     *         to the namespace
+     */
+    String getFullPathName() {
+        if (isRoot()) {
+            return Path.SEPARATOR;
+        }
+        int depth = 0;
+        for (INode node = this; node.parent != null; node = node.parent) {
+            depth++;
+        }
+        INode[] inodes = new INode[depth];
+        INode node = this;
+        for (int i = depth - 1; i >= 0; i--, node = node.parent) {
+            inodes[i] = node;
+        }
+        if (!node.isRoot()) {
+            return null;
+        }
+        StringBuilder fullPathName = new StringBuilder();
+        for (INode inode : inodes) {
+            fullPathName.append(Path.SEPARATOR_CHAR).append(inode.getLocalName());
+        }
+        return fullPathName.toString();
+    }
+
     /**
      * Get last modification time of inode.
      * @return access time
@@ -430,10 +491,4 @@ abstract class INode implements Comparable<byte[]> {
         }
         return null;
     }
-
-
-    LocatedBlocks createLocatedBlocks(List<LocatedBlock> blocks) {
-        return new LocatedBlocks(computeContentSummary().getLength(), blocks,
-                isUnderConstruction());
-    }
 }
@@ -18,7 +18,7 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -34,7 +34,12 @@ class INodeDirectory extends INode {
     protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
     final static String ROOT_NAME = "";
 
-    private List<INode> children;
+    // Children sorted by name. Only the first numChildren slots are used,
+    // the array is trimmed to that size once a directory is loaded.
+    private INode[] children;
+    private int numChildren;
+    //目录的动态副本策略，没有设置时为 null
+    private DynamicReplicationPolicy dynamicPolicy;
 
     INodeDirectory(String name, PermissionStatus permissions) {
         super(name, permissions);
@@ -52,13 +57,21 @@ class INodeDirectory extends INode {
         this.name = localName;
     }
 
+    /** constructor for the image loader */
+    INodeDirectory(byte[] localName, long permission, long mTime) {
+        super(localName, permission, mTime, 0L);
+        this.children = null;
+    }
+
     /** copy constructor
      *
      * @param other
      */
     INodeDirectory(INodeDirectory other) {
         super(other);
-        this.children = other.getChildren();
+        this.children = other.children;
+        this.numChildren = other.numChildren;
+        this.dynamicPolicy = other.getDynamicReplicationPolicy();
     }
 
     /**
@@ -68,11 +81,47 @@ class INodeDirectory extends INode {
         return true;
     }
 
+    /**
+     * Binary search of the children by name.
+     * @return the index of the child, or (-(insertion point) - 1)
+     */
+    private int searchChildren(byte[] name) {
+        int low = 0;
+        int high = numChildren - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = children[mid].compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Get the index of the first child whose name comes after name,
+     * or 0 if name is null or empty.
+     */
+    int nextChild(byte[] name) {
+        if (name == null || name.length == 0) {
+            return 0;
+        }
+        int index = searchChildren(name);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
     INode removeChild(INode node) {
         assert children != null;
-        int low = Collections.binarySearch(children, node.name);
+        int low = searchChildren(node.name);
         if (low >= 0) {
-            return children.remove(low);
+            INode removed = children[low];
+            System.arraycopy(children, low + 1, children, low, numChildren - low - 1);
+            children[--numChildren] = null;
+            return removed;
         } else {
             return null;
         }
@@ -86,14 +135,29 @@ class INodeDirectory extends INode {
         if (children == null) {
             throw new IllegalArgumentException("The directory is empty");
         }
-        int low = Collections.binarySearch(children, newChild.name);
+        int low = searchChildren(newChild.name);
         if (low >= 0) { // an old child exists so replace by the newChild
-            children.set(low, newChild);
+            children[low] = newChild;
+            if (newChild.isDirectory()) {
+                //替换后的目录从旧目录复制了子节点，子节点的父目录也要更新，
+                //否则沿父目录查找的策略和配额会落在旧目录上
+                for (INode child : ((INodeDirectory) newChild).getChildren()) {
+                    child.parent = (INodeDirectory) newChild;
+                }
+            }
         } else {
             throw new IllegalArgumentException("No child exists to be replaced");
         }
     }
 
+    DynamicReplicationPolicy getDynamicReplicationPolicy() {
+        return dynamicPolicy;
+    }
+
+    void setDynamicReplicationPolicy(DynamicReplicationPolicy policy) {
+        this.dynamicPolicy = policy;
+    }
+
     INode getChild(String name) {
         return getChildINode(string2Bytes(name));
     }
@@ -102,9 +166,9 @@ class INodeDirectory extends INode {
         if (children == null) {
             return null;
         }
-        int low = Collections.binarySearch(children, name);
+        int low = searchChildren(name);
         if (low >= 0) {
-            return children.get(low);
+            return children[low];
         }
         return null;
     }
@@ -222,13 +286,13 @@ class INodeDirectory extends INode {
         }
 
         if (children == null) {
-            children = new ArrayList<INode>(DEFAULT_FILES_PER_DIRECTORY);
+            children = new INode[DEFAULT_FILES_PER_DIRECTORY];
         }
-        int low = Collections.binarySearch(children, node.name);
+        int low = searchChildren(node.name);
         if (low >= 0)
             return null;
         node.parent = this;
-        children.add(-low - 1, node);
+        insertChild(-low - 1, node);
         // update modification time of the parent directory
         setModificationTime(node.getModificationTime());
         if (node.getGroupName() == null) {
@@ -237,6 +301,40 @@ class INodeDirectory extends INode {
         return node;
     }
 
+    private void insertChild(int index, INode node) {
+        if (numChildren == children.length) {
+            // grow like an ArrayList, so that appending stays cheap
+            INode[] grown = new INode[numChildren + (numChildren >> 1) + 1];
+            System.arraycopy(children, 0, grown, 0, index);
+            System.arraycopy(children, index, grown, index + 1, numChildren - index);
+            children = grown;
+        } else {
+            System.arraycopy(children, index, children, index + 1, numChildren - index);
+        }
+        children[index] = node;
+        numChildren++;
+    }
+
+    /**
+     * Shrink the children array to the number of children. Called once
+     * all the children of the directory have been loaded from the image.
+     */
+    void trimChildren() {
+        if (children != null && children.length > numChildren) {
+            children = Arrays.copyOf(children, numChildren);
+        }
+    }
+
+    /** The number of children. */
+    int getNumChildren() {
+        return numChildren;
+    }
+
+    /** The length of the children array, for the memory report. */
+    int getChildrenCapacity() {
+        return children == null ? 0 : children.length;
+    }
+
     /**
      * Equivalent to addNode(path, newNode, false).
      * @see #addNode(String, INode, boolean)
@@ -306,20 +404,16 @@ class INodeDirectory extends INode {
     /** {@inheritDoc} */
     DirCounts spaceConsumedInTree(DirCounts counts) {
         counts.nsCount += 1;
-        if (children != null) {
-            for (INode child : children) {
-                child.spaceConsumedInTree(counts);
-            }
+        for (int i = 0; i < numChildren; i++) {
+            children[i].spaceConsumedInTree(counts);
         }
         return counts;
     }
 
     /** {@inheritDoc} */
     long[] computeContentSummary(long[] summary) {
-        if (children != null) {
-            for (INode child : children) {
-                child.computeContentSummary(summary);
-            }
+        for (int i = 0; i < numChildren; i++) {
+            children[i].computeContentSummary(summary);
         }
         summary[2]++;
         return summary;
@@ -328,11 +422,14 @@ class INodeDirectory extends INode {
     /**
      */
     List<INode> getChildren() {
-        return children == null ? new ArrayList<INode>() : children;
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(children).subList(0, numChildren));
     }
 
     List<INode> getChildrenRaw() {
-        return children;
+        return children == null ? null : getChildren();
     }
 
     int collectSubtreeBlocksAndClear(List<Block> v) {
@@ -340,11 +437,12 @@ class INodeDirectory extends INode {
         if (children == null) {
             return total;
         }
-        for (INode child : children) {
-            total += child.collectSubtreeBlocksAndClear(v);
+        for (int i = 0; i < numChildren; i++) {
+            total += children[i].collectSubtreeBlocksAndClear(v);
         }
         parent = null;
         children = null;
+        numChildren = 0;
         return total;
     }
 }
@@ -66,6 +66,15 @@ class INodeDirectoryWithQuota extends INodeDirectory {
         this.nsCount = 1;
     }
 
+    /** constructor for the image loader, with no quota verification */
+    INodeDirectoryWithQuota(byte[] localName, long permission, long modificationTime,
+                            long nsQuota, long dsQuota) {
+        super(localName, permission, modificationTime);
+        this.nsQuota = nsQuota;
+        this.dsQuota = dsQuota;
+        this.nsCount = 1;
+    }
+
     /** Get this directory's namespace quota
      * @return this directory's namespace quota
      */
@@ -24,14 +24,44 @@ import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
 
 class INodeFile extends INode {
     static final FsPermission UMASK = FsPermission.createImmutable((short) 0111);
+    /** The largest preferred block size that the header can hold. */
+    static final long MAX_PREFERRED_BLOCK_SIZE = (1L << 48) - 1;
 
     protected BlockInfo blocks[] = null;
-    protected short blockReplication;
-    protected long preferredBlockSize;
+    // replication and preferred block size, packed by HeaderFormat
+    private long header = 0L;
+
+    private static enum HeaderFormat {
+        PREFERRED_BLOCK_SIZE(0, 48),
+        REPLICATION(PREFERRED_BLOCK_SIZE.OFFSET + PREFERRED_BLOCK_SIZE.LENGTH, 16);
+
+        final int OFFSET;
+        final int LENGTH; //bit length
+        final long MASK;
+
+        HeaderFormat(int offset, int length) {
+            OFFSET = offset;
+            LENGTH = length;
+            MASK = ((-1L) >>> (64 - LENGTH)) << OFFSET;
+        }
+
+        long retrieve(long record) {
+            return (record & MASK) >>> OFFSET;
+        }
+
+        long combine(long bits, long record) {
+            if (bits < 0 || bits > (MASK >>> OFFSET)) {
+                throw new IllegalArgumentException("Illegal " + name() + ": " + bits);
+            }
+            return (record & ~MASK) | (bits << OFFSET);
+        }
+    }
 
     INodeFile(PermissionStatus permissions,
               int nrBlocks, short replication, long modificationTime,
@@ -42,16 +72,24 @@ class INodeFile extends INode {
 
     protected INodeFile() {
         blocks = null;
-        blockReplication = 0;
-        preferredBlockSize = 0;
     }
 
     protected INodeFile(PermissionStatus permissions, BlockInfo[] blklist,
                         short replication, long modificationTime,
                         long atime, long preferredBlockSize) {
         super(permissions, modificationTime, atime);
-        this.blockReplication = replication;
-        this.preferredBlockSize = preferredBlockSize;
+        setReplication(replication);
+        header = HeaderFormat.PREFERRED_BLOCK_SIZE.combine(preferredBlockSize, header);
+        blocks = blklist;
+    }
+
+    /** constructor for the image loader */
+    INodeFile(byte[] localName, long permission, BlockInfo[] blklist,
+              short replication, long modificationTime,
+              long atime, long preferredBlockSize) {
+        super(localName, permission, modificationTime, atime);
+        setReplication(replication);
+        header = HeaderFormat.PREFERRED_BLOCK_SIZE.combine(preferredBlockSize, header);
         blocks = blklist;
     }
 
@@ -73,11 +111,11 @@ class INodeFile extends INode {
      * @return block replication
      */
     public short getReplication() {
-        return this.blockReplication;
+        return (short) HeaderFormat.REPLICATION.retrieve(header);
     }
 
     void setReplication(short replication) {
-        this.blockReplication = replication;
+        header = HeaderFormat.REPLICATION.combine(replication, header);
     }
 
     /**
@@ -120,13 +158,31 @@ class INodeFile extends INode {
         return 1;
     }
 
+    /**
+     * Get the length of the file, the sum of the lengths of its blocks.
+     * Unlike {@link #computeContentSummary()} it allocates nothing, so the
+     * status and block location calls use it.
+     */
+    long computeFileSize() {
+        long size = 0;
+        if (blocks != null) {
+            for (Block blk : blocks) {
+                if (blk != null) {
+                    size += blk.getNumBytes();
+                }
+            }
+        }
+        return size;
+    }
+
+    LocatedBlocks createLocatedBlocks(List<LocatedBlock> blocks) {
+        return new LocatedBlocks(computeFileSize(), blocks,
+                isUnderConstruction());
+    }
+
     /** {@inheritDoc} */
     long[] computeContentSummary(long[] summary) {
-        long bytes = 0;
-        for (Block blk : blocks) {
-            bytes += blk.getNumBytes();
-        }
-        summary[0] += bytes;
+        summary[0] += computeFileSize();
         summary[1]++;
         summary[3] += diskspaceConsumed();
         return summary;
@@ -156,9 +212,9 @@ class INodeFile extends INode {
      */
         if (blkArr.length > 0 && blkArr[blkArr.length - 1] != null &&
                 isUnderConstruction()) {
-            size += preferredBlockSize - blocks[blocks.length - 1].getNumBytes();
+            size += getPreferredBlockSize() - blocks[blocks.length - 1].getNumBytes();
         }
-        return size * blockReplication;
+        return size * getReplication();
     }
 
     /**
@@ -166,7 +222,7 @@ class INodeFile extends INode {
      * @return the number of bytes
      */
     public long getPreferredBlockSize() {
-        return preferredBlockSize;
+        return HeaderFormat.PREFERRED_BLOCK_SIZE.retrieve(header);
     }
 
     /**
@@ -186,7 +242,7 @@ class INodeFile extends INode {
             return (INodeFileUnderConstruction) this;
         }
         return new INodeFileUnderConstruction(name,
-                blockReplication, modificationTime, preferredBlockSize,
+                getReplication(), modificationTime, getPreferredBlockSize(),
                 blocks, getPermissionStatus(),
                 clientName, clientMachine, clientNode);
     }
@@ -248,6 +248,8 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
         this.httpServer.addInternalServlet("data", "/data/*", FileDataServlet.class);
         this.httpServer.addInternalServlet("checksum", "/fileChecksum/*",
                 FileChecksumServlets.RedirectServlet.class);
+        this.httpServer.addInternalServlet("dynamicReplication", "/dynamicReplication",
+                DynamicReplicationServlet.class);
         this.httpServer.start();
 
         // The web-server port can be ephemeral... ensure we have the correct info
@@ -356,6 +358,16 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
                 src, offset, length);
     }
 
+    /** {@inheritDoc} */
+    public LocatedBlocks getBlockLocations(String src,
+                                           long offset,
+                                           long length,
+                                           boolean recordAccess) throws IOException {
+        myMetrics.numGetBlockLocations.inc();
+        return namesystem.getBlockLocations(getClientMachine(),
+                src, offset, length, recordAccess);
+    }
+
     private static String getClientMachine() {
         String clientMachine = Server.getRemoteAddress();
         if (clientMachine == null) {
@@ -567,6 +579,16 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
         return files;
     }
 
+    /** {@inheritDoc} */
+    public DirectoryListing getListing(String src, byte[] startAfter,
+                                       int maxEntries) throws IOException {
+        DirectoryListing files = namesystem.getListing(src, startAfter, maxEntries);
+        if (files != null) {
+            myMetrics.numGetListingOps.inc();
+        }
+        return files;
+    }
+
     /**
      * Get the file info for a specific file.
      * @param src The string representation of the path to the file
@@ -673,6 +695,23 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
         namesystem.setQuota(path, namespaceQuota, diskspaceQuota);
     }
 
+    /** {@inheritDoc} */
+    public void setDynamicReplicationPolicy(String path, boolean eligible,
+                                            short maxReplication, float capacityShare)
+            throws IOException {
+        namesystem.setDynamicReplicationPolicy(path, eligible, maxReplication, capacityShare);
+    }
+
+    /** {@inheritDoc} */
+    public void clearDynamicReplicationPolicy(String path) throws IOException {
+        namesystem.clearDynamicReplicationPolicy(path);
+    }
+
+    /** {@inheritDoc} */
+    public void prefetchReplication(String[] srcs, int[] readers) throws IOException {
+        namesystem.prefetchReplication(srcs, readers);
+    }
+
     /** {@inheritDoc} */
     public void fsync(String src, String clientName) throws IOException {
         namesystem.fsync(src, clientName);
@@ -707,10 +746,11 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
                                            long dfsUsed,
                                            long remaining,
                                            int xmitsInProgress,
-                                           int xceiverCount) throws IOException {
+                                           int xceiverCount,
+                                           long[] blockReads) throws IOException {
         verifyRequest(nodeReg);
         return namesystem.handleHeartbeat(nodeReg, capacity, dfsUsed, remaining,
-                xceiverCount, xmitsInProgress);
+                xceiverCount, xmitsInProgress, blockReads);
     }
 
     public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
@@ -737,6 +777,14 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
         }
     }
 
+    public void blocksDeleted(DatanodeRegistration nodeReg,
+                              Block blocks[]) throws IOException {
+        verifyRequest(nodeReg);
+        stateChangeLog.debug("*BLOCK* NameNode.blocksDeleted: "
+                + "from " + nodeReg.getName() + " " + blocks.length + " blocks.");
+        namesystem.blocksDeleted(nodeReg, blocks);
+    }
+
     /**
      */
     public void errorReport(DatanodeRegistration nodeReg,
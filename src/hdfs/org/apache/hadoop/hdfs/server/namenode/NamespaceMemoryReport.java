@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.PrintWriter;
+
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+/**
+ * Counts the objects of the namespace and estimates the heap they take.
+ * <p>
+ * The estimates assume a 64-bit JVM with compressed references and 8-byte
+ * object alignment, the usual setting for heaps below 32 GB. Files under
+ * construction are counted as plain files.
+ */
+class NamespaceMemoryReport {
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    /** INode fields: name, parent, modification and access time, permission. */
+    static final long INODE = OBJECT_HEADER + 2 * REFERENCE + 3 * 8;
+    /** children, numChildren and the dynamic replication policy. */
+    static final long DIRECTORY = align(INODE + REFERENCE + 4 + REFERENCE);
+    /** namespace and diskspace quota and usage. */
+    static final long DIRECTORY_WITH_QUOTA = align(DIRECTORY + 4 * 8);
+    /** blocks and the packed replication and preferred block size. */
+    static final long FILE = align(INODE + REFERENCE + 8);
+    /** Block fields, the inode, the triplets and the dynamic replication. */
+    static final long BLOCK = align(OBJECT_HEADER + 3 * 8 + 2 * REFERENCE + 2);
+
+    long directories = 0;
+    long directoriesWithQuota = 0;
+    long files = 0;
+    long blocks = 0;
+    long nameBytes = 0;
+    long childSlots = 0;
+    long unusedChildSlots = 0;
+    long blockSlots = 0;
+    long tripletSlots = 0;
+    int blocksMapCapacity = 0;
+
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    static long arrayBytes(long length, int elementSize) {
+        return align(ARRAY_HEADER + length * elementSize);
+    }
+
+    /** Count the subtree rooted at inode. */
+    void add(INode inode) {
+        byte[] name = inode.getLocalNameBytes();
+        if (name != null) {
+            nameBytes += arrayBytes(name.length, 1);
+        }
+        if (inode.isDirectory()) {
+            INodeDirectory dir = (INodeDirectory) inode;
+            if (dir instanceof INodeDirectoryWithQuota) {
+                directoriesWithQuota++;
+            } else {
+                directories++;
+            }
+            if (dir.getChildrenCapacity() > 0) {
+                childSlots += arrayBytes(dir.getChildrenCapacity(), REFERENCE);
+                unusedChildSlots += dir.getChildrenCapacity() - dir.getNumChildren();
+            }
+            for (INode child : dir.getChildren()) {
+                add(child);
+            }
+        } else {
+            files++;
+            BlockInfo[] fileBlocks = ((INodeFile) inode).getBlocks();
+            if (fileBlocks != null) {
+                blockSlots += arrayBytes(fileBlocks.length, REFERENCE);
+                for (BlockInfo b : fileBlocks) {
+                    blocks++;
+                    tripletSlots += arrayBytes(b.getCapacity() * 3, REFERENCE);
+                }
+            }
+        }
+    }
+
+    long getInodeBytes() {
+        return directories * DIRECTORY + directoriesWithQuota * DIRECTORY_WITH_QUOTA
+                + files * FILE + nameBytes + childSlots + blockSlots;
+    }
+
+    long getBlockBytes() {
+        return blocks * BLOCK + tripletSlots + (long) blocksMapCapacity * REFERENCE;
+    }
+
+    void write(PrintWriter out) {
+        long inodes = directories + directoriesWithQuota + files;
+        out.println("Metasave: Namespace memory estimate: "
+                + (getInodeBytes() + getBlockBytes()) + " bytes");
+        out.println("  directories: " + directories
+                + " (with quota: " + directoriesWithQuota + ")"
+                + ", files: " + files
+                + ", blocks: " + blocks);
+        out.println("  inodes: " + getInodeBytes() + " bytes"
+                + (inodes == 0 ? "" : ", " + getInodeBytes() / inodes + " bytes/inode")
+                + ", names: " + nameBytes + " bytes"
+                + ", unused child slots: " + unusedChildSlots);
+        out.println("  blocks: " + getBlockBytes() + " bytes"
+                + (blocks == 0 ? "" : ", " + getBlockBytes() / blocks + " bytes/block")
+                + ", blocks map capacity: " + blocksMapCapacity);
+    }
+}
@@ -95,29 +95,27 @@ class PermissionChecker {
                     + ", subAccess=" + subAccess);
         }
 
-        synchronized (root) {
-            INode[] inodes = root.getExistingPathINodes(path);
-            int ancestorIndex = inodes.length - 2;
-            for (; ancestorIndex >= 0 && inodes[ancestorIndex] == null;
-                 ancestorIndex--)
-                ;
-            checkTraverse(inodes, ancestorIndex);
-
-            if (ancestorAccess != null && inodes.length > 1) {
-                check(inodes, ancestorIndex, ancestorAccess);
-            }
-            if (parentAccess != null && inodes.length > 1) {
-                check(inodes, inodes.length - 2, parentAccess);
-            }
-            if (access != null) {
-                check(inodes[inodes.length - 1], access);
-            }
-            if (subAccess != null) {
-                checkSubAccess(inodes[inodes.length - 1], subAccess);
-            }
-            if (doCheckOwner) {
-                checkOwner(inodes[inodes.length - 1]);
-            }
+        INode[] inodes = root.getExistingPathINodes(path);
+        int ancestorIndex = inodes.length - 2;
+        for (; ancestorIndex >= 0 && inodes[ancestorIndex] == null;
+             ancestorIndex--)
+            ;
+        checkTraverse(inodes, ancestorIndex);
+
+        if (ancestorAccess != null && inodes.length > 1) {
+            check(inodes, ancestorIndex, ancestorAccess);
+        }
+        if (parentAccess != null && inodes.length > 1) {
+            check(inodes, inodes.length - 2, parentAccess);
+        }
+        if (access != null) {
+            check(inodes[inodes.length - 1], access);
+        }
+        if (subAccess != null) {
+            checkSubAccess(inodes[inodes.length - 1], subAccess);
+        }
+        if (doCheckOwner) {
+            checkOwner(inodes[inodes.length - 1]);
         }
     }
 
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+/**
+ * 文件热度模型，动态副本按模型给出的分数对文件排序。
+ * <p>
+ * 通过 dfs.dynamic.popularity.model 配置实现类，默认为
+ * {@link EwmaPopularityModel}。分数必须可以跨时间比较：
+ * 文件 A 在 t1 时刻的分数大于文件 B 在 t2 时刻的分数，
+ * 说明在两者中较晚的时刻 A 更热，这样动态副本集合中保存的
+ * 旧分数不需要随时间重新计算。
+ * <p>
+ * 所有方法都在持有 namesystem 锁时调用，实现不需要自己同步。
+ */
+interface PopularityModel {
+    /**
+     * 记录一次对文件的读（open）。
+     * @param inode 被读的文件
+     * @param now 当前时间
+     * @param accessTimeUpdated 本次读是否更新了文件的访问时间
+     * @return 文件分数是否发生变化，变化时才需要重新分配副本
+     */
+    boolean recordAccess(INodeFile inode, long now, boolean accessTimeUpdated);
+
+    /**
+     * 记录 datanode 在心跳中报告的读。客户端缓存了块位置后不再调用 open，
+     * 这些读只有 datanode 能看到。
+     * @param inode 被读的文件
+     * @param now 当前时间
+     * @param reads 读的次数，按块数折算成整个文件被读的次数
+     * @return 文件分数是否发生变化
+     */
+    boolean recordReads(INodeFile inode, long now, double reads);
+
+    /**
+     * 文件当前的分数，分数越大越热
+     */
+    long getScore(INodeFile inode);
+
+    /**
+     * 预计有 readers 个读者即将读文件时文件的分数，不改变模型的状态。
+     * 用于在读发生之前提升副本数，例如 JobTracker 在作业初始化时
+     * 报告的大作业的输入文件。
+     */
+    long getExpectedScore(INodeFile inode, long now, int readers);
+
+    /**
+     * 从映像或日志中恢复文件的分数
+     */
+    void restore(INodeFile inode, long score);
+
+    /**
+     * 文件的 inode 被替换（例如追加写）时，把分数转移到新的 inode
+     */
+    void replace(INodeFile oldNode, INodeFile newNode);
+
+    /**
+     * 不再跟踪文件的热度
+     */
+    void remove(INodeFile inode);
+}
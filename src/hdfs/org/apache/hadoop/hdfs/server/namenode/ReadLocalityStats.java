@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按机架统计读请求的来源，供动态副本放置额外副本时参考。
+ * <p>
+ * getBlockLocations 的调用者如果运行在某个 datanode 上，就记一次该 datanode
+ * 所在机架的读。计数每过一个半衰期减半，反映最近的读分布。
+ * 机架数很少，计数用 {@link ConcurrentHashMap} 和 {@link AtomicLong} 保存，
+ * 记录时不持有 namesystem 锁，也不加其他锁。
+ */
+class ReadLocalityStats {
+    private final ConcurrentHashMap<String, AtomicLong> reads =
+            new ConcurrentHashMap<String, AtomicLong>();
+    //计数减半的间隔，单位毫秒
+    private final long halfLife;
+    private volatile long lastDecay;
+
+    ReadLocalityStats(long halfLife, long now) {
+        this.halfLife = halfLife;
+        this.lastDecay = now;
+    }
+
+    /**
+     * 记录一次来自 rack 的读
+     */
+    void recordRead(String rack, long now) {
+        AtomicLong count = reads.get(rack);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = reads.putIfAbsent(rack, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        if (now - lastDecay >= halfLife) {
+            decay(now);
+        }
+    }
+
+    /**
+     * 各机架最近的读次数
+     */
+    Map<String, Long> getReads(long now) {
+        if (now - lastDecay >= halfLife) {
+            decay(now);
+        }
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : reads.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+
+    //并发的读可能在减半时丢失，只影响统计精度
+    private synchronized void decay(long now) {
+        long halvings = (now - lastDecay) / halfLife;
+        if (halvings <= 0) {
+            return;
+        }
+        lastDecay += halvings * halfLife;
+        int shift = (int) Math.min(63, halvings);
+        for (AtomicLong count : reads.values()) {
+            long old;
+            do {
+                old = count.get();
+            } while (!count.compareAndSet(old, old >>> shift));
+        }
+    }
+}
@@ -131,6 +131,78 @@ class ReplicationTargetChooser {
                 results.toArray(new DatanodeDescriptor[results.size()]));
     }
 
+    /**
+     * 为因读热度而增加的副本选择 <i>numOfReplicas</i> 个目标。
+     * <p>
+     * 与写入时的放置不同，额外副本优先放到读请求多、且已有副本少的机架上，
+     * 机架的权重为 (读次数 + 1) / (该机架上已有副本数 + 1)；
+     * 同一机架内选择 xceiverCount 最小的 datanode。
+     * 不满足要求时按普通策略选择剩余的目标。
+     *
+     * @param numOfReplicas: additional number of replicas wanted.
+     * @param srcNode: the datanode the block will be copied from.
+     * @param choosenNodes: datanodes that already have the block.
+     * @param candidates: live datanodes.
+     * @param rackReads: recent reads per rack.
+     * @param blocksize: size of the data to be written.
+     * @return array of DatanodeDescriptor instances chosen as target
+     * and sorted as a pipeline.
+     */
+    DatanodeDescriptor[] chooseTargetForReads(int numOfReplicas,
+                                              DatanodeDescriptor srcNode,
+                                              List<DatanodeDescriptor> choosenNodes,
+                                              Collection<DatanodeDescriptor> candidates,
+                                              Map<String, Long> rackReads,
+                                              long blocksize) {
+        List<DatanodeDescriptor> results =
+                new ArrayList<DatanodeDescriptor>(choosenNodes);
+        //机架上已有和已选的副本数
+        Map<String, Integer> rackReplicas = new HashMap<String, Integer>();
+        for (DatanodeDescriptor node : results) {
+            increment(rackReplicas, node.getNetworkLocation());
+        }
+        List<DatanodeDescriptor> chosen = new ArrayList<DatanodeDescriptor>();
+        while (chosen.size() < numOfReplicas) {
+            DatanodeDescriptor best = null;
+            double bestWeight = 0;
+            for (DatanodeDescriptor node : candidates) {
+                if (results.contains(node)
+                        || !isGoodTarget(node, blocksize, Integer.MAX_VALUE, results)) {
+                    continue;
+                }
+                String rack = node.getNetworkLocation();
+                Long reads = rackReads.get(rack);
+                Integer replicas = rackReplicas.get(rack);
+                double weight = ((reads == null ? 0 : reads) + 1.0)
+                        / ((replicas == null ? 0 : replicas) + 1.0);
+                if (best == null || weight > bestWeight
+                        || (weight == bestWeight && node.getXceiverCount() < best.getXceiverCount())) {
+                    best = node;
+                    bestWeight = weight;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            results.add(best);
+            chosen.add(best);
+            increment(rackReplicas, best.getNetworkLocation());
+        }
+        if (chosen.size() < numOfReplicas) {
+            List<DatanodeDescriptor> others = new ArrayList<DatanodeDescriptor>(results);
+            DatanodeDescriptor[] rest = chooseTarget(numOfReplicas - chosen.size(),
+                    srcNode, others, null, blocksize);
+            chosen.addAll(Arrays.asList(rest));
+        }
+        return getPipeline(srcNode,
+                chosen.toArray(new DatanodeDescriptor[chosen.size()]));
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
     /* choose <i>numOfReplicas</i> from all data nodes */
     private DatanodeDescriptor chooseTarget(int numOfReplicas,
                                             DatanodeDescriptor writer,
@@ -20,17 +20,46 @@ package org.apache.hadoop.hdfs.server.namenode;
 import java.util.*;
 
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 
 /* Class for keeping track of under replication blocks
  * Blocks have replication priority, with priority 0 indicating the highest
  * Blocks have only one replicas has the highest
+ *
+ * 只缺动态副本的块（由 DynamicReplicaFilter 判断）放在单独的
+ * 先进先出队列中，优先级为 DYNAMIC_PRIORITY，不计入 LEVEL 个优先级，
+ * 由 ReplicationMonitor 用单独的预算处理，不会占用真正缺副本的块的预算。
  */
 class UnderReplicatedBlocks implements Iterable<Block> {
     static final int LEVEL = 3;
+    /* priority of blocks that only miss replicas added by dynamic replication */
+    static final int DYNAMIC_PRIORITY = LEVEL + 1;
+    //已调度的动态副本在这段时间内仍未完成时不再统计完成时间
+    private static final long SCHEDULED_EXPIRY = 60 * 60 * 1000L;
+
     private List<TreeSet<Block>> priorityQueues = new ArrayList<TreeSet<Block>>();
+    //只缺动态副本的块及其入队时间，按入队顺序排列
+    private LinkedHashMap<Block, Long> dynamicQueue = new LinkedHashMap<Block, Long>();
+    //已调度复制、等待完成的动态副本块及其入队时间，用于统计完成时间
+    private LinkedHashMap<Block, Long> scheduledDynamic = new LinkedHashMap<Block, Long>();
+    //判断块缺少的副本是否都是动态副本，null 表示不区分
+    private final DynamicReplicaFilter dynamicFilter;
+
+    /**
+     * 判断块缺少的副本是否全部来自动态副本，即块的目标副本数由动态副本
+     * 提升，并且已有副本数不少于提升前的副本数
+     */
+    interface DynamicReplicaFilter {
+        boolean onlyMissesDynamicReplicas(Block block, int curReplicas);
+    }
 
     /* constructor */
     UnderReplicatedBlocks() {
+        this(null);
+    }
+
+    UnderReplicatedBlocks(DynamicReplicaFilter dynamicFilter) {
+        this.dynamicFilter = dynamicFilter;
         for (int i = 0; i < LEVEL; i++) {
             priorityQueues.add(new TreeSet<Block>());
         }
@@ -43,10 +72,17 @@ class UnderReplicatedBlocks implements Iterable<Block> {
         for (int i = 0; i < LEVEL; i++) {
             priorityQueues.get(i).clear();
         }
+        dynamicQueue.clear();
+        scheduledDynamic.clear();
     }
 
     /* Return the total number of under replication blocks */
     synchronized int size() {
+        return recoverySize() + dynamicQueue.size();
+    }
+
+    /* Return the number of blocks in the LEVEL priority queues */
+    synchronized int recoverySize() {
         int size = 0;
         for (int i = 0; i < LEVEL; i++) {
             size += priorityQueues.get(i).size();
@@ -54,6 +90,11 @@ class UnderReplicatedBlocks implements Iterable<Block> {
         return size;
     }
 
+    /* Return the number of blocks that only miss dynamic replicas */
+    synchronized int dynamicSize() {
+        return dynamicQueue.size();
+    }
+
     /* Check if a block is in the neededReplication queue */
     synchronized boolean contains(Block block) {
         for (TreeSet<Block> set : priorityQueues) {
@@ -61,7 +102,66 @@ class UnderReplicatedBlocks implements Iterable<Block> {
                 return true;
             }
         }
-        return false;
+        return dynamicQueue.containsKey(block);
+    }
+
+    /**
+     * 按入队顺序取出最多 max 个只缺动态副本的块，
+     * 取出的块被移到队尾，无法调度的块不会一直挡在队首
+     */
+    synchronized List<Block> chooseDynamicBlocks(int max) {
+        List<Block> blocks = new ArrayList<Block>(Math.min(max, dynamicQueue.size()));
+        Iterator<Block> it = dynamicQueue.keySet().iterator();
+        while (blocks.size() < max && it.hasNext()) {
+            blocks.add(it.next());
+        }
+        for (Block block : blocks) {
+            dynamicQueue.put(block, dynamicQueue.remove(block));
+        }
+        return blocks;
+    }
+
+    private boolean add(Block block, int priLevel) {
+        if (priLevel == DYNAMIC_PRIORITY) {
+            if (dynamicQueue.containsKey(block)) {
+                return false;
+            }
+            Long enqueued = scheduledDynamic.remove(block);
+            dynamicQueue.put(block, enqueued == null ? FSNamesystem.now() : enqueued);
+            return true;
+        }
+        return priorityQueues.get(priLevel).add(block);
+    }
+
+    private boolean removeFrom(Block block, int priLevel) {
+        if (priLevel == DYNAMIC_PRIORITY) {
+            Long enqueued = dynamicQueue.remove(block);
+            if (enqueued == null) {
+                return false;
+            }
+            //块已调度复制或不再缺副本，等副本报告后统计完成时间
+            scheduledDynamic.put(block, enqueued);
+            expireScheduled(FSNamesystem.now() - SCHEDULED_EXPIRY);
+            return true;
+        }
+        return priorityQueues.get(priLevel).remove(block);
+    }
+
+    //清除调度时间早于 expiry 的块，它们的复制已失败或块已被删除
+    private void expireScheduled(long expiry) {
+        Iterator<Long> it = scheduledDynamic.values().iterator();
+        while (it.hasNext() && it.next() < expiry) {
+            it.remove();
+        }
+    }
+
+    //块的副本数已达到要求，如果它曾在动态副本队列中则记录完成时间
+    private void fulfilled(Block block) {
+        Long enqueued = scheduledDynamic.remove(block);
+        NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+        if (enqueued != null && metrics != null) {
+            metrics.dynamicReplicationFulfilTime.inc(FSNamesystem.now() - enqueued);
+        }
     }
 
     /* Return the priority of a block
@@ -75,6 +175,9 @@ class UnderReplicatedBlocks implements Iterable<Block> {
                             int expectedReplicas) {
         if (curReplicas < 0 || curReplicas >= expectedReplicas) {
             return LEVEL; // no need to replicate
+        } else if (dynamicFilter != null
+                && dynamicFilter.onlyMissesDynamicReplicas(block, curReplicas)) {
+            return DYNAMIC_PRIORITY; // only dynamic replicas are missing
         } else if (curReplicas == 0) {
             // If there are zero non-decommissioned replica but there are
             // some decommissioned replicas, then assign them highest priority
@@ -106,7 +209,7 @@ class UnderReplicatedBlocks implements Iterable<Block> {
         }
         int priLevel = getPriority(block, curReplicas, decomissionedReplicas,
                 expectedReplicas);
-        if (priLevel != LEVEL && priorityQueues.get(priLevel).add(block)) {
+        if (priLevel != LEVEL && add(block, priLevel)) {
             NameNode.stateChangeLog.debug(
                     "BLOCK* NameSystem.UnderReplicationBlock.add:"
                             + block
@@ -127,13 +230,17 @@ class UnderReplicatedBlocks implements Iterable<Block> {
         int priLevel = getPriority(block, oldReplicas,
                 decommissionedReplicas,
                 oldExpectedReplicas);
-        return remove(block, priLevel);
+        boolean removed = remove(block, priLevel);
+        if (priLevel == LEVEL) {
+            fulfilled(block);
+        }
+        return removed;
     }
 
     /* remove a block from a under replication queue given a priority*/
     boolean remove(Block block, int priLevel) {
-        if (priLevel >= 0 && priLevel < LEVEL
-                && priorityQueues.get(priLevel).remove(block)) {
+        if (((priLevel >= 0 && priLevel < LEVEL) || priLevel == DYNAMIC_PRIORITY)
+                && removeFrom(block, priLevel)) {
             NameNode.stateChangeLog.debug(
                     "BLOCK* NameSystem.UnderReplicationBlock.remove: "
                             + "Removing block " + block
@@ -149,6 +256,13 @@ class UnderReplicatedBlocks implements Iterable<Block> {
                     return true;
                 }
             }
+            if (priLevel != DYNAMIC_PRIORITY && removeFrom(block, DYNAMIC_PRIORITY)) {
+                NameNode.stateChangeLog.debug(
+                        "BLOCK* NameSystem.UnderReplicationBlock.remove: "
+                                + "Removing block " + block
+                                + " from dynamic replication queue");
+                return true;
+            }
         }
         return false;
     }
@@ -173,7 +287,7 @@ class UnderReplicatedBlocks implements Iterable<Block> {
         if (oldPri != LEVEL && oldPri != curPri) {
             remove(block, oldPri);
         }
-        if (curPri != LEVEL && priorityQueues.get(curPri).add(block)) {
+        if (curPri != LEVEL && add(block, curPri)) {
             NameNode.stateChangeLog.debug(
                     "BLOCK* NameSystem.UnderReplicationBlock.update:"
                             + block
@@ -184,11 +298,19 @@ class UnderReplicatedBlocks implements Iterable<Block> {
         }
     }
 
-    /* return an iterator of all the under replication blocks */
+    /* return an iterator of the under replication blocks in the LEVEL
+     * priority queues, blocks that only miss dynamic replicas are not included,
+     * see {@link #dynamicBlocks()} */
     public synchronized BlockIterator iterator() {
         return new BlockIterator();
     }
 
+    /* return the blocks that only miss dynamic replicas in queue order,
+     * the caller must synchronize on this object while iterating */
+    synchronized Iterable<Block> dynamicBlocks() {
+        return Collections.unmodifiableSet(dynamicQueue.keySet());
+    }
+
     class BlockIterator implements Iterator<Block> {
         private int level;
         private List<Iterator<Block>> iterators = new ArrayList<Iterator<Block>>();
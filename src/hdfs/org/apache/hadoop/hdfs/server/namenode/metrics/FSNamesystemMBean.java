@@ -109,4 +109,44 @@ public interface FSNamesystemMBean {
      * @return number of dead data nodes
      */
     public int numDeadDataNodes();
+
+    /**
+     * Files read since startup, as recorded by the popularity model
+     * @return number of reads
+     */
+    public long getDynamicReplicationAccesses();
+
+    /**
+     * Files whose replication was raised by dynamic replication
+     * @return number of files in the dynamic replication tiers
+     */
+    public int getDynamicReplicationFiles();
+
+    /**
+     * Size of the files in the dynamic replication tiers, not multiplied
+     * by their replication
+     * @return bytes
+     */
+    public long getDynamicReplicationBytes();
+
+    /**
+     * Files in each dynamic replication tier. Element i is the tier whose
+     * files have dfs.replication + i + 1 replicas.
+     * @return number of files per tier
+     */
+    public int[] getDynamicReplicationTierFiles();
+
+    /**
+     * Size of the files in each dynamic replication tier, indexed like
+     * {@link #getDynamicReplicationTierFiles()}
+     * @return bytes per tier
+     */
+    public long[] getDynamicReplicationTierBytes();
+
+    /**
+     * The hottest files of the dynamic replication tiers, hottest first,
+     * at most dfs.dynamic.hotfiles.count of them
+     * @return path, replication and score of each file, separated by tabs
+     */
+    public String[] getDynamicReplicationHotFiles();
 }
@@ -27,6 +27,7 @@ import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 
 /**
  *
@@ -44,6 +45,8 @@ public class FSNamesystemMetrics implements Updater {
     private static Log log = LogFactory.getLog(FSNamesystemMetrics.class);
     final MetricsRecord metricsRecord;
     public MetricsRegistry registry = new MetricsRegistry();
+    // reads counted by FSNamesystem up to the previous update
+    private long lastDynamicReplicationAccesses = 0;
 
     final MetricsIntValue filesTotal = new MetricsIntValue("FilesTotal", registry);
     final MetricsLongValue blocksTotal = new MetricsLongValue("BlocksTotal", registry);
@@ -56,6 +59,10 @@ public class FSNamesystemMetrics implements Updater {
     final MetricsIntValue excessBlocks = new MetricsIntValue("ExcessBlocks", registry);
     final MetricsIntValue pendingReplicationBlocks = new MetricsIntValue("PendingReplicationBlocks", registry);
     final MetricsIntValue underReplicatedBlocks = new MetricsIntValue("UnderReplicatedBlocks", registry);
+    final MetricsIntValue dynamicReplicationQueueBlocks = new MetricsIntValue("DynamicReplicationQueueBlocks", registry);
+    final MetricsIntValue dynamicReplicationFiles = new MetricsIntValue("DynamicReplicationFiles", registry);
+    final MetricsLongValue dynamicReplicationBytes = new MetricsLongValue("DynamicReplicationBytes", registry);
+    final MetricsTimeVaryingLong dynamicReplicationAccesses = new MetricsTimeVaryingLong("DynamicReplicationAccesses", registry);
     final MetricsIntValue scheduledReplicationBlocks = new MetricsIntValue("ScheduledReplicationBlocks", registry);
     final MetricsIntValue missingBlocks = new MetricsIntValue("MissingBlocks", registry);
     final MetricsIntValue blockCapacity = new MetricsIntValue("BlockCapacity", registry);
@@ -110,6 +117,12 @@ public class FSNamesystemMetrics implements Updater {
             pendingReplicationBlocks.set((int) fsNameSystem.
                     getPendingReplicationBlocks());
             underReplicatedBlocks.set((int) fsNameSystem.getUnderReplicatedBlocks());
+            dynamicReplicationQueueBlocks.set((int) fsNameSystem.getDynamicReplicationQueueBlocks());
+            dynamicReplicationFiles.set(fsNameSystem.getDynamicReplicationFiles());
+            dynamicReplicationBytes.set(fsNameSystem.getDynamicReplicationBytes());
+            long accesses = fsNameSystem.getDynamicReplicationAccesses();
+            dynamicReplicationAccesses.inc(accesses - lastDynamicReplicationAccesses);
+            lastDynamicReplicationAccesses = accesses;
             scheduledReplicationBlocks.set((int) fsNameSystem.
                     getScheduledReplicationBlocks());
             missingBlocks.set((int) fsNameSystem.getMissingBlocksCount());
@@ -27,6 +27,7 @@ import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 
 /**
@@ -73,14 +74,38 @@ public class NameNodeMetrics implements Updater {
             new MetricsTimeVaryingRate("Syncs", registry, "Journal Sync");
     public MetricsTimeVaryingInt transactionsBatchedInSync =
             new MetricsTimeVaryingInt("JournalTransactionsBatchedInSync", registry, "Journal Transactions Batched In Sync");
+    public MetricsTimeVaryingRate transactionsPerSync =
+            new MetricsTimeVaryingRate("TransactionsPerSync", registry,
+                    "Journal transactions written by one sync");
     public MetricsTimeVaryingRate blockReport =
             new MetricsTimeVaryingRate("blockReport", registry, "Block Report");
+    public MetricsTimeVaryingRate blocksDeleted =
+            new MetricsTimeVaryingRate("blocksDeleted", registry, "Incremental Report Of Deleted Blocks");
     public MetricsIntValue safeModeTime =
             new MetricsIntValue("SafemodeTime", registry, "Duration in SafeMode at Startup");
     public MetricsIntValue fsImageLoadTime =
             new MetricsIntValue("fsImageLoadTime", registry, "Time loading FS Image at Startup");
     public MetricsIntValue numBlocksCorrupted =
             new MetricsIntValue("BlocksCorrupted", registry);
+    public MetricsTimeVaryingRate dynamicReplicationFulfilTime =
+            new MetricsTimeVaryingRate("DynamicReplicationFulfilTime", registry,
+                    "Time from queueing a block for dynamic replication to reaching its target");
+    public MetricsTimeVaryingInt numDynamicFilesPromoted =
+            new MetricsTimeVaryingInt("DynamicFilesPromoted", registry);
+    public MetricsTimeVaryingInt numDynamicFilesDemoted =
+            new MetricsTimeVaryingInt("DynamicFilesDemoted", registry);
+    public MetricsTimeVaryingInt numDynamicFilesPrefetched =
+            new MetricsTimeVaryingInt("DynamicFilesPrefetched", registry);
+    public MetricsTimeVaryingInt numDynamicBlocksPromoted =
+            new MetricsTimeVaryingInt("DynamicBlocksPromoted", registry);
+    public MetricsTimeVaryingInt numDynamicBlocksDemoted =
+            new MetricsTimeVaryingInt("DynamicBlocksDemoted", registry);
+    public MetricsTimeVaryingLong dynamicBytesReclaimed =
+            new MetricsTimeVaryingLong("DynamicBytesReclaimed", registry,
+                    "Bytes of replicas removed to bring used capacity down to dfs.dynamic.low");
+    public MetricsTimeVaryingRate dynamicAllocateReplication =
+            new MetricsTimeVaryingRate("DynamicAllocateReplicationMicros", registry,
+                    "Time in allocateReplication, in microseconds");
 
 
     public NameNodeMetrics(Configuration conf, NameNode nameNode) {
@@ -123,6 +148,10 @@ public class NameNodeMetrics implements Updater {
     public void resetAllMinMax() {
         transactions.resetMinMax();
         syncs.resetMinMax();
+        transactionsPerSync.resetMinMax();
         blockReport.resetMinMax();
+        blocksDeleted.resetMinMax();
+        dynamicReplicationFulfilTime.resetMinMax();
+        dynamicAllocateReplication.resetMinMax();
     }
 }
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is updated by many threads and read rarely, e.g. by the
+ * metrics updater. Each thread adds to one of several cells chosen by its
+ * id, so that concurrent updates seldom contend for the same cache line,
+ * and {@link #get()} sums the cells.
+ * <p>
+ * Unlike the metrics classes, updating the counter takes no lock.
+ */
+public class StripedCounter {
+    // longs per cell, so that two cells never share a cache line
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes the number of cells, rounded up to a power of two
+     */
+    public StripedCounter(int stripes) {
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        this.mask = n - 1;
+        this.cells = new AtomicLongArray(n * PAD);
+    }
+
+    public void add(long delta) {
+        int cell = (int) (Thread.currentThread().getId() & mask);
+        cells.addAndGet(cell * PAD, delta);
+    }
+
+    public void inc() {
+        add(1);
+    }
+
+    /**
+     * The sum of all updates. Updates that happen concurrently with
+     * this call may or may not be included.
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
@@ -35,10 +35,11 @@ import org.apache.hadoop.ipc.VersionedProtocol;
  **********************************************************************/
 public interface DatanodeProtocol extends VersionedProtocol {
     /**
-     * 19: SendHeartbeat returns an array of DatanodeCommand objects
-     *     in stead of a DatanodeCommand object.
+     * 20: SendHeartbeat carries the number of reads of each block served
+     *     since the previous heartbeat.
+     * 21: Added blocksDeleted, full block reports are sent less often.
      */
-    public static final long versionID = 19L;
+    public static final long versionID = 21L;
 
     // error code
     final static int NOTIFY = 0;
@@ -77,19 +78,23 @@ public interface DatanodeProtocol extends VersionedProtocol {
      * an array of "DatanodeCommand" objects.
      * A DatanodeCommand tells the DataNode to invalidate local block(s),
      * or to copy them to other DataNodes, etc.
+     * @param blockReads - the blocks read by clients since the last heartbeat,
+     *     as pairs of longs: block id and number of reads. May be null.
      */
     public DatanodeCommand[] sendHeartbeat(DatanodeRegistration registration,
                                            long capacity,
                                            long dfsUsed, long remaining,
                                            int xmitsInProgress,
-                                           int xceiverCount) throws IOException;
+                                           int xceiverCount,
+                                           long[] blockReads) throws IOException;
 
     /**
      * blockReport() tells the NameNode about all the locally-stored blocks.
      * The NameNode returns an array of Blocks that have become obsolete
      * and should be deleted.  This function is meant to upload *all*
      * the locally-stored blocks.  It's invoked upon startup and then
-     * infrequently afterwards.
+     * infrequently afterwards, as blocks received and deleted in between
+     * are reported by blockReceived() and blocksDeleted().
      * @param registration
      * @param blocks - the block list as an array of longs.
      *     Each block is represented as 2 longs.
@@ -113,6 +118,16 @@ public interface DatanodeProtocol extends VersionedProtocol {
                               Block blocks[],
                               String[] delHints) throws IOException;
 
+    /**
+     * blocksDeleted() tells the NameNode about the blocks the DataNode
+     * has deleted since it last called blocksDeleted(), so that the NameNode
+     * does not keep returning them to clients until the next full
+     * blockReport(). Together with blockReceived() this lets the DataNode
+     * send full block reports rarely.
+     */
+    public void blocksDeleted(DatanodeRegistration registration,
+                              Block blocks[]) throws IOException;
+
     /**
      * errorReport() tells the NameNode about something that has gone
      * awry.  Useful for debugging.
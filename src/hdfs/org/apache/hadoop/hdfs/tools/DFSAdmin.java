@@ -240,6 +240,104 @@ public class DFSAdmin extends FsShell {
         }
     }
 
+    /** A class that supports command clrDynamicPolicy */
+    private static class ClearDynamicPolicyCommand extends DFSAdminCommand {
+        private static final String NAME = "clrDynamicPolicy";
+        private static final String USAGE = "-" + NAME + " <dirname>...<dirname>";
+        private static final String DESCRIPTION = USAGE + ": " +
+                "Clear the dynamic replication policy for each directory <dirName>.\n" +
+                "\t\tThe files under the directory then follow the policy of the\n" +
+                "\t\tclosest ancestor that has one.\n" +
+                "\t\tBest effort for the directory. with fault reported if\n" +
+                "\t\t1. the directory does not exist or is a file, or\n" +
+                "\t\t2. user is not an administrator.\n" +
+                "\t\tIt does not fault if the directory has no policy.";
+
+        /** Constructor */
+        ClearDynamicPolicyCommand(String[] args, int pos, FileSystem fs) {
+            super(fs);
+            CommandFormat c = new CommandFormat(NAME, 1, Integer.MAX_VALUE);
+            List<String> parameters = c.parse(args, pos);
+            this.args = parameters.toArray(new String[parameters.size()]);
+        }
+
+        /** Check if a command is the clrDynamicPolicy command
+         *
+         * @param cmd A string representation of a command starting with "-"
+         * @return true if this is a clrDynamicPolicy command; false otherwise
+         */
+        public static boolean matches(String cmd) {
+            return ("-" + NAME).equals(cmd);
+        }
+
+        @Override
+        public String getCommandName() {
+            return NAME;
+        }
+
+        @Override
+        public void run(Path path) throws IOException {
+            dfs.clearDynamicReplicationPolicy(path);
+        }
+    }
+
+    /** A class that supports command setDynamicPolicy */
+    private static class SetDynamicPolicyCommand extends DFSAdminCommand {
+        private static final String NAME = "setDynamicPolicy";
+        private static final String USAGE =
+                "-" + NAME + " <eligible> <maxReplication> <capacityShare> <dirname>...<dirname>";
+        private static final String DESCRIPTION = USAGE + ": " +
+                "Set the dynamic replication policy for each directory <dirName>.\n" +
+                "\t\t<eligible> is true if the replication of the files under the\n" +
+                "\t\tdirectory may be raised when they are popular, false otherwise.\n" +
+                "\t\t<maxReplication> is the highest replication of the files, which\n" +
+                "\t\tmay exceed dfs.dynamic.max; 0 means dfs.dynamic.max.\n" +
+                "\t\t<capacityShare> is the fraction of the cluster capacity that the\n" +
+                "\t\textra replicas of the files may occupy; 0 means no limit.\n" +
+                "\t\tBest effort for the directory, with faults reported if\n" +
+                "\t\t1. the values are out of range, or\n" +
+                "\t\t2. user is not an administrator, or\n" +
+                "\t\t3. the directory does not exist or is a file, or\n";
+
+        private final boolean eligible;
+        private final short maxReplication;
+        private final float capacityShare;
+
+        /** Constructor */
+        SetDynamicPolicyCommand(String[] args, int pos, FileSystem fs) {
+            super(fs);
+            CommandFormat c = new CommandFormat(NAME, 4, Integer.MAX_VALUE);
+            List<String> parameters = c.parse(args, pos);
+            String str = parameters.remove(0);
+            if (!"true".equalsIgnoreCase(str) && !"false".equalsIgnoreCase(str)) {
+                throw new IllegalArgumentException("Invalid value for eligible : " + str);
+            }
+            this.eligible = Boolean.parseBoolean(str);
+            this.maxReplication = Short.parseShort(parameters.remove(0));
+            this.capacityShare = Float.parseFloat(parameters.remove(0));
+            this.args = parameters.toArray(new String[parameters.size()]);
+        }
+
+        /** Check if a command is the setDynamicPolicy command
+         *
+         * @param cmd A string representation of a command starting with "-"
+         * @return true if this is a setDynamicPolicy command; false otherwise
+         */
+        public static boolean matches(String cmd) {
+            return ("-" + NAME).equals(cmd);
+        }
+
+        @Override
+        public String getCommandName() {
+            return NAME;
+        }
+
+        @Override
+        public void run(Path path) throws IOException {
+            dfs.setDynamicReplicationPolicy(path, eligible, maxReplication, capacityShare);
+        }
+    }
+
     /**
      * Construct a DFSAdmin object.
      */
@@ -428,6 +526,8 @@ public class DFSAdmin extends FsShell {
                 "\t[" + ClearQuotaCommand.USAGE + "]\n" +
                 "\t[" + SetSpaceQuotaCommand.USAGE + "]\n" +
                 "\t[" + ClearSpaceQuotaCommand.USAGE + "]\n" +
+                "\t[" + SetDynamicPolicyCommand.USAGE + "]\n" +
+                "\t[" + ClearDynamicPolicyCommand.USAGE + "]\n" +
                 "\t[-refreshServiceAcl]\n" +
                 "\t[-help [cmd]]\n";
 
@@ -503,6 +603,10 @@ public class DFSAdmin extends FsShell {
             System.out.println(SetSpaceQuotaCommand.DESCRIPTION);
         } else if (ClearSpaceQuotaCommand.matches("-" + cmd)) {
             System.out.println(ClearSpaceQuotaCommand.DESCRIPTION);
+        } else if (SetDynamicPolicyCommand.matches("-" + cmd)) {
+            System.out.println(SetDynamicPolicyCommand.DESCRIPTION);
+        } else if (ClearDynamicPolicyCommand.matches("-" + cmd)) {
+            System.out.println(ClearDynamicPolicyCommand.DESCRIPTION);
         } else if ("refreshServiceAcl".equals(cmd)) {
             System.out.println(refreshServiceAcl);
         } else if ("help".equals(cmd)) {
@@ -520,6 +624,8 @@ public class DFSAdmin extends FsShell {
             System.out.println(ClearQuotaCommand.DESCRIPTION);
             System.out.println(SetSpaceQuotaCommand.DESCRIPTION);
             System.out.println(ClearSpaceQuotaCommand.DESCRIPTION);
+            System.out.println(SetDynamicPolicyCommand.DESCRIPTION);
+            System.out.println(ClearDynamicPolicyCommand.DESCRIPTION);
             System.out.println(refreshServiceAcl);
             System.out.println(help);
             System.out.println();
@@ -678,6 +784,12 @@ public class DFSAdmin extends FsShell {
         } else if (ClearSpaceQuotaCommand.matches(cmd)) {
             System.err.println("Usage: java DFSAdmin"
                     + " [" + ClearSpaceQuotaCommand.USAGE + "]");
+        } else if (SetDynamicPolicyCommand.matches(cmd)) {
+            System.err.println("Usage: java DFSAdmin"
+                    + " [" + SetDynamicPolicyCommand.USAGE + "]");
+        } else if (ClearDynamicPolicyCommand.matches(cmd)) {
+            System.err.println("Usage: java DFSAdmin"
+                    + " [" + ClearDynamicPolicyCommand.USAGE + "]");
         } else if ("-refreshServiceAcl".equals(cmd)) {
             System.err.println("Usage: java DFSAdmin"
                     + " [-refreshServiceAcl]");
@@ -695,6 +807,8 @@ public class DFSAdmin extends FsShell {
             System.err.println("           [" + ClearQuotaCommand.USAGE + "]");
             System.err.println("           [" + SetSpaceQuotaCommand.USAGE + "]");
             System.err.println("           [" + ClearSpaceQuotaCommand.USAGE + "]");
+            System.err.println("           [" + SetDynamicPolicyCommand.USAGE + "]");
+            System.err.println("           [" + ClearDynamicPolicyCommand.USAGE + "]");
             System.err.println("           [-help [cmd]]");
             System.err.println();
             ToolRunner.printGenericCommandUsage(System.err);
@@ -799,6 +913,10 @@ public class DFSAdmin extends FsShell {
                 exitCode = new ClearSpaceQuotaCommand(argv, i, fs).runAll();
             } else if (SetSpaceQuotaCommand.matches(cmd)) {
                 exitCode = new SetSpaceQuotaCommand(argv, i, fs).runAll();
+            } else if (ClearDynamicPolicyCommand.matches(cmd)) {
+                exitCode = new ClearDynamicPolicyCommand(argv, i, fs).runAll();
+            } else if (SetDynamicPolicyCommand.matches(cmd)) {
+                exitCode = new SetDynamicPolicyCommand(argv, i, fs).runAll();
             } else if ("-refreshServiceAcl".equals(cmd)) {
                 exitCode = refreshServiceAcl();
             } else if ("-help".equals(cmd)) {
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.tools;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.XorParity;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Lowers the replication of files that have not been read or written for
+ * a while, after writing their {@link XorParity}. A client that cannot read
+ * a block of such a file from any datanode rebuilds it from the parity.
+ * <p>
+ * Files with a single block are left alone, as their parity would be a
+ * full copy. Parity files whose source no longer exists are deleted, and
+ * the parity of an archived file that has been modified is rewritten.
+ * <p>
+ * A file is idle when its modification and access times are older than
+ * the idle period. The access time of a file is the exponential average
+ * of its read times that dynamic replication keeps (dfs.dynamic.alpha),
+ * so a single read after a long idle period moves it only part of the
+ * way: a file is archived when it is rarely read, not only when it is not
+ * read at all. The archiver reads files without recording an access, so
+ * encoding a file neither moves its access time nor makes it look popular
+ * to dynamic replication.
+ */
+public class ParityArchiver extends Configured implements Tool {
+    private static final Log LOG = LogFactory.getLog(ParityArchiver.class);
+
+    private long idle;
+    private short replication;
+    private long interval;
+    private XorParity parity;
+
+    ParityArchiver() {
+    }
+
+    public ParityArchiver(Configuration conf) {
+        super(conf);
+    }
+
+    /**
+     * Print usage information
+     */
+    static void printUsage() {
+        System.err.println("Usage: ParityArchiver [-idle <msec>] [-replication <n>]"
+                + " [-interval <msec>] <path> ...");
+        System.err.println("\t-idle\tarchive files neither read nor written for this long"
+                + " (dfs.parity.archive.idle, 7 days)");
+        System.err.println("\t-replication\treplication of archived files and their parity"
+                + " (dfs.parity.archive.replication, 2)");
+        System.err.println("\t-interval\tscan again after this long, instead of exiting");
+        ToolRunner.printGenericCommandUsage(System.err);
+    }
+
+    public int run(String[] args) throws Exception {
+        Configuration conf = getConf();
+        idle = conf.getLong("dfs.parity.archive.idle", 7 * 24 * 60 * 60 * 1000L);
+        replication = (short) conf.getInt("dfs.parity.archive.replication", 2);
+        interval = 0;
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i++) {
+                if (args[i].equals("-idle")) {
+                    idle = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-replication")) {
+                    replication = Short.parseShort(args[++i]);
+                } else if (args[i].equals("-interval")) {
+                    interval = Long.parseLong(args[++i]);
+                } else {
+                    printUsage();
+                    return -1;
+                }
+            }
+        } catch (RuntimeException e) {
+            printUsage();
+            return -1;
+        }
+        if (i == args.length || replication < 1) {
+            printUsage();
+            return -1;
+        }
+        parity = new XorParity(conf);
+
+        while (true) {
+            for (int j = i; j < args.length; j++) {
+                Path path = new Path(args[j]);
+                FileSystem fs = path.getFileSystem(conf);
+                int archived = archive(fs, fs.makeQualified(path), System.currentTimeMillis());
+                int purged = purge(fs, fs.makeQualified(path));
+                System.out.println(path + ": archived " + archived + " files, deleted "
+                        + purged + " stale parity files");
+            }
+            if (interval <= 0) {
+                return 0;
+            }
+            Thread.sleep(interval);
+        }
+    }
+
+    /**
+     * Archive the idle files under path.
+     *
+     * @return the number of files archived
+     */
+    int archive(FileSystem fs, Path path, long now) throws IOException {
+        if (parity.isParityPath(path.toUri().getPath())) {
+            return 0;
+        }
+        FileStatus[] stats = fs.listStatus(path);
+        if (stats == null) {
+            return 0;
+        }
+        int archived = 0;
+        for (FileStatus stat : stats) {
+            if (parity.isParityPath(stat.getPath().toUri().getPath())) {
+                continue;
+            }
+            if (stat.isDir()) {
+                archived += archive(fs, stat.getPath(), now);
+            } else {
+                try {
+                    if (archiveFile(fs, stat, now)) {
+                        archived++;
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Could not archive " + stat.getPath() + ": " + e);
+                }
+            }
+        }
+        return archived;
+    }
+
+    private boolean archiveFile(FileSystem fs, FileStatus stat, long now) throws IOException {
+        if (stat.getLen() <= stat.getBlockSize()) {
+            return false;
+        }
+        Path src = stat.getPath();
+        Path parityPath = parity.getParityPath(src);
+        FileStatus parityStat = fs.exists(parityPath) ? fs.getFileStatus(parityPath) : null;
+        boolean valid = parity.isValid(stat, parityStat);
+        if (stat.getReplication() <= replication) {
+            // a file that was archived and has since been modified
+            // needs new parity even though it is not idle
+            if (parityStat == null || valid) {
+                return false;
+            }
+        } else if (Math.max(stat.getModificationTime(), stat.getAccessTime()) > now - idle) {
+            return false;
+        }
+
+        if (!valid) {
+            int bufferSize = getConf().getInt("io.file.buffer.size", 4096);
+            FSDataInputStream in = fs instanceof DistributedFileSystem
+                    ? ((DistributedFileSystem) fs).open(src, bufferSize, false)
+                    : fs.open(src, bufferSize);
+            FSDataOutputStream out = fs.create(parityPath, true, bufferSize, replication,
+                    stat.getBlockSize());
+            try {
+                parity.encode(in, stat.getLen(), stat.getBlockSize(), out);
+                out.close();
+                out = null;
+            } finally {
+                IOUtils.closeStream(in);
+                IOUtils.closeStream(out);
+            }
+            fs.setTimes(parityPath, stat.getModificationTime(), -1);
+            FileStatus current = fs.getFileStatus(src);
+            if (current.getModificationTime() != stat.getModificationTime()
+                    || current.getLen() != stat.getLen()) {
+                // modified while being encoded
+                fs.delete(parityPath, false);
+                return false;
+            }
+        }
+        if (stat.getReplication() > replication) {
+            fs.setReplication(src, replication);
+        }
+        LOG.info("Archived " + src + " with replication " + replication);
+        return true;
+    }
+
+    /**
+     * Delete the parity files under the parity of path whose source has
+     * been deleted.
+     *
+     * @return the number of parity files deleted
+     */
+    int purge(FileSystem fs, Path path) throws IOException {
+        return purgeParity(fs, parity.getParityPath(path));
+    }
+
+    private int purgeParity(FileSystem fs, Path parityPath) throws IOException {
+        FileStatus[] stats = fs.listStatus(parityPath);
+        if (stats == null) {
+            return 0;
+        }
+        int purged = 0;
+        for (FileStatus stat : stats) {
+            if (stat.isDir()) {
+                purged += purgeParity(fs, stat.getPath());
+            } else {
+                Path src = parity.getSourcePath(new Path(stat.getPath().toUri().getPath()));
+                if (!fs.exists(src) && fs.delete(stat.getPath(), false)) {
+                    purged++;
+                }
+            }
+        }
+        return purged;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(new ParityArchiver(new Configuration()), args);
+        System.exit(res);
+    }
+}
@@ -21,6 +21,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -37,6 +38,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.mapred.JobHistory.Values;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
@@ -44,6 +46,7 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.Node;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 
 /*************************************************************
@@ -372,6 +375,80 @@ class JobInProgress {
         return cache;
     }
 
+    /**
+     * Tell the file systems that the input files of the job are about to be
+     * read by its maps, one reader per split, so that they can raise the
+     * replication of the files before the maps run. Only the splits of
+     * the FileSplit classes are understood. This is only a hint and
+     * failures are logged, not thrown.
+     */
+    private void prefetchReplication(JobClient.RawSplit[] splits) {
+        Map<Path, Integer> readers = new HashMap<Path, Integer>();
+        DataInputBuffer buffer = new DataInputBuffer();
+        for (JobClient.RawSplit split : splits) {
+            Path path = getSplitPath(split, buffer);
+            if (path != null) {
+                Integer count = readers.get(path);
+                readers.put(path, count == null ? 1 : count + 1);
+            }
+        }
+
+        // one call per file system
+        Map<FileSystem, List<Path>> files = new HashMap<FileSystem, List<Path>>();
+        for (Path path : readers.keySet()) {
+            try {
+                FileSystem fs = path.getFileSystem(conf);
+                List<Path> paths = files.get(fs);
+                if (paths == null) {
+                    paths = new ArrayList<Path>();
+                    files.put(fs, paths);
+                }
+                paths.add(path);
+            } catch (IOException e) {
+                LOG.warn("Cannot prefetch replication of " + path + ": " + e);
+            }
+        }
+        for (Map.Entry<FileSystem, List<Path>> e : files.entrySet()) {
+            List<Path> paths = e.getValue();
+            int[] counts = new int[paths.size()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = readers.get(paths.get(i));
+            }
+            try {
+                e.getKey().prefetchReplication(paths.toArray(new Path[paths.size()]), counts);
+            } catch (IOException ioe) {
+                LOG.warn("Cannot prefetch replication of the input of " + jobId
+                        + " on " + e.getKey().getUri() + ": " + ioe);
+            }
+        }
+        LOG.info("Prefetched replication of " + readers.size() + " input files of " + jobId);
+    }
+
+    /**
+     * The file read by a split of one of the FileSplit classes, or null
+     */
+    private Path getSplitPath(JobClient.RawSplit split, DataInputBuffer buffer) {
+        String className = split.getClassName();
+        try {
+            buffer.reset(split.getBytes().getBytes(), 0, split.getBytes().getLength());
+            if (FileSplit.class.getName().equals(className)) {
+                FileSplit fileSplit = new FileSplit();
+                fileSplit.readFields(buffer);
+                return fileSplit.getPath();
+            }
+            if (org.apache.hadoop.mapreduce.lib.input.FileSplit.class.getName().equals(className)) {
+                org.apache.hadoop.mapreduce.lib.input.FileSplit fileSplit =
+                        ReflectionUtils.newInstance(
+                                org.apache.hadoop.mapreduce.lib.input.FileSplit.class, conf);
+                fileSplit.readFields(buffer);
+                return fileSplit.getPath();
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot read split of class " + className + ": " + e);
+        }
+        return null;
+    }
+
     /**
      * Check if the job has been initialized.
      * @return <code>true</code> if the job has been initialized,
@@ -451,6 +528,10 @@ class JobInProgress {
         if (numMapTasks > 0) {
             nonRunningMapCache = createCache(splits, maxLevel);
         }
+        int prefetchMaps = jobtracker.getPrefetchReplicationMaps();
+        if (prefetchMaps > 0 && numMapTasks >= prefetchMaps) {
+            prefetchReplication(splits);
+        }
 
         // set the launch time
         this.launchTime = System.currentTimeMillis();
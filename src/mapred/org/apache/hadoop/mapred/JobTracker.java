@@ -3770,6 +3770,14 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
         return conf.getInt("mapred.jobtracker.maxtasks.per.job", -1);
     }
 
+    /**
+     * Returns the configured number of maps from which the file systems are
+     * told to raise the replication of the input of a job before it runs
+     */
+    int getPrefetchReplicationMaps() {
+        return conf.getInt("mapred.jobtracker.prefetch.replication.maps", 1000);
+    }
+
     @Override
     public void refreshServiceAcl() throws IOException {
         if (!conf.getBoolean(
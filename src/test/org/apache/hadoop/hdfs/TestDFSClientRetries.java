@@ -161,6 +161,11 @@ public class TestDFSClientRetries extends TestCase {
             return null;
         }
 
+        public LocatedBlocks getBlockLocations(String src, long offset, long length,
+                                               boolean recordAccess) throws IOException {
+            return null;
+        }
+
         public void create(String src, FsPermission masked, String clientName, boolean overwrite, short replication, long blockSize) throws IOException {
         }
 
@@ -208,6 +213,11 @@ public class TestDFSClientRetries extends TestCase {
             return null;
         }
 
+        public DirectoryListing getListing(String src, byte[] startAfter,
+                                           int maxEntries) throws IOException {
+            return null;
+        }
+
         public void renewLease(String clientName) throws IOException {
         }
 
@@ -258,6 +268,16 @@ public class TestDFSClientRetries extends TestCase {
         public void setQuota(String path, long namespaceQuota, long diskspaceQuota) throws IOException {
         }
 
+        public void setDynamicReplicationPolicy(String path, boolean eligible,
+                                                short maxReplication, float capacityShare) throws IOException {
+        }
+
+        public void clearDynamicReplicationPolicy(String path) throws IOException {
+        }
+
+        public void prefetchReplication(String[] srcs, int[] readers) throws IOException {
+        }
+
         public void fsync(String src, String client) throws IOException {
         }
 
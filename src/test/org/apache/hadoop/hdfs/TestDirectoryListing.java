@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FsShell;
+import org.apache.hadoop.fs.ListingIterator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+
+/**
+ * Test the paged listing of directories.
+ */
+public class TestDirectoryListing extends TestCase {
+    private static final int LS_LIMIT = 3;
+    private static final int NUM_FILES = 10;
+    // more than FsShell prints in one chunk
+    private static final int MANY_FILES = 1001;
+
+    private static String name(int i) {
+        return String.format("file%02d", i);
+    }
+
+    public void testPagedListing() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt("dfs.ls.limit", LS_LIMIT);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            DistributedFileSystem fs = (DistributedFileSystem) cluster.getFileSystem();
+            DFSClient client = fs.getClient();
+            Path dir = new Path("/paged");
+            // created out of order, listed in name order
+            for (int i = NUM_FILES - 1; i >= 0; i--) {
+                DFSTestUtil.createFile(fs, new Path(dir, name(i)), 1, (short) 1, 0L);
+            }
+            fs.mkdirs(new Path("/empty"));
+
+            // pages of dfs.ls.limit entries
+            byte[] startAfter = DirectoryListing.EMPTY_NAME;
+            int listed = 0;
+            DirectoryListing page;
+            do {
+                page = client.listPaths(dir.toString(), startAfter);
+                FileStatus[] entries = page.getPartialListing();
+                assertEquals(Math.min(LS_LIMIT, NUM_FILES - listed), entries.length);
+                for (FileStatus entry : entries) {
+                    assertEquals(name(listed++), entry.getPath().getName());
+                }
+                assertEquals(NUM_FILES - listed, page.getRemainingEntries());
+                startAfter = page.getLastName();
+            } while (page.hasMore());
+            assertEquals(NUM_FILES, listed);
+
+            // no cursor lists from the first entry
+            FSNamesystem namesystem = cluster.getNameNode().getNamesystem();
+            page = namesystem.getListing(dir.toString(), null, LS_LIMIT);
+            assertEquals(name(0), page.getPartialListing()[0].getPath().getName());
+            assertEquals(NUM_FILES - LS_LIMIT, page.getRemainingEntries());
+
+            // a cursor that is not in the directory
+            page = client.listPaths(dir.toString(), DFSUtil.string2Bytes("file04a"));
+            assertEquals(name(5), page.getPartialListing()[0].getPath().getName());
+            assertEquals(NUM_FILES - 5 - LS_LIMIT, page.getRemainingEntries());
+            // a cursor after the last entry
+            page = client.listPaths(dir.toString(), DFSUtil.string2Bytes("zzz"));
+            assertEquals(0, page.getPartialListing().length);
+            assertFalse(page.hasMore());
+
+            page = client.listPaths("/empty", DirectoryListing.EMPTY_NAME);
+            assertEquals(0, page.getPartialListing().length);
+            assertNull(client.listPaths("/missing", DirectoryListing.EMPTY_NAME));
+            page = client.listPaths(new Path(dir, name(0)).toString(),
+                    DirectoryListing.EMPTY_NAME);
+            assertEquals(1, page.getPartialListing().length);
+            assertFalse(page.hasMore());
+
+            // listStatus joins all the pages
+            FileStatus[] all = fs.listStatus(dir);
+            assertEquals(NUM_FILES, all.length);
+            for (int i = 0; i < NUM_FILES; i++) {
+                assertEquals(name(i), all[i].getPath().getName());
+            }
+            assertNull(fs.listStatus(new Path("/missing")));
+
+            // the iterator fetches the pages on demand, its size is known
+            // from the first page
+            ListingIterator it = fs.listStatusIterator(dir);
+            assertEquals(NUM_FILES, it.size());
+            for (int i = 0; i < NUM_FILES; i++) {
+                assertTrue(it.hasNext());
+                FileStatus entry = it.next();
+                assertEquals(name(i), entry.getPath().getName());
+                assertEquals(fs.makeQualified(new Path(dir, name(i))), entry.getPath());
+            }
+            assertFalse(it.hasNext());
+            try {
+                it.next();
+                fail("next() after the last entry");
+            } catch (NoSuchElementException e) {
+                // expected
+            }
+            it = fs.listStatusIterator(new Path("/empty"));
+            assertEquals(0, it.size());
+            assertFalse(it.hasNext());
+            assertNull(fs.listStatusIterator(new Path("/missing")));
+
+            // the directory is removed between two pages
+            it = fs.listStatusIterator(dir);
+            for (int i = 0; i < LS_LIMIT; i++) {
+                it.next();
+            }
+            fs.delete(dir, true);
+            try {
+                it.hasNext();
+                fail("the directory was removed");
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    public void testShellListing() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt("dfs.ls.limit", LS_LIMIT);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        PrintStream oldOut = System.out;
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            Path dir = new Path("/shell");
+            for (int i = 0; i < NUM_FILES; i++) {
+                DFSTestUtil.createFile(fs, new Path(dir, name(i)), 1, (short) 1, 0L);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(out));
+            FsShell shell = new FsShell(conf);
+            assertEquals(0, shell.run(new String[]{"-ls", dir.toString()}));
+            System.out.flush();
+            String[] lines = out.toString().split("\n");
+            assertEquals(NUM_FILES + 1, lines.length);
+            assertEquals("Found " + NUM_FILES + " items", lines[0]);
+            for (int i = 0; i < NUM_FILES; i++) {
+                assertTrue(lines[i + 1], lines[i + 1].endsWith("/shell/" + name(i)));
+            }
+
+            // the header has the exact count, even over several chunks
+            Path many = new Path("/many");
+            for (int i = 0; i < MANY_FILES; i++) {
+                fs.create(new Path(many, String.format("file%04d", i))).close();
+            }
+            out.reset();
+            assertEquals(0, shell.run(new String[]{"-ls", many.toString()}));
+            System.out.flush();
+            lines = out.toString().split("\n");
+            assertEquals(MANY_FILES + 1, lines.length);
+            assertEquals("Found " + MANY_FILES + " items", lines[0]);
+            assertTrue(lines[MANY_FILES], lines[MANY_FILES].endsWith(
+                    String.format("/many/file%04d", MANY_FILES - 1)));
+        } finally {
+            System.setOut(oldOut);
+            cluster.shutdown();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.tools.ParityArchiver;
+import org.apache.hadoop.util.ToolRunner;
+
+import junit.framework.TestCase;
+
+/**
+ * Test XOR parity, the archiving of idle files and the recovery of
+ * unreadable blocks by the client.
+ */
+public class TestXorParity extends TestCase {
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Positional reads of a byte array.
+     */
+    private static class ByteArrayReadable implements PositionedReadable {
+        private final byte[] data;
+
+        ByteArrayReadable(byte[] data) {
+            this.data = data;
+        }
+
+        public int read(long position, byte[] buffer, int offset, int length) {
+            int n = (int) Math.min(length, data.length - position);
+            System.arraycopy(data, (int) position, buffer, offset, n);
+            return n;
+        }
+
+        public void readFully(long position, byte[] buffer, int offset, int length)
+                throws IOException {
+            if (position + length > data.length) {
+                throw new IOException("Read past the end");
+            }
+            read(position, buffer, offset, length);
+        }
+
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+    }
+
+    public void testEncodeRecover() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(XorParity.STRIPE_LENGTH_KEY, 3);
+        XorParity parity = new XorParity(conf);
+        assertEquals(new Path("/parity/a/b"), parity.getParityPath(new Path("/a/b")));
+        assertEquals(new Path("/a/b"), parity.getSourcePath(new Path("/parity/a/b")));
+        assertTrue(parity.isParityPath("/parity"));
+        assertTrue(parity.isParityPath("/parity/a"));
+        assertFalse(parity.isParityPath("/parityx"));
+
+        // three stripes, the last one of a full and a partial block
+        byte[] data = new byte[7 * BLOCK_SIZE + 300];
+        new Random(0).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parity.encode(new ByteArrayReadable(data), data.length, BLOCK_SIZE, out);
+        byte[] parityData = out.toByteArray();
+        assertEquals(3 * BLOCK_SIZE, parityData.length);
+        assertEquals(parityData.length, parity.getParityLength(data.length, BLOCK_SIZE));
+        assertEquals(BLOCK_SIZE, parity.getParityLength(BLOCK_SIZE, BLOCK_SIZE));
+        assertEquals(0, parity.getParityLength(0, BLOCK_SIZE));
+
+        // each block, as if it were lost, and a range inside a block
+        for (int position = 0; position < data.length; position += BLOCK_SIZE) {
+            int len = Math.min(BLOCK_SIZE, data.length - position);
+            byte[] block = new byte[len];
+            parity.recover(new ByteArrayReadable(data), new ByteArrayReadable(parityData),
+                    data.length, BLOCK_SIZE, position, block, 0, len);
+            assertTrue("block at " + position,
+                    Arrays.equals(Arrays.copyOfRange(data, position, position + len), block));
+        }
+        byte[] range = new byte[100];
+        parity.recover(new ByteArrayReadable(data), new ByteArrayReadable(parityData),
+                data.length, BLOCK_SIZE, 4 * BLOCK_SIZE + 50, range, 0, 100);
+        assertTrue(Arrays.equals(
+                Arrays.copyOfRange(data, 4 * BLOCK_SIZE + 50, 4 * BLOCK_SIZE + 150), range));
+        try {
+            parity.recover(new ByteArrayReadable(data), new ByteArrayReadable(parityData),
+                    data.length, BLOCK_SIZE, BLOCK_SIZE - 10, range, 0, 100);
+            fail("recovered a range across two blocks");
+        } catch (IOException e) {
+        }
+    }
+
+    public void testArchiveAndRecover() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt(XorParity.STRIPE_LENGTH_KEY, 3);
+        conf.setInt("dfs.client.max.block.acquire.failures", 1);
+        // keep dynamic replication from raising the replication again
+        conf.setInt("dfs.dynamic.max", 1);
+        conf.setBoolean("dfs.dynamic.block.enabled", false);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            Path data = new Path("/archive/data");
+            Path fresh = new Path("/archive/fresh");
+            Path small = new Path("/archive/small");
+            Path recent = new Path("/archive/recent");
+            int fileLen = 7 * BLOCK_SIZE + 100;
+            DFSTestUtil.createFile(fs, data, fileLen, (short) 2, 1L);
+            DFSTestUtil.createFile(fs, fresh, fileLen, (short) 2, 2L);
+            DFSTestUtil.createFile(fs, small, BLOCK_SIZE / 2, (short) 2, 3L);
+            DFSTestUtil.createFile(fs, recent, fileLen, (short) 2, 4L);
+            long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000L;
+            fs.setTimes(data, old, old);
+            fs.setTimes(small, old, old);
+            byte[] expected = new byte[fileLen];
+            FSDataInputStream in = fs.open(data);
+            in.readFully(0, expected);
+            in.close();
+            fs.setTimes(data, old, old);
+            // idle for 90 minutes, the read moves the average of its read
+            // times halfway to now, which is within the idle period
+            long older = System.currentTimeMillis() - 90 * 60 * 1000L;
+            fs.setTimes(recent, older, older);
+            in = fs.open(recent);
+            in.readFully(0, new byte[BLOCK_SIZE]);
+            in.close();
+            // the next namespace change applies the queued read
+            fs.mkdirs(new Path("/applied"));
+            FSNamesystem namesystem = cluster.getNameNode().getNamesystem();
+            long accesses = namesystem.getDynamicReplicationAccesses();
+
+            String[] args = {"-idle", "3600000", "-replication", "1", "/archive"};
+            assertEquals(0, ToolRunner.run(new ParityArchiver(conf), args));
+            XorParity parity = new XorParity(conf);
+            FileStatus stat = fs.getFileStatus(data);
+            assertEquals(1, stat.getReplication());
+            // encoding the file is not an access
+            assertEquals(old, stat.getAccessTime());
+            assertEquals(accesses, namesystem.getDynamicReplicationAccesses());
+            assertTrue(fs.getFileStatus(recent).getAccessTime() > older + 30 * 60 * 1000L);
+            assertEquals(2, fs.getFileStatus(recent).getReplication());
+            assertFalse(fs.exists(parity.getParityPath(recent)));
+            FileStatus parityStat = fs.getFileStatus(parity.getParityPath(data));
+            assertTrue(parity.isValid(stat, parityStat));
+            assertEquals(3 * BLOCK_SIZE, parityStat.getLen());
+            assertEquals(2, fs.getFileStatus(fresh).getReplication());
+            assertEquals(2, fs.getFileStatus(small).getReplication());
+            assertFalse(fs.exists(parity.getParityPath(fresh)));
+            assertFalse(fs.exists(parity.getParityPath(small)));
+
+            // the only replica of a block in the middle stripe goes bad
+            DFSClient client = ((DistributedFileSystem) fs).getClient();
+            String block = client.namenode.getBlockLocations(data.toString(), 0, fileLen)
+                    .get(4).getBlock().getBlockName();
+            assertTrue(TestDatanodeBlockScanner.corruptReplica(block, 0));
+
+            byte[] actual = new byte[fileLen];
+            in = fs.open(data);
+            in.readFully(actual);
+            assertTrue(Arrays.equals(expected, actual));
+            byte[] range = new byte[2 * BLOCK_SIZE];
+            in.readFully(3 * BLOCK_SIZE + 500, range);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(expected,
+                    3 * BLOCK_SIZE + 500, 5 * BLOCK_SIZE + 500), range));
+            in.close();
+
+            // parity of deleted files is removed
+            fs.delete(data, false);
+            assertEquals(0, ToolRunner.run(new ParityArchiver(conf), args));
+            assertFalse(fs.exists(parity.getParityPath(data)));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
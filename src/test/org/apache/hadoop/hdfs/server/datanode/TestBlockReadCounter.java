@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the per-heartbeat block read counts of the datanode.
+ */
+public class TestBlockReadCounter extends TestCase {
+
+    private static Map<Long, Long> toMap(long[] counts) {
+        Map<Long, Long> map = new HashMap<Long, Long>();
+        for (int i = 0; i < counts.length; i += 2) {
+            map.put(counts[i], counts[i + 1]);
+        }
+        return map;
+    }
+
+    public void testRestoreAfterFailedHeartbeat() {
+        BlockReadCounter counter = new BlockReadCounter(2);
+        counter.readBlock(1);
+        counter.readBlock(1);
+        counter.readBlock(2);
+        long[] drained = counter.drain();
+        assertNull(counter.drain());
+
+        // reads between the drain and the failed heartbeat are kept too
+        counter.readBlock(1);
+        counter.restore(drained);
+        counter.restore(null);
+        Map<Long, Long> counts = toMap(counter.drain());
+        assertEquals(2, counts.size());
+        assertEquals(3L, counts.get(1L).longValue());
+        assertEquals(1L, counts.get(2L).longValue());
+
+        // the restored counts still obey maxBlocks
+        counter.readBlock(3);
+        counter.readBlock(4);
+        counter.restore(drained);
+        counts = toMap(counter.drain());
+        assertEquals(2, counts.size());
+        assertEquals(3L, counter.getDroppedReads());
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+
+/**
+ * Micro-benchmark for the access time averaging done by
+ * {@link FSDirectory#unprotectedSetTimes(String, long, long, boolean)}.
+ * <p>
+ * It compares the former implementation, which built four
+ * {@link BigDecimal}s and five log messages per qualifying access, with
+ * the primitive {@link FSDirectory#exponentialAverage(long, long, double)}
+ * and guarded logging. Each variant is run for a number of warm-up
+ * iterations followed by measured iterations, and the time and heap
+ * allocation per call are reported.
+ * <p>
+ * Usage: AccessTimeAveragingBenchmark [-calls N] [-iterations I] [-alpha A]
+ */
+public class AccessTimeAveragingBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+
+    private final INodeFile inode;
+    private final String src = "/benchmark/file";
+    private final float alpha;
+    private final long precision = 30000;
+    // consumed results, so that the JIT can not drop the work
+    private long sink;
+
+    AccessTimeAveragingBenchmark(float alpha) {
+        this.alpha = alpha;
+        this.inode = new INodeFile(PermissionStatus.createImmutable(
+                "user", "group", FsPermission.getDefault()),
+                0, (short) 3, 0L, 0L, 64L * 1024 * 1024);
+        inode.setLocalName("file");
+    }
+
+    /** The averaging as it was done before, including the unguarded logging. */
+    private void oldSetTimes(long atime) {
+        long inodeTime = inode.getAccessTime();
+        NameNode.allocationLog.info("access time precision is " + precision);
+        NameNode.allocationLog.info("old access time of file " + src + " is " + inodeTime);
+        NameNode.allocationLog.info("now access time of file " + src + " is " + atime);
+        if (atime > inodeTime + precision) {
+            BigDecimal bigInodeTime = new BigDecimal(String.valueOf(inodeTime));
+            BigDecimal bigOne = new BigDecimal(String.valueOf(1));
+            BigDecimal bigAlpha = new BigDecimal(String.valueOf(alpha));
+            BigDecimal bigAtime = new BigDecimal(String.valueOf(atime));
+            long newAccessTime = bigInodeTime.multiply(bigOne.subtract(bigAlpha))
+                    .add(bigAtime.multiply(bigAlpha)).longValue();
+            NameNode.allocationLog.info("new access time of file " + src + " is " + newAccessTime);
+            inode.setAccessTime(newAccessTime);
+        }
+    }
+
+    /** The averaging as it is done now. */
+    private void newSetTimes(long atime, double alpha) {
+        long inodeTime = inode.getAccessTime();
+        if (NameNode.allocationLog.isDebugEnabled()) {
+            NameNode.allocationLog.debug("access time of file " + src + ": precision "
+                    + precision + ", old " + inodeTime + ", now " + atime);
+        }
+        if (atime > inodeTime + precision) {
+            long newAccessTime = FSDirectory.exponentialAverage(inodeTime, atime, alpha);
+            if (NameNode.allocationLog.isDebugEnabled()) {
+                NameNode.allocationLog.debug("new access time of file " + src + " is " + newAccessTime);
+            }
+            inode.setAccessTime(newAccessTime);
+        }
+    }
+
+    private void run(boolean old, long calls) {
+        double a = Double.parseDouble(Float.toString(alpha));
+        inode.setAccessTime(0L);
+        // every call advances the clock past the precision window,
+        // so that each call takes the averaging branch
+        long atime = 1000000L;
+        for (long i = 0; i < calls; i++) {
+            atime += 2 * precision;
+            if (old) {
+                oldSetTimes(atime);
+            } else {
+                newSetTimes(atime, a);
+            }
+        }
+        sink += inode.getAccessTime();
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private void measure(String name, boolean old, long calls, int iterations) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run(old, calls);
+        }
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            run(old, calls);
+            long elapsed = System.nanoTime() - start;
+            bytes = allocatedBytes() - bytes;
+            totalNanos += elapsed;
+            totalBytes += bytes;
+            System.out.println(String.format("%-4s iteration %d: %.2f ns/op, %.1f bytes/op",
+                    name, i, (double) elapsed / calls, (double) bytes / calls));
+        }
+        System.out.println(String.format("%-4s average: %.2f ns/op, %.1f bytes/op",
+                name, (double) totalNanos / (calls * iterations),
+                (double) totalBytes / (calls * iterations)));
+    }
+
+    public static void main(String[] args) {
+        long calls = 5000000L;
+        int iterations = 5;
+        float alpha = 0.5f;
+        for (int i = 0; i < args.length; i++) {
+            if ("-calls".equals(args[i]) && i + 1 < args.length) {
+                calls = Long.parseLong(args[++i]);
+            } else if ("-iterations".equals(args[i]) && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if ("-alpha".equals(args[i]) && i + 1 < args.length) {
+                alpha = Float.parseFloat(args[++i]);
+            } else {
+                System.err.println("Usage: AccessTimeAveragingBenchmark "
+                        + "[-calls N] [-iterations I] [-alpha A]");
+                System.exit(-1);
+            }
+        }
+        AccessTimeAveragingBenchmark bench = new AccessTimeAveragingBenchmark(alpha);
+        bench.measure("old", true, calls, iterations);
+        bench.measure("new", false, calls, iterations);
+        System.out.println("(sink " + bench.sink + ")");
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+/**
+ * Heap footprint benchmark for the store of {@link BlocksMap}.
+ * <p>
+ * It creates the {@link BlockInfo}s first, with random ids as the
+ * namenode allocates them, and then measures the heap taken by the
+ * {@link HashMap} that used to hold them and by the {@link BlockInfoTable}
+ * that holds them now. The blocks themselves are not counted, only the
+ * cost of indexing them. The time of building the index and of looking
+ * up every block is reported too.
+ * <p>
+ * The default of 50 million blocks needs a heap of about 10 GB (-Xmx10g)
+ * for the blocks and the larger of the two indexes.
+ * <p>
+ * Usage: BlocksMapBenchmark [-blocks N] [-loadFactor F]
+ */
+public class BlocksMapBenchmark {
+    private final BlockInfo[] blocks;
+    private final float loadFactor;
+    // consumed results, so that the JIT can not drop the work
+    private long sink;
+
+    BlocksMapBenchmark(int numBlocks, float loadFactor) {
+        this.loadFactor = loadFactor;
+        this.blocks = new BlockInfo[numBlocks];
+        Random r = new Random(0);
+        for (int i = 0; i < numBlocks; i++) {
+            blocks[i] = new BlockInfo(new Block(r.nextLong(), 0, 1001), 3);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void report(String name, long bytes, long buildNanos, long getNanos) {
+        System.out.println(String.format(
+                "%-9s %,d bytes, %.1f bytes/block, build %.1f ns/block, get %.1f ns/block",
+                name, bytes, (double) bytes / blocks.length,
+                (double) buildNanos / blocks.length, (double) getNanos / blocks.length));
+    }
+
+    private void measureHashMap() {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Map<BlockInfo, BlockInfo> map = new HashMap<BlockInfo, BlockInfo>(16, loadFactor);
+        for (BlockInfo b : blocks) {
+            map.put(b, b);
+        }
+        long build = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (BlockInfo b : blocks) {
+            sink += map.get(b).getNumBytes();
+        }
+        long get = System.nanoTime() - start;
+        long bytes = usedHeap() - before;
+        report("HashMap", bytes, build, get);
+        sink += map.size();
+    }
+
+    private void measureTable() {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        BlockInfoTable table = new BlockInfoTable(16, loadFactor);
+        for (BlockInfo b : blocks) {
+            table.add(b);
+        }
+        long build = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (BlockInfo b : blocks) {
+            sink += table.get(b).getNumBytes();
+        }
+        long get = System.nanoTime() - start;
+        long bytes = usedHeap() - before;
+        report("table", bytes, build, get);
+        sink += table.size();
+    }
+
+    public static void main(String[] args) {
+        int numBlocks = 50000000;
+        float loadFactor = 0.75f;
+        for (int i = 0; i < args.length; i++) {
+            if ("-blocks".equals(args[i]) && i + 1 < args.length) {
+                numBlocks = Integer.parseInt(args[++i]);
+            } else if ("-loadFactor".equals(args[i]) && i + 1 < args.length) {
+                loadFactor = Float.parseFloat(args[++i]);
+            } else {
+                System.err.println("Usage: BlocksMapBenchmark [-blocks N] [-loadFactor F]");
+                System.exit(-1);
+            }
+        }
+        BlocksMapBenchmark bench = new BlocksMapBenchmark(numBlocks, loadFactor);
+        bench.measureHashMap();
+        bench.measureTable();
+        System.out.println("(sink " + bench.sink + ")");
+    }
+}
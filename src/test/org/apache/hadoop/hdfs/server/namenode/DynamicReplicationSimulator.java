@@ -0,0 +1,662 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataStorage;
+import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.StaticMapping;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+import org.apache.hadoop.security.UserGroupInformation;
+
+/**
+ * Offline simulator for dynamic replication policies.
+ * <p>
+ * It replays an access trace against a real in-process name-node whose
+ * data-nodes are simulated, the same way {@link NNThroughputBenchmark}
+ * does. The replication monitor and the dynamic replication planner
+ * threads are stopped; the simulator drives heartbeats, block reports,
+ * replication work and the planner itself on the clock of the trace,
+ * using the usual intervals (dfs.heartbeat.interval,
+ * dfs.replication.interval, dfs.dynamic.planner.interval,
+ * dfs.dynamic.block.check.interval and dfs.blockreport.intervalMsec).
+ * Replication and deletion commands complete as soon as a heartbeat
+ * delivers them.
+ * <p>
+ * A trace line is either a name-node audit log line, of which only
+ * <code>cmd=open</code> events are used, or
+ * <code>&lt;time in ms&gt; &lt;client host&gt; &lt;path&gt;</code>.
+ * A file is created with -blocksPerFile blocks when it is opened the first
+ * time. Clients are assumed to run on data-nodes, e.g. as tasks, and a
+ * client host that is not a simulated data-node is mapped to one.
+ * <p>
+ * For every policy, i.e. a set of configuration settings, it reports
+ * <ul>
+ * <li>block replica-hours over the trace,</li>
+ * <li>how many block reads were served by the reader's node or rack,</li>
+ * <li>replication traffic and deleted replicas,</li>
+ * <li>the time spent in name-node calls that take the namesystem lock.
+ * The simulator is the only caller, so this is the lock hold time.</li>
+ * </ul>
+ * <p>
+ * The popularity models read the wall clock. By default the trace is
+ * replayed as fast as possible, which compresses it in time; with
+ * -speedup X the replay is paced at X times the trace speed and the
+ * time-based popularity and demotion settings, which are given in trace
+ * time, are scaled accordingly.
+ * <p>
+ * Usage: DynamicReplicationSimulator -trace FILE [-datanodes N] [-racks R]
+ * [-blocksPerFile B] [-blockSize S] [-capacity C] [-speedup X]
+ * [-policy NAME [key=value,key=value...]]...
+ */
+public class DynamicReplicationSimulator {
+    private static final String CLIENT_NAME = "DynamicReplicationSimulator";
+    private static final int DATANODE_PORT = 50010;
+    // settings given in trace time that the name-node applies on the wall clock
+    private static final String[] TRACE_TIME_KEYS = {
+            "dfs.dynamic.popularity.halflife",
+            "dfs.access.time.precision",
+            "dfs.dynamic.demote.settle.interval"};
+
+    /** One read in the trace. */
+    static class Access {
+        final long time;
+        final String client;
+        final String src;
+
+        Access(long time, String client, String src) {
+            this.time = time;
+            this.client = client;
+            this.src = src;
+        }
+    }
+
+    /**
+     * Reads the accesses of a trace in order. Lines that are neither
+     * open events of an audit log nor plain accesses are skipped.
+     */
+    static class AccessTrace implements Closeable {
+        private static final Pattern AUDIT = Pattern.compile(
+                "^(\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d,\\d{3}) .*"
+                        + "\\bip=/?(\\S*)\\s+cmd=open\\s+src=([^\\t]+)");
+        private final BufferedReader in;
+        private final SimpleDateFormat auditTime =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+
+        AccessTrace(Reader in) {
+            this.in = new BufferedReader(in);
+        }
+
+        /** @return the next access, or null at the end of the trace */
+        Access next() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Matcher m = AUDIT.matcher(line);
+                if (m.find()) {
+                    try {
+                        return new Access(auditTime.parse(m.group(1)).getTime(),
+                                m.group(2), m.group(3).trim());
+                    } catch (ParseException e) {
+                        continue;
+                    }
+                }
+                String[] fields = line.trim().split("\\s+", 3);
+                if (fields.length == 3 && fields[2].startsWith("/")) {
+                    try {
+                        return new Access(Long.parseLong(fields[0]), fields[1], fields[2]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                }
+            }
+            return null;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /** Time spent in one kind of name-node call. */
+    static class LockTimer {
+        final String name;
+        long calls;
+        long totalNanos;
+        long maxNanos;
+
+        LockTimer(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos) {
+            calls++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        public String toString() {
+            return String.format("%s: %d calls, %.1f ms total, %.3f ms max",
+                    name, calls, totalNanos / 1e6, maxNanos / 1e6);
+        }
+    }
+
+    /** What one policy did with the trace. */
+    static class Result {
+        final String policy;
+        long opens;
+        long nodeLocalReads;
+        long rackLocalReads;
+        long remoteReads;
+        // block reads that found no replica
+        long missedReads;
+        // sum over time of the number of block replicas
+        double replicaMillis;
+        long traceMillis;
+        long replicatedBlocks;
+        long replicatedBytes;
+        long deletedReplicas;
+        final LockTimer openTimer = new LockTimer("open");
+        final LockTimer heartbeatTimer = new LockTimer("heartbeat");
+        final LockTimer planTimer = new LockTimer("plan");
+        final LockTimer replicationTimer = new LockTimer("replication");
+
+        Result(String policy) {
+            this.policy = policy;
+        }
+
+        long getBlockReads() {
+            return nodeLocalReads + rackLocalReads + remoteReads + missedReads;
+        }
+
+        double getReplicaHours() {
+            return replicaMillis / (60 * 60 * 1000);
+        }
+
+        double getNodeLocalRate() {
+            return getBlockReads() == 0 ? 0 : (double) nodeLocalReads / getBlockReads();
+        }
+
+        double getRackLocalRate() {
+            return getBlockReads() == 0 ? 0
+                    : (double) (nodeLocalReads + rackLocalReads) / getBlockReads();
+        }
+
+        long getLockNanos() {
+            return openTimer.totalNanos + heartbeatTimer.totalNanos
+                    + planTimer.totalNanos + replicationTimer.totalNanos;
+        }
+
+        void print() {
+            System.out.println("--- policy " + policy + " ---");
+            System.out.println(String.format("opens = %d, block reads = %d, trace = %.2f h",
+                    opens, getBlockReads(), traceMillis / (60 * 60 * 1000.0)));
+            System.out.println(String.format("replica-hours = %.1f", getReplicaHours()));
+            System.out.println(String.format(
+                    "node-local reads = %.1f%%, rack-local or better = %.1f%%, missed = %d",
+                    getNodeLocalRate() * 100, getRackLocalRate() * 100, missedReads));
+            System.out.println("replicated blocks = " + replicatedBlocks
+                    + ", replicated bytes = " + replicatedBytes
+                    + ", deleted replicas = " + deletedReplicas);
+            System.out.println(String.format("namesystem lock time = %.1f ms",
+                    getLockNanos() / 1e6));
+            System.out.println("  " + openTimer);
+            System.out.println("  " + heartbeatTimer);
+            System.out.println("  " + planTimer);
+            System.out.println("  " + replicationTimer);
+        }
+    }
+
+    /**
+     * A data-node that keeps only the set of its blocks and
+     * completes the commands of the name-node immediately.
+     */
+    private class SimulatedDatanode {
+        final String host;
+        final String rack;
+        DatanodeRegistration registration;
+        final Set<Block> blocks = new HashSet<Block>();
+        // reads served since the last heartbeat, block id to count
+        final Map<Long, long[]> reads = new HashMap<Long, long[]>();
+        long readsServed;
+
+        SimulatedDatanode(String host, String rack) {
+            this.host = host;
+            this.rack = rack;
+        }
+
+        void register(NamespaceInfo nsInfo) throws IOException {
+            registration = new DatanodeRegistration(host + ":" + DATANODE_PORT);
+            registration.setStorageInfo(new DataStorage(nsInfo, ""));
+            DataNode.setNewStorageID(registration);
+            registration = nameNode.register(registration);
+        }
+
+        void recordRead(Block block) {
+            long[] count = reads.get(block.getBlockId());
+            if (count == null) {
+                count = new long[1];
+                reads.put(block.getBlockId(), count);
+            }
+            count[0]++;
+            readsServed++;
+        }
+
+        void receive(Block block) throws IOException {
+            blocks.add(new Block(block));
+            long start = System.nanoTime();
+            nameNode.blockReceived(registration, new Block[]{block},
+                    new String[]{DataNode.EMPTY_DEL_HINT});
+            result.heartbeatTimer.add(System.nanoTime() - start);
+        }
+
+        void sendHeartbeat() throws IOException {
+            long[] blockReads = null;
+            if (!reads.isEmpty()) {
+                blockReads = new long[reads.size() * 2];
+                int i = 0;
+                for (Map.Entry<Long, long[]> e : reads.entrySet()) {
+                    blockReads[i++] = e.getKey();
+                    blockReads[i++] = e.getValue()[0];
+                }
+                reads.clear();
+            }
+            long used = blocks.size() * blockSize;
+            long start = System.nanoTime();
+            DatanodeCommand[] cmds = nameNode.sendHeartbeat(registration, capacity, used,
+                    Math.max(0, capacity - used), 0, (int) readsServed, blockReads);
+            result.heartbeatTimer.add(System.nanoTime() - start);
+            readsServed = 0;
+            if (cmds == null) {
+                return;
+            }
+            for (DatanodeCommand cmd : cmds) {
+                if (cmd.getAction() == DatanodeProtocol.DNA_TRANSFER) {
+                    BlockCommand bcmd = (BlockCommand) cmd;
+                    Block[] transfers = bcmd.getBlocks();
+                    DatanodeInfo[][] targets = bcmd.getTargets();
+                    for (int i = 0; i < transfers.length; i++) {
+                        for (DatanodeInfo target : targets[i]) {
+                            datanodes.get(target.getHost()).receive(transfers[i]);
+                            result.replicatedBlocks++;
+                            result.replicatedBytes += transfers[i].getNumBytes();
+                        }
+                    }
+                } else if (cmd.getAction() == DatanodeProtocol.DNA_INVALIDATE) {
+                    for (Block b : ((BlockCommand) cmd).getBlocks()) {
+                        if (blocks.remove(b)) {
+                            result.deletedReplicas++;
+                        }
+                    }
+                }
+            }
+        }
+
+        void blockReport() throws IOException {
+            long[] report = BlockListAsLongs.convertToArrayLongs(
+                    blocks.toArray(new Block[blocks.size()]));
+            long start = System.nanoTime();
+            nameNode.blockReport(registration, report);
+            result.heartbeatTimer.add(System.nanoTime() - start);
+        }
+    }
+
+    private final int numDatanodes;
+    private final int numRacks;
+    private final int blocksPerFile;
+    private final long blockSize;
+    private final long capacity;
+    private final double speedup;
+
+    // state of the current run
+    private NameNode nameNode;
+    private FSNamesystem namesystem;
+    private DynamicReplicationPlanner planner;
+    private SimulatedDatanode[] nodes;
+    private Map<String, SimulatedDatanode> datanodes;
+    private Set<String> files;
+    private Result result;
+    private short replication;
+    private long traceStart;
+    private long wallStart;
+    private long clock;
+
+    DynamicReplicationSimulator(int numDatanodes, int numRacks, int blocksPerFile,
+                                long blockSize, long capacity, double speedup) {
+        this.numDatanodes = numDatanodes;
+        this.numRacks = numRacks;
+        this.blocksPerFile = blocksPerFile;
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.speedup = speedup;
+    }
+
+    /**
+     * Replay a trace against a freshly formatted name-node configured
+     * with the given policy.
+     */
+    Result run(String policy, Configuration policyConf, Reader trace) throws Exception {
+        Configuration conf = new Configuration(policyConf);
+        FileSystem.setDefaultUri(conf, "hdfs://localhost:0");
+        conf.set("dfs.http.address", "0.0.0.0:0");
+        conf.setInt("dfs.namenode.handler.count", 1);
+        conf.setBoolean("dfs.permissions", false);
+        conf.setLong("dfs.block.size", blockSize);
+        conf.setClass("topology.node.switch.mapping.impl",
+                StaticMapping.class, DNSToSwitchMapping.class);
+        if (speedup > 0) {
+            for (String key : TRACE_TIME_KEYS) {
+                String value = conf.get(key);
+                if (value != null) {
+                    conf.setLong(key, Math.max(1, (long) (Long.parseLong(value) / speedup)));
+                }
+            }
+            long bandwidth = conf.getLong("dfs.dynamic.demote.bandwidth", 64L * 1024 * 1024);
+            conf.setLong("dfs.dynamic.demote.bandwidth", (long) (bandwidth * speedup));
+        }
+        replication = (short) conf.getInt("dfs.replication", 3);
+        UserGroupInformation.setCurrentUser(UnixUserGroupInformation.login(conf));
+
+        result = new Result(policy);
+        files = new HashSet<String>();
+        NameNode.format(conf);
+        nameNode = NameNode.createNameNode(new String[0], conf);
+        AccessTrace accesses = new AccessTrace(trace);
+        try {
+            namesystem = nameNode.namesystem;
+            stop(namesystem.replthread);
+            stop(namesystem.dpthread);
+            planner = namesystem.getDynamicReplicationPlanner();
+            startDatanodes();
+            nameNode.setSafeMode(FSConstants.SafeModeAction.SAFEMODE_LEAVE);
+            replay(accesses, conf);
+        } finally {
+            IOUtils.closeStream(accesses);
+            nameNode.stop();
+            nameNode = null;
+            namesystem = null;
+        }
+        return result;
+    }
+
+    private static void stop(Thread thread) throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    private void startDatanodes() throws IOException {
+        NamespaceInfo nsInfo = nameNode.versionRequest();
+        nodes = new SimulatedDatanode[numDatanodes];
+        datanodes = new HashMap<String, SimulatedDatanode>();
+        for (int i = 0; i < numDatanodes; i++) {
+            int rack = i % numRacks;
+            String host = "10." + rack + "." + (i / 256) + "." + (i % 256);
+            String rackName = "/rack" + rack;
+            StaticMapping.addNodeToRack(host, rackName);
+            StaticMapping.addNodeToRack(host + ":" + DATANODE_PORT, rackName);
+            nodes[i] = new SimulatedDatanode(host, rackName);
+            nodes[i].register(nsInfo);
+            nodes[i].sendHeartbeat();
+            datanodes.put(host, nodes[i]);
+        }
+    }
+
+    private void replay(AccessTrace accesses, Configuration conf) throws Exception {
+        long heartbeatInterval = conf.getLong("dfs.heartbeat.interval", 3) * 1000;
+        long replicationInterval = conf.getInt("dfs.replication.interval", 3) * 1000L;
+        long plannerInterval = conf.getLong("dfs.dynamic.planner.interval", 100);
+        long blockCheckInterval = conf.getLong("dfs.dynamic.block.check.interval", 5 * 60 * 1000L);
+        long blockReportInterval = conf.getLong("dfs.blockreport.intervalMsec", 60 * 60 * 1000L);
+        long nextHeartbeat = 0, nextReplication = 0, nextPlan = 0, nextBlockCheck = 0,
+                nextBlockReport = 0;
+        Access access;
+        while ((access = accesses.next()) != null) {
+            if (result.opens == 0) {
+                traceStart = clock = access.time;
+                wallStart = System.currentTimeMillis();
+                nextHeartbeat = nextReplication = nextPlan = clock;
+                nextBlockCheck = clock + blockCheckInterval;
+                nextBlockReport = clock + blockReportInterval;
+            }
+            // out of order lines are replayed at the current time
+            long time = Math.max(clock, access.time);
+            while (true) {
+                long next = Math.min(Math.min(nextHeartbeat, nextReplication),
+                        Math.min(nextPlan, Math.min(nextBlockCheck, nextBlockReport)));
+                if (next > time) {
+                    break;
+                }
+                advance(next);
+                if (next == nextBlockCheck) {
+                    long start = System.nanoTime();
+                    namesystem.checkDynamicBlockReplication();
+                    result.planTimer.add(System.nanoTime() - start);
+                    nextBlockCheck += blockCheckInterval;
+                }
+                if (next == nextPlan) {
+                    plan();
+                    nextPlan += plannerInterval;
+                }
+                if (next == nextReplication) {
+                    long start = System.nanoTime();
+                    namesystem.computeDatanodeWork();
+                    namesystem.processPendingReplications();
+                    result.replicationTimer.add(System.nanoTime() - start);
+                    nextReplication += replicationInterval;
+                }
+                if (next == nextHeartbeat) {
+                    for (SimulatedDatanode node : nodes) {
+                        node.sendHeartbeat();
+                    }
+                    nextHeartbeat += heartbeatInterval;
+                }
+                if (next == nextBlockReport) {
+                    for (SimulatedDatanode node : nodes) {
+                        node.blockReport();
+                    }
+                    nextBlockReport += blockReportInterval;
+                }
+            }
+            advance(time);
+            open(access);
+        }
+        result.traceMillis = clock - traceStart;
+    }
+
+    /** Move the clock forward, pacing the replay if requested. */
+    private void advance(long time) throws InterruptedException {
+        int replicas = 0;
+        for (SimulatedDatanode node : nodes) {
+            replicas += node.blocks.size();
+        }
+        result.replicaMillis += (double) replicas * (time - clock);
+        clock = time;
+        if (speedup > 0) {
+            long sleep = wallStart + (long) ((time - traceStart) / speedup)
+                    - System.currentTimeMillis();
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+        }
+    }
+
+    /** Run the dynamic replication planner until it has nothing to do. */
+    private void plan() throws IOException {
+        long start = System.nanoTime();
+        if (namesystem.checkDynamicReplicationCapacity() > 0) {
+            namesystem.getEditLog().logSync();
+        }
+        while (planner.processBatch() > 0) {
+        }
+        result.planTimer.add(System.nanoTime() - start);
+    }
+
+    private void open(Access access) throws IOException {
+        SimulatedDatanode client = datanodes.get(access.client);
+        if (client == null) {
+            client = nodes[(access.client.hashCode() & Integer.MAX_VALUE) % nodes.length];
+        }
+        if (files.add(access.src)) {
+            createFile(access.src);
+        }
+        result.opens++;
+        long start = System.nanoTime();
+        LocatedBlocks located = namesystem.getBlockLocations(client.host, access.src,
+                0, blocksPerFile * blockSize);
+        result.openTimer.add(System.nanoTime() - start);
+        if (located == null) {
+            return;
+        }
+        for (LocatedBlock b : located.getLocatedBlocks()) {
+            DatanodeInfo[] locations = b.getLocations();
+            SimulatedDatanode server = locations.length == 0 ? null
+                    : datanodes.get(locations[0].getHost());
+            if (server == null) {
+                result.missedReads++;
+                continue;
+            }
+            if (server == client) {
+                result.nodeLocalReads++;
+            } else if (server.rack.equals(client.rack)) {
+                result.rackLocalReads++;
+            } else {
+                result.remoteReads++;
+            }
+            server.recordRead(b.getBlock());
+        }
+    }
+
+    private void createFile(String src) throws IOException {
+        nameNode.create(src, FsPermission.getDefault(), CLIENT_NAME, true,
+                replication, blockSize);
+        for (int i = 0; i < blocksPerFile; i++) {
+            LocatedBlock loc = nameNode.addBlock(src, CLIENT_NAME);
+            Block block = loc.getBlock();
+            block.setNumBytes(blockSize);
+            for (DatanodeInfo dnInfo : loc.getLocations()) {
+                datanodes.get(dnInfo.getHost()).receive(block);
+            }
+        }
+        nameNode.complete(src, CLIENT_NAME);
+    }
+
+    static void printUsage() {
+        System.err.println("Usage: DynamicReplicationSimulator -trace FILE"
+                + " [-datanodes N] [-racks R] [-blocksPerFile B] [-blockSize S]"
+                + " [-capacity C] [-speedup X] [-policy NAME [key=value,key=value...]]...");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String trace = null;
+        int numDatanodes = 11;
+        int numRacks = 2;
+        int blocksPerFile = 4;
+        long blockSize = FSNamesystem.DEFAULT_BLOCK_SIZE;
+        long capacity = 1024L * 1024 * 1024 * 1024;
+        double speedup = 0;
+        List<String> names = new ArrayList<String>();
+        List<Configuration> policies = new ArrayList<Configuration>();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                printUsage();
+            }
+            if (args[i].equals("-trace")) {
+                trace = args[++i];
+            } else if (args[i].equals("-datanodes")) {
+                numDatanodes = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-racks")) {
+                numRacks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-blocksPerFile")) {
+                blocksPerFile = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-blockSize")) {
+                blockSize = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-capacity")) {
+                capacity = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-speedup")) {
+                speedup = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-policy")) {
+                names.add(args[++i]);
+                Configuration policy = new Configuration(conf);
+                if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                    for (String setting : args[++i].split(",")) {
+                        int eq = setting.indexOf('=');
+                        if (eq <= 0) {
+                            printUsage();
+                        }
+                        policy.set(setting.substring(0, eq), setting.substring(eq + 1));
+                    }
+                }
+                policies.add(policy);
+            } else {
+                printUsage();
+            }
+        }
+        if (trace == null) {
+            printUsage();
+        }
+        if (policies.isEmpty()) {
+            names.add("default");
+            policies.add(conf);
+        }
+        NNThroughputBenchmark.turnOffNameNodeLogging();
+        DynamicReplicationSimulator simulator = new DynamicReplicationSimulator(
+                numDatanodes, numRacks, blocksPerFile, blockSize, capacity, speedup);
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < policies.size(); i++) {
+            results.add(simulator.run(names.get(i), policies.get(i),
+                    new FileReader(new File(trace))));
+        }
+        for (Result r : results) {
+            r.print();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+
+/**
+ * Startup time benchmark for the image.
+ * <p>
+ * It builds a namespace of directories holding files of one block each,
+ * saves it in the layout by full path of the old namenodes and in the
+ * sectioned layout, and then loads each image into a fresh namesystem,
+ * the way the namenode does at startup. The sectioned image is loaded
+ * with one thread and with the given number of threads.
+ * <p>
+ * Usage: ImageLoadBenchmark [-dirs D] [-files F] [-threads T] [-sectionSize S]
+ */
+public class ImageLoadBenchmark {
+    private static final PermissionStatus PERM = PermissionStatus.createImmutable(
+            "user", "group", FsPermission.getDefault());
+
+    private static FSNamesystem newNamesystem(int threads, int sectionSize) throws IOException {
+        Configuration conf = new Configuration();
+        conf.setInt("dfs.namenode.image.threads", threads);
+        conf.setInt("dfs.namenode.image.section.size", sectionSize);
+        return TestFSImageSections.newNamesystem(conf);
+    }
+
+    private static void build(FSDirectory fsDir, int numDirs, int filesPerDir) {
+        long blockId = 0;
+        for (int d = 0; d < numDirs; d++) {
+            String dir = String.format("/dir%08d", d);
+            INodeDirectory parent = fsDir.addToParent(dir, fsDir.rootDir, PERM, null,
+                    (short) 0, 0L, 0L, -1L, -1L, 0L);
+            parent = (INodeDirectory) parent.getChild(dir.substring(1));
+            for (int f = 0; f < filesPerDir; f++) {
+                Block[] blocks = {new Block(++blockId, 1024, 1001)};
+                fsDir.addToParent(String.format("%s/part-%05d", dir, f), parent, PERM,
+                        blocks, (short) 3, 0L, 0L, -1L, -1L, 64L * 1024 * 1024);
+            }
+        }
+        fsDir.updateCountForINodeWithQuota();
+    }
+
+    private static void report(String name, File image, long nanos) {
+        System.out.println(String.format("%-28s %,14d bytes %,10.1f ms",
+                name, image.length(), nanos / 1e6));
+    }
+
+    private static void load(String name, File image, int threads,
+                             int sectionSize) throws IOException {
+        FSNamesystem namesystem = newNamesystem(threads, sectionSize);
+        System.gc();
+        long start = System.nanoTime();
+        namesystem.dir.fsImage.loadFSImage(image);
+        report(name, image, System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numDirs = 1000;
+        int filesPerDir = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int sectionSize = 100000;
+        for (int i = 0; i < args.length; i++) {
+            if ("-dirs".equals(args[i]) && i + 1 < args.length) {
+                numDirs = Integer.parseInt(args[++i]);
+            } else if ("-files".equals(args[i]) && i + 1 < args.length) {
+                filesPerDir = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-sectionSize".equals(args[i]) && i + 1 < args.length) {
+                sectionSize = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: ImageLoadBenchmark [-dirs D] [-files F]"
+                        + " [-threads T] [-sectionSize S]");
+                System.exit(-1);
+            }
+        }
+        File dir = new File(System.getProperty("test.build.data", "/tmp"), "imagebench");
+        dir.mkdirs();
+        File byPath = new File(dir, "fsimage.bypath");
+        File sectioned = new File(dir, "fsimage");
+
+        FSNamesystem namesystem = newNamesystem(threads, sectionSize);
+        build(namesystem.dir, numDirs, filesPerDir);
+        long start = System.nanoTime();
+        TestFSImageSections.saveImageByPath(namesystem, byPath);
+        report("save by path", byPath, System.nanoTime() - start);
+        start = System.nanoTime();
+        namesystem.dir.fsImage.saveFSImage(sectioned);
+        report("save sectioned, " + threads + " threads", sectioned, System.nanoTime() - start);
+        namesystem = null;
+
+        // twice, the first round warms the JIT up
+        for (int round = 0; round < 2; round++) {
+            load("load by path", byPath, 1, sectionSize);
+            load("load sectioned, 1 thread", sectioned, 1, sectionSize);
+            load("load sectioned, " + threads + " threads", sectioned, threads, sectionSize);
+        }
+        byPath.delete();
+        sectioned.delete();
+    }
+}
@@ -631,6 +631,34 @@ public class NNThroughputBenchmark {
         }
     }
 
+    /**
+     * List file status statistics.
+     *
+     * Measure how many get-file-status calls the name-node can handle per second.
+     */
+    class FileStatusStats extends OpenFileStats {
+        // Operation types
+        static final String OP_FILE_STATUS_NAME = "fileStatus";
+        static final String OP_FILE_STATUS_USAGE =
+                "-op " + OP_FILE_STATUS_NAME + OP_USAGE_ARGS;
+
+        FileStatusStats(List<String> args) {
+            super(args);
+        }
+
+        String getOpName() {
+            return OP_FILE_STATUS_NAME;
+        }
+
+        long executeOp(int daemonId, int inputIdx, String ignore)
+                throws IOException {
+            long start = System.currentTimeMillis();
+            nameNode.getFileInfo(fileNames[daemonId][inputIdx]);
+            long end = System.currentTimeMillis();
+            return end - start;
+        }
+    }
+
     /**
      * Rename file statistics.
      *
@@ -726,7 +754,7 @@ public class NNThroughputBenchmark {
         void sendHeartbeat() throws IOException {
             // register datanode
             DatanodeCommand[] cmds = nameNode.sendHeartbeat(
-                    dnRegistration, DF_CAPACITY, DF_USED, DF_CAPACITY - DF_USED, 0, 0);
+                    dnRegistration, DF_CAPACITY, DF_USED, DF_CAPACITY - DF_USED, 0, 0, null);
             if (cmds != null) {
                 for (DatanodeCommand cmd : cmds) {
                     LOG.debug("sendHeartbeat Name-node reply: " + cmd.getAction());
@@ -760,7 +788,7 @@ public class NNThroughputBenchmark {
         int replicateBlocks() throws IOException {
             // register datanode
             DatanodeCommand[] cmds = nameNode.sendHeartbeat(
-                    dnRegistration, DF_CAPACITY, DF_USED, DF_CAPACITY - DF_USED, 0, 0);
+                    dnRegistration, DF_CAPACITY, DF_USED, DF_CAPACITY - DF_USED, 0, 0, null);
             if (cmds != null) {
                 for (DatanodeCommand cmd : cmds) {
                     if (cmd.getAction() == DatanodeProtocol.DNA_TRANSFER) {
@@ -1103,6 +1131,7 @@ public class NNThroughputBenchmark {
                 + " | \n\t" + CreateFileStats.OP_CREATE_USAGE
                 + " | \n\t" + OpenFileStats.OP_OPEN_USAGE
                 + " | \n\t" + DeleteFileStats.OP_DELETE_USAGE
+                + " | \n\t" + FileStatusStats.OP_FILE_STATUS_USAGE
                 + " | \n\t" + RenameFileStats.OP_RENAME_USAGE
                 + " | \n\t" + BlockReportStats.OP_BLOCK_REPORT_USAGE
                 + " | \n\t" + ReplicationStats.OP_REPLICATION_USAGE
@@ -1139,6 +1168,10 @@ public class NNThroughputBenchmark {
                 opStat = bench.new DeleteFileStats(args);
                 ops.add(opStat);
             }
+            if (runAll || FileStatusStats.OP_FILE_STATUS_NAME.equals(type)) {
+                opStat = bench.new FileStatusStats(args);
+                ops.add(opStat);
+            }
             if (runAll || RenameFileStats.OP_RENAME_NAME.equals(type)) {
                 opStat = bench.new RenameFileStats(args);
                 ops.add(opStat);
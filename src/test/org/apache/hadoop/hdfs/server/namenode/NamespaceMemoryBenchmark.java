@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.PrintWriter;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+/**
+ * Heap footprint benchmark for the inodes of the namespace.
+ * <p>
+ * It builds a tree of directories holding files of one block each, the
+ * way the image loader does, and compares the heap it takes with the
+ * estimate of {@link NamespaceMemoryReport}. The blocks are kept out of
+ * a blocks map, see BlocksMapBenchmark for that.
+ * <p>
+ * Usage: NamespaceMemoryBenchmark [-dirs D] [-files F]
+ */
+public class NamespaceMemoryBenchmark {
+    private static final PermissionStatus PERM = PermissionStatus.createImmutable(
+            "user", "group", FsPermission.getDefault());
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static INodeDirectory build(int numDirs, int filesPerDir) {
+        INodeDirectory root = new INodeDirectory(INodeDirectory.ROOT_NAME, PERM);
+        long blockId = 0;
+        for (int d = 0; d < numDirs; d++) {
+            INodeDirectory dir = new INodeDirectory(String.format("dir%08d", d), PERM);
+            root.addChild(dir, false);
+            for (int f = 0; f < filesPerDir; f++) {
+                INodeFile file = new INodeFile(PERM, 1, (short) 3, 0L, 0L, 64L * 1024 * 1024);
+                file.setLocalName(String.format("part-%05d", f));
+                BlockInfo block = new BlockInfo(new Block(++blockId, 0, 1001), 3);
+                file.setBlock(0, block);
+                dir.addChild(file, false);
+            }
+            dir.trimChildren();
+        }
+        root.trimChildren();
+        return root;
+    }
+
+    public static void main(String[] args) {
+        int numDirs = 1000;
+        int filesPerDir = 1000;
+        for (int i = 0; i < args.length; i++) {
+            if ("-dirs".equals(args[i]) && i + 1 < args.length) {
+                numDirs = Integer.parseInt(args[++i]);
+            } else if ("-files".equals(args[i]) && i + 1 < args.length) {
+                filesPerDir = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: NamespaceMemoryBenchmark [-dirs D] [-files F]");
+                System.exit(-1);
+            }
+        }
+        long before = usedHeap();
+        INodeDirectory root = build(numDirs, filesPerDir);
+        long measured = usedHeap() - before;
+
+        NamespaceMemoryReport report = new NamespaceMemoryReport();
+        report.add(root);
+        long estimated = report.getInodeBytes() + report.getBlockBytes();
+        long inodes = report.directories + report.files;
+        System.out.println(String.format("measured  %,d bytes, %.1f bytes/inode",
+                measured, (double) measured / inodes));
+        System.out.println(String.format("estimated %,d bytes, %.1f bytes/inode",
+                estimated, (double) estimated / inodes));
+        PrintWriter out = new PrintWriter(System.out);
+        report.write(out);
+        out.flush();
+    }
+}
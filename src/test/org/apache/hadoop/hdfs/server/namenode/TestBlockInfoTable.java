@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.GenerationStamp;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the open-addressing table behind {@link BlocksMap} against a
+ * {@link HashMap}.
+ */
+public class TestBlockInfoTable extends TestCase {
+
+    private static BlockInfo newBlockInfo(long id, long genStamp) {
+        return new BlockInfo(new Block(id, 0, genStamp), 3);
+    }
+
+    private static void assertSameContent(Map<Long, BlockInfo> expected, BlockInfoTable table) {
+        assertEquals(expected.size(), table.size());
+        Set<BlockInfo> seen = new HashSet<BlockInfo>();
+        for (BlockInfo b : table) {
+            assertSame(expected.get(b.getBlockId()), b);
+            assertTrue(seen.add(b));
+        }
+        for (BlockInfo b : expected.values()) {
+            assertSame(b, table.get(new Block(b)));
+        }
+    }
+
+    public void testRandomOperations() {
+        Random r = new Random(0xB10C);
+        Map<Long, BlockInfo> expected = new HashMap<Long, BlockInfo>();
+        BlockInfoTable table = new BlockInfoTable(4, 0.75f);
+        for (int i = 0; i < 200000; i++) {
+            // a small id range, so that removals hit stored blocks
+            long id = r.nextInt(20000) - 10000;
+            BlockInfo stored = expected.get(id);
+            switch (r.nextInt(3)) {
+            case 0:
+                BlockInfo b = newBlockInfo(id, 1);
+                assertEquals(stored == null, table.add(b));
+                if (stored == null) {
+                    expected.put(id, b);
+                }
+                break;
+            case 1:
+                assertEquals(stored != null, table.remove(new Block(id, 0, 1)));
+                expected.remove(id);
+                break;
+            default:
+                assertSame(stored, table.get(new Block(id, 0, 1)));
+                assertEquals(stored != null, table.contains(new Block(id, 0, 1)));
+            }
+        }
+        assertSameContent(expected, table);
+    }
+
+    public void testSequentialIds() {
+        Map<Long, BlockInfo> expected = new HashMap<Long, BlockInfo>();
+        BlockInfoTable table = new BlockInfoTable(16, 0.75f);
+        for (long id = 0; id < 100000; id++) {
+            BlockInfo b = newBlockInfo(id, 1);
+            assertTrue(table.add(b));
+            expected.put(id, b);
+        }
+        // the table doubled when it got three quarters full
+        assertEquals(1 << 18, table.getCapacity());
+        assertSameContent(expected, table);
+
+        // remove every other block, the rest must stay reachable
+        for (long id = 0; id < 100000; id += 2) {
+            assertTrue(table.remove(new Block(id, 0, 1)));
+            expected.remove(id);
+        }
+        assertSameContent(expected, table);
+        assertFalse(table.remove(new Block(0, 0, 1)));
+    }
+
+    public void testGenerationStamp() {
+        BlockInfoTable table = new BlockInfoTable(16, 0.75f);
+        BlockInfo b = newBlockInfo(7, 1001);
+        assertTrue(table.add(b));
+        // a different generation stamp is a different block
+        assertNull(table.get(new Block(7, 0, 1002)));
+        assertTrue(table.add(newBlockInfo(7, 1002)));
+        assertFalse(table.add(newBlockInfo(7, 1001)));
+        assertEquals(2, table.size());
+        assertSame(b, table.get(new Block(7, 0, 1001)));
+        assertTrue(table.remove(new Block(7, 0, 1002)));
+
+        // a wildcard stamp matches the stored block of the same id
+        assertSame(b, table.get(new Block(7, 0, GenerationStamp.WILDCARD_STAMP)));
+        assertTrue(table.remove(new Block(7, 0, GenerationStamp.WILDCARD_STAMP)));
+        assertEquals(0, table.size());
+    }
+
+    public void testIterator() {
+        BlockInfoTable table = new BlockInfoTable(16, 0.75f);
+        assertFalse(table.iterator().hasNext());
+        for (long id = 0; id < 10; id++) {
+            table.add(newBlockInfo(id, 1));
+        }
+        Iterator<BlockInfo> it = table.iterator();
+        it.next();
+        try {
+            it.remove();
+            fail("removed through the iterator");
+        } catch (UnsupportedOperationException e) {
+        }
+        table.remove(new Block(3, 0, 1));
+        try {
+            it.next();
+            fail("iterated over a modified table");
+        } catch (ConcurrentModificationException e) {
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertFalse(table.iterator().hasNext());
+        assertNull(table.get(new Block(4, 0, 1)));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that block reads served by datanodes reach the popularity model
+ * through the heartbeat, even when the client does not call open again.
+ */
+public class TestBlockReadReporting extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+    private static final int NUM_BLOCKS = 4;
+
+    public void testReadsReachModel() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.heartbeat.interval", 1);
+        conf.setClass("dfs.dynamic.popularity.model",
+                DecayedCounterPopularityModel.class, PopularityModel.class);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            cluster.waitActive();
+            FileSystem fs = cluster.getFileSystem();
+            Path file = new Path("/hot");
+            DFSTestUtil.createFile(fs, file, NUM_BLOCKS * BLOCK_SIZE, (short) 1, 0L);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            INodeFile inode = namesystem.dir.getFileINode(file.toString());
+            PopularityModel model = namesystem.getPopularityModel();
+
+            // a single open, the block locations are cached by the client
+            FSDataInputStream in = fs.open(file);
+            long openScore;
+            namesystem.writeLock();
+            try {
+                openScore = model.getScore(inode);
+            } finally {
+                namesystem.writeUnlock();
+            }
+            assertTrue(openScore != Long.MIN_VALUE);
+
+            // three full reads through the same stream
+            byte[] buf = new byte[(int) (NUM_BLOCKS * BLOCK_SIZE)];
+            for (int i = 0; i < 3; i++) {
+                in.readFully(0, buf);
+            }
+            in.close();
+
+            // one open plus three file reads is four times the open alone,
+            // that is two more half-lives in the score
+            long expected = openScore + (long) (1.5 * ForwardDecayPopularityModel.SCALE);
+            long score = openScore;
+            for (int i = 0; i < 100 && score < expected; i++) {
+                Thread.sleep(100);
+                namesystem.writeLock();
+                try {
+                    score = model.getScore(inode);
+                } finally {
+                    namesystem.writeUnlock();
+                }
+            }
+            assertTrue("score " + score + " expected at least " + expected,
+                    score >= expected);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
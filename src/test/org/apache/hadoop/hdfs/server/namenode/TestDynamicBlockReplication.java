@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Test per-block dynamic replication: only the hot blocks of a file
+ * get extra replicas.
+ */
+public class TestDynamicBlockReplication extends TestCase {
+    private static final PermissionStatus PERM = PermissionStatus.createImmutable(
+            "user", "group", FsPermission.getDefault());
+    private static final long HALF_LIFE = 1000L;
+    private static final long BLOCK_SIZE = 1024;
+    private static final int NUM_BLOCKS = 4;
+
+    private BlockInfo newBlock(INodeDirectory root, String name, long id) {
+        INodeFile inode = new INodeFile(PERM, 1, (short) 3, 0L, 0L, BLOCK_SIZE);
+        inode.setLocalName(name);
+        root.addChild(inode, false);
+        BlocksMap blocksMap = new BlocksMap(16, 0.75f);
+        BlockInfo block = blocksMap.addINode(new Block(id, BLOCK_SIZE, 1L), inode);
+        inode.setBlock(0, block);
+        return block;
+    }
+
+    public void testTargets() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.dynamic.popularity.halflife", HALF_LIFE);
+        conf.setInt("dfs.dynamic.block.hot.reads", 4);
+        DynamicBlockReplication replication = new DynamicBlockReplication(conf, 6);
+        INodeDirectory root = new INodeDirectory(INodeDirectory.ROOT_NAME, PERM);
+        BlockInfo hot = newBlock(root, "hot", 1L);
+        BlockInfo cold = newBlock(root, "cold", 2L);
+        long now = 100 * HALF_LIFE;
+
+        // below the threshold nothing changes
+        assertEquals(-1, replication.recordReads(cold, now, 3));
+        assertEquals(0, replication.getTarget(cold, now));
+        // one extra replica at the threshold, one more per doubling
+        assertEquals(4, replication.recordReads(hot, now, 4));
+        hot.setDynamicReplication((short) 4);
+        assertEquals(-1, replication.recordReads(hot, now, 1));
+        assertEquals(5, replication.recordReads(hot, now, 3));
+        hot.setDynamicReplication((short) 5);
+        assertEquals(6, replication.recordReads(hot, now, 1000));
+        hot.setDynamicReplication((short) 6);
+        assertEquals(-1, replication.recordReads(hot, now, 1000));
+        assertEquals(6, hot.getExpectedReplication());
+
+        // the hot block cools down after a few half-lives
+        long later = now + 8 * HALF_LIFE;
+        assertTrue(replication.getTarget(hot, later) < 6);
+        assertTrue(replication.sweep(later).contains(hot));
+        // the cold block decayed below one read and is no longer tracked
+        assertEquals(1, replication.size());
+        assertTrue(replication.sweep(now + 20 * HALF_LIFE).contains(hot));
+        assertEquals(0, replication.size());
+        assertEquals(0, replication.getTarget(hot, now + 20 * HALF_LIFE));
+    }
+
+    public void testHotBlockReplicated() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.heartbeat.interval", 1);
+        conf.setInt("dfs.replication.interval", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        conf.setInt("dfs.dynamic.block.hot.reads", 4);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 3, true, null);
+        try {
+            cluster.waitActive();
+            FileSystem fs = cluster.getFileSystem();
+            Path file = new Path("/index");
+            DFSTestUtil.createFile(fs, file, NUM_BLOCKS * BLOCK_SIZE, (short) 1, 0L);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            INodeFile inode = namesystem.dir.getFileINode(file.toString());
+            Block[] blocks = inode.getBlocks();
+            Block tail = blocks[NUM_BLOCKS - 1];
+
+            // read only the last block, like the index of a MapFile
+            FSDataInputStream in = fs.open(file);
+            byte[] buf = new byte[(int) BLOCK_SIZE];
+            for (int i = 0; i < 16; i++) {
+                in.readFully((NUM_BLOCKS - 1) * BLOCK_SIZE, buf);
+            }
+            in.close();
+
+            int replicas = 0;
+            for (int i = 0; i < 200 && replicas < 3; i++) {
+                Thread.sleep(100);
+                namesystem.writeLock();
+                try {
+                    replicas = namesystem.blocksMap.numNodes(tail);
+                } finally {
+                    namesystem.writeUnlock();
+                }
+            }
+            assertEquals(3, replicas);
+            namesystem.writeLock();
+            try {
+                assertEquals(1, inode.getReplication());
+                for (int i = 0; i < NUM_BLOCKS - 1; i++) {
+                    assertEquals(1, namesystem.blocksMap.getStoredBlock(blocks[i])
+                            .getExpectedReplication());
+                    assertEquals(1, namesystem.blocksMap.numNodes(blocks[i]));
+                }
+            } finally {
+                namesystem.writeUnlock();
+            }
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import junit.framework.TestCase;
+
+public class TestDynamicReplicationCapacityController extends TestCase {
+    private static final long TOTAL = 1000000L;
+
+    private DynamicReplicationCapacityController newController() {
+        Configuration conf = new Configuration();
+        conf.setFloat("dfs.dynamic.low", 70.0f);
+        conf.setLong("dfs.dynamic.demote.bandwidth", 10000L);
+        conf.setLong("dfs.dynamic.demote.settle.interval", 5000L);
+        return new DynamicReplicationCapacityController(conf, 80.0f, 0L);
+    }
+
+    /** remaining bytes for the given used percentage */
+    private static long remaining(int usedPercent) {
+        return TOTAL - TOTAL * usedPercent / 100;
+    }
+
+    public void testHysteresis() {
+        DynamicReplicationCapacityController c = newController();
+        assertTrue(c.canPromote(TOTAL, remaining(75)));
+        assertEquals(0, c.getBytesToDemote(0L, TOTAL, remaining(75)));
+        // above the high-water mark promotions stop
+        assertFalse(c.canPromote(TOTAL, remaining(85)));
+        assertTrue(c.isDemoting());
+        // and stay stopped until the low-water mark is reached
+        assertFalse(c.canPromote(TOTAL, remaining(75)));
+        assertTrue(c.getBytesToDemote(1000L, TOTAL, remaining(75)) > 0);
+        assertTrue(c.canPromote(TOTAL, remaining(70)));
+        assertFalse(c.isDemoting());
+        assertEquals(0, c.getBytesToDemote(2000L, TOTAL, remaining(75)));
+    }
+
+    public void testBudget() {
+        DynamicReplicationCapacityController c = newController();
+        // 150000 bytes above the low-water mark, limited to one second of bandwidth
+        assertEquals(10000L, c.getBytesToDemote(0L, TOTAL, remaining(85)));
+        c.demoted(15000L);
+        // the budget is overdrawn by a large file
+        assertEquals(0, c.getBytesToDemote(100L, TOTAL, remaining(85)));
+        assertEquals(5000L, c.getBytesToDemote(1000L, TOTAL, remaining(85)));
+        c.demoted(5000L);
+        // the 20000 bytes demoted recently are not counted twice
+        assertEquals(0, c.getBytesToDemote(3000L, TOTAL, remaining(72)));
+        // after the settle interval the datanodes have reported the space
+        assertEquals(10000L, c.getBytesToDemote(6000L, TOTAL, remaining(72)));
+    }
+
+    public void testDemoteReclaimsOneReplica() throws Exception {
+        final long blockSize = 1024;
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", blockSize);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            String src = "/dynamic/file";
+            DFSTestUtil.createFile(fs, new Path(src), 4 * blockSize, (short) 1, 0L);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            INodeFile inode = namesystem.dir.getFileINode(src);
+            inode.setAccessTime(1000L);
+            namesystem.allocateReplicationInternal(src, inode);
+            assertEquals(3, inode.getReplication());
+
+            // one demotion frees one replica of the file, not all three
+            long reclaimed;
+            namesystem.writeLock();
+            try {
+                reclaimed = namesystem.dynamicReplicationMonitor.demote(1);
+            } finally {
+                namesystem.writeUnlock();
+            }
+            namesystem.getEditLog().logSync();
+            assertEquals(4 * blockSize, reclaimed);
+            assertEquals(2, inode.getReplication());
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.namenode.metrics.StripedCounter;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the counters, tier statistics and hot-file listing of
+ * dynamic replication.
+ */
+public class TestDynamicReplicationMetrics extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter(4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.inc();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        counter.add(-5);
+        assertEquals(8 * 10000 - 5, counter.get());
+    }
+
+    private void promote(FSNamesystem namesystem, String src, long score)
+            throws Exception {
+        INodeFile inode = namesystem.dir.getFileINode(src);
+        inode.setAccessTime(score);
+        namesystem.allocateReplicationInternal(src, inode);
+        namesystem.getEditLog().logSync();
+    }
+
+    public void testTiersAndHotFiles() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            String hot = "/dynamic/hot";
+            String warm = "/dynamic/warm";
+            String cold = "/dynamic/cold";
+            DFSTestUtil.createFile(fs, new Path(hot), 4 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(fs, new Path(warm), 3 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(fs, new Path(cold), 2 * BLOCK_SIZE, (short) 1, 0L);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            NameNodeMetrics nnMetrics = NameNode.getNameNodeMetrics();
+            int promoted = nnMetrics.numDynamicFilesPromoted.getCurrentIntervalValue();
+
+            // warm and hot take the top tier, cold is colder than both
+            promote(namesystem, warm, 1000L);
+            promote(namesystem, hot, 3000L);
+            promote(namesystem, cold, 500L);
+            assertTrue(nnMetrics.numDynamicFilesPromoted.getCurrentIntervalValue() >= promoted + 3);
+
+            int[] files = namesystem.getDynamicReplicationTierFiles();
+            long[] bytes = namesystem.getDynamicReplicationTierBytes();
+            assertEquals(2, files.length);
+            assertEquals(1, files[0]);
+            assertEquals(2, files[1]);
+            assertEquals(2 * BLOCK_SIZE, bytes[0]);
+            assertEquals(7 * BLOCK_SIZE, bytes[1]);
+            assertEquals(3, namesystem.getDynamicReplicationFiles());
+            assertEquals(9 * BLOCK_SIZE, namesystem.getDynamicReplicationBytes());
+
+            String[] hottest = namesystem.getDynamicReplicationHotFiles(2);
+            assertEquals(2, hottest.length);
+            assertEquals(hot + "\t3\t3000", hottest[0]);
+            assertEquals(warm + "\t3\t1000", hottest[1]);
+            assertEquals(3, namesystem.getDynamicReplicationHotFiles().length);
+
+            // a deleted file leaves its tier
+            fs.delete(new Path(warm), true);
+            assertEquals(4 * BLOCK_SIZE, namesystem.getDynamicReplicationTierBytes()[1]);
+
+            InetSocketAddress http = cluster.getNameNode().getHttpAddress();
+            String page = DFSTestUtil.urlGet(new URL("http://localhost:" + http.getPort()
+                    + "/dynamicReplication?files=1"));
+            assertTrue(page, page.contains("3\t1\t" + 4 * BLOCK_SIZE));
+            assertTrue(page, page.contains(hot + "\t3\t3000"));
+            assertFalse(page, page.contains(cold + "\t"));
+
+            // reads through the client are counted without the namesystem lock
+            long accesses = namesystem.getDynamicReplicationAccesses();
+            fs.open(new Path(cold)).close();
+            assertTrue(namesystem.getDynamicReplicationAccesses() > accesses);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    public void testAppendToTieredFile() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        conf.setBoolean("dfs.support.append", true);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            DistributedFileSystem fs = (DistributedFileSystem) cluster.getFileSystem();
+            String src = "/dynamic/appended";
+            DFSTestUtil.createFile(fs, new Path(src), 2 * BLOCK_SIZE, (short) 1, 0L);
+            fs.setDynamicReplicationPolicy(new Path("/dynamic"), true, (short) 0, 0f);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            promote(namesystem, src, 1000L);
+            DynamicReplicationPolicy policy =
+                    namesystem.dir.getFileINode(src).getParent().getDynamicReplicationPolicy();
+            assertEquals(2 * BLOCK_SIZE, namesystem.getDynamicReplicationTierBytes()[1]);
+            assertEquals(2 * 2 * BLOCK_SIZE, policy.dynamicBytes);
+
+            // the tier and the policy follow the file as it grows
+            FSDataOutputStream out = fs.append(new Path(src));
+            out.write(new byte[(int) BLOCK_SIZE + (int) BLOCK_SIZE / 2]);
+            out.sync();
+            // while it is written the last block counts as a full block
+            long writing = namesystem.getDynamicReplicationTierBytes()[1];
+            assertTrue("" + writing, writing >= 3 * BLOCK_SIZE);
+            assertEquals(writing, namesystem.getDynamicReplicationBytes());
+            assertEquals(2 * writing, policy.dynamicBytes);
+            out.close();
+            long length = 3 * BLOCK_SIZE + BLOCK_SIZE / 2;
+            assertEquals(length, namesystem.getDynamicReplicationTierBytes()[1]);
+            assertEquals(length, namesystem.getDynamicReplicationBytes());
+            assertEquals(2 * length, policy.dynamicBytes);
+
+            // and nothing is left behind when it is deleted
+            fs.delete(new Path(src), true);
+            assertEquals(0, namesystem.getDynamicReplicationBytes());
+            assertEquals(0, policy.dynamicBytes);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.FSConstants.SafeModeAction;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that dynamic replication factors and tiers survive a namenode
+ * restart, both from the edit log and from a saved image.
+ */
+public class TestDynamicReplicationPersistence extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+
+    private Configuration createConf() {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        return conf;
+    }
+
+    private void promote(FSNamesystem namesystem, String src, long score)
+            throws Exception {
+        INodeFile inode = namesystem.dir.getFileINode(src);
+        inode.setAccessTime(score);
+        namesystem.allocateReplicationInternal(src, inode);
+        namesystem.getEditLog().logSync();
+    }
+
+    private void checkTier(FSNamesystem namesystem, String src, int replication) {
+        INodeFile inode = namesystem.dir.getFileINode(src);
+        assertNotNull(inode);
+        assertEquals(replication, inode.getReplication());
+        assertEquals(replication, namesystem.getDynamicReplicationTier(inode));
+    }
+
+    public void testRestart() throws Exception {
+        Configuration conf = createConf();
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        String hot = "/dynamic/hot";
+        String cold = "/dynamic/cold";
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            DFSTestUtil.createFile(fs, new Path(hot), 4 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(fs, new Path(cold), 4 * BLOCK_SIZE, (short) 1, 0L);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            // the hot file takes the empty top tier, the colder one the next
+            promote(namesystem, hot, 2000L);
+            promote(namesystem, cold, 1000L);
+            checkTier(namesystem, hot, 3);
+            checkTier(namesystem, cold, 2);
+        } finally {
+            cluster.shutdown();
+        }
+
+        // replay the edit log
+        cluster = new MiniDFSCluster(conf, 1, false, null);
+        try {
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            checkTier(namesystem, hot, 3);
+            checkTier(namesystem, cold, 2);
+
+            // an explicit setReplication takes the file out of the tiers
+            cluster.getFileSystem().setReplication(new Path(cold), (short) 1);
+            assertEquals(0, namesystem.getDynamicReplicationTier(
+                    namesystem.dir.getFileINode(cold)));
+
+            DistributedFileSystem dfs = (DistributedFileSystem) cluster.getFileSystem();
+            dfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+            dfs.saveNamespace();
+            dfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+        } finally {
+            cluster.shutdown();
+        }
+
+        // load the saved image
+        cluster = new MiniDFSCluster(conf, 1, false, null);
+        try {
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            checkTier(namesystem, hot, 3);
+            INodeFile inode = namesystem.dir.getFileINode(cold);
+            assertEquals(1, inode.getReplication());
+            assertEquals(0, namesystem.getDynamicReplicationTier(inode));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
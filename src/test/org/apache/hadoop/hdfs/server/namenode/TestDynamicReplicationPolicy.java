@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.hdfs.protocol.FSConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.tools.DFSAdmin;
+import org.apache.hadoop.util.ToolRunner;
+
+import junit.framework.TestCase;
+
+/**
+ * Test directory-level dynamic replication policies.
+ */
+public class TestDynamicReplicationPolicy extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+
+    private Configuration createConf() {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        return conf;
+    }
+
+    private void promote(FSNamesystem namesystem, String src, long score)
+            throws Exception {
+        INodeFile inode = namesystem.dir.getFileINode(src);
+        inode.setAccessTime(score);
+        namesystem.allocateReplicationInternal(src, inode);
+        namesystem.getEditLog().logSync();
+    }
+
+    private int getReplication(FSNamesystem namesystem, String src) {
+        return namesystem.dir.getFileINode(src).getReplication();
+    }
+
+    private Map<String, DynamicReplicationPolicy> getPolicies(FSNamesystem namesystem) {
+        Map<String, DynamicReplicationPolicy> policies =
+                new HashMap<String, DynamicReplicationPolicy>();
+        namesystem.dir.collectDynamicReplicationPolicies(namesystem.dir.rootDir, policies);
+        return policies;
+    }
+
+    public void testPolicies() throws Exception {
+        Configuration conf = createConf();
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            DistributedFileSystem dfs = (DistributedFileSystem) cluster.getFileSystem();
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            String scratch = "/scratch/tmp/f";
+            String hot = "/hot/sub/f";
+            String capped = "/capped/f";
+            String other = "/other/f";
+            for (String src : new String[]{scratch, hot, capped, other}) {
+                DFSTestUtil.createFile(dfs, new Path(src), 2 * BLOCK_SIZE, (short) 1, 0L);
+            }
+
+            // scratch files are never promoted, however popular
+            assertEquals(0, ToolRunner.run(new DFSAdmin(conf),
+                    new String[]{"-setDynamicPolicy", "false", "0", "0", "/scratch"}));
+            promote(namesystem, scratch, 5000L);
+            assertEquals(1, getReplication(namesystem, scratch));
+
+            // a policy may go beyond dfs.dynamic.max
+            dfs.setDynamicReplicationPolicy(new Path("/hot"), true, (short) 5, 0f);
+            promote(namesystem, hot, 1000L);
+            assertEquals(5, getReplication(namesystem, hot));
+            assertEquals(4, namesystem.getDynamicReplicationTierFiles().length);
+
+            // files without a policy stop at dfs.dynamic.max
+            promote(namesystem, other, 2000L);
+            assertEquals(3, getReplication(namesystem, other));
+
+            // a tightened policy brings the file down on its next access
+            dfs.setDynamicReplicationPolicy(new Path("/hot"), true, (short) 2, 0f);
+            assertEquals(5, getReplication(namesystem, hot));
+            promote(namesystem, hot, 3000L);
+            assertEquals(2, getReplication(namesystem, hot));
+
+            // the extra replicas of a capped directory may not exceed its share
+            dfs.setDynamicReplicationPolicy(new Path("/capped"), true, (short) 0, 1e-12f);
+            promote(namesystem, capped, 4000L);
+            assertEquals(1, getReplication(namesystem, capped));
+
+            // without its policy the scratch file follows the global limit
+            assertEquals(0, ToolRunner.run(new DFSAdmin(conf),
+                    new String[]{"-clrDynamicPolicy", "/scratch"}));
+            promote(namesystem, scratch, 5000L);
+            assertEquals(3, getReplication(namesystem, scratch));
+
+            try {
+                dfs.setDynamicReplicationPolicy(new Path(other), true, (short) 3, 0f);
+                fail("set a policy on a file");
+            } catch (FileNotFoundException e) {
+            }
+            try {
+                dfs.setDynamicReplicationPolicy(new Path("/hot"), true, (short) 1000, 0f);
+                fail("set a maximum replication above dfs.replication.max");
+            } catch (IOException e) {
+            }
+            try {
+                dfs.setDynamicReplicationPolicy(new Path("/hot"), true, (short) 3, 2f);
+                fail("set a capacity share above 1");
+            } catch (IllegalArgumentException e) {
+            }
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * Setting or clearing a policy moves the extra replicas of the files
+     * already promoted below the directory to the policy they now follow.
+     */
+    public void testPolicyAccounting() throws Exception {
+        Configuration conf = createConf();
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            DistributedFileSystem dfs = (DistributedFileSystem) cluster.getFileSystem();
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            String a = "/top/sub/a";
+            String b = "/top/b";
+            DFSTestUtil.createFile(dfs, new Path(a), 2 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(dfs, new Path(b), 2 * BLOCK_SIZE, (short) 1, 0L);
+            dfs.setDynamicReplicationPolicy(new Path("/top"), true, (short) 0, 0f);
+            promote(namesystem, a, 1000L);
+            promote(namesystem, b, 2000L);
+            DynamicReplicationPolicy top = getPolicies(namesystem).get("/top");
+            // two extra replicas of two blocks for each file
+            assertEquals(2 * 2 * 2 * BLOCK_SIZE, top.dynamicBytes);
+
+            // a new policy below takes over the files already promoted
+            dfs.setDynamicReplicationPolicy(new Path("/top/sub"), true, (short) 0, 0f);
+            DynamicReplicationPolicy sub = getPolicies(namesystem).get("/top/sub");
+            assertEquals(2 * 2 * BLOCK_SIZE, sub.dynamicBytes);
+            assertEquals(2 * 2 * BLOCK_SIZE, top.dynamicBytes);
+
+            // and hands them back to the ancestor when it is cleared
+            dfs.clearDynamicReplicationPolicy(new Path("/top/sub"));
+            assertEquals(0, sub.dynamicBytes);
+            assertEquals(2 * 2 * 2 * BLOCK_SIZE, top.dynamicBytes);
+
+            // with no policy left the bytes are not charged anywhere
+            dfs.clearDynamicReplicationPolicy(new Path("/top"));
+            assertEquals(0, top.dynamicBytes);
+            dfs.setDynamicReplicationPolicy(new Path("/top"), true, (short) 0, 0f);
+            assertEquals(2 * 2 * 2 * BLOCK_SIZE,
+                    getPolicies(namesystem).get("/top").dynamicBytes);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * A quota replaces the directory inode, which must not leave the
+     * files below it looking at the old inode and its policy.
+     */
+    public void testPolicyWithQuota() throws Exception {
+        Configuration conf = createConf();
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            DistributedFileSystem dfs = (DistributedFileSystem) cluster.getFileSystem();
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            String src = "/quota/f";
+            DFSTestUtil.createFile(dfs, new Path(src), 2 * BLOCK_SIZE, (short) 1, 0L);
+            dfs.setDynamicReplicationPolicy(new Path("/quota"), false, (short) 0, 0f);
+            dfs.setQuota(new Path("/quota"), 100, FSConstants.QUOTA_DONT_SET);
+            dfs.clearDynamicReplicationPolicy(new Path("/quota"));
+            promote(namesystem, src, 1000L);
+            assertEquals(3, getReplication(namesystem, src));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    public void testRestart() throws Exception {
+        Configuration conf = createConf();
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        String hot = "/hot/f";
+        try {
+            DistributedFileSystem dfs = (DistributedFileSystem) cluster.getFileSystem();
+            dfs.mkdirs(new Path("/scratch"));
+            dfs.mkdirs(new Path("/gone"));
+            DFSTestUtil.createFile(dfs, new Path(hot), 2 * BLOCK_SIZE, (short) 1, 0L);
+            dfs.setDynamicReplicationPolicy(new Path("/scratch"), false, (short) 0, 0f);
+            dfs.setDynamicReplicationPolicy(new Path("/hot"), true, (short) 5, 0.5f);
+            dfs.setDynamicReplicationPolicy(new Path("/gone"), true, (short) 2, 0f);
+            dfs.clearDynamicReplicationPolicy(new Path("/gone"));
+            promote(cluster.getNameNode().namesystem, hot, 1000L);
+        } finally {
+            cluster.shutdown();
+        }
+
+        // replay the edit log, then load the saved image
+        for (int i = 0; i < 2; i++) {
+            cluster = new MiniDFSCluster(conf, 1, false, null);
+            try {
+                FSNamesystem namesystem = cluster.getNameNode().namesystem;
+                Map<String, DynamicReplicationPolicy> policies = getPolicies(namesystem);
+                assertEquals(2, policies.size());
+                assertFalse(policies.get("/scratch").isEligible());
+                DynamicReplicationPolicy policy = policies.get("/hot");
+                assertTrue(policy.isEligible());
+                assertEquals(5, policy.getMaxReplication());
+                assertEquals(0.5f, policy.getCapacityShare());
+                assertEquals(5, getReplication(namesystem, hot));
+                assertEquals(4 * 2 * BLOCK_SIZE, policy.dynamicBytes);
+
+                DistributedFileSystem dfs = (DistributedFileSystem) cluster.getFileSystem();
+                dfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+                dfs.saveNamespace();
+                dfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+            } finally {
+                cluster.shutdown();
+            }
+        }
+    }
+}
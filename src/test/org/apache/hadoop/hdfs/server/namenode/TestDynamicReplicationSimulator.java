@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.StringReader;
+
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+public class TestDynamicReplicationSimulator extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+
+    /**
+     * One hot file read every second by clients on all nodes,
+     * and a few cold files read once.
+     */
+    private static String makeTrace() {
+        StringBuilder trace = new StringBuilder();
+        trace.append("# time client path\n");
+        long time = 1000000L;
+        for (int i = 0; i < 100; i++) {
+            trace.append(time).append(" client").append(i % 7).append(" /data/hot\n");
+            if (i % 20 == 0) {
+                trace.append(time).append(" client0 /data/cold").append(i).append('\n');
+            }
+            time += 1000;
+        }
+        return trace.toString();
+    }
+
+    private DynamicReplicationSimulator.Result run(String name, int dynamicMax)
+            throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", dynamicMax);
+        conf.setBoolean("dfs.dynamic.block.enabled", false);
+        // the trace is replayed in a fraction of a second
+        conf.setLong("dfs.access.time.precision", 1);
+        DynamicReplicationSimulator simulator =
+                new DynamicReplicationSimulator(6, 2, 2, BLOCK_SIZE, 1024 * 1024L, 0);
+        DynamicReplicationSimulator.Result result =
+                simulator.run(name, conf, new StringReader(makeTrace()));
+        result.print();
+        return result;
+    }
+
+    public void testTraceParsing() throws Exception {
+        DynamicReplicationSimulator.AccessTrace trace = new DynamicReplicationSimulator.AccessTrace(
+                new StringReader(
+                        "2010-05-01 12:00:00,123 INFO org.apache.hadoop.hdfs.server.namenode."
+                                + "FSNamesystem.audit: ugi=user,group\tip=/10.0.0.5\tcmd=open\t"
+                                + "src=/user/a b\tdst=null\tperm=null\n"
+                                + "2010-05-01 12:00:01,000 INFO org.apache.hadoop.hdfs.server.namenode."
+                                + "FSNamesystem.audit: ugi=user,group\tip=/10.0.0.5\tcmd=create\t"
+                                + "src=/user/c\tdst=null\tperm=user:group:rw-r--r--\n"
+                                + "1272715202000 host1 /user/d\n"));
+        DynamicReplicationSimulator.Access a = trace.next();
+        assertEquals("10.0.0.5", a.client);
+        assertEquals("/user/a b", a.src);
+        // the create event is skipped
+        DynamicReplicationSimulator.Access d = trace.next();
+        assertEquals("/user/d", d.src);
+        assertEquals("host1", d.client);
+        assertEquals(1272715202000L, d.time);
+        assertNull(trace.next());
+        trace.close();
+    }
+
+    public void testPolicies() throws Exception {
+        DynamicReplicationSimulator.Result fixed = run("fixed", 1);
+        DynamicReplicationSimulator.Result dynamic = run("dynamic", 3);
+
+        assertEquals(105, fixed.opens);
+        assertEquals(2 * 105, fixed.getBlockReads());
+        assertEquals(0, fixed.missedReads);
+        assertEquals(0, fixed.replicatedBlocks);
+        // one replica of each block over the whole trace at most
+        assertTrue(fixed.getReplicaHours() <= 12 * 99 / 3600.0);
+
+        // the hot file gets two more replicas and more reads become local
+        assertEquals(dynamic.getBlockReads(), fixed.getBlockReads());
+        assertTrue(dynamic.replicatedBlocks >= 4);
+        assertEquals(dynamic.replicatedBlocks * BLOCK_SIZE, dynamic.replicatedBytes);
+        assertTrue(dynamic.getReplicaHours() > fixed.getReplicaHours());
+        assertTrue(dynamic.getRackLocalRate() >= fixed.getRackLocalRate());
+        assertTrue(dynamic.planTimer.calls > 0);
+        assertTrue(dynamic.openTimer.calls == dynamic.opens);
+    }
+}
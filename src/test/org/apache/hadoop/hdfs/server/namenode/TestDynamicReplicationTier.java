@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import junit.framework.TestCase;
+
+public class TestDynamicReplicationTier extends TestCase {
+    private static final PermissionStatus PERM = PermissionStatus.createImmutable(
+            "user", "group", FsPermission.getDefault());
+    private static final long BLOCK_SIZE = 1024;
+
+    private static DynamicReplicationTier.Entry newEntry(long score) {
+        INodeFile inode = new INodeFile(PERM, 0, (short) 3, 0L, score, 1024L);
+        inode.setLocalName("file" + score);
+        return new DynamicReplicationTier.Entry(inode, score);
+    }
+
+    public void testPollOrder() throws Exception {
+        DynamicReplicationTier tier = new DynamicReplicationTier(4);
+        assertEquals(4, tier.getReplication());
+        assertNull(tier.peek());
+        assertNull(tier.poll());
+
+        Random r = new Random(0xdeadbeefL);
+        for (int i = 0; i < 1000; i++) {
+            tier.add(newEntry(r.nextInt(500)));
+        }
+        assertEquals(1000, tier.size());
+        long last = Long.MIN_VALUE;
+        while (!tier.isEmpty()) {
+            DynamicReplicationTier.Entry e = tier.poll();
+            assertTrue(e.getScore() >= last);
+            assertNull(e.getTier());
+            last = e.getScore();
+        }
+    }
+
+    public void testRemoveAndUpdate() throws Exception {
+        DynamicReplicationTier tier = new DynamicReplicationTier(5);
+        List<DynamicReplicationTier.Entry> entries =
+                new ArrayList<DynamicReplicationTier.Entry>();
+        for (int i = 0; i < 100; i++) {
+            DynamicReplicationTier.Entry e = newEntry(i * 10);
+            entries.add(e);
+            tier.add(e);
+        }
+        assertSame(entries.get(0), tier.peek());
+
+        // removing the minimum exposes the next one
+        assertTrue(tier.remove(entries.get(0)));
+        assertFalse(tier.remove(entries.get(0)));
+        assertSame(entries.get(1), tier.peek());
+
+        // raising the score of the minimum moves it down the heap
+        tier.update(entries.get(1), 10000);
+        assertSame(entries.get(2), tier.peek());
+
+        // lowering a score moves it to the top
+        tier.update(entries.get(50), -1);
+        assertSame(entries.get(50), tier.peek());
+
+        // remove from the middle keeps the heap ordered
+        for (int i = 3; i < 100; i += 3) {
+            tier.remove(entries.get(i));
+        }
+        long last = Long.MIN_VALUE;
+        while (!tier.isEmpty()) {
+            DynamicReplicationTier.Entry e = tier.poll();
+            assertTrue(e.getScore() >= last);
+            last = e.getScore();
+        }
+    }
+
+    public void testEntryBelongsToOneTier() throws Exception {
+        DynamicReplicationTier low = new DynamicReplicationTier(4);
+        DynamicReplicationTier high = new DynamicReplicationTier(5);
+        DynamicReplicationTier.Entry e = newEntry(1);
+        low.add(e);
+        assertSame(low, e.getTier());
+        try {
+            high.add(e);
+            fail("An entry must not be added to two tiers");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        assertFalse(high.remove(e));
+        assertTrue(low.remove(e));
+        high.add(e);
+        assertSame(high, e.getTier());
+        assertEquals(0, low.size());
+        assertEquals(1, high.size());
+    }
+
+    private void promote(FSNamesystem namesystem, String src, long score)
+            throws Exception {
+        INodeFile inode = namesystem.dir.getFileINode(src);
+        inode.setAccessTime(score);
+        namesystem.allocateReplicationInternal(src, inode);
+        namesystem.getEditLog().logSync();
+    }
+
+    public void testDeleteDirectory() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            String a = "/dynamic/dir/a";
+            String b = "/dynamic/dir/sub/b";
+            String kept = "/dynamic/kept";
+            DFSTestUtil.createFile(fs, new Path(a), 2 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(fs, new Path(b), 2 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(fs, new Path(kept), 2 * BLOCK_SIZE, (short) 1, 0L);
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            promote(namesystem, a, 1000L);
+            promote(namesystem, b, 2000L);
+            promote(namesystem, kept, 3000L);
+            assertEquals(3, namesystem.getDynamicReplicationFiles());
+
+            // the files of a deleted directory leave the tiers at once,
+            // not when they reach the top of a heap
+            fs.delete(new Path("/dynamic/dir"), true);
+            assertEquals(1, namesystem.getDynamicReplicationFiles());
+            assertEquals(2 * BLOCK_SIZE, namesystem.getDynamicReplicationBytes());
+            String[] hottest = namesystem.getDynamicReplicationHotFiles();
+            assertEquals(1, hottest.length);
+            assertEquals(kept + "\t3\t3000", hottest[0]);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
@@ -120,6 +120,51 @@ public class TestEditLog extends TestCase {
         editLog.close();
         editLog.open();
 
+        runTransactions(editLog, numThreads, numberTransactions);
+        editLog.close();
+        verifyEdits(fsimage, numThreads * 2 * numberTransactions);
+    }
+
+    /**
+     * Tests that concurrent syncs are batched, with a sync delay, and that
+     * the edits are written in full to all the edits directories.
+     */
+    public void testGroupCommit() throws IOException {
+        Configuration conf = new Configuration();
+        MiniDFSCluster cluster = new MiniDFSCluster(0, conf, numDatanodes,
+                true, true, null, null);
+        cluster.waitActive();
+        Collection<File> namedirs = cluster.getNameDirs();
+        Collection<File> editsdirs = cluster.getNameEditsDirs();
+        cluster.shutdown();
+        assertTrue(editsdirs.size() > 1);
+
+        FSImage fsimage = new FSImage(namedirs, editsdirs);
+        FSEditLog editLog = fsimage.getEditLog();
+        conf.setLong("dfs.namenode.edits.sync.delay", 20);
+        conf.setInt("dfs.namenode.edits.sync.batch", 40);
+        conf.setInt("dfs.namenode.edits.preallocate.size", 256 * 1024);
+        editLog.setConf(conf);
+        editLog.close();
+        editLog.open();
+
+        int threads = 20;
+        int transactions = 50;
+        runTransactions(editLog, threads, transactions);
+        // each thread synced after every two transactions
+        long syncs = editLog.getNumSyncs();
+        assertTrue("syncs " + syncs, syncs > 0 && syncs < threads * transactions / 2);
+        // the files were extended by whole chunks
+        for (Iterator<StorageDirectory> it =
+             fsimage.dirIterator(NameNodeDirType.EDITS); it.hasNext(); ) {
+            File editFile = FSImage.getImageFile(it.next(), NameNodeFile.EDITS);
+            assertTrue(editFile.length() >= 256 * 1024);
+        }
+        editLog.close();
+        verifyEdits(fsimage, threads * 2 * transactions);
+    }
+
+    private void runTransactions(FSEditLog editLog, int numThreads, int numberTransactions) {
         // Create threads and make them run transactions concurrently.
         Thread threadId[] = new Thread[numThreads];
         for (int i = 0; i < numThreads; i++) {
@@ -136,9 +181,9 @@ public class TestEditLog extends TestCase {
                 i--;      // retry
             }
         }
+    }
 
-        editLog.close();
-
+    private void verifyEdits(FSImage fsimage, int expectedEdits) throws IOException {
         // Verify that we can read in all the transactions that we have written.
         // If there were any corruptions, it is likely that the reading in
         // of these transactions will throw an exception.
@@ -152,9 +197,9 @@ public class TestEditLog extends TestCase {
             System.out.println("Number of outstanding leases " + numLeases);
             assertEquals(0, numLeases);
             assertTrue("Verification for " + editFile + " failed. " +
-                            "Expected " + (numThreads * 2 * numberTransactions) + " transactions. " +
+                            "Expected " + expectedEdits + " transactions. " +
                             "Found " + numEdits + " transactions.",
-                    numEdits == numThreads * 2 * numberTransactions);
+                    numEdits == expectedEdits);
 
         }
     }
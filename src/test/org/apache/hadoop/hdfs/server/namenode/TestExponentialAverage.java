@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test {@link FSDirectory#exponentialAverage(long, long, double)} against
+ * the BigDecimal computation it replaced.
+ */
+public class TestExponentialAverage extends TestCase {
+    private static final float[] ALPHAS = {
+            0.01f, 0.1f, 0.125f, 0.2f, 0.25f, 0.3f, 0.333f, 0.5f,
+            0.6f, 0.7f, 0.75f, 0.9f, 0.99f, 1.0f};
+    private static final long[] GAPS = {
+            0L, 1L, 2L, 3L, 7L, 10L, 99L, 1000L, 30001L, 86400000L,
+            365L * 86400000L, 1L << 40, (1L << 53) - 1};
+    // an access time in 2010, as the namenode sees them
+    private static final long NOW = 1262304000000L;
+
+    /** The alpha as FSNamesystem reads it from dfs.dynamic.alpha. */
+    private static double alpha(float alpha) {
+        return Double.parseDouble(Float.toString(alpha));
+    }
+
+    /** The former computation, exact up to the final truncation. */
+    private static long exact(long oldTime, long newTime, float alpha) {
+        BigDecimal bigOld = new BigDecimal(String.valueOf(oldTime));
+        BigDecimal bigOne = new BigDecimal(String.valueOf(1));
+        BigDecimal bigAlpha = new BigDecimal(String.valueOf(alpha));
+        BigDecimal bigNew = new BigDecimal(String.valueOf(newTime));
+        return bigOld.multiply(bigOne.subtract(bigAlpha))
+                .add(bigNew.multiply(bigAlpha)).longValue();
+    }
+
+    private static void check(long oldTime, long newTime, float alpha) {
+        long expected = exact(oldTime, newTime, alpha);
+        long actual = FSDirectory.exponentialAverage(oldTime, newTime, alpha(alpha));
+        String msg = "old " + oldTime + ", new " + newTime + ", alpha " + alpha;
+        // the double product may round to the next integer either way
+        assertTrue(msg + ": " + actual + " vs " + expected,
+                Math.abs(actual - expected) <= 1);
+        assertTrue(msg, actual >= oldTime && actual <= newTime);
+    }
+
+    public void testMatchesBigDecimal() throws Exception {
+        for (float alpha : ALPHAS) {
+            for (long gap : GAPS) {
+                check(NOW, NOW + gap, alpha);
+                check(0L, gap, alpha);
+            }
+        }
+        Random r = new Random(0xa11ceL);
+        for (int i = 0; i < 100000; i++) {
+            long oldTime = NOW + r.nextInt(Integer.MAX_VALUE);
+            long gap = r.nextInt(Integer.MAX_VALUE);
+            check(oldTime, oldTime + gap, ALPHAS[r.nextInt(ALPHAS.length)]);
+        }
+    }
+
+    public void testEdgeCases() throws Exception {
+        // the bounds are exact
+        assertEquals(NOW, FSDirectory.exponentialAverage(NOW, NOW + 86400000L, 0.0));
+        assertEquals(NOW + 86400000L,
+                FSDirectory.exponentialAverage(NOW, NOW + 86400000L, 1.0));
+        assertEquals(NOW, FSDirectory.exponentialAverage(NOW, NOW, alpha(0.7f)));
+        // alphas that are binary fractions give the exact result
+        for (long gap : GAPS) {
+            for (float alpha : new float[]{0.125f, 0.25f, 0.5f, 0.75f}) {
+                assertEquals(exact(NOW, NOW + gap, alpha),
+                        FSDirectory.exponentialAverage(NOW, NOW + gap, alpha(alpha)));
+            }
+        }
+        // fractions of a millisecond are dropped, as by longValue()
+        assertEquals(NOW, FSDirectory.exponentialAverage(NOW, NOW + 1, alpha(0.5f)));
+        assertEquals(NOW + 1, FSDirectory.exponentialAverage(NOW, NOW + 3, alpha(0.5f)));
+        // past 2^53 ms the gap is no longer exact as a double, the error
+        // stays within a few ulps of the gap
+        long gap = (1L << 60) + 12345L;
+        long actual = FSDirectory.exponentialAverage(0L, gap, alpha(0.3f));
+        long expected = exact(0L, gap, 0.3f);
+        assertTrue(actual + " vs " + expected,
+                Math.abs(actual - expected) <= Math.ulp((double) gap) * 4);
+    }
+}
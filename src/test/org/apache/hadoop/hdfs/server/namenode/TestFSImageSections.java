@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.hdfs.server.common.StorageInfo;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the sectioned image layout, and the loader of the layout that
+ * saved the inodes by full path.
+ */
+public class TestFSImageSections extends TestCase {
+    private static final File TEST_DIR = new File(
+            System.getProperty("test.build.data", "build/test/data"), "imagesections");
+    /** The last layout that saved the inodes by full path. */
+    static final int LAYOUT_BY_PATH = -20;
+
+    static FSNamesystem newNamesystem(Configuration conf) throws IOException {
+        StorageInfo storage = new StorageInfo(FSConstants.LAYOUT_VERSION, 0, 0L);
+        return new FSNamesystem(new FSImage(storage), conf);
+    }
+
+    private static PermissionStatus perm(String user, String group, int mode) {
+        return new PermissionStatus(user, group, new FsPermission((short) mode));
+    }
+
+    /**
+     * Build a namespace with quotas, several users, empty and deep
+     * directories, and files of zero to three blocks.
+     */
+    private static void buildNamespace(FSDirectory fsDir) {
+        long blockId = 1;
+        PermissionStatus alice = perm("alice", "staff", 0755);
+        PermissionStatus bob = perm("bob", "users", 0700);
+        fsDir.addToParent("/quota", null, alice, null, (short) 0, 10L, 0L, 1000L, 1L << 40, 0L);
+        fsDir.addToParent("/empty", null, bob, null, (short) 0, 20L, 0L, -1L, -1L, 0L);
+        for (int d = 0; d < 5; d++) {
+            String dir = "/quota/dir" + d;
+            fsDir.addToParent(dir, null, d % 2 == 0 ? alice : bob, null,
+                    (short) 0, 30L + d, 0L, -1L, d == 3 ? 1L << 30 : -1L, 0L);
+            for (int f = 0; f < 7; f++) {
+                Block[] blocks = new Block[f % 4];
+                for (int b = 0; b < blocks.length; b++) {
+                    blocks[b] = new Block(blockId++, 1024 * (b + 1), 1001 + b);
+                }
+                fsDir.addToParent(dir + "/file" + f, null, f % 3 == 0 ? bob : alice,
+                        blocks, (short) (1 + f % 3), 40L + f, 50L + f, -1L, -1L,
+                        64L * 1024 * 1024);
+            }
+        }
+        String deep = "";
+        for (int d = 0; d < 20; d++) {
+            deep += "/deep" + d;
+            fsDir.addToParent(deep, null, alice, null, (short) 0, 60L, 0L, -1L, -1L, 0L);
+        }
+        fsDir.addToParent(deep + "/leaf", null, perm("carol", "staff", 0644),
+                new Block[]{new Block(blockId++, 1, 1001)}, (short) 2, 70L, 80L, -1L, -1L, 512L);
+        fsDir.rootDir.setPermissionStatus(perm("root", "supergroup", 0711));
+        fsDir.rootDir.setModificationTime(90L);
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        // one section; sections of a few inodes; a section per inode
+        int[][] settings = {{1, 100000}, {3, 4}, {2, 1}};
+        for (int[] setting : settings) {
+            Configuration conf = new Configuration();
+            conf.setInt("dfs.namenode.image.threads", setting[0]);
+            conf.setInt("dfs.namenode.image.section.size", setting[1]);
+            FSNamesystem saved = newNamesystem(conf);
+            buildNamespace(saved.dir);
+            File image = new File(TEST_DIR, "fsimage");
+            TEST_DIR.mkdirs();
+            saved.dir.fsImage.saveFSImage(image);
+
+            FSNamesystem loaded = newNamesystem(conf);
+            loaded.dir.fsImage.loadFSImage(image);
+            assertSameTree(saved.dir.rootDir, loaded.dir.rootDir, loaded.blocksMap, true);
+            assertEquals(saved.blocksMap.size(), loaded.blocksMap.size());
+        }
+    }
+
+    public void testLoadByPath() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt("dfs.namenode.image.threads", 2);
+        conf.setInt("dfs.namenode.image.section.size", 4);
+        FSNamesystem saved = newNamesystem(conf);
+        buildNamespace(saved.dir);
+        // the image header counts the inodes
+        saved.dir.updateCountForINodeWithQuota();
+        File image = new File(TEST_DIR, "fsimage.bypath");
+        TEST_DIR.mkdirs();
+        saveImageByPath(saved, image);
+
+        FSNamesystem loaded = newNamesystem(conf);
+        assertTrue("an old image must be saved again",
+                loaded.dir.fsImage.loadFSImage(image));
+        assertSameTree(saved.dir.rootDir, loaded.dir.rootDir, loaded.blocksMap, false);
+        assertEquals(saved.blocksMap.size(), loaded.blocksMap.size());
+    }
+
+    /**
+     * @param exactTimes false for the loader by path, which raises the
+     *                   modification time of a directory to the newest
+     *                   of its subdirectories
+     */
+    private static void assertSameINode(INode expected, INode actual, boolean exactTimes) {
+        String name = expected.getLocalName();
+        assertEquals(name, actual.getLocalName());
+        assertEquals(name, expected.isDirectory(), actual.isDirectory());
+        if (exactTimes || !expected.isDirectory()) {
+            assertEquals(name, expected.getModificationTime(), actual.getModificationTime());
+        } else {
+            assertTrue(name, expected.getModificationTime() <= actual.getModificationTime());
+        }
+        assertEquals(name, expected.getUserName(), actual.getUserName());
+        assertEquals(name, expected.getGroupName(), actual.getGroupName());
+        assertEquals(name, expected.getFsPermission(), actual.getFsPermission());
+        assertEquals(name, expected.getNsQuota(), actual.getNsQuota());
+        assertEquals(name, expected.getDsQuota(), actual.getDsQuota());
+    }
+
+    private static void assertSameTree(INodeDirectory expected, INodeDirectory actual,
+                                       BlocksMap blocksMap, boolean exactTimes) {
+        assertSameINode(expected, actual, exactTimes);
+        List<INode> expectedChildren = expected.getChildren();
+        List<INode> actualChildren = actual.getChildren();
+        assertEquals(expected.getLocalName(), expectedChildren.size(), actualChildren.size());
+        // the loaded children are sorted and trimmed
+        assertEquals(actual.getNumChildren(), actual.getChildrenCapacity());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            INode e = expectedChildren.get(i);
+            INode a = actualChildren.get(i);
+            assertSameINode(e, a, exactTimes);
+            assertSame(actual, a.getParent());
+            if (e.isDirectory()) {
+                assertSameTree((INodeDirectory) e, (INodeDirectory) a, blocksMap, exactTimes);
+                continue;
+            }
+            INodeFile ef = (INodeFile) e;
+            INodeFile af = (INodeFile) a;
+            assertEquals(ef.getReplication(), af.getReplication());
+            assertEquals(ef.getAccessTime(), af.getAccessTime());
+            assertEquals(ef.getPreferredBlockSize(), af.getPreferredBlockSize());
+            assertEquals(ef.getBlocks().length, af.getBlocks().length);
+            for (int b = 0; b < ef.getBlocks().length; b++) {
+                BlockInfo block = af.getBlocks()[b];
+                assertEquals(ef.getBlocks()[b], block);
+                assertEquals(ef.getBlocks()[b].getNumBytes(), block.getNumBytes());
+                assertSame(block, blocksMap.getStoredBlock(block));
+                assertSame(af, blocksMap.getINode(block));
+            }
+        }
+    }
+
+    /**
+     * Save an image in the layout that saved every inode with its full
+     * path, the way namenodes before layout -21 did.
+     */
+    static void saveImageByPath(FSNamesystem fsNamesys, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            INodeDirectoryWithQuota root = fsNamesys.dir.rootDir;
+            out.writeInt(LAYOUT_BY_PATH);
+            out.writeInt(fsNamesys.dir.fsImage.getNamespaceID());
+            out.writeLong(root.numItemsInTree());
+            out.writeLong(fsNamesys.getGenerationStamp());
+            saveINodeByPath("", root, out);
+            saveChildrenByPath("", root, out);
+            out.writeInt(0); // files under construction
+            out.writeInt(0); // dynamic replication policies
+            out.writeInt(0); // dynamic replication tiers
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void saveChildrenByPath(String path, INodeDirectory dir,
+                                           DataOutputStream out) throws IOException {
+        // all children first, then the subtrees of the directories
+        for (INode child : dir.getChildren()) {
+            saveINodeByPath(path + "/" + child.getLocalName(), child, out);
+        }
+        for (INode child : dir.getChildren()) {
+            if (child.isDirectory()) {
+                saveChildrenByPath(path + "/" + child.getLocalName(),
+                        (INodeDirectory) child, out);
+            }
+        }
+    }
+
+    private static void saveINodeByPath(String path, INode node,
+                                        DataOutputStream out) throws IOException {
+        FSImage.writeString(path, out);
+        if (node.isDirectory()) {
+            out.writeShort(0);
+            out.writeLong(node.getModificationTime());
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeInt(-1);
+            out.writeLong(node.getNsQuota());
+            out.writeLong(node.getDsQuota());
+        } else {
+            INodeFile file = (INodeFile) node;
+            out.writeShort(file.getReplication());
+            out.writeLong(file.getModificationTime());
+            out.writeLong(file.getAccessTime());
+            out.writeLong(file.getPreferredBlockSize());
+            out.writeInt(file.getBlocks().length);
+            for (Block b : file.getBlocks()) {
+                b.write(out);
+            }
+        }
+        PermissionStatus.write(out, node.getUserName(), node.getGroupName(),
+                node.getFsPermission());
+    }
+}
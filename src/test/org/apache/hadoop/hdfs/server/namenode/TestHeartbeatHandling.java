@@ -18,7 +18,7 @@ import junit.framework.TestCase;
  */
 public class TestHeartbeatHandling extends TestCase {
     /**
-     * Test if {@link FSNamesystem#handleHeartbeat(DatanodeRegistration, long, long, long, int, int)}
+     * Test if {@link FSNamesystem#handleHeartbeat(DatanodeRegistration, long, long, long, int, int, long[])}
      * can pick up replication and/or invalidate requests and
      * observes the max limit
      */
@@ -44,7 +44,7 @@ public class TestHeartbeatHandling extends TestCase {
                             new Block(i, 0, GenerationStamp.FIRST_VALID_STAMP), ONE_TARGET);
                 }
                 DatanodeCommand[] cmds = namesystem.handleHeartbeat(
-                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0);
+                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0, null);
                 assertEquals(1, cmds.length);
                 assertEquals(DatanodeProtocol.DNA_TRANSFER, cmds[0].getAction());
                 assertEquals(MAX_REPLICATE_LIMIT, ((BlockCommand) cmds[0]).getBlocks().length);
@@ -56,7 +56,7 @@ public class TestHeartbeatHandling extends TestCase {
                 dd.addBlocksToBeInvalidated(blockList);
 
                 cmds = namesystem.handleHeartbeat(
-                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0);
+                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0, null);
                 assertEquals(2, cmds.length);
                 assertEquals(DatanodeProtocol.DNA_TRANSFER, cmds[0].getAction());
                 assertEquals(MAX_REPLICATE_LIMIT, ((BlockCommand) cmds[0]).getBlocks().length);
@@ -64,7 +64,7 @@ public class TestHeartbeatHandling extends TestCase {
                 assertEquals(MAX_INVALIDATE_LIMIT, ((BlockCommand) cmds[1]).getBlocks().length);
 
                 cmds = namesystem.handleHeartbeat(
-                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0);
+                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0, null);
                 assertEquals(2, cmds.length);
                 assertEquals(DatanodeProtocol.DNA_TRANSFER, cmds[0].getAction());
                 assertEquals(REMAINING_BLOCKS, ((BlockCommand) cmds[0]).getBlocks().length);
@@ -72,13 +72,13 @@ public class TestHeartbeatHandling extends TestCase {
                 assertEquals(MAX_INVALIDATE_LIMIT, ((BlockCommand) cmds[1]).getBlocks().length);
 
                 cmds = namesystem.handleHeartbeat(
-                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0);
+                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0, null);
                 assertEquals(1, cmds.length);
                 assertEquals(DatanodeProtocol.DNA_INVALIDATE, cmds[0].getAction());
                 assertEquals(REMAINING_BLOCKS, ((BlockCommand) cmds[0]).getBlocks().length);
 
                 cmds = namesystem.handleHeartbeat(
-                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0);
+                        nodeReg, dd.getCapacity(), dd.getDfsUsed(), dd.getRemaining(), 0, 0, null);
                 assertEquals(null, cmds);
             }
         } finally {
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that the blocks deleted by datanodes reach the namenode
+ * without waiting for a full block report.
+ */
+public class TestIncrementalBlockReports extends TestCase {
+
+    private int numNodes(FSNamesystem namesystem, Block block) {
+        namesystem.readLock();
+        try {
+            return namesystem.blocksMap.numNodes(block);
+        } finally {
+            namesystem.readUnlock();
+        }
+    }
+
+    public void testDeletedBlocks() throws Exception {
+        Configuration conf = new Configuration();
+        // no full block report after the first one
+        conf.setLong("dfs.blockreport.intervalMsec", 60 * 60 * 1000L);
+        conf.setLong("dfs.heartbeat.interval", 1);
+        conf.setInt("dfs.replication.interval", 1);
+        // keep dynamic replication from raising the replication again
+        conf.setInt("dfs.dynamic.max", 1);
+        conf.setBoolean("dfs.dynamic.block.enabled", false);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 2, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            Path file = new Path("/f");
+            DFSTestUtil.createFile(fs, file, 1024, (short) 2, 0L);
+            DFSTestUtil.waitReplication(fs, file, (short) 2);
+            Block block = DFSTestUtil.getFirstBlock(fs, file);
+            assertEquals(2, numNodes(namesystem, block));
+
+            // the excess replica is removed once its datanode has deleted it
+            fs.setReplication(file, (short) 1);
+            for (int i = 0; i < 300 && numNodes(namesystem, block) > 1; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, numNodes(namesystem, block));
+            assertEquals(0, namesystem.getExcessBlocks());
+            assertEquals(1, fs.getFileBlockLocations(fs.getFileStatus(file), 0, 1024)[0]
+                    .getHosts().length);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
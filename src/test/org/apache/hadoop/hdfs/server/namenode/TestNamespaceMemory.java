@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the compact inode layout and the namespace memory report.
+ */
+public class TestNamespaceMemory extends TestCase {
+    private static final PermissionStatus PERM = PermissionStatus.createImmutable(
+            "user", "group", FsPermission.getDefault());
+
+    private static INodeFile newFile(String name) {
+        INodeFile file = new INodeFile(PERM, 0, (short) 3, 0L, 0L, 64L * 1024 * 1024);
+        file.setLocalName(name);
+        return file;
+    }
+
+    public void testChildren() {
+        INodeDirectory dir = new INodeDirectory("dir", PERM);
+        assertNull(dir.getChildrenRaw());
+        assertEquals(0, dir.getChildren().size());
+
+        Random r = new Random(0);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            String name = "f" + r.nextInt(5000);
+            if (dir.addChild(newFile(name), false) == null) {
+                assertTrue(names.contains(name));
+            } else {
+                names.add(name);
+            }
+        }
+        assertEquals(names.size(), dir.getNumChildren());
+        assertTrue(dir.getChildrenCapacity() >= names.size());
+        assertChildrenSorted(dir);
+
+        // remove half of the children
+        for (int i = 0; i < names.size(); i += 2) {
+            INode child = dir.getChild(names.get(i));
+            assertSame(child, dir.removeChild(child));
+            assertNull(dir.getChild(names.get(i)));
+        }
+        assertNull(dir.removeChild(newFile(names.get(0))));
+        for (int i = 1; i < names.size(); i += 2) {
+            assertEquals(names.get(i), dir.getChild(names.get(i)).getLocalName());
+        }
+        assertChildrenSorted(dir);
+
+        // trimming keeps the children and leaves no unused slot
+        int numChildren = dir.getNumChildren();
+        dir.trimChildren();
+        assertEquals(numChildren, dir.getChildrenCapacity());
+        assertEquals(numChildren, dir.getChildren().size());
+        assertNotNull(dir.addChild(newFile("a"), false));
+        assertEquals("a", dir.getChildren().get(0).getLocalName());
+        assertChildrenSorted(dir);
+    }
+
+    private static void assertChildrenSorted(INodeDirectory dir) {
+        List<INode> children = dir.getChildren();
+        assertEquals(dir.getNumChildren(), children.size());
+        for (int i = 1; i < children.size(); i++) {
+            assertTrue(children.get(i - 1).compareTo(children.get(i).getLocalNameBytes()) < 0);
+            assertSame(dir, children.get(i).getParent());
+        }
+    }
+
+    public void testFileHeader() {
+        long blockSize = INodeFile.MAX_PREFERRED_BLOCK_SIZE;
+        INodeFile file = new INodeFile(PERM, 0, Short.MAX_VALUE, 0L, 0L, blockSize);
+        assertEquals(Short.MAX_VALUE, file.getReplication());
+        assertEquals(blockSize, file.getPreferredBlockSize());
+        file.setReplication((short) 2);
+        assertEquals(2, file.getReplication());
+        assertEquals(blockSize, file.getPreferredBlockSize());
+        try {
+            new INodeFile(PERM, 0, (short) 3, 0L, 0L, blockSize + 1);
+            fail("accepted a block size that does not fit");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testMemoryReport() {
+        INodeDirectory root = new INodeDirectory(INodeDirectory.ROOT_NAME, PERM);
+        INodeDirectory dir = new INodeDirectory("dir", PERM);
+        root.addChild(dir, false);
+        INodeFile file = newFile("file");
+        file.addBlock(new BlockInfo(new Block(1, 0, 1001), 3));
+        file.addBlock(new BlockInfo(new Block(2, 0, 1001), 3));
+        dir.addChild(file, false);
+        root.trimChildren();
+
+        NamespaceMemoryReport report = new NamespaceMemoryReport();
+        report.add(root);
+        assertEquals(2, report.directories);
+        assertEquals(1, report.files);
+        assertEquals(2, report.blocks);
+        assertEquals(0, report.unusedChildSlots - (dir.getChildrenCapacity() - 1));
+        // the name of the root is empty, but still an array
+        assertEquals(NamespaceMemoryReport.arrayBytes(0, 1) + NamespaceMemoryReport.arrayBytes(3, 1)
+                + NamespaceMemoryReport.arrayBytes(4, 1), report.nameBytes);
+        assertEquals(2 * NamespaceMemoryReport.DIRECTORY + NamespaceMemoryReport.FILE
+                + report.nameBytes + report.childSlots + report.blockSlots,
+                report.getInodeBytes());
+    }
+
+    public void testMetaSave() throws Exception {
+        Configuration conf = new Configuration();
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            for (int i = 0; i < 10; i++) {
+                DFSTestUtil.createFile(fs, new Path("/dir/f" + i), 1024, (short) 1, 0L);
+            }
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            NamespaceMemoryReport report = namesystem.dir.getMemoryReport();
+            // the root directory has a quota
+            assertEquals(1, report.directoriesWithQuota);
+            assertEquals(1, report.directories);
+            assertEquals(10, report.files);
+            assertEquals(10, report.blocks);
+            assertEquals(namesystem.blocksMap.getCapacity(), report.blocksMapCapacity);
+
+            // the children arrays are trimmed when the image is loaded,
+            // the first restart only saves the edits into the image
+            for (int i = 0; i < 2; i++) {
+                cluster.shutdown();
+                cluster = new MiniDFSCluster(conf, 1, false, null);
+            }
+            namesystem = cluster.getNameNode().namesystem;
+            report = namesystem.dir.getMemoryReport();
+            assertEquals(10, report.files);
+            assertEquals(0, report.unusedChildSlots);
+
+            String logDir = System.getProperty("hadoop.log.dir");
+            File metaFile = new File(logDir, "metasave.out.txt");
+            metaFile.delete();
+            namesystem.metaSave("metasave.out.txt");
+            BufferedReader in = new BufferedReader(new FileReader(metaFile));
+            try {
+                String line;
+                while ((line = in.readLine()) != null
+                        && !line.startsWith("Metasave: Namespace memory estimate")) {
+                }
+                assertNotNull(line);
+            } finally {
+                in.close();
+            }
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the read/write lock of the namesystem and the buffering of the
+ * access times updated by reads.
+ */
+public class TestNamesystemLock extends TestCase {
+
+    public void testConcurrentReaders() throws Exception {
+        Configuration conf = new Configuration();
+        // the threads of the executor call the namesystem without a user
+        conf.setBoolean("dfs.permissions", false);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            final FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            DFSTestUtil.createFile(fs, new Path("/dir/f"), 1024, (short) 1, 0L);
+
+            Future<Boolean> mkdirs;
+            namesystem.readLock();
+            try {
+                // readers do not wait for each other
+                Future<FileStatus[]> listing = executor.submit(new Callable<FileStatus[]>() {
+                    public FileStatus[] call() throws Exception {
+                        assertNotNull(namesystem.getFileInfo("/dir/f"));
+                        assertNotNull(namesystem.getBlockLocations("/dir/f", 0, 1024));
+                        assertEquals(1, namesystem.getContentSummary("/dir").getFileCount());
+                        return namesystem.getListing("/dir");
+                    }
+                });
+                assertEquals(1, listing.get(10, TimeUnit.SECONDS).length);
+
+                // a writer waits for the readers
+                final PermissionStatus perm = namesystem.createFsOwnerPermissions(new FsPermission((short) 0755));
+                mkdirs = executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        return namesystem.mkdirs("/dir/sub", perm);
+                    }
+                });
+                try {
+                    mkdirs.get(1, TimeUnit.SECONDS);
+                    fail("wrote while a reader held the lock");
+                } catch (TimeoutException e) {
+                }
+
+                // a reader cannot take the write lock
+                try {
+                    namesystem.writeLock();
+                    fail("upgraded the read lock");
+                } catch (IllegalMonitorStateException e) {
+                }
+            } finally {
+                namesystem.readUnlock();
+            }
+            assertTrue(mkdirs.get(10, TimeUnit.SECONDS));
+            assertTrue(fs.exists(new Path("/dir/sub")));
+        } finally {
+            executor.shutdownNow();
+            cluster.shutdown();
+        }
+    }
+
+    public void testBufferedAccessTimes() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.access.time.precision", 1);
+        conf.setInt("dfs.namenode.accesstime.batch", 3);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            FSNamesystem namesystem = cluster.getNameNode().namesystem;
+            String src = "/f";
+            DFSTestUtil.createFile(fs, new Path(src), 1024, (short) 1, 0L);
+            long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000L;
+            fs.setTimes(new Path(src), -1, old);
+
+            // a read is applied by the next writer, holding the read lock
+            // keeps the other threads from writing in between
+            namesystem.readLock();
+            try {
+                namesystem.getBlockLocations(src, 0, 1024, true);
+                assertEquals(old, namesystem.getFileInfo(src).getAccessTime());
+            } finally {
+                namesystem.readUnlock();
+            }
+            namesystem.writeLock();
+            namesystem.writeUnlock();
+            assertTrue(namesystem.getFileInfo(src).getAccessTime() > old);
+
+            // reads are applied once a batch has been queued
+            fs.setTimes(new Path(src), -1, old);
+            namesystem.readLock();
+            try {
+                namesystem.getBlockLocations(src, 0, 1024, true);
+                namesystem.getBlockLocations(src, 0, 1024, true);
+                assertEquals(old, namesystem.getFileInfo(src).getAccessTime());
+            } finally {
+                namesystem.readUnlock();
+            }
+            namesystem.getBlockLocations(src, 0, 1024, true);
+            assertTrue(namesystem.getFileInfo(src).getAccessTime() > old);
+
+            // a file deleted before its read is applied is skipped
+            namesystem.readLock();
+            try {
+                namesystem.getBlockLocations(src, 0, 1024, true);
+            } finally {
+                namesystem.readUnlock();
+            }
+            assertTrue(fs.delete(new Path(src), false));
+            namesystem.flushPendingAccesses();
+            assertNull(namesystem.getFileInfo(src));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
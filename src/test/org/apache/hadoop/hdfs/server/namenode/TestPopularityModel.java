@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import junit.framework.TestCase;
+
+public class TestPopularityModel extends TestCase {
+    private static final PermissionStatus PERM = PermissionStatus.createImmutable(
+            "user", "group", FsPermission.getDefault());
+    private static final long HALF_LIFE = 1000L;
+
+    private final INodeDirectory root = new INodeDirectory(INodeDirectory.ROOT_NAME, PERM);
+
+    private INodeFile newFile(String name) {
+        INodeFile inode = new INodeFile(PERM, 0, (short) 3, 0L, 0L, 1024L);
+        inode.setLocalName(name);
+        root.addChild(inode, false);
+        return inode;
+    }
+
+    private PopularityModel newModel(Class<? extends PopularityModel> clazz) {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.dynamic.popularity.halflife", HALF_LIFE);
+        conf.setInt("dfs.dynamic.popularity.sketch.width", 1024);
+        return ReflectionUtils.newInstance(clazz, conf);
+    }
+
+    public void testEwma() throws Exception {
+        PopularityModel model = newModel(EwmaPopularityModel.class);
+        INodeFile f = newFile("f");
+        f.setAccessTime(12345L);
+        assertFalse(model.recordAccess(f, 20000L, false));
+        assertTrue(model.recordAccess(f, 20000L, true));
+        assertEquals(12345L, model.getScore(f));
+
+        // each expected reader halves the distance to now with alpha 0.5,
+        // rounded down like the averaged access time
+        assertEquals(20000L - (7655L + 3) / 4, model.getExpectedScore(f, 20000L, 2));
+        assertEquals(12345L, model.getExpectedScore(f, 20000L, 0));
+        assertEquals(12345L, model.getScore(f));
+    }
+
+    /**
+     * The expected score of readers counts them as reads now, without
+     * recording them.
+     */
+    private void checkExpectedScore(PopularityModel model) {
+        INodeFile f = newFile("expected");
+        INodeFile g = newFile("reads");
+        model.recordAccess(f, 5000L, false);
+        model.recordAccess(g, 5000L, false);
+        long expected = model.getExpectedScore(f, 6000L, 4);
+        assertTrue(expected > model.getScore(f));
+        model.recordReads(g, 6000L, 4);
+        assertTrue(Math.abs(expected - model.getScore(g)) <= 1);
+        assertEquals(model.getScore(f), model.getExpectedScore(f, 6000L, 0));
+        assertTrue(model.getScore(f) < model.getScore(g));
+    }
+
+    /**
+     * Frequency and recency are both reflected in the score, and scores
+     * taken at different times stay comparable.
+     */
+    private void checkRanking(PopularityModel model) {
+        INodeFile hot = newFile("hot");
+        INodeFile warm = newFile("warm");
+        INodeFile old = newFile("old");
+        assertEquals(Long.MIN_VALUE, model.getScore(hot));
+
+        // reads within one precision window are all counted
+        for (int i = 0; i < 8; i++) {
+            assertTrue(model.recordAccess(hot, 10000L + i, false));
+        }
+        model.recordAccess(warm, 10000L, false);
+        model.recordAccess(warm, 10001L, false);
+        assertTrue(model.getScore(hot) > model.getScore(warm));
+
+        // 8 reads three half-lives ago count as much as one read now
+        long now = 10000L + 3 * HALF_LIFE;
+        model.recordAccess(old, now, false);
+        long diff = model.getScore(hot) - model.getScore(old);
+        assertTrue("diff " + diff, Math.abs(diff) < ForwardDecayPopularityModel.SCALE / 100);
+        // and less than two reads now
+        model.recordAccess(old, now, false);
+        assertTrue(model.getScore(old) > model.getScore(hot));
+    }
+
+    public void testDecayedCounter() throws Exception {
+        checkRanking(newModel(DecayedCounterPopularityModel.class));
+        checkExpectedScore(newModel(DecayedCounterPopularityModel.class));
+    }
+
+    public void testCountMinSketch() throws Exception {
+        checkRanking(newModel(CountMinSketchPopularityModel.class));
+        checkExpectedScore(newModel(CountMinSketchPopularityModel.class));
+    }
+
+    public void testSketchNeverUnderestimates() throws Exception {
+        CountMinSketchPopularityModel sketch = (CountMinSketchPopularityModel)
+                newModel(CountMinSketchPopularityModel.class);
+        DecayedCounterPopularityModel exact = (DecayedCounterPopularityModel)
+                newModel(DecayedCounterPopularityModel.class);
+        INodeFile[] files = new INodeFile[5000];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = newFile("s" + i);
+            for (int j = 0; j <= i % 7; j++) {
+                sketch.recordAccess(files[i], 5000L + j, false);
+                exact.recordAccess(files[i], 5000L + j, false);
+            }
+        }
+        for (INodeFile f : files) {
+            // allow for rounding to the fixed point score
+            assertTrue(sketch.getScore(f) >= exact.getScore(f) - 1);
+        }
+    }
+
+    public void testCounterTable() throws Exception {
+        DecayedCounterPopularityModel model = (DecayedCounterPopularityModel)
+                newModel(DecayedCounterPopularityModel.class);
+        INodeFile[] files = new INodeFile[3000];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = newFile("c" + i);
+            model.recordAccess(files[i], i, false);
+        }
+        assertEquals(files.length, model.size());
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(ForwardDecayPopularityModel.toScore((double) i / HALF_LIFE),
+                    model.getScore(files[i]));
+        }
+
+        // remove every third file, the others are still found
+        for (int i = 0; i < files.length; i += 3) {
+            model.remove(files[i]);
+        }
+        assertEquals(files.length - 1000, model.size());
+        for (int i = 0; i < files.length; i++) {
+            if (i % 3 == 0) {
+                assertEquals(Long.MIN_VALUE, model.getScore(files[i]));
+            } else {
+                assertTrue(model.getScore(files[i]) != Long.MIN_VALUE);
+            }
+        }
+
+        // the score follows a replaced inode
+        INodeFile replacement = newFile("replacement");
+        long score = model.getScore(files[1]);
+        model.replace(files[1], replacement);
+        assertEquals(Long.MIN_VALUE, model.getScore(files[1]));
+        assertEquals(score, model.getScore(replacement));
+
+        // deleted files are dropped when the table grows, which happens
+        // before the 2000 stale and 7000 new entries fill half of the table
+        for (int i = 0; i < files.length; i++) {
+            files[i].removeNode();
+        }
+        for (int i = 0; i < 7000; i++) {
+            model.recordAccess(newFile("n" + i), 0L, false);
+        }
+        assertEquals(7001, model.size());
+        assertEquals(score, model.getScore(replacement));
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that prefetch hints raise the replication of files that are
+ * about to be read.
+ */
+public class TestPrefetchReplication extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+
+    public void testPrefetch() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("dfs.block.size", BLOCK_SIZE);
+        conf.setInt("dfs.replication", 1);
+        conf.setInt("dfs.dynamic.max", 3);
+        MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+        try {
+            DistributedFileSystem fs = (DistributedFileSystem) cluster.getFileSystem();
+            Path input = new Path("/job/input");
+            Path unread = new Path("/job/unread");
+            DFSTestUtil.createFile(fs, input, 4 * BLOCK_SIZE, (short) 1, 0L);
+            DFSTestUtil.createFile(fs, unread, 4 * BLOCK_SIZE, (short) 1, 0L);
+            long old = System.currentTimeMillis() - 60 * 60 * 1000L;
+            fs.setTimes(input, -1, old);
+            fs.setTimes(unread, -1, old);
+            NameNodeMetrics nnMetrics = NameNode.getNameNodeMetrics();
+            int prefetched = nnMetrics.numDynamicFilesPrefetched.getCurrentIntervalValue();
+
+            // only users who may read the files can raise their replication
+            fs.setPermission(input, new FsPermission((short) 0600));
+            Configuration userConf = new Configuration(conf);
+            UnixUserGroupInformation.saveToConf(userConf,
+                    UnixUserGroupInformation.UGI_PROPERTY_NAME,
+                    new UnixUserGroupInformation(new String[]{"userxx", "groupyy"}));
+            DistributedFileSystem userFs = (DistributedFileSystem) FileSystem.get(userConf);
+            try {
+                userFs.prefetchReplication(new Path[]{unread, input}, new int[]{100, 100});
+                fail("prefetched a file the user cannot read");
+            } catch (AccessControlException e) {
+                // expected
+            }
+            assertEquals(1, fs.getFileStatus(input).getReplication());
+            assertEquals(1, fs.getFileStatus(unread).getReplication());
+
+            // the input of a job is promoted before any map reads it,
+            // files without readers and missing files are ignored
+            fs.prefetchReplication(new Path[]{input, unread, new Path("/job/missing")},
+                    new int[]{100, 0, 100});
+            // the planner thread applies the hint
+            for (int i = 0; i < 100 && fs.getFileStatus(input).getReplication() != 3; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(3, fs.getFileStatus(input).getReplication());
+            assertEquals(1, fs.getFileStatus(unread).getReplication());
+            assertEquals(prefetched + 1, nnMetrics.numDynamicFilesPrefetched.getCurrentIntervalValue());
+            // the hint is not recorded as an access
+            assertEquals(old, fs.getFileStatus(input).getAccessTime());
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
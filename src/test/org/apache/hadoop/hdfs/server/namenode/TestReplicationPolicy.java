@@ -20,7 +20,10 @@ package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.net.NetworkTopology;
@@ -415,4 +418,47 @@ public class TestReplicationPolicy extends TestCase {
         assertTrue(cluster.isOnSameRack(dataNodes[2], targets[0]));
     }
 
+    /**
+     * Replicas added for reads go to the racks the reads come from,
+     * skipping busy datanodes, and otherwise spread over racks that
+     * have fewer replicas.
+     * @throws Exception
+     */
+    public void testChooseTargetForReads() throws Exception {
+        List<DatanodeDescriptor> chosenNodes = new ArrayList<DatanodeDescriptor>();
+        chosenNodes.add(dataNodes[0]);
+        chosenNodes.add(dataNodes[2]);
+        Map<String, Long> rackReads = new HashMap<String, Long>();
+        rackReads.put("/d2/r3", 100L);
+
+        DatanodeDescriptor[] targets;
+        targets = replicator.chooseTargetForReads(1, dataNodes[0], chosenNodes,
+                Arrays.asList(dataNodes), rackReads, BLOCK_SIZE);
+        assertEquals(targets.length, 1);
+        assertEquals("/d2/r3", targets[0].getNetworkLocation());
+
+        dataNodes[4].updateHeartbeat(
+                2 * FSConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE, 0L,
+                2 * FSConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE, 2); // busy
+        try {
+            targets = replicator.chooseTargetForReads(2, dataNodes[0], chosenNodes,
+                    Arrays.asList(dataNodes), rackReads, BLOCK_SIZE);
+            assertEquals(targets.length, 2);
+            List<DatanodeDescriptor> result = Arrays.asList(targets);
+            assertTrue(result.contains(dataNodes[5]));
+            assertFalse(result.contains(dataNodes[4]));
+            assertFalse(result.contains(dataNodes[0]));
+            assertFalse(result.contains(dataNodes[2]));
+        } finally {
+            dataNodes[4].updateHeartbeat(
+                    2 * FSConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE, 0L,
+                    2 * FSConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE, 0);
+        }
+
+        // without read statistics the replicas spread over the racks
+        targets = replicator.chooseTargetForReads(1, dataNodes[0], chosenNodes,
+                Arrays.asList(dataNodes), new HashMap<String, Long>(), BLOCK_SIZE);
+        assertEquals(targets.length, 1);
+        assertEquals("/d2/r3", targets[0].getNetworkLocation());
+    }
 }
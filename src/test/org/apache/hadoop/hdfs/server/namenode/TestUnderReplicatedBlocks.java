@@ -8,6 +8,9 @@ import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.Block;
 
+import java.util.Iterator;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 public class TestUnderReplicatedBlocks extends TestCase {
@@ -41,4 +44,59 @@ public class TestUnderReplicatedBlocks extends TestCase {
 
     }
 
+    public void testDynamicReplicationQueue() {
+        final Block single = new Block(1, 0, 1001);
+        final Block hot1 = new Block(2, 0, 1001);
+        final Block hot2 = new Block(3, 0, 1001);
+        final Block manual = new Block(4, 0, 1001);
+        // hot1 and hot2 were raised from 3 replicas by dynamic replication,
+        // the replication of the other blocks was set by the user
+        UnderReplicatedBlocks queues = new UnderReplicatedBlocks(
+                new UnderReplicatedBlocks.DynamicReplicaFilter() {
+                    public boolean onlyMissesDynamicReplicas(Block block, int curReplicas) {
+                        return (block.equals(hot1) || block.equals(hot2)) && curReplicas >= 3;
+                    }
+                });
+
+        // a block with one live replica stays in the recovery queues
+        assertTrue(queues.add(single, 1, 0, 3));
+        // blocks that already have their replicas before promotion only miss dynamic ones
+        assertTrue(queues.add(hot1, 3, 0, 6));
+        assertTrue(queues.add(hot2, 4, 0, 6));
+        assertFalse(queues.add(hot2, 4, 0, 6));
+        // a block that misses replicas set by the user is recovered, however many it has
+        assertTrue(queues.add(manual, 4, 0, 6));
+        assertEquals(4, queues.size());
+        assertEquals(2, queues.recoverySize());
+        assertEquals(2, queues.dynamicSize());
+        assertTrue(queues.contains(hot1));
+
+        // the recovery iterator never sees the dynamic blocks
+        UnderReplicatedBlocks.BlockIterator it = queues.iterator();
+        assertEquals(single, it.next());
+        assertEquals(manual, it.next());
+        assertFalse(it.hasNext());
+        // they are listed separately
+        Iterator<Block> dynamic = queues.dynamicBlocks().iterator();
+        assertEquals(hot1, dynamic.next());
+        assertEquals(hot2, dynamic.next());
+        assertFalse(dynamic.hasNext());
+
+        // dynamic blocks are handed out in turn
+        List<Block> chosen = queues.chooseDynamicBlocks(1);
+        assertEquals(1, chosen.size());
+        assertEquals(hot1, chosen.get(0));
+        assertEquals(hot2, queues.chooseDynamicBlocks(1).get(0));
+        assertEquals(hot1, queues.chooseDynamicBlocks(1).get(0));
+
+        // losing replicas moves a dynamic block back to the recovery queues
+        queues.update(hot1, 1, 0, 6, -2, 0);
+        assertEquals(3, queues.recoverySize());
+        assertEquals(1, queues.dynamicSize());
+
+        // reaching the target removes the block
+        assertTrue(queues.remove(hot2, 6, 0, 6));
+        assertEquals(0, queues.dynamicSize());
+        assertFalse(queues.contains(hot2));
+    }
 }
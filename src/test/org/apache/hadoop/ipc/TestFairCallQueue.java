@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.net.NetUtils;
+
+/**
+ * Test the per-user fair call queue.
+ */
+public class TestFairCallQueue extends TestCase {
+
+    private static class TestCall implements Schedulable {
+        private final String user;
+
+        TestCall(String user) {
+            this.user = user;
+        }
+
+        public String getUserName() {
+            return user;
+        }
+    }
+
+    private static FairCallQueue<TestCall> newQueue(int capacity, long decayPeriod,
+                                                    float decayFactor) {
+        Configuration conf = new Configuration();
+        conf.setInt("ipc.server.callqueue.levels", 4);
+        conf.setLong("ipc.server.callqueue.decay.period.ms", decayPeriod);
+        conf.setFloat("ipc.server.callqueue.decay.factor", decayFactor);
+        return new FairCallQueue<TestCall>(capacity, null, conf);
+    }
+
+    /** 30 calls of one user, then a call of each of 10 other users. */
+    private static void putHeavyAndLight(FairCallQueue<TestCall> queue)
+            throws InterruptedException {
+        for (int i = 0; i < 30; i++) {
+            queue.put(new TestCall("heavy"));
+        }
+        for (int i = 0; i < 10; i++) {
+            queue.put(new TestCall("light" + i));
+        }
+    }
+
+    public void testLevels() throws Exception {
+        FairCallQueue<TestCall> queue = newQueue(100, 60000, 0.5f);
+        assertEquals(4, queue.getNumLevels());
+        putHeavyAndLight(queue);
+        // the only user of the first calls is at the last level, the
+        // others issued less than 1/8 of the calls
+        int[] sizes = queue.getQueueSizes();
+        assertEquals(10, sizes[0]);
+        assertEquals(0, sizes[1]);
+        assertEquals(0, sizes[2]);
+        assertEquals(30, sizes[3]);
+        assertEquals(40, queue.size());
+        assertEquals("light0", queue.peek().getUserName());
+    }
+
+    public void testWeightedRoundRobin() throws Exception {
+        FairCallQueue<TestCall> queue = newQueue(100, 60000, 0.5f);
+        putHeavyAndLight(queue);
+        // 8 from level 0, 4 + 2 + 1 from the others that only level 3
+        // holds, then level 0 again
+        List<String> taken = new ArrayList<String>();
+        for (int i = 0; i < 17; i++) {
+            taken.add(queue.take().getUserName());
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(taken.contains("light" + i));
+        }
+        for (int i = 0; i < 23; i++) {
+            assertEquals("heavy", queue.take().getUserName());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    public void testDecay() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setLong("ipc.server.callqueue.decay.period.ms", 10);
+        conf.setFloat("ipc.server.callqueue.decay.factor", 0f);
+        DecayRpcScheduler scheduler = new DecayRpcScheduler(4, conf);
+        assertEquals(3, scheduler.getPriorityLevel(new TestCall("heavy")));
+        for (int i = 0; i < 10; i++) {
+            scheduler.getPriorityLevel(new TestCall("light" + i));
+        }
+        assertEquals(11, scheduler.getNumUsers());
+        Thread.sleep(50);
+        // the counts were forgotten, the new call is the only one
+        assertEquals(3, scheduler.getPriorityLevel(new TestCall("light0")));
+        assertEquals(1, scheduler.getNumUsers());
+    }
+
+    public void testBlocking() throws Exception {
+        final FairCallQueue<TestCall> queue = newQueue(1, 60000, 0.5f);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(new TestCall("a")));
+        // the level of "a" is full, "b" is on another one
+        assertFalse(queue.offer(new TestCall("a")));
+        assertFalse(queue.offer(new TestCall("a"), 10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(new TestCall("b")));
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.drainTo(new ArrayList<TestCall>()));
+
+        final TestCall[] taken = new TestCall[1];
+        Thread taker = new Thread() {
+            public void run() {
+                try {
+                    taken[0] = queue.take();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        taker.start();
+        Thread.sleep(100);
+        assertTrue(taker.isAlive());
+        TestCall call = new TestCall("c");
+        queue.put(call);
+        taker.join(10000);
+        assertSame(call, taken[0]);
+    }
+
+    public void testServer() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("ipc.server.callqueue.impl", FairCallQueue.class.getName());
+        conf.setInt("ipc.server.callqueue.levels", 2);
+        Server server = new Server("0.0.0.0", 0, LongWritable.class, 2, conf) {
+            @Override
+            public Writable call(Class<?> protocol, Writable param, long receiveTime) {
+                return param;
+            }
+        };
+        InetSocketAddress addr = NetUtils.getConnectAddress(server);
+        server.start();
+        Client client = new Client(LongWritable.class, conf);
+        try {
+            for (long i = 0; i < 100; i++) {
+                LongWritable value = (LongWritable) client.call(new LongWritable(i), addr);
+                assertEquals(i, value.get());
+            }
+            assertEquals(0, server.getCallQueueLen());
+        } finally {
+            client.stop();
+            server.stop();
+        }
+    }
+}
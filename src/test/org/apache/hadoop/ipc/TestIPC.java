@@ -215,6 +215,42 @@ public class TestIPC extends TestCase {
         }
     }
 
+    public void testReaders() throws Exception {
+        Configuration readerConf = new Configuration(conf);
+        readerConf.setInt("ipc.server.read.threadpool.size", 3);
+        Server server = new Server(ADDRESS, 0, LongWritable.class, 5, readerConf) {
+            @Override
+            public Writable call(Class<?> protocol, Writable param, long receiveTime) {
+                return param;
+            }
+        };
+        assertEquals(3, server.getNumReaders());
+        InetSocketAddress addr = NetUtils.getConnectAddress(server);
+        server.start();
+
+        // a connection per client, assigned to the readers in turn
+        Client[] clients = new Client[6];
+        SerialCaller[] callers = new SerialCaller[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Client(LongWritable.class, conf);
+            callers[i] = new SerialCaller(clients[i], addr, 100);
+            callers[i].start();
+        }
+        for (int i = 0; i < callers.length; i++) {
+            callers[i].join();
+            assertFalse(callers[i].failed);
+        }
+        assertEquals(clients.length, server.getNumOpenConnections());
+        for (int i = 0; i < 3; i++) {
+            // every reader read calls
+            assertTrue(server.rpcMetrics.rpcReaderQueueTime[i].getMinTime() >= 0);
+        }
+        for (int i = 0; i < clients.length; i++) {
+            clients[i].stop();
+        }
+        server.stop();
+    }
+
     public void testStandAloneClient() throws Exception {
         testParallel(10, false, 2, 4, 2, 4, 100);
         Client client = new Client(LongWritable.class, conf);
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+
+/**
+ * Test that the JobTracker sends the input files of a large job to the
+ * namenode as prefetch hints when it initializes the job.
+ */
+public class TestJobPrefetchReplication extends TestCase {
+    private static final long BLOCK_SIZE = 1024;
+
+    /** Write a text file of the given number of blocks with replication 1. */
+    private static void createInput(FileSystem fs, Path file, int blocks)
+            throws IOException {
+        FSDataOutputStream out = fs.create(file, true, 4096, (short) 1, BLOCK_SIZE);
+        try {
+            byte[] line = "0123456789abcdef0123456789abcdef0123456789abcdef012345678\n".getBytes();
+            for (long written = 0; written < blocks * BLOCK_SIZE; written += line.length) {
+                out.write(line);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void runJob(JobConf conf, Path input, Path output) throws IOException {
+        conf.setJobName("prefetch " + input.getName());
+        conf.setInputFormat(TextInputFormat.class);
+        conf.setMapperClass(IdentityMapper.class);
+        conf.setOutputKeyClass(LongWritable.class);
+        conf.setOutputValueClass(Text.class);
+        conf.setNumMapTasks(1);
+        conf.setNumReduceTasks(0);
+        FileInputFormat.setInputPaths(conf, input);
+        FileOutputFormat.setOutputPath(conf, output);
+        assertTrue(JobClient.runJob(conf).isSuccessful());
+    }
+
+    public void testPrefetchInput() throws Exception {
+        MiniDFSCluster dfs = null;
+        MiniMRCluster mr = null;
+        try {
+            Configuration conf = new Configuration();
+            conf.setInt("dfs.dynamic.max", 3);
+            dfs = new MiniDFSCluster(conf, 1, true, null);
+            FileSystem fs = dfs.getFileSystem();
+            JobConf mrConf = new JobConf();
+            mrConf.setInt("mapred.jobtracker.prefetch.replication.maps", 4);
+            mr = new MiniMRCluster(1, fs.getUri().toString(), 1, null, null, mrConf);
+
+            Path small = new Path("/prefetch/small");
+            Path large = new Path("/prefetch/large");
+            createInput(fs, small, 1);
+            createInput(fs, new Path(large, "part-0"), 3);
+            createInput(fs, new Path(large, "part-1"), 3);
+            NameNodeMetrics nnMetrics = NameNode.getNameNodeMetrics();
+            int prefetched = nnMetrics.numDynamicFilesPrefetched.getCurrentIntervalValue();
+
+            // a job with fewer maps than the threshold sends no hints
+            runJob(mr.createJobConf(), small, new Path("/prefetch/out-small"));
+            assertEquals(prefetched, nnMetrics.numDynamicFilesPrefetched.getCurrentIntervalValue());
+
+            // one split per block, each input file is hinted once
+            runJob(mr.createJobConf(), large, new Path("/prefetch/out-large"));
+            // the planner thread applies the hints
+            for (int i = 0; i < 100
+                    && nnMetrics.numDynamicFilesPrefetched.getCurrentIntervalValue() != prefetched + 2; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(prefetched + 2, nnMetrics.numDynamicFilesPrefetched.getCurrentIntervalValue());
+        } finally {
+            if (mr != null) {
+                mr.shutdown();
+            }
+            if (dfs != null) {
+                dfs.shutdown();
+            }
+        }
+    }
+}